@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+package com.imageworks.spcue.jmh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.imageworks.spcue.util.CueUtil;
+import com.imageworks.spcue.util.FrameSet;
+
+/**
+ * Parsing, normalizing and chunk lookups on large frame ranges.
+ *
+ * The legacy benchmarks run the same operations on the fully expanded,
+ * boxed frame list, the way FrameSet and CueUtil used to work.
+ *
+ * Run with "-prof gc" to compare allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameSetBenchmark {
+
+    @Param({"1000000"})
+    public int frames;
+
+    @Param({"10"})
+    public int chunkSize;
+
+    private static final int LOOKUPS = 1024;
+
+    private String range;
+    private String steppedRange;
+
+    private FrameSet frameSet;
+    private List<Integer> legacyFrames;
+
+    private int[] chunks;
+    private List<Integer> legacyChunks;
+
+    private int[] lookups;
+
+    @Setup
+    public void setup() {
+        range = "1-" + frames;
+        steppedRange = "1-" + frames + "x2,1-" + frames;
+
+        frameSet = new FrameSet(range);
+        legacyFrames = new ArrayList<Integer>(frameSet.getAll());
+
+        chunks = CueUtil.normalizeFrames(frameSet, chunkSize);
+        legacyChunks = legacyNormalize(legacyFrames, chunkSize);
+
+        Random random = new Random(1);
+        lookups = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookups[i] = 1 + random.nextInt(frames);
+        }
+    }
+
+    @Benchmark
+    public FrameSet parse() {
+        return new FrameSet(range);
+    }
+
+    @Benchmark
+    public List<Integer> legacyParse() {
+        return new FrameSet(range).getAll();
+    }
+
+    @Benchmark
+    public int[] normalize() {
+        return CueUtil.normalizeFrames(new FrameSet(steppedRange), chunkSize);
+    }
+
+    @Benchmark
+    public List<Integer> legacyNormalize() {
+        return legacyNormalize(new FrameSet(steppedRange).getAll(), chunkSize);
+    }
+
+    /**
+     * Builds the frame spec for LOOKUPS frames, like prepareRqdRunFrame.
+     */
+    @Benchmark
+    public int getChunk() {
+        int length = 0;
+        for (int frame : lookups) {
+            length += frameSet.getChunk(frameSet.index(frame), chunkSize).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int legacyIndex() {
+        int sum = 0;
+        for (int frame : lookups) {
+            sum += legacyFrames.indexOf(frame);
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the chunk of LOOKUPS frames with a binary search.
+     */
+    @Benchmark
+    public int findChunk() {
+        int sum = 0;
+        for (int frame : lookups) {
+            sum += CueUtil.findChunk(chunks, frame);
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the chunk of LOOKUPS frames with a linear scan.
+     */
+    @Benchmark
+    public int legacyFindChunk() {
+        int sum = 0;
+        for (int frame : lookups) {
+            sum += CueUtil.findChunk(legacyChunks, frame);
+        }
+        return sum;
+    }
+
+    private static List<Integer> legacyNormalize(List<Integer> frames, int chunkSize) {
+        Set<Integer> unique = new LinkedHashSet<Integer>(frames);
+        List<Integer> result = new ArrayList<Integer>(unique.size() / chunkSize + 1);
+        int idx = 0;
+        for (int frame : unique) {
+            if (idx % chunkSize == 0) {
+                result.add(frame);
+            }
+            idx++;
+        }
+        return Collections.unmodifiableList(result);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+
+package com.imageworks.spcue.jmh;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom.Document;
+import org.jdom.input.SAXBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.imageworks.spcue.ServiceEntity;
+import com.imageworks.spcue.ServiceOverrideEntity;
+import com.imageworks.spcue.service.JobSpec;
+import com.imageworks.spcue.service.ServiceManager;
+
+/**
+ * Compares parsing a large job spec into a validated JDOM document,
+ * which is all the old JobSpec.parse did before walking the tree,
+ * with the streaming JobSpec.parse, which validates the spec and
+ * builds the jobs and layers in the same pass.
+ *
+ * Run with "-prof gc" to compare allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JobSpecBenchmark {
+
+    @Param({"100", "1000"})
+    public int layers;
+
+    @Param({"20"})
+    public int envKeys;
+
+    private String xml;
+
+    private ServiceManager serviceManager;
+
+    @Setup
+    public void setup() {
+        String dtd = new File("src/test/resources/conf/dtd/cjsl-1.5.dtd").getAbsolutePath();
+
+        StringBuilder sb = new StringBuilder(layers * 2048);
+        sb.append("<?xml version=\"1.0\"?>\n");
+        sb.append("<!DOCTYPE spec SYSTEM \"file:").append(dtd).append("\">\n");
+        sb.append("<spec><show>pipe</show><shot>dev.cue</shot>");
+        sb.append("<user>testuser</user><uid>9860</uid>\n");
+        sb.append("<job name=\"pipe-dev.cue-testuser_big_v1\"><paused>true</paused>\n");
+        appendEnv(sb, "job");
+        sb.append("<layers>\n");
+        for (int i = 0; i < layers; i++) {
+            sb.append("<layer name=\"layer_").append(i).append("\" type=\"RENDER\">");
+            sb.append("<cmd>/shots/pipe/usr_testuser/logs/run.py --layer layer_");
+            sb.append(i).append(" --frame #IFRAME# --output /shots/pipe/dev.cue/render/");
+            sb.append(i).append("/beauty.#.exr --verbose</cmd>");
+            sb.append("<range>1-50</range><chunk>1</chunk><cores>100</cores>");
+            sb.append("<tags>general | desktop</tags>\n");
+            appendEnv(sb, "layer" + i);
+            sb.append("<services><service>shell</service></services></layer>\n");
+        }
+        sb.append("</layers></job></spec>\n");
+        xml = sb.toString();
+
+        serviceManager = new StubServiceManager();
+    }
+
+    private void appendEnv(StringBuilder sb, String prefix) {
+        sb.append("<env>");
+        for (int i = 0; i < envKeys; i++) {
+            sb.append("<key name=\"").append(prefix.toUpperCase()).append("_VAR_").append(i);
+            sb.append("\">/shots/pipe/dev.cue/").append(prefix).append("/value/").append(i);
+            sb.append("</key>");
+        }
+        sb.append("</env>\n");
+    }
+
+    @Benchmark
+    public Document jdomDocument() throws Exception {
+        return new SAXBuilder(true).build(new StringReader(xml));
+    }
+
+    @Benchmark
+    public JobSpec streamingParse() {
+        JobSpec spec = new JobSpec();
+        spec.setServiceManager(serviceManager);
+        spec.parse(xml);
+        return spec;
+    }
+
+    /**
+     * Returns the same service for every name so parsing does
+     * not need a database.
+     */
+    private static class StubServiceManager implements ServiceManager {
+
+        private final ServiceEntity service = new ServiceEntity();
+
+        StubServiceManager() {
+            service.name = "shell";
+            service.tags.add("general");
+        }
+
+        public ServiceEntity getService(String id) {
+            return service;
+        }
+
+        public ServiceEntity getService(String id, String show) {
+            return service;
+        }
+
+        public ServiceEntity getDefaultService() {
+            return service;
+        }
+
+        public void createService(ServiceEntity s) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void createService(ServiceOverrideEntity s) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void updateService(ServiceOverrideEntity s) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void updateService(ServiceEntity s) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void deleteService(ServiceOverrideEntity s) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void deleteService(ServiceEntity s) {
+            throw new UnsupportedOperationException();
+        }
+
+        public ServiceOverrideEntity getServiceOverride(String id) {
+            return null;
+        }
+    }
+}
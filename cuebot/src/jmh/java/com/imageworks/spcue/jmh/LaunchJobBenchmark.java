@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.imageworks.spcue.jmh;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.imageworks.spcue.LayerDetail;
+import com.imageworks.spcue.LayerInterface;
+import com.imageworks.spcue.config.TestAppConfig;
+import com.imageworks.spcue.dao.FrameDao;
+import com.imageworks.spcue.grpc.job.FrameState;
+import com.imageworks.spcue.service.JobLauncher;
+import com.imageworks.spcue.service.JobManager;
+import com.imageworks.spcue.util.CueUtil;
+import com.imageworks.spcue.util.SqlUtil;
+
+/**
+ * Launches a job spec with a single large layer against the embedded
+ * Postgres test database.  Each launch is rolled back so every
+ * invocation starts from the same state.
+ *
+ * insertFramesBulk and insertFramesPerRow only measure inserting the
+ * frames, with FrameDao.insertFrames and with one INSERT per frame the
+ * way FrameDaoJdbc.insertFrames used to work.
+ *
+ * Run from the cuebot directory as a user that is allowed to start
+ * the embedded database, with the test resources ahead of the main
+ * resources on the classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LaunchJobBenchmark {
+
+    private static final String JOB_NAME = "pipe-dev.cue-testuser_launch_benchmark_v1";
+
+    private static final String INSERT_FRAME =
+        "INSERT INTO frame (pk_frame, pk_layer, pk_job, str_name, str_state, " +
+        "int_number, int_dispatch_order, int_layer_order, ts_updated) " +
+        "VALUES (?,?,?,?,?,?,?,?,current_timestamp)";
+
+    @Param({"100000"})
+    public int frames;
+
+    private AnnotationConfigApplicationContext context;
+    private JobLauncher jobLauncher;
+    private JobManager jobManager;
+    private FrameDao frameDao;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+
+    private List<Integer> frameNumbers;
+    private String largeSpec;
+    private String smallSpec;
+
+    @Setup
+    public void setup() {
+        context = new AnnotationConfigApplicationContext(TestAppConfig.class);
+        jobLauncher = context.getBean(JobLauncher.class);
+        jobLauncher.testMode = true;
+        jobManager = context.getBean(JobManager.class);
+        frameDao = context.getBean(FrameDao.class);
+        jdbcTemplate = new JdbcTemplate(context.getBean("cueDataSource",
+                javax.sql.DataSource.class));
+        transactionTemplate = new TransactionTemplate(
+                context.getBean("transactionManager", PlatformTransactionManager.class));
+
+        frameNumbers = new ArrayList<Integer>(frames);
+        for (int i = 1; i <= frames; i++) {
+            frameNumbers.add(i);
+        }
+        largeSpec = buildSpec(frames);
+        smallSpec = buildSpec(1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    private static String buildSpec(int frames) {
+        String dtd = new File("src/test/resources/conf/dtd/cjsl-1.5.dtd").getAbsolutePath();
+        return "<?xml version=\"1.0\"?>\n" +
+            "<!DOCTYPE spec SYSTEM \"file:" + dtd + "\">\n" +
+            "<spec>\n" +
+            "  <facility>spi</facility>\n" +
+            "  <dept>Lighting</dept>\n" +
+            "  <show>pipe</show>\n" +
+            "  <shot>dev.cue</shot>\n" +
+            "  <user>testuser</user>\n" +
+            "  <uid>9860</uid>\n" +
+            "  <job name=\"launch_benchmark_v1\">\n" +
+            "    <paused>false</paused>\n" +
+            "    <layers>\n" +
+            "      <layer name=\"render\" type=\"RENDER\">\n" +
+            "        <cmd>/shots/pipe/usr_testuser/logs/help.py</cmd>\n" +
+            "        <range>1-" + frames + "</range>\n" +
+            "        <chunk>1</chunk>\n" +
+            "        <cores>100</cores>\n" +
+            "        <tags>general</tags>\n" +
+            "        <services>\n" +
+            "          <service>shell</service>\n" +
+            "        </services>\n" +
+            "      </layer>\n" +
+            "    </layers>\n" +
+            "  </job>\n" +
+            "</spec>\n";
+    }
+
+    @Benchmark
+    public void launchJob() {
+        transactionTemplate.execute(status -> {
+            jobLauncher.launch(jobLauncher.parse(largeSpec));
+            status.setRollbackOnly();
+            return null;
+        });
+    }
+
+    /**
+     * Launches a one frame job and returns a layer for inserting
+     * extra frames into.  The frames are named after the returned
+     * layer so they don't collide with the launched frame.
+     */
+    private LayerDetail launchSmallJob() {
+        jobLauncher.launch(jobLauncher.parse(smallSpec));
+        LayerInterface launched = frameDao.findFrame(
+                jobManager.findJob(JOB_NAME), "0001-render");
+
+        LayerDetail layer = new LayerDetail();
+        layer.id = launched.getLayerId();
+        layer.jobId = launched.getJobId();
+        layer.name = "bulk";
+        return layer;
+    }
+
+    @Benchmark
+    public void insertFramesPerRow() {
+        transactionTemplate.execute(status -> {
+            LayerDetail layer = launchSmallJob();
+            for (int i = 0; i < frames; i++) {
+                jdbcTemplate.update(INSERT_FRAME,
+                        SqlUtil.genKeyRandom(),
+                        layer.getLayerId(),
+                        layer.getJobId(),
+                        CueUtil.buildFrameName(layer, i + 1),
+                        FrameState.SETUP.toString(),
+                        i + 1,
+                        i,
+                        layer.dispatchOrder);
+            }
+            status.setRollbackOnly();
+            return null;
+        });
+    }
+
+    @Benchmark
+    public void insertFramesBulk() {
+        transactionTemplate.execute(status -> {
+            LayerDetail layer = launchSmallJob();
+            frameDao.insertFrames(layer, frameNumbers);
+            status.setRollbackOnly();
+            return null;
+        });
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.jmh;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.imageworks.spcue.util.TagMatcher;
+
+/**
+ * Compares matching host tags against layer tags with a regular
+ * expression, the way the dispatch queries used to with
+ * host.str_tags ~* ('(?x)' || layer.str_tags), against interned
+ * tag ids and BitSet intersection.
+ *
+ * Each benchmark call matches every host against every layer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagMatcherBenchmark {
+
+    private static final String[] ALLOCS = {
+        "general", "desktop", "massive", "cloud", "util", "gpu", "nuke", "houdini",
+    };
+
+    private static final String[] HARDWARE = {
+        "linux", "64bit", "32bit", "centos7", "rocky8", "avx2", "avx512", "ssd",
+    };
+
+    private static final int HOSTS = 64;
+    private static final int LAYERS = 32;
+
+    private String[] hostTags;
+    private String[] layerTags;
+
+    private Pattern[] layerPatterns;
+
+    private BitSet[] hostBits;
+    private BitSet[] layerBits;
+
+    private TagMatcher tagMatcher;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+
+        hostTags = new String[HOSTS];
+        for (int i = 0; i < HOSTS; i++) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(ALLOCS[random.nextInt(ALLOCS.length)]);
+            for (String hw: HARDWARE) {
+                if (random.nextBoolean()) {
+                    sb.append(' ').append(hw);
+                }
+            }
+            sb.append(" host").append(i);
+            hostTags[i] = sb.toString();
+        }
+
+        layerTags = new String[LAYERS];
+        for (int i = 0; i < LAYERS; i++) {
+            StringBuilder sb = new StringBuilder();
+            int numTags = 1 + random.nextInt(3);
+            for (int t = 0; t < numTags; t++) {
+                if (t > 0) {
+                    sb.append(" | ");
+                }
+                sb.append(ALLOCS[random.nextInt(ALLOCS.length)]);
+            }
+            layerTags[i] = sb.toString();
+        }
+
+        layerPatterns = new Pattern[LAYERS];
+        for (int i = 0; i < LAYERS; i++) {
+            layerPatterns[i] = compile(layerTags[i]);
+        }
+
+        tagMatcher = new TagMatcher();
+        hostBits = new BitSet[HOSTS];
+        for (int i = 0; i < HOSTS; i++) {
+            hostBits[i] = tagMatcher.getTagBits(hostTags[i]);
+        }
+        layerBits = new BitSet[LAYERS];
+        for (int i = 0; i < LAYERS; i++) {
+            layerBits[i] = tagMatcher.getTagBits(layerTags[i]);
+        }
+    }
+
+    private static Pattern compile(String tags) {
+        return Pattern.compile("(?x)" + tags, Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Builds and evaluates a regex for every host/layer pair, which
+     * is what the database did for every candidate row.
+     */
+    @Benchmark
+    public int regexPerRow() {
+        int matches = 0;
+        for (String host: hostTags) {
+            for (String layer: layerTags) {
+                if (compile(layer).matcher(host).find()) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Evaluates a precompiled regex for every host/layer pair.
+     */
+    @Benchmark
+    public int regexPrecompiled() {
+        int matches = 0;
+        for (String host: hostTags) {
+            for (Pattern layer: layerPatterns) {
+                if (layer.matcher(host).find()) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Looks up the cached tag ids by tag string for every pair,
+     * which is what callers holding only strings pay.
+     */
+    @Benchmark
+    public int tagMatcherByString() {
+        int matches = 0;
+        for (String host: hostTags) {
+            for (String layer: layerTags) {
+                if (tagMatcher.matches(host, layer)) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Intersects precomputed tag id sets for every pair.
+     */
+    @Benchmark
+    public int tagMatcherBitSet() {
+        int matches = 0;
+        for (BitSet host: hostBits) {
+            for (BitSet layer: layerBits) {
+                if (TagMatcher.matches(host, layer)) {
+                    matches++;
+                }
+            }
+        }
+        return matches;
+    }
+}
@@ -19,22 +19,14 @@
 
 package com.imageworks.spcue;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-
-import org.apache.log4j.Logger;
-
+/**
+ * A show with pending work and its booking tier.  Shows skipped while
+ * booking are tracked by the BookableShowCache.
+ */
 public class SortableShow implements Comparable<SortableShow> {
 
-    private static final Logger logger = Logger.getLogger(SortableShow.class);
-
-    private String show;
-    private float tier;
-
-    private Map<String,long []> failed = new ConcurrentHashMap<String,long[]>();
-    private Set<AllocationInterface> failedAllocs = new HashSet<AllocationInterface>();
+    private final String show;
+    private final float tier;
 
     public SortableShow(String show, float value) {
         this.show = show;
@@ -49,49 +41,6 @@ public class SortableShow implements Comparable<SortableShow> {
         return tier;
     }
 
-    public boolean isSkipped(String tags, long cores, long memory) {
-        try {
-            if (failed.containsKey(tags)) {
-                long [] mark = failed.get(tags);
-                if (cores <= mark[0]) {
-                    logger.info("skipped due to not enough cores " + cores + " <= " + mark[0]);
-                    return true;
-                }
-                else if (memory <= mark[1]) {
-                    logger.info("skipped due to not enough memory " + memory + " <= " + mark[1]);
-                    return true;
-                }
-            }
-            return false;
-        } catch (Exception e ){
-            logger.info("exception checking skipped: " + e);
-            return false;
-        }
-    }
-
-    public boolean isSkipped(AllocationInterface a) {
-        if (failedAllocs.contains(a)) {
-            return true;
-        }
-        return false;
-    }
-
-    public void skip(String tags, long cores, long memory) {
-        failed.put(tags, new long[] { cores, memory});
-    }
-
-    /**
-     * Adds an allocation that should not be
-     * booked on this show.
-     *
-     * @param Allocation
-     */
-    public void skip(AllocationInterface a) {
-        synchronized (failedAllocs) {
-            failedAllocs.add(a);
-        }
-    }
-
     @Override
     public int compareTo(SortableShow o) {
         return (int) ((this.tier * 100) - (o.getValue() * 100));
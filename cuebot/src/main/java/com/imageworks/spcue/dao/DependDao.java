@@ -158,6 +158,15 @@ public interface DependDao {
      */
     List<LightweightDependency> getWhatDependsOn(LayerInterface layer, boolean active);
 
+    /**
+     * Returns every depend, active or not, where the given job is
+     * either the depend-er or the depend-on job.
+     *
+     * @param job
+     * @return
+     */
+    List<LightweightDependency> getDepends(JobInterface job);
+
     /**
      * Returns a list of child FrameByFrame dependencies
      *
@@ -166,6 +175,26 @@ public interface DependDao {
      */
     List<LightweightDependency> getChildDepends(LightweightDependency depend);
 
+    /**
+     * Returns the active depends that are satisfied by any of the
+     * given frames succeeding.  This is getWhatDependsOn(FrameInterface)
+     * for many frames at once.
+     *
+     * @param frames
+     * @return
+     */
+    List<LightweightDependency> getWhatDependsOnFrames(List<FrameInterface> frames);
+
+    /**
+     * Returns the active depends that are satisfied by any of the
+     * given layers completing.  This is getWhatDependsOn(LayerInterface)
+     * for many layers at once.
+     *
+     * @param layers
+     * @return
+     */
+    List<LightweightDependency> getWhatDependsOnLayers(List<LayerInterface> layers);
+
     void insertDepend(JobOnJob d);
 
     void insertDepend(JobOnLayer d);
@@ -188,6 +217,14 @@ public interface DependDao {
 
     void insertDepend(PreviousFrame d);
 
+    /**
+     * Inserts a batch of FrameOnFrame depends, usually the
+     * children of a FrameByFrame or LayerOnSimFrame depend.
+     *
+     * @param depends
+     */
+    void insertDepends(List<FrameOnFrame> depends);
+
     void updateFrameState(FrameInterface f);
 
     /**
@@ -199,6 +236,25 @@ public interface DependDao {
      */
     void incrementDependCount(FrameInterface f);
 
+    /**
+     * Increments the depend count of every frame that has an
+     * active child depend of the given FrameByFrame depend, by
+     * the number of active child depends on that frame.
+     *
+     * @param depend
+     * @return the number of frames updated
+     */
+    int incrementDependCounts(FrameByFrame depend);
+
+    /**
+     * Increment the depend count for every frame in the
+     * specified layer.
+     *
+     * @param layer
+     * @return the number of frames updated
+     */
+    int incrementDependCounts(LayerInterface layer);
+
     /**
      * Decrement the depend count for the specified frame.
      * Return false if the depend count is already 0, true
@@ -217,6 +273,26 @@ public interface DependDao {
      */
     boolean setInactive(LightweightDependency depend);
 
+    /**
+     * Sets the given depends to inactive and returns the ones that
+     * were set inactive by this thread, see setInactive(LightweightDependency).
+     *
+     * @param depends
+     * @return the depends this thread satisfied
+     */
+    List<LightweightDependency> setInactive(List<LightweightDependency> depends);
+
+    /**
+     * Decrements the depend counts of the frames waiting on the
+     * given depends, once for every depend, without letting any
+     * count go below 0.  This is the set-based equivalent of calling
+     * decrementDependCount for each of the depend's dependent frames.
+     *
+     * @param depends
+     * @return the number of frames updated
+     */
+    int decrementDependCounts(List<LightweightDependency> depends);
+
     /**
      * Sets a dependency as active.  If the dependency is
      * already active return false, otherwise return true.
@@ -33,6 +33,7 @@ import com.imageworks.spcue.VirtualProc;
 import com.imageworks.spcue.dao.criteria.FrameSearchInterface;
 import com.imageworks.spcue.grpc.job.CheckpointState;
 import com.imageworks.spcue.grpc.job.FrameState;
+import com.imageworks.spcue.grpc.report.RunningFrameInfo;
 import com.imageworks.spcue.util.FrameSet;
 
 public interface FrameDao {
@@ -155,6 +156,14 @@ public interface FrameDao {
      */
     List<FrameDetail> findFrameDetails(FrameSearchInterface r);
 
+    /**
+     * Returns every frame in the layer, ordered by frame number.
+     *
+     * @param layer
+     * @return List<FrameDetail>
+     */
+    List<FrameDetail> getFrameDetails(LayerInterface layer);
+
     /**
      * Updates the specified frame's state.
      *
@@ -329,6 +338,15 @@ public interface FrameDao {
      */
     void updateFrameMemoryUsage(FrameInterface f, long maxRss, long rss);
 
+    /**
+     * Updates the memory usage of all the given running frames
+     * with a single batch.  Frames which no longer exist or are
+     * no longer running are skipped.
+     *
+     * @param frames
+     */
+    void updateFrameMemoryUsage(List<RunningFrameInfo> frames);
+
     /**
      * Attempt to put a exclusive row lock on the given
      * frame. The frame must be in the specified state.
@@ -42,5 +42,42 @@ public interface HistoricalDao {
      */
     void transferJob(JobInterface job);
 
+    /**
+     * Delete the dependencies on or from the given jobs.
+     *
+     * @param jobs
+     * @return the number of deleted rows
+     */
+    int deleteDepends(List<JobInterface> jobs);
+
+    /**
+     * Delete up to limit frames from the given jobs.  Called
+     * repeatedly until it returns fewer than limit, so no single
+     * statement holds locks on a large number of frames.
+     *
+     * @param jobs
+     * @param limit
+     * @return the number of deleted frames
+     */
+    int deleteFrames(List<JobInterface> jobs, int limit);
+
+    /**
+     * Delete the layers of the given jobs, moving them into the
+     * historical tables.  The frames must already be deleted.
+     *
+     * @param jobs
+     * @return the number of deleted layers
+     */
+    int deleteLayers(List<JobInterface> jobs);
+
+    /**
+     * Transfer the given jobs from the live tables to the historical
+     * tables with a single statement.
+     *
+     * @param jobs
+     * @return the number of transferred jobs
+     */
+    int transferJobs(List<JobInterface> jobs);
+
 }
 
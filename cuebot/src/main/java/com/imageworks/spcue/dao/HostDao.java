@@ -270,6 +270,14 @@ public interface HostDao {
             long totalGpu, long freeGpu,
             int load, Timestamp bootTime, String os);
 
+    /**
+     * Update the time the specified host last reported, without
+     * touching its hardware information.
+     *
+     * @param host HostInterface
+     */
+    void updateHostPing(HostInterface host);
+
     /**
      * Return true if the HardwareState is Up, false if it is anything else.
      *
@@ -324,6 +324,15 @@ public interface JobDao {
      */
     void updateMaxRSS(JobInterface job, long maxRss);
 
+    /**
+     * Update the max RSS of many jobs with a single batch. The
+     * map is keyed on job id.  Each job is only updated if the
+     * value is greater than the current value of int_max_rss.
+     *
+     * @param maxRss
+     */
+    void updateMaxRSS(Map<String, Long> maxRss);
+
     /**
      * Inserts a key/value pair into the jobs env table
      *
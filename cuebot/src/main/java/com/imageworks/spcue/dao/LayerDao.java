@@ -81,6 +81,14 @@ public interface LayerDao {
      */
     void insertLayerDetail(LayerDetail l);
 
+    /**
+     * Inserts the layers of a job spec.  Tags shared by several
+     * layers are only interned once.
+     *
+     * @param layers
+     */
+    void insertLayerDetails(List<LayerDetail> layers);
+
     /**
      * gets a layer detail from an object that implments layer
      *
@@ -202,6 +210,15 @@ public interface LayerDao {
      */
     void increaseLayerMinMemory(LayerInterface layer, long val);
 
+    /**
+     * Applies increaseLayerMinMemory and a non-forced
+     * updateLayerMaxRSS to many layers with a single batch
+     * each.  The map is keyed on layer id.
+     *
+     * @param maxRss
+     */
+    void updateLayerMemoryUsage(Map<String, Long> maxRss);
+
     /**
      * Increases the value of the minimum gpu when the supplied
      * value is larger than the current value
@@ -32,6 +32,7 @@ import com.imageworks.spcue.VirtualProc;
 import com.imageworks.spcue.dao.criteria.FrameSearchInterface;
 import com.imageworks.spcue.dao.criteria.ProcSearchInterface;
 import com.imageworks.spcue.grpc.host.HardwareState;
+import com.imageworks.spcue.grpc.report.RunningFrameInfo;
 
 /**
  * @category DAO
@@ -152,6 +153,15 @@ public interface ProcDao {
     void updateProcMemoryUsage(FrameInterface f, long rss, long maxRss,
                                long vsize, long maxVsize);
 
+    /**
+     * Updates the memory usage of the procs running the given
+     * frames with a single batch.  A proc which has been rebooked
+     * onto a different frame is not updated.
+     *
+     * @param frames
+     */
+    void updateProcMemoryUsage(List<RunningFrameInfo> frames);
+
     /**
      * get aq virual proc from its unique id
      *
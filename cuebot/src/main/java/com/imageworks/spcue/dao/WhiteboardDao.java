@@ -20,6 +20,7 @@
 package com.imageworks.spcue.dao;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 import com.imageworks.spcue.ActionInterface;
 import com.imageworks.spcue.AllocationInterface;
@@ -107,6 +108,16 @@ public interface WhiteboardDao {
      */
     HostSeq getHosts(HostSearchInterface r);
 
+    /**
+     * Streams the hosts that match the search to the consumer in
+     * batches as they are read from the database.
+     *
+     * @param r HostSearchInterface
+     * @param batchSize the maximum number of hosts in a batch
+     * @param consumer
+     */
+    void streamHosts(HostSearchInterface r, int batchSize, Consumer<HostSeq> consumer);
+
     /**
      * Returns a list of jobs
      *
@@ -115,6 +126,16 @@ public interface WhiteboardDao {
      */
     JobSeq getJobs(JobSearchInterface  r);
 
+    /**
+     * Streams the jobs that match the search to the consumer in
+     * batches as they are read from the database.
+     *
+     * @param r JobSearchInterface
+     * @param batchSize the maximum number of jobs in a batch
+     * @param consumer
+     */
+    void streamJobs(JobSearchInterface r, int batchSize, Consumer<JobSeq> consumer);
+
     /**
      * Returns a list of job names
      *
@@ -267,6 +288,17 @@ public interface WhiteboardDao {
      */
     FrameSeq getFrames(FrameSearchInterface r);
 
+    /**
+     * Streams every frame that matches the search to the consumer in
+     * batches as they are read from the database.  Unlike getFrames
+     * the page and limit of the search are ignored.
+     *
+     * @param r FrameSearchInterface
+     * @param batchSize the maximum number of frames in a batch
+     * @param consumer
+     */
+    void streamFrames(FrameSearchInterface r, int batchSize, Consumer<FrameSeq> consumer);
+
     /**
      * Returns a list of layers for the specified job.
      *
@@ -24,6 +24,19 @@ public interface CriteriaInterface {
     void setFirstResult(int firstResult);
     void setMaxResults(int maxResults);
     void addSort(Sort o);
+
+    /**
+     * Pages through the results by seeking past the last row of the
+     * previous page rather than by row number, so later pages cost no
+     * more than the first.  The keys must identify a row uniquely and
+     * the results are ordered by them.  The last values are the key
+     * values of the last row of the previous page, or empty for the
+     * first page.  The page size is set by setMaxResults.
+     *
+     * @param keys
+     * @param lastValues
+     */
+    void setKeyset(List<Sort> keys, List<Object> lastValues);
     String getWhereClause();
     String getFilteredQuery(String query);
     List<Object> getValues();
@@ -18,14 +18,20 @@
 package com.imageworks.spcue.dao.criteria.oracle;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import com.google.common.collect.ImmutableList;
+
 import com.imageworks.spcue.AllocationInterface;
 import com.imageworks.spcue.dao.criteria.HostSearchInterface;
+import com.imageworks.spcue.dao.criteria.Sort;
 import com.imageworks.spcue.grpc.host.HardwareState;
 import com.imageworks.spcue.grpc.host.HostSearchCriteria;
 
 public class HostSearch extends Criteria implements HostSearchInterface {
+    private static final List<Sort> KEYSET = ImmutableList.of(Sort.asc("host.str_name"));
+
     private HostSearchCriteria criteria;
 
     public HostSearch(HostSearchCriteria criteria) {
@@ -52,5 +58,14 @@ public class HostSearch extends Criteria implements HostSearchInterface {
             items.add(w.toString());
         }
         addPhrase("host_stat.str_state", items);
+        if (criteria.getMaxResults() > 0) {
+            setMaxResults(criteria.getMaxResults());
+        }
+        if (isValid(criteria.getAfterName())) {
+            setKeyset(KEYSET, ImmutableList.<Object>of(criteria.getAfterName()));
+        }
+        else {
+            setKeyset(KEYSET, ImmutableList.of());
+        }
     }
 }
@@ -26,7 +26,9 @@ import java.util.stream.Collectors;
 
 import com.google.common.collect.ImmutableList;
 
+import com.imageworks.spcue.dao.criteria.CriteriaException;
 import com.imageworks.spcue.dao.criteria.CriteriaInterface;
+import com.imageworks.spcue.dao.criteria.Direction;
 import com.imageworks.spcue.dao.criteria.Phrase;
 import com.imageworks.spcue.dao.criteria.Sort;
 import com.imageworks.spcue.grpc.criterion.EqualsFloatSearchCriterion;
@@ -48,6 +50,8 @@ public abstract class Criteria implements CriteriaInterface {
     private int firstResult = 1;
     private int maxResults = 0;
     private ArrayList<Sort> order = new ArrayList<Sort>();
+    private List<Sort> keyset = ImmutableList.of();
+    private List<Object> keysetValues = ImmutableList.of();
 
     abstract void buildWhereClause();
 
@@ -65,6 +69,15 @@ public abstract class Criteria implements CriteriaInterface {
         this.order.add(sort);
     }
 
+    public void setKeyset(List<Sort> keys, List<Object> lastValues) {
+        if (!lastValues.isEmpty() && lastValues.size() != keys.size()) {
+            throw new CriteriaException("expected " + keys.size() +
+                    " keyset values, got " + lastValues.size());
+        }
+        this.keyset = ImmutableList.copyOf(keys);
+        this.keysetValues = new ArrayList<Object>(lastValues);
+    }
+
     public List<Object> getValues() {
         return values;
     }
@@ -86,6 +99,7 @@ public abstract class Criteria implements CriteriaInterface {
     private void build() {
         if (!built) {
             buildWhereClause();
+            addKeysetPhrase();
         }
         built = true;
     }
@@ -97,6 +111,10 @@ public abstract class Criteria implements CriteriaInterface {
     }
 
     private String queryWithPaging(String query) {
+        if (!keyset.isEmpty()) {
+            return queryWithKeyset(query);
+        }
+
         if (firstResult > 1 || maxResults > 0) {
             if (order.size() == 0) {
                 query = query.replaceFirst("SELECT ", "SELECT row_number() OVER () AS RN,");
@@ -146,6 +164,63 @@ public abstract class Criteria implements CriteriaInterface {
         return sb.toString();
     }
 
+    /*
+     * Orders the results by the keyset and takes the first page past
+     * the last row of the previous page, the rows that were skipped
+     * are never read.
+     */
+    private String queryWithKeyset(String query) {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append(query);
+        sb.append(" ");
+        if (chunks.size() > 0) {
+            sb.append("AND ");
+            sb.append(generateWhereClause());
+        }
+        sb.append(getKeysetOrder());
+
+        if (maxResults > 0) {
+            sb.append(" LIMIT ? ");
+            values.add(maxResults);
+        }
+        return sb.toString();
+    }
+
+    private String getKeysetOrder() {
+        return " ORDER BY " + keyset.stream()
+                .map(sort -> sort.getColumn() + " " + sort.getDirection().toString())
+                .collect(Collectors.joining(", "));
+    }
+
+    /*
+     * Seeks past the last row of the previous page.  For the keys
+     * (a, b) this is (a > ? OR (a = ? AND b > ?)), which unlike a row
+     * value comparison allows mixed directions and works on every
+     * database.
+     */
+    private void addKeysetPhrase() {
+        if (keysetValues.isEmpty()) { return; }
+
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("(");
+        for (int i = 0; i < keyset.size(); i++) {
+            sb.append("(");
+            for (int j = 0; j < i; j++) {
+                sb.append(keyset.get(j).getColumn());
+                sb.append("=? AND ");
+                values.add(keysetValues.get(j));
+            }
+            Sort key = keyset.get(i);
+            sb.append(key.getColumn());
+            sb.append(key.getDirection() == Direction.DESC ? "<?" : ">?");
+            values.add(keysetValues.get(i));
+            sb.append(") OR ");
+        }
+        sb.delete(sb.length()-4, sb.length());
+        sb.append(")");
+        chunks.add(sb);
+    }
+
     private String getOrder() {
         if (order.size() < 1) {
             return "";
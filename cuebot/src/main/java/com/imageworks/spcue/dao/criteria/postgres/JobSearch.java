@@ -18,12 +18,23 @@
 package com.imageworks.spcue.dao.criteria.postgres;
 
 import java.util.HashSet;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
 
 import com.imageworks.spcue.ShowInterface;
 import com.imageworks.spcue.dao.criteria.JobSearchInterface;
+import com.imageworks.spcue.dao.criteria.Sort;
 import com.imageworks.spcue.grpc.job.JobSearchCriteria;
 
 public final class JobSearch extends Criteria implements JobSearchInterface {
+    /*
+     * Jobs are ordered by name, finished jobs can share a name so the
+     * id breaks ties.
+     */
+    private static final List<Sort> KEYSET = ImmutableList.of(
+            Sort.asc("job.str_name"), Sort.asc("job.pk_job"));
+
     private JobSearchCriteria criteria;
 
     public JobSearch() {
@@ -57,5 +68,14 @@ public final class JobSearch extends Criteria implements JobSearchInterface {
         if (!criteria.getIncludeFinished()) {
             addPhrase("job.str_state", "PENDING");
         }
+        if (criteria.getMaxResults() > 0) {
+            setMaxResults(criteria.getMaxResults());
+        }
+        if (isValid(criteria.getAfterName())) {
+            setKeyset(KEYSET, ImmutableList.<Object>of(criteria.getAfterName(), criteria.getAfterId()));
+        }
+        else {
+            setKeyset(KEYSET, ImmutableList.of());
+        }
     }
 }
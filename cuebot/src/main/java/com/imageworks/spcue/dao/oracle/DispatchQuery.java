@@ -1289,5 +1289,17 @@ public class DispatchQuery {
         "AND " +
             "s.int_cores < s.int_burst ";
 
-}
+    /**
+     * Loads the burst and booked cores of every subscription into the
+     * in-memory SubscriptionHeadroom.
+     */
+    public static final String FIND_SUBSCRIPTION_HEADROOM =
+        "SELECT " +
+            "s.pk_show, " +
+            "s.pk_alloc, " +
+            "s.int_burst, " +
+            "s.int_cores " +
+        "FROM " +
+            "subscription s";
 
+}
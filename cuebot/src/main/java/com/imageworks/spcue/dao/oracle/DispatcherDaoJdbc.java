@@ -26,7 +26,6 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.springframework.jdbc.core.RowMapper;
@@ -43,6 +42,8 @@ import com.imageworks.spcue.ShowInterface;
 import com.imageworks.spcue.SortableShow;
 import com.imageworks.spcue.VirtualProc;
 import com.imageworks.spcue.dao.DispatcherDao;
+import com.imageworks.spcue.dispatcher.BookableShowCache;
+import com.imageworks.spcue.dispatcher.SubscriptionHeadroom;
 import com.imageworks.spcue.grpc.host.ThreadMode;
 import com.imageworks.spcue.util.CueUtil;
 
@@ -58,6 +59,7 @@ import static com.imageworks.spcue.dao.oracle.DispatchQuery.FIND_LOCAL_DISPATCH_
 import static com.imageworks.spcue.dao.oracle.DispatchQuery.FIND_LOCAL_DISPATCH_FRAME_BY_LAYER_AND_HOST;
 import static com.imageworks.spcue.dao.oracle.DispatchQuery.FIND_LOCAL_DISPATCH_FRAME_BY_LAYER_AND_PROC;
 import static com.imageworks.spcue.dao.oracle.DispatchQuery.FIND_SHOWS;
+import static com.imageworks.spcue.dao.oracle.DispatchQuery.FIND_SUBSCRIPTION_HEADROOM;
 import static com.imageworks.spcue.dao.oracle.DispatchQuery.FIND_UNDER_PROCED_JOB_BY_FACILITY;
 import static com.imageworks.spcue.dao.oracle.DispatchQuery.HIGHER_PRIORITY_JOB_BY_FACILITY_EXISTS;
 
@@ -94,61 +96,77 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
     }
 
     /**
-     * Number of milliseconds before the show cache expires and
-     * a new show cache is created.
+     * Caches the sorted list of shows with pending work for each
+     * allocation, along with the shows skipped while booking.
      */
-    private static final long SHOW_CACHE_EXPIRE_TIME_SEC = 8000;
+    private BookableShowCache bookableShowCache;
 
     /**
-     * Wraps a list of SortableShows along with an expiration time.
+     * Optional in-memory burst headroom of each subscription.  If set
+     * and enabled, it replaces the subscription query made for each
+     * show when booking a host.
      */
-    private class ShowCache {
-        final private long expireTime = System.currentTimeMillis() + SHOW_CACHE_EXPIRE_TIME_SEC;
-        final private List<SortableShow> shows;
-
-        public ShowCache(List<SortableShow> shows) {
-            this.shows = shows;
-            Collections.sort(this.shows);
-        }
+    private SubscriptionHeadroom subscriptionHeadroom;
+
+    private static final RowMapper<SubscriptionHeadroom.Entry> SUBSCRIPTION_HEADROOM_MAPPER =
+        new RowMapper<SubscriptionHeadroom.Entry>() {
+            public SubscriptionHeadroom.Entry mapRow(ResultSet rs, int rowNum) throws SQLException {
+                return new SubscriptionHeadroom.Entry(
+                        rs.getString("pk_show"),
+                        rs.getString("pk_alloc"),
+                        rs.getInt("int_burst"),
+                        rs.getInt("int_cores"));
+            }
+    };
 
-        public boolean isExpired() {
-            return System.currentTimeMillis() > expireTime;
+    @Override
+    protected void initDao() {
+        /*
+         * The cache owns a refresh thread which is only shut down by
+         * the bookableShowCache bean, so one is never made here.
+         */
+        if (bookableShowCache == null) {
+            throw new IllegalArgumentException("'bookableShowCache' is required");
         }
+        bookableShowCache.setLoader(allocId -> getJdbcTemplate().query(
+                FIND_SHOWS, SHOW_MAPPER, allocId));
 
-        public List<SortableShow> getShows() {
-            return shows;
+        if (subscriptionHeadroom != null) {
+            subscriptionHeadroom.setLoader(() -> getJdbcTemplate().query(
+                    FIND_SUBSCRIPTION_HEADROOM, SUBSCRIPTION_HEADROOM_MAPPER));
         }
     }
 
     /**
-     * A cache of SortableShows keyed on host tags.
+     * Returns the number of core units the show can still book in
+     * the allocation, from the subscription headroom if it has been
+     * loaded or from the database otherwise.
+     *
+     * @param showId
+     * @param allocId
+     * @return the headroom in core units
      */
-    private final ConcurrentHashMap<String, ShowCache> bookableShows =
-        new ConcurrentHashMap<String, ShowCache>();
+    private int getBurstHeadroom(String showId, String allocId) {
+        if (subscriptionHeadroom != null) {
+            Integer headroom = subscriptionHeadroom.getHeadroom(showId, allocId);
+            if (headroom != null) {
+                return headroom;
+            }
+        }
+        return getJdbcTemplate().queryForObject(
+                "SELECT int_burst - int_cores FROM subscription WHERE pk_show=? AND pk_alloc=?",
+                Integer.class, showId, allocId);
+    }
 
     /**
      * Returns a sorted list of shows that have pending jobs
      * which could benefit from the specified allocation.
      *
      * @param alloc
-     * '
      * @return a sorted list of shows.
      */
     private List<SortableShow> getBookableShows(AllocationInterface alloc) {
-        String key = alloc.getAllocationId();
-
-        ShowCache cached = bookableShows.get(key);
-        if (cached == null) {
-            bookableShows.put(key, new ShowCache(getJdbcTemplate().query(
-                    FIND_SHOWS,
-                    SHOW_MAPPER, alloc.getAllocationId())));
-        }
-        else if (cached.isExpired()) {
-            bookableShows.put(key, new ShowCache(getJdbcTemplate().query(
-                    FIND_SHOWS,
-                    SHOW_MAPPER, alloc.getAllocationId())));
-        }
-        return bookableShows.get(key).shows;
+        return bookableShowCache.getShows(alloc.getAllocationId());
     }
 
     private Set<String> findDispatchJobs(DispatchHost host, int numJobs, boolean shuffleShows) {
@@ -163,12 +181,13 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
 
         for (SortableShow s: shows) {
 
-            if (s.isSkipped(host.tags, (long) host.cores, host.memory)) {
+            if (bookableShowCache.isSkipped(s.getShowId(), host.tags,
+                    (long) host.cores, host.memory)) {
                 logger.info("skipping show " + s.getShowId());
                 continue;
             }
 
-            if (s.isSkipped(host)) {
+            if (bookableShowCache.isSkipped(s.getShowId(), host.getAllocationId())) {
                 logger.info("skipping show " + s.getShowId() + ", over its subscription.");
                 continue;
             }
@@ -176,13 +195,11 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
             /**
              * Check if the show is over its subscription because we're using
              * cached SortableShows, we don't pull a fresh list of shows for
-             * a while.  If the show is over its subscription the alloc
-             * gets add to the SortableShow skipped alloc set.
+             * a while.  If the show is over its subscription the show
+             * is skipped for the alloc for a while.
              */
-            if (getJdbcTemplate().queryForObject(
-                    "SELECT int_burst - int_cores FROM subscription WHERE pk_show=? AND pk_alloc=?",
-                    Integer.class, s.getShowId(), host.getAllocationId()) < 100) {
-                s.skip(host);
+            if (getBurstHeadroom(s.getShowId(), host.getAllocationId()) < 100) {
+                bookableShowCache.skip(s.getShowId(), host.getAllocationId());
                 continue;
             }
 
@@ -197,7 +214,8 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
 
             if (result.size() < 1) {
                 if (host.gpu == 0) {
-                    s.skip(host.tags, host.idleCores, host.idleMemory);
+                    bookableShowCache.skip(s.getShowId(), host.tags,
+                            host.idleCores, host.idleMemory);
                 }
             }
             else {
@@ -404,6 +422,22 @@ public class DispatcherDaoJdbc extends JdbcDaoSupport implements DispatcherDao {
         return result;
     }
 
+    public BookableShowCache getBookableShowCache() {
+        return bookableShowCache;
+    }
+
+    public void setBookableShowCache(BookableShowCache bookableShowCache) {
+        this.bookableShowCache = bookableShowCache;
+    }
+
+    public SubscriptionHeadroom getSubscriptionHeadroom() {
+        return subscriptionHeadroom;
+    }
+
+    public void setSubscriptionHeadroom(SubscriptionHeadroom subscriptionHeadroom) {
+        this.subscriptionHeadroom = subscriptionHeadroom;
+    }
+
     private static final String hostString(String name) {
         return "str_name='" + name + "'";
     }
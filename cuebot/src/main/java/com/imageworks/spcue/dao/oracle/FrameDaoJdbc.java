@@ -46,6 +46,7 @@ import com.imageworks.spcue.grpc.job.FrameExitStatus;
 import com.imageworks.spcue.grpc.job.FrameState;
 import com.imageworks.spcue.grpc.job.JobState;
 import com.imageworks.spcue.grpc.job.LayerType;
+import com.imageworks.spcue.grpc.report.RunningFrameInfo;
 import com.imageworks.spcue.util.CueUtil;
 import com.imageworks.spcue.util.FrameSet;
 import com.imageworks.spcue.util.SqlUtil;
@@ -475,19 +476,27 @@ public class FrameDaoJdbc extends JdbcDaoSupport  implements FrameDao {
     @Override
     public void insertFrames(LayerDetail layer, List<Integer> frames) {
 
+        if (frames.isEmpty()) {
+            return;
+        }
+
+        String[] keys = SqlUtil.genKeysRandom(frames.size());
+        List<Object[]> batchArgs = new ArrayList<Object[]>(frames.size());
+
         int count = 0;
         for (int frame: frames) {
-            getJdbcTemplate().update(INSERT_FRAME,
-                    SqlUtil.genKeyRandom(),
+            batchArgs.add(new Object[] {
+                    keys[count],
                     layer.getLayerId(),
                     layer.getJobId(),
                     CueUtil.buildFrameName(layer, frame),
                     FrameState.SETUP.toString(),
                     frame,
                     count,
-                    layer.dispatchOrder);
+                    layer.dispatchOrder });
             count++;
         }
+        getJdbcTemplate().batchUpdate(INSERT_FRAME, batchArgs);
     }
 
     @Override
@@ -567,6 +576,13 @@ public class FrameDaoJdbc extends JdbcDaoSupport  implements FrameDao {
                 FRAME_DETAIL_MAPPER, r.getValuesArray());
     }
 
+    @Override
+    public List<FrameDetail> getFrameDetails(LayerInterface layer) {
+        return getJdbcTemplate().query(
+                GET_FRAME_DETAIL + " AND frame.pk_layer=? ORDER BY frame.int_number",
+                FRAME_DETAIL_MAPPER, layer.getLayerId());
+    }
+
     @Override
     public List<FrameInterface> findFrames(FrameSearchInterface r) {
         return getJdbcTemplate().query(r.getFilteredQuery(GET_MINIMAL_FRAME),
@@ -1004,6 +1020,25 @@ public class FrameDaoJdbc extends JdbcDaoSupport  implements FrameDao {
                 maxRss, rss, f.getFrameId());
     }
 
+    /*
+     * A host report can arrive after the frame it describes has
+     * completed, so only frames which are still running are updated.
+     */
+    private static final String UPDATE_RUNNING_FRAME_MEMORY_USAGE =
+        UPDATE_FRAME_MEMORY_USAGE + "AND str_state = 'RUNNING'";
+
+    @Override
+    public void updateFrameMemoryUsage(List<RunningFrameInfo> frames) {
+        List<Object[]> batchArgs = new ArrayList<Object[]>(frames.size());
+        for (RunningFrameInfo frame: frames) {
+            batchArgs.add(new Object[] {
+                    frame.getMaxRss(), frame.getRss(), frame.getFrameId() });
+        }
+        if (batchArgs.size() > 0) {
+            getJdbcTemplate().batchUpdate(UPDATE_RUNNING_FRAME_MEMORY_USAGE, batchArgs);
+        }
+    }
+
     /**
      * Attempt a SELECT FOR UPDATE NOWAIT on the frame record.  If
      * the frame is being modified by another transaction or if
@@ -19,6 +19,7 @@
 
 package com.imageworks.spcue.dao.oracle;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
@@ -26,6 +27,7 @@ import org.springframework.jdbc.core.support.JdbcDaoSupport;
 import com.imageworks.spcue.JobInterface;
 import com.imageworks.spcue.dao.HistoricalDao;
 import com.imageworks.spcue.grpc.job.JobState;
+import com.imageworks.spcue.util.SqlUtil;
 
 public class HistoricalDaoJdbc extends JdbcDaoSupport implements HistoricalDao {
 
@@ -48,5 +50,48 @@ public class HistoricalDaoJdbc extends JdbcDaoSupport implements HistoricalDao {
          */
         getJdbcTemplate().update("DELETE FROM job WHERE pk_job=?", job.getJobId());
     }
+
+    public int deleteDepends(List<JobInterface> jobs) {
+        List<Object> values = jobIds(jobs);
+        values.addAll(jobIds(jobs));
+        return getJdbcTemplate().update(
+                "DELETE FROM depend WHERE " +
+                    SqlUtil.buildBindVariableArray("pk_job_depend_on", jobs) + " OR " +
+                    SqlUtil.buildBindVariableArray("pk_job_depend_er", jobs),
+                values.toArray());
+    }
+
+    public int deleteFrames(List<JobInterface> jobs, int limit) {
+        List<Object> values = jobIds(jobs);
+        values.add(limit);
+        return getJdbcTemplate().update(
+                "DELETE FROM frame WHERE " +
+                    SqlUtil.buildBindVariableArray("pk_job", jobs) + " AND ROWNUM <= ?",
+                values.toArray());
+    }
+
+    public int deleteLayers(List<JobInterface> jobs) {
+        return getJdbcTemplate().update(
+                "DELETE FROM layer WHERE " + SqlUtil.buildBindVariableArray("pk_job", jobs),
+                jobIds(jobs).toArray());
+    }
+
+    public int transferJobs(List<JobInterface> jobs) {
+        /**
+         * The job_history rows are updated by the delete trigger,
+         * which also removes whatever is left of the jobs.
+         */
+        return getJdbcTemplate().update(
+                "DELETE FROM job WHERE " + SqlUtil.buildBindVariableArray("pk_job", jobs),
+                jobIds(jobs).toArray());
+    }
+
+    private static List<Object> jobIds(List<JobInterface> jobs) {
+        List<Object> ids = new ArrayList<Object>(jobs.size() * 2 + 1);
+        for (JobInterface job: jobs) {
+            ids.add(job.getJobId());
+        }
+        return ids;
+    }
 }
 
@@ -392,6 +392,19 @@ public class JobDaoJdbc extends JdbcDaoSupport implements JobDao {
                 value, job.getJobId(), value);
     }
 
+    @Override
+    public void updateMaxRSS(Map<String, Long> maxRss) {
+        List<Object[]> batchArgs = new ArrayList<Object[]>(maxRss.size());
+        for (Map.Entry<String, Long> e: maxRss.entrySet()) {
+            batchArgs.add(new Object[] { e.getValue(), e.getKey(), e.getValue() });
+        }
+        if (batchArgs.size() > 0) {
+            getJdbcTemplate().batchUpdate(
+                    "UPDATE job_mem SET int_max_rss=? WHERE pk_job=? AND int_max_rss < ?",
+                    batchArgs);
+        }
+    }
+
     private static final String UPDATE_JOB_FINISHED =
         "UPDATE " +
             "job " +
@@ -21,6 +21,7 @@ package com.imageworks.spcue.dao.oracle;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -326,6 +327,13 @@ public class LayerDaoJdbc extends JdbcDaoSupport implements LayerDao {
                 l.minimumMemory, l.minimumGpu, StringUtils.join(l.services,","));
     }
 
+    @Override
+    public void insertLayerDetails(List<LayerDetail> layers) {
+        for (LayerDetail l: layers) {
+            insertLayerDetail(l);
+        }
+    }
+
     @Override
     public void updateLayerMinMemory(LayerInterface layer, long val) {
         if (val < Dispatcher.MEM_RESERVED_MIN) {
@@ -387,6 +395,22 @@ public class LayerDaoJdbc extends JdbcDaoSupport implements LayerDao {
                 val, layer.getLayerId(), val);
     }
 
+    @Override
+    public void updateLayerMemoryUsage(Map<String, Long> maxRss) {
+        if (maxRss.isEmpty()) {
+            return;
+        }
+        List<Object[]> batchArgs = new ArrayList<Object[]>(maxRss.size());
+        for (Map.Entry<String, Long> e: maxRss.entrySet()) {
+            batchArgs.add(new Object[] { e.getValue(), e.getKey(), e.getValue() });
+        }
+        getJdbcTemplate().batchUpdate(
+                "UPDATE layer SET int_mem_min=? WHERE pk_layer=? AND int_mem_min < ?",
+                batchArgs);
+        getJdbcTemplate().batchUpdate(
+                UPDATE_LAYER_MAX_RSS + " AND int_max_rss < ?", batchArgs);
+    }
+
     @Override
     public void increaseLayerMinGpu(LayerInterface layer, long gpu) {
         getJdbcTemplate().update("UPDATE layer SET int_gpu_min=? WHERE pk_layer=? AND int_gpu_min < ?",
@@ -26,7 +26,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
@@ -42,24 +41,13 @@ import com.imageworks.spcue.grpc.job.JobStats;
 import com.imageworks.spcue.grpc.job.NestedGroup;
 import com.imageworks.spcue.grpc.job.NestedGroupSeq;
 import com.imageworks.spcue.grpc.job.NestedJob;
+import com.imageworks.spcue.service.JobWhiteboardCache;
 import com.imageworks.spcue.util.Convert;
 import com.imageworks.spcue.util.CueUtil;
 
 public class NestedWhiteboardDaoJdbc extends JdbcDaoSupport implements NestedWhiteboardDao {
 
-    private class CachedJobWhiteboardMapper {
-        public final long time;
-        public NestedJobWhiteboardMapper mapper;
-
-        public CachedJobWhiteboardMapper(NestedJobWhiteboardMapper result) {
-            this.mapper = result;
-            this.time = System.currentTimeMillis();
-        }
-    }
-
-    private static final int CACHE_TIMEOUT = 5000;
-    private final ConcurrentHashMap<String,CachedJobWhiteboardMapper> jobCache =
-        new ConcurrentHashMap<String,CachedJobWhiteboardMapper>(20);
+    private JobWhiteboardCache jobWhiteboardCache;
 
     public static final String GET_NESTED_GROUPS =
         "SELECT " +
@@ -228,25 +216,32 @@ public class NestedWhiteboardDaoJdbc extends JdbcDaoSupport implements NestedWhi
         return mapper;
     }
 
-    public NestedGroup getJobWhiteboard(ShowInterface show) {
-
-        CachedJobWhiteboardMapper cachedMapper = jobCache.get(show.getShowId());
-        if (cachedMapper != null) {
-            if (System.currentTimeMillis() - cachedMapper.time < CACHE_TIMEOUT) {
-                return cachedMapper.mapper.groups.get(cachedMapper.mapper.rootGroupID);
-            }
+    @Override
+    protected void initDao() {
+        /*
+         * The cache owns a refresh thread which is only shut down by
+         * the jobWhiteboardCache bean, so one is never made here.
+         */
+        if (jobWhiteboardCache == null) {
+            throw new IllegalArgumentException("'jobWhiteboardCache' is required");
         }
+        jobWhiteboardCache.setLoader(this::loadJobWhiteboard);
+    }
 
+    private NestedGroup loadJobWhiteboard(String showId) {
         NestedJobWhiteboardMapper mapper = new NestedJobWhiteboardMapper();
         getJdbcTemplate().query(
                 GET_NESTED_GROUPS + " AND show.pk_show=? ORDER BY folder_level.int_level ASC",
-                mapper, show.getShowId());
+                mapper, showId);
 
         mapper = updateConnections(mapper);
-        jobCache.put(show.getShowId(), new CachedJobWhiteboardMapper(mapper));
         return mapper.groups.get(mapper.rootGroupID);
     }
 
+    public NestedGroup getJobWhiteboard(ShowInterface show) {
+        return jobWhiteboardCache.getJobWhiteboard(show.getShowId());
+    }
+
     private static final NestedJob mapResultSetToJob(ResultSet rs) throws SQLException {
         NestedJob.Builder jobBuilder = NestedJob.newBuilder()
                 .setId(rs.getString("pk_job"))
@@ -476,5 +471,13 @@ public class NestedWhiteboardDaoJdbc extends JdbcDaoSupport implements NestedWhi
         }
         return cachedHostWhiteboard.get();
     }
+
+    public JobWhiteboardCache getJobWhiteboardCache() {
+        return jobWhiteboardCache;
+    }
+
+    public void setJobWhiteboardCache(JobWhiteboardCache jobWhiteboardCache) {
+        this.jobWhiteboardCache = jobWhiteboardCache;
+    }
 }
 
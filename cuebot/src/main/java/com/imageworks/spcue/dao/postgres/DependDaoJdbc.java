@@ -21,8 +21,14 @@ package com.imageworks.spcue.dao.postgres;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
+import com.google.common.collect.Iterables;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
 
@@ -314,6 +320,40 @@ public class DependDaoJdbc extends JdbcDaoSupport implements DependDao {
                 d.isComposite());
     }
 
+    @Override
+    public void insertDepends(List<FrameOnFrame> depends) {
+        if (depends.isEmpty()) {
+            return;
+        }
+
+        String[] keys = SqlUtil.genKeysRandom(depends.size());
+        List<Object[]> batchArgs = new ArrayList<Object[]>(depends.size());
+        int count = 0;
+        for (FrameOnFrame d: depends) {
+            d.setId(keys[count++]);
+            String parentId = null;
+            if (d.getParent() != null) {
+                parentId = d.getParent().getId();
+            }
+            batchArgs.add(new Object[] {
+                    d.getId(),
+                    parentId,
+                    d.getDependErFrame().getJobId(),
+                    d.getDependErFrame().getLayerId(),
+                    d.getDependErFrame().getFrameId(),
+                    d.getDependOnFrame().getJobId(),
+                    d.getDependOnFrame().getLayerId(),
+                    d.getDependOnFrame().getFrameId(),
+                    DependType.FRAME_ON_FRAME.toString(),
+                    d.isAnyFrame(),
+                    d.getTarget().toString(),
+                    d.isActive(),
+                    d.getSignature(),
+                    d.isComposite() });
+        }
+        getJdbcTemplate().batchUpdate(INSERT_DEPEND, batchArgs);
+    }
+
     private static final String UPDATE_FRAME_STATE =
         "UPDATE " +
             "frame " +
@@ -351,6 +391,48 @@ public class DependDaoJdbc extends JdbcDaoSupport implements DependDao {
         }
     }
 
+    private static final String INCREMENT_CHILD_DEPEND_COUNTS =
+        "UPDATE " +
+            "frame " +
+        "SET " +
+            "int_depend_count = int_depend_count + child.int_count " +
+        "FROM " +
+            "(" +
+                "SELECT " +
+                    "pk_frame_depend_er, " +
+                    "COUNT(1) AS int_count " +
+                "FROM " +
+                    "depend " +
+                "WHERE " +
+                    "pk_parent = ? " +
+                "AND " +
+                    "b_active = true " +
+                "GROUP BY " +
+                    "pk_frame_depend_er" +
+            ") AS child " +
+        "WHERE " +
+            "frame.pk_frame = child.pk_frame_depend_er";
+
+    @Override
+    public int incrementDependCounts(FrameByFrame depend) {
+        return getJdbcTemplate().update(INCREMENT_CHILD_DEPEND_COUNTS,
+                depend.getId());
+    }
+
+    private static final String INCREMENT_LAYER_DEPEND_COUNTS =
+        "UPDATE " +
+            "frame " +
+        "SET " +
+            "int_depend_count = int_depend_count + 1 " +
+        "WHERE " +
+            "pk_layer = ?";
+
+    @Override
+    public int incrementDependCounts(LayerInterface layer) {
+        return getJdbcTemplate().update(INCREMENT_LAYER_DEPEND_COUNTS,
+                layer.getLayerId());
+    }
+
     private static final String DECREMENT_DEPEND_COUNT =
         "UPDATE " +
             "frame " +
@@ -367,6 +449,77 @@ public class DependDaoJdbc extends JdbcDaoSupport implements DependDao {
                 f.getFrameId()) == 1;
     }
 
+    private static final String DECREMENT_DEPEND_COUNTS =
+        "UPDATE " +
+            "frame " +
+        "SET " +
+            "int_depend_count = GREATEST(int_depend_count - ?, 0) " +
+        "WHERE " +
+            "%s = ? " +
+        "AND " +
+            "int_depend_count > 0";
+
+    @Override
+    public int decrementDependCounts(List<LightweightDependency> depends) {
+
+        /*
+         * Count the depends per depend-er frame, layer and job, the
+         * same frames getDependentFrames would return for each depend.
+         * The keys are sorted so concurrent callers lock frames in the
+         * same order.
+         */
+        Map<String, Integer> frames = new TreeMap<String, Integer>();
+        Map<String, Integer> layers = new TreeMap<String, Integer>();
+        Map<String, Integer> jobs = new TreeMap<String, Integer>();
+
+        for (LightweightDependency depend: depends) {
+            switch (depend.type) {
+                case JOB_ON_JOB:
+                case JOB_ON_LAYER:
+                case JOB_ON_FRAME:
+                    increment(jobs, depend.dependErJobId);
+                    break;
+                case LAYER_ON_JOB:
+                case LAYER_ON_LAYER:
+                case LAYER_ON_FRAME:
+                    increment(layers, depend.dependErLayerId);
+                    break;
+                case FRAME_ON_JOB:
+                case FRAME_ON_LAYER:
+                case FRAME_ON_FRAME:
+                    increment(frames, depend.dependErFrameId);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return decrementDependCounts("pk_frame", frames)
+                + decrementDependCounts("pk_layer", layers)
+                + decrementDependCounts("pk_job", jobs);
+    }
+
+    private int decrementDependCounts(String column, Map<String, Integer> counts) {
+        if (counts.isEmpty()) {
+            return 0;
+        }
+        List<Object[]> batchArgs = new ArrayList<Object[]>(counts.size());
+        for (Map.Entry<String, Integer> e: counts.entrySet()) {
+            batchArgs.add(new Object[] { e.getValue(), e.getKey() });
+        }
+        int updated = 0;
+        for (int count: getJdbcTemplate().batchUpdate(
+                String.format(DECREMENT_DEPEND_COUNTS, column), batchArgs)) {
+            updated = updated + Math.max(count, 0);
+        }
+        return updated;
+    }
+
+    private static void increment(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+
     private static final String[] DELETE_DEPEND = {
         "DELETE FROM depend WHERE pk_parent=?",
         "DELETE FROM depend WHERE pk_depend=?"
@@ -580,6 +733,29 @@ public class DependDaoJdbc extends JdbcDaoSupport implements DependDao {
         return depend.active;
     }
 
+    @Override
+    public List<LightweightDependency> setInactive(List<LightweightDependency> depends) {
+        List<LightweightDependency> result = new ArrayList<LightweightDependency>(depends.size());
+        if (depends.isEmpty()) {
+            return result;
+        }
+
+        List<Object[]> batchArgs = new ArrayList<Object[]>(depends.size());
+        for (LightweightDependency depend: depends) {
+            batchArgs.add(new Object[] { depend.getId() });
+        }
+
+        int[] updated = getJdbcTemplate().batchUpdate(SET_INACTIVE, batchArgs);
+        for (int i = 0; i < updated.length; i++) {
+            LightweightDependency depend = depends.get(i);
+            depend.active = updated[i] == 1;
+            if (depend.active) {
+                result.add(depend);
+            }
+        }
+        return result;
+    }
+
     private static final String SET_ACTIVE =
         "UPDATE " +
             "depend " +
@@ -632,6 +808,157 @@ public class DependDaoJdbc extends JdbcDaoSupport implements DependDao {
                 depend.dependErJobId, depend.dependOnJobId, depend.id);
     }
 
+    private static final String GET_DEPENDS_BY_JOB =
+        "SELECT " +
+            "depend.pk_depend," +
+            "depend.str_type," +
+            "depend.str_target,"+
+            "depend.b_any,"+
+            "depend.pk_parent,"+
+            "depend.b_active," +
+            "depend.pk_frame_depend_er,"+
+            "depend.pk_frame_depend_on,"+
+            "depend.pk_layer_depend_er,"+
+            "depend.pk_layer_depend_on,"+
+            "depend.pk_job_depend_er,"+
+            "depend.pk_job_depend_on "+
+        "FROM " +
+            "depend " +
+        "WHERE " +
+            "depend.pk_job_depend_er = ? " +
+        "UNION " +
+        "SELECT " +
+            "depend.pk_depend," +
+            "depend.str_type," +
+            "depend.str_target,"+
+            "depend.b_any,"+
+            "depend.pk_parent,"+
+            "depend.b_active," +
+            "depend.pk_frame_depend_er,"+
+            "depend.pk_frame_depend_on,"+
+            "depend.pk_layer_depend_er,"+
+            "depend.pk_layer_depend_on,"+
+            "depend.pk_job_depend_er,"+
+            "depend.pk_job_depend_on "+
+        "FROM " +
+            "depend " +
+        "WHERE " +
+            "depend.pk_job_depend_on = ?";
+
+    @Override
+    public List<LightweightDependency> getDepends(JobInterface job) {
+        return getJdbcTemplate().query(GET_DEPENDS_BY_JOB, DEPEND_MAPPER,
+                job.getJobId(), job.getJobId());
+    }
+
+    /**
+     * The maximum number of ids bound into a single IN list.
+     */
+    private static final int MAX_IN_LIST_SIZE = 500;
+
+    private static final String GET_WHAT_DEPENDS_ON_FRAMES =
+        "SELECT " +
+            "depend.pk_depend," +
+            "depend.str_type," +
+            "depend.str_target,"+
+            "depend.b_any,"+
+            "depend.pk_parent,"+
+            "depend.b_active," +
+            "depend.pk_frame_depend_er,"+
+            "depend.pk_frame_depend_on,"+
+            "depend.pk_layer_depend_er,"+
+            "depend.pk_layer_depend_on,"+
+            "depend.pk_job_depend_er,"+
+            "depend.pk_job_depend_on "+
+        "FROM " +
+            "depend " +
+        "WHERE " +
+            "b_active = true " +
+        "AND " +
+            "str_type IN (?,?,?) " +
+        "AND ";
+
+    private static final String GET_WHAT_DEPENDS_ON_ANY_FRAME =
+        "SELECT " +
+            "depend.pk_depend," +
+            "depend.str_type," +
+            "depend.str_target,"+
+            "depend.b_any,"+
+            "depend.pk_parent,"+
+            "depend.b_active," +
+            "depend.pk_frame_depend_er,"+
+            "depend.pk_frame_depend_on,"+
+            "depend.pk_layer_depend_er,"+
+            "depend.pk_layer_depend_on,"+
+            "depend.pk_job_depend_er,"+
+            "depend.pk_job_depend_on "+
+        "FROM " +
+            "depend " +
+        "WHERE " +
+            "b_active = true " +
+        "AND " +
+            "str_type = ? " +
+        "AND " +
+            "b_any = true " +
+        "AND ";
+
+    @Override
+    public List<LightweightDependency> getWhatDependsOnFrames(List<FrameInterface> frames) {
+        Set<String> frameIds = new LinkedHashSet<String>(frames.size());
+        Set<String> layerIds = new LinkedHashSet<String>();
+        for (FrameInterface frame: frames) {
+            frameIds.add(frame.getFrameId());
+            layerIds.add(frame.getLayerId());
+        }
+
+        List<LightweightDependency> result = new ArrayList<LightweightDependency>();
+        for (List<String> ids: Iterables.partition(frameIds, MAX_IN_LIST_SIZE)) {
+            List<Object> values = new ArrayList<Object>(ids.size() + 3);
+            values.add(DependType.FRAME_ON_FRAME.toString());
+            values.add(DependType.LAYER_ON_FRAME.toString());
+            values.add(DependType.JOB_ON_FRAME.toString());
+            values.addAll(ids);
+            result.addAll(getJdbcTemplate().query(GET_WHAT_DEPENDS_ON_FRAMES +
+                    SqlUtil.buildBindVariableArray("pk_frame_depend_on", ids),
+                    DEPEND_MAPPER, values.toArray()));
+        }
+
+        /*
+         * A LayerOnLayer depend with the any frame option is satisfied
+         * by any frame in the layer.
+         */
+        for (List<String> ids: Iterables.partition(layerIds, MAX_IN_LIST_SIZE)) {
+            List<Object> values = new ArrayList<Object>(ids.size() + 1);
+            values.add(DependType.LAYER_ON_LAYER.toString());
+            values.addAll(ids);
+            result.addAll(getJdbcTemplate().query(GET_WHAT_DEPENDS_ON_ANY_FRAME +
+                    SqlUtil.buildBindVariableArray("pk_layer_depend_on", ids),
+                    DEPEND_MAPPER, values.toArray()));
+        }
+        return result;
+    }
+
+    @Override
+    public List<LightweightDependency> getWhatDependsOnLayers(List<LayerInterface> layers) {
+        Set<String> layerIds = new LinkedHashSet<String>(layers.size());
+        for (LayerInterface layer: layers) {
+            layerIds.add(layer.getLayerId());
+        }
+
+        List<LightweightDependency> result = new ArrayList<LightweightDependency>();
+        for (List<String> ids: Iterables.partition(layerIds, MAX_IN_LIST_SIZE)) {
+            List<Object> values = new ArrayList<Object>(ids.size() + 3);
+            values.add(DependType.JOB_ON_LAYER.toString());
+            values.add(DependType.LAYER_ON_LAYER.toString());
+            values.add(DependType.FRAME_ON_LAYER.toString());
+            values.addAll(ids);
+            result.addAll(getJdbcTemplate().query(GET_WHAT_DEPENDS_ON_FRAMES +
+                    SqlUtil.buildBindVariableArray("pk_layer_depend_on", ids),
+                    DEPEND_MAPPER, values.toArray()));
+        }
+        return result;
+    }
+
     private static final String GET_WHAT_THIS_JOB_DEPENDS_ON =
         "SELECT " +
             "depend.pk_depend," +
@@ -63,7 +63,7 @@ public class DispatchQuery {
                 "AND (CASE WHEN layer.b_threadable = true THEN 1 ELSE 0 END) >= ? " +
                 "AND layer.int_gpu_min              BETWEEN ? AND ? " +
                 "AND job_resource.int_cores + layer.int_cores_min < job_resource.int_max_cores " +
-                "AND host.str_tags ~* ('(?x)' || layer.str_tags) " +
+                "AND host.int_tag_ids && layer.int_tag_ids " +
                 "AND host.str_name = ? " +
                 "AND layer.pk_layer IN (" +
                     "SELECT " +
@@ -89,6 +89,76 @@ public class DispatchQuery {
         ") AS t1 WHERE rank < ?";
 
 
+    /**
+     * Loads every dispatchable layer for a facility and OS.  Used to
+     * populate the in-memory DispatchIndex.  Unlike FIND_JOBS_BY_SHOW
+     * this is not specific to a host, resource and tag matching is
+     * done in memory.
+     */
+    public static final String FIND_DISPATCH_INDEX =
+        "/* FIND_DISPATCH_INDEX */ " +
+        "SELECT " +
+            "job.pk_job, " +
+            "job.pk_show, " +
+            "job_resource.int_priority, " +
+            "job_resource.int_cores AS int_job_cores, " +
+            "job_resource.int_max_cores AS int_job_max_cores, " +
+            "layer.pk_layer, " +
+            "layer.int_cores_min, " +
+            "layer.int_mem_min, " +
+            "layer.int_gpu_min, " +
+            "layer.b_threadable, " +
+            "layer.str_tags, " +
+            "layer_stat.int_waiting_count " +
+        "FROM " +
+            "job            , " +
+            "job_resource   , " +
+            "folder         , " +
+            "folder_resource, " +
+            "point          , " +
+            "layer          , " +
+            "layer_stat       " +
+        "WHERE " +
+            "job.pk_job                 = job_resource.pk_job " +
+            "AND job.pk_folder          = folder.pk_folder " +
+            "AND folder.pk_folder       = folder_resource.pk_folder " +
+            "AND folder.pk_dept         = point.pk_dept " +
+            "AND folder.pk_show         = point.pk_show " +
+            "AND job.pk_job             = layer.pk_job " +
+            "AND layer.pk_layer         = layer_stat.pk_layer " +
+            "AND layer_stat.int_waiting_count > 0 " +
+            "AND " +
+                "(" +
+                    "folder_resource.int_max_cores = -1 " +
+                "OR " +
+                    "folder_resource.int_cores < folder_resource.int_max_cores " +
+                ") " +
+            "AND job.str_state                  = 'PENDING' " +
+            "AND job.b_paused                   = false " +
+            "AND job.pk_facility                = ? " +
+            "AND job.str_os                     = ? " +
+            "AND layer.pk_layer IN (" +
+                "SELECT " +
+                    "l.pk_layer " +
+                "FROM " +
+                    "layer l " +
+                "LEFT JOIN layer_limit ON layer_limit.pk_layer = l.pk_layer " +
+                "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
+                "LEFT JOIN (" +
+                    "SELECT " +
+                        "limit_record.pk_limit_record, " +
+                        "SUM(layer_stat.int_running_count) AS int_sum_running " +
+                    "FROM " +
+                        "layer_limit " +
+                    "LEFT JOIN limit_record ON layer_limit.pk_limit_record = limit_record.pk_limit_record " +
+                    "LEFT JOIN layer_stat ON layer_stat.pk_layer = layer_limit.pk_layer " +
+                    "GROUP BY limit_record.pk_limit_record) AS sum_running " +
+                "ON limit_record.pk_limit_record = sum_running.pk_limit_record " +
+                "WHERE " +
+                    "sum_running.int_sum_running < limit_record.int_max_value " +
+                    "OR sum_running.int_sum_running IS NULL " +
+            ") ";
+
     public static final String FIND_JOBS_BY_GROUP =
         FIND_JOBS_BY_SHOW
             .replace(
@@ -260,7 +330,7 @@ public class DispatchQuery {
                 "AND " +
                     "l.int_gpu_min = ? " +
                 "AND " +
-                    "h.str_tags ~* ('(?x)' || l.str_tags) " +
+                    "h.int_tag_ids && l.int_tag_ids " +
                 "AND " +
                     "h.str_name = ? " +
                 "AND " +
@@ -357,7 +427,7 @@ public class DispatchQuery {
                     "AND " +
                         "l.int_gpu_min = ? " +
                     "AND " +
-                        "h.str_tags ~* ('(?x)' || l.str_tags) " +
+                        "h.int_tag_ids && l.int_tag_ids " +
                     "AND " +
                         "h.str_name = ? " +
                     "AND " +
@@ -473,7 +543,7 @@ public class DispatchQuery {
                     "l.pk_layer " +
                 "FROM " +
                     "layer l " +
-                "JOIN host h ON (h.str_tags ~* ('(?x)' || l.str_tags) AND h.str_name = ?) " +
+                "JOIN host h ON (h.int_tag_ids && l.int_tag_ids AND h.str_name = ?) " +
                 "LEFT JOIN layer_limit ON layer_limit.pk_layer = l.pk_layer " +
                 "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
                 "LEFT JOIN (" +
@@ -585,7 +655,7 @@ public class DispatchQuery {
                         "l.pk_layer " +
                     "FROM " +
                         "layer l " +
-                    "JOIN host h ON (h.str_tags ~* ('(?x)' || l.str_tags) AND h.str_name = ?) " +
+                    "JOIN host h ON (h.int_tag_ids && l.int_tag_ids AND h.str_name = ?) " +
                     "LEFT JOIN layer_limit ON layer_limit.pk_layer = l.pk_layer " +
                     "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
                     "LEFT JOIN (" +
@@ -905,7 +975,7 @@ public class DispatchQuery {
                     "l.pk_layer " +
                 "FROM " +
                     "layer l " +
-                "JOIN host h ON (h.str_tags ~* ('(?x)' || l.str_tags) AND h.str_name = ?) " +
+                "JOIN host h ON (h.int_tag_ids && l.int_tag_ids AND h.str_name = ?) " +
                 "LEFT JOIN layer_limit ON layer_limit.pk_layer = l.pk_layer " +
                 "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
                 "LEFT JOIN (" +
@@ -1017,7 +1087,7 @@ public class DispatchQuery {
                         "l.pk_layer " +
                     "FROM " +
                         "layer l " +
-                    "JOIN host h ON (h.str_tags ~* ('(?x)' || l.str_tags) AND h.str_name = ?) " +
+                    "JOIN host h ON (h.int_tag_ids && l.int_tag_ids AND h.str_name = ?) " +
                     "LEFT JOIN layer_limit ON layer_limit.pk_layer = l.pk_layer " +
                     "LEFT JOIN limit_record ON limit_record.pk_limit_record = layer_limit.pk_limit_record " +
                     "LEFT JOIN (" +
@@ -1270,5 +1340,17 @@ public class DispatchQuery {
         "AND " +
             "s.int_cores < s.int_burst ";
 
-}
+    /**
+     * Loads the burst and booked cores of every subscription into the
+     * in-memory SubscriptionHeadroom.
+     */
+    public static final String FIND_SUBSCRIPTION_HEADROOM =
+        "SELECT " +
+            "s.pk_show, " +
+            "s.pk_alloc, " +
+            "s.int_burst, " +
+            "s.int_cores " +
+        "FROM " +
+            "subscription s";
 
+}
@@ -19,12 +19,17 @@
 
 package com.imageworks.spcue.dao.postgres;
 
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
 
@@ -48,6 +53,7 @@ import com.imageworks.spcue.grpc.job.FrameExitStatus;
 import com.imageworks.spcue.grpc.job.FrameState;
 import com.imageworks.spcue.grpc.job.JobState;
 import com.imageworks.spcue.grpc.job.LayerType;
+import com.imageworks.spcue.grpc.report.RunningFrameInfo;
 import com.imageworks.spcue.util.CueUtil;
 import com.imageworks.spcue.util.FrameSet;
 import com.imageworks.spcue.util.SqlUtil;
@@ -474,21 +480,140 @@ public class FrameDaoJdbc extends JdbcDaoSupport  implements FrameDao {
         ") " +
         "VALUES (?,?,?,?,?,?,?,?,current_timestamp)";
 
+    /**
+     * The frame columns written by COPY, in the same order as INSERT_FRAME.
+     * ts_updated is given the special timestamp input 'now', which is the
+     * start of the current transaction like current_timestamp.
+     */
+    private static final String COPY_FRAMES =
+        "COPY " +
+            "frame " +
+        "(" +
+            "pk_frame, " +
+            "pk_layer, " +
+            "pk_job, " +
+            "str_name, " +
+            "str_state, " +
+            "int_number, " +
+            "int_dispatch_order, " +
+            "int_layer_order, "+
+            "ts_updated "+
+        ") " +
+        "FROM STDIN";
+
+    /**
+     * Number of characters of COPY data to buffer before
+     * sending them to the server.
+     */
+    private static final int COPY_BUFFER_SIZE = 65536;
+
     @Override
-    public void insertFrames(LayerDetail layer, List<Integer> frames) {
-
-        int count = 0;
-        for (int frame: frames) {
-            getJdbcTemplate().update(INSERT_FRAME,
-                    SqlUtil.genKeyRandom(),
-                    layer.getLayerId(),
-                    layer.getJobId(),
-                    CueUtil.buildFrameName(layer, frame),
-                    FrameState.SETUP.toString(),
-                    frame,
-                    count,
-                    layer.dispatchOrder);
-            count++;
+    public void insertFrames(final LayerDetail layer, final List<Integer> frames) {
+
+        if (frames.isEmpty()) {
+            return;
+        }
+
+        final String[] keys = SqlUtil.genKeysRandom(frames.size());
+
+        /*
+         * Stream the frames in with COPY when the connection is a
+         * Postgres connection, otherwise fall back to a JDBC batch.
+         */
+        Long copied = getJdbcTemplate().execute(new ConnectionCallback<Long>() {
+            public Long doInConnection(Connection conn) throws SQLException {
+                if (!conn.isWrapperFor(PGConnection.class)) {
+                    return null;
+                }
+                return copyFrames(conn.unwrap(PGConnection.class), layer, frames, keys);
+            }
+        });
+
+        if (copied == null) {
+            List<Object[]> batchArgs = new ArrayList<Object[]>(frames.size());
+            int count = 0;
+            for (int frame: frames) {
+                batchArgs.add(new Object[] {
+                        keys[count],
+                        layer.getLayerId(),
+                        layer.getJobId(),
+                        CueUtil.buildFrameName(layer, frame),
+                        FrameState.SETUP.toString(),
+                        frame,
+                        count,
+                        layer.dispatchOrder });
+                count++;
+            }
+            getJdbcTemplate().batchUpdate(INSERT_FRAME, batchArgs);
+        }
+    }
+
+    private static long copyFrames(PGConnection conn, LayerDetail layer,
+                                   List<Integer> frames, String[] keys) throws SQLException {
+
+        String rowPrefix = "\t" + layer.getLayerId() + "\t" + layer.getJobId() + "\t";
+        String state = "\t" + FrameState.SETUP.toString() + "\t";
+        String rowSuffix = "\t" + layer.dispatchOrder + "\tnow\n";
+
+        CopyIn copyIn = conn.getCopyAPI().copyIn(COPY_FRAMES);
+        try {
+            StringBuilder sb = new StringBuilder(COPY_BUFFER_SIZE + 1024);
+            int count = 0;
+            for (int frame: frames) {
+                sb.append(keys[count]);
+                sb.append(rowPrefix);
+                appendCopyText(sb, CueUtil.buildFrameName(layer, frame));
+                sb.append(state);
+                sb.append(frame);
+                sb.append('\t');
+                sb.append(count);
+                sb.append(rowSuffix);
+                count++;
+
+                if (sb.length() >= COPY_BUFFER_SIZE) {
+                    writeCopyData(copyIn, sb);
+                }
+            }
+            writeCopyData(copyIn, sb);
+            return copyIn.endCopy();
+        } finally {
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
+        }
+    }
+
+    private static void writeCopyData(CopyIn copyIn, StringBuilder sb) throws SQLException {
+        if (sb.length() > 0) {
+            byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(data, 0, data.length);
+            sb.setLength(0);
+        }
+    }
+
+    /**
+     * Appends a value to a COPY text format row, escaping the
+     * characters that have a special meaning in that format.
+     */
+    private static void appendCopyText(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
         }
     }
 
@@ -569,6 +694,13 @@ public class FrameDaoJdbc extends JdbcDaoSupport  implements FrameDao {
                 FRAME_DETAIL_MAPPER, r.getValuesArray());
     }
 
+    @Override
+    public List<FrameDetail> getFrameDetails(LayerInterface layer) {
+        return getJdbcTemplate().query(
+                GET_FRAME_DETAIL + " AND frame.pk_layer=? ORDER BY frame.int_number",
+                FRAME_DETAIL_MAPPER, layer.getLayerId());
+    }
+
     @Override
     public List<FrameInterface> findFrames(FrameSearchInterface r) {
         return getJdbcTemplate().query(r.getFilteredQuery(GET_MINIMAL_FRAME),
@@ -979,6 +1111,25 @@ public class FrameDaoJdbc extends JdbcDaoSupport  implements FrameDao {
                 maxRss, rss, f.getFrameId());
     }
 
+    /*
+     * A host report can arrive after the frame it describes has
+     * completed, so only frames which are still running are updated.
+     */
+    private static final String UPDATE_RUNNING_FRAME_MEMORY_USAGE =
+        UPDATE_FRAME_MEMORY_USAGE + "AND str_state = 'RUNNING'";
+
+    @Override
+    public void updateFrameMemoryUsage(List<RunningFrameInfo> frames) {
+        List<Object[]> batchArgs = new ArrayList<Object[]>(frames.size());
+        for (RunningFrameInfo frame: frames) {
+            batchArgs.add(new Object[] {
+                    frame.getMaxRss(), frame.getRss(), frame.getFrameId() });
+        }
+        if (batchArgs.size() > 0) {
+            getJdbcTemplate().batchUpdate(UPDATE_RUNNING_FRAME_MEMORY_USAGE, batchArgs);
+        }
+    }
+
     /**
      * Attempt a SELECT FOR UPDATE NOWAIT on the frame record.  If
      * the frame is being modified by another transaction or if
@@ -424,6 +424,13 @@ public class HostDaoJdbc extends JdbcDaoSupport implements HostDao {
                 bootTime, os, host.getHostId());
     }
 
+    @Override
+    public void updateHostPing(HostInterface host) {
+        getJdbcTemplate().update(
+                "UPDATE host_stat SET ts_ping = current_timestamp WHERE pk_host=?",
+                host.getHostId());
+    }
+
     @Override
     public boolean hostExists(String hostname) {
         try {
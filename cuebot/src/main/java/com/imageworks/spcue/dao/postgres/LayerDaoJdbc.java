@@ -21,6 +21,7 @@ package com.imageworks.spcue.dao.postgres;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -314,6 +315,29 @@ public class LayerDaoJdbc extends JdbcDaoSupport implements LayerDao {
      ") " +
      "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 
+     private static final String INSERT_LAYER_WITH_TAG_IDS =
+     "INSERT INTO " +
+         "layer " +
+     "("+
+         "pk_layer, " +
+         "pk_job, "+
+         "str_name, " +
+         "str_cmd, " +
+         "str_range, " +
+         "int_chunk_size, " +
+         "int_dispatch_order, " +
+         "str_tags, " +
+         "str_type," +
+         "int_cores_min, "+
+         "int_cores_max, "+
+         "b_threadable, " +
+         "int_mem_min, " +
+         "int_gpu_min, " +
+         "str_services, " +
+         "int_tag_ids " +
+     ") " +
+     "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,CAST(? AS INT[]))";
+
      @Override
      public void insertLayerDetail(LayerDetail l) {
         l.id =  SqlUtil.genKeyRandom();
@@ -325,6 +349,35 @@ public class LayerDaoJdbc extends JdbcDaoSupport implements LayerDao {
                 l.minimumMemory, l.minimumGpu, StringUtils.join(l.services,","));
     }
 
+    @Override
+    public void insertLayerDetails(List<LayerDetail> layers) {
+        /*
+         * Layers in a job spec usually share a handful of tag strings,
+         * so intern each distinct one once instead of letting the
+         * insert trigger do it for every layer.
+         */
+        Map<String, String> tagIds = new HashMap<String, String>();
+        List<Object[]> batchArgs = new ArrayList<Object[]>(layers.size());
+        for (LayerDetail l: layers) {
+            l.id =  SqlUtil.genKeyRandom();
+            String tags = StringUtils.join(l.tags," | ");
+            String ids = tagIds.get(tags);
+            if (ids == null) {
+                ids = getJdbcTemplate().queryForObject(
+                        "SELECT CAST(intern_tags(?) AS VARCHAR)", String.class, tags);
+                tagIds.put(tags, ids);
+            }
+            batchArgs.add(new Object[] {
+                    l.id, l.jobId, l.name, l.command,
+                    l.range, l.chunkSize, l.dispatchOrder,
+                    tags, l.type.toString(),
+                    l.minimumCores, l.maximumCores, l.isThreadable,
+                    l.minimumMemory, l.minimumGpu, StringUtils.join(l.services,","),
+                    ids });
+        }
+        getJdbcTemplate().batchUpdate(INSERT_LAYER_WITH_TAG_IDS, batchArgs);
+    }
+
     @Override
     public void updateLayerMinMemory(LayerInterface layer, long val) {
         if (val < Dispatcher.MEM_RESERVED_MIN) {
@@ -386,6 +439,22 @@ public class LayerDaoJdbc extends JdbcDaoSupport implements LayerDao {
                 val, layer.getLayerId(), val);
     }
 
+    @Override
+    public void updateLayerMemoryUsage(Map<String, Long> maxRss) {
+        if (maxRss.isEmpty()) {
+            return;
+        }
+        List<Object[]> batchArgs = new ArrayList<Object[]>(maxRss.size());
+        for (Map.Entry<String, Long> e: maxRss.entrySet()) {
+            batchArgs.add(new Object[] { e.getValue(), e.getKey(), e.getValue() });
+        }
+        getJdbcTemplate().batchUpdate(
+                "UPDATE layer SET int_mem_min=? WHERE pk_layer=? AND int_mem_min < ?",
+                batchArgs);
+        getJdbcTemplate().batchUpdate(
+                UPDATE_LAYER_MAX_RSS + " AND int_max_rss < ?", batchArgs);
+    }
+
     @Override
     public void increaseLayerMinGpu(LayerInterface layer, long gpu) {
         getJdbcTemplate().update("UPDATE layer SET int_gpu_min=? WHERE pk_layer=? AND int_gpu_min < ?",
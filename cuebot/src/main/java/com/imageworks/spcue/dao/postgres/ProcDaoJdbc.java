@@ -22,9 +22,12 @@ package com.imageworks.spcue.dao.postgres;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.RowMapper;
@@ -45,6 +48,7 @@ import com.imageworks.spcue.dispatcher.Dispatcher;
 import com.imageworks.spcue.dispatcher.ResourceDuplicationFailureException;
 import com.imageworks.spcue.dispatcher.ResourceReservationFailureException;
 import com.imageworks.spcue.grpc.host.HardwareState;
+import com.imageworks.spcue.grpc.report.RunningFrameInfo;
 import com.imageworks.spcue.util.SqlUtil;
 
 public class ProcDaoJdbc extends JdbcDaoSupport implements ProcDao {
@@ -259,6 +263,44 @@ public class ProcDaoJdbc extends JdbcDaoSupport implements ProcDao {
         }
     }
 
+    @Override
+    public void updateProcMemoryUsage(List<RunningFrameInfo> frames) {
+        if (frames.isEmpty()) {
+            return;
+        }
+
+        /*
+         * Lock the procs still running these frames in frame order,
+         * the same as the single frame update does, so a proc which
+         * is being booked by another thread is updated after it and
+         * a proc which was rebooked onto a different frame is skipped.
+         *
+         * Errors are not caught here, a failed statement aborts the
+         * whole transaction so the caller has to know about it.
+         */
+        List<String> frameIds = new ArrayList<String>(frames.size());
+        for (RunningFrameInfo frame: frames) {
+            frameIds.add(frame.getFrameId());
+        }
+        Set<String> locked = new HashSet<String>(getJdbcTemplate().queryForList(
+                "SELECT pk_frame FROM proc WHERE pk_frame IN (" +
+                String.join(",", Collections.nCopies(frameIds.size(), "?")) +
+                ") ORDER BY pk_frame FOR UPDATE",
+                String.class, frameIds.toArray()));
+
+        List<Object[]> batchArgs = new ArrayList<Object[]>(locked.size());
+        for (RunningFrameInfo frame: frames) {
+            if (locked.contains(frame.getFrameId())) {
+                batchArgs.add(new Object[] {
+                        frame.getRss(), frame.getMaxRss(), frame.getVsize(),
+                        frame.getMaxVsize(), frame.getFrameId() });
+            }
+        }
+        if (batchArgs.size() > 0) {
+            getJdbcTemplate().batchUpdate(UPDATE_PROC_MEMORY_USAGE, batchArgs);
+        }
+    }
+
     /**
      * Maps a row to a VirtualProc object.
      */
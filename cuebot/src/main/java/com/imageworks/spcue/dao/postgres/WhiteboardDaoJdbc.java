@@ -19,16 +19,23 @@
 
 package com.imageworks.spcue.dao.postgres;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.apache.log4j.Logger;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
 
@@ -122,6 +129,7 @@ import com.imageworks.spcue.grpc.subscription.Subscription;
 import com.imageworks.spcue.grpc.subscription.SubscriptionSeq;
 import com.imageworks.spcue.grpc.task.Task;
 import com.imageworks.spcue.grpc.task.TaskSeq;
+import com.imageworks.spcue.service.JobUpdateFeed;
 import com.imageworks.spcue.util.Convert;
 import com.imageworks.spcue.util.CueUtil;
 import com.imageworks.spcue.util.SqlUtil;
@@ -132,6 +140,15 @@ public class WhiteboardDaoJdbc extends JdbcDaoSupport implements WhiteboardDao {
 
     private FrameSearchFactory frameSearchFactory;
     private ProcSearchFactory procSearchFactory;
+    private JobUpdateFeed jobUpdateFeed;
+
+    @Override
+    protected void initDao() {
+        if (jobUpdateFeed != null) {
+            jobUpdateFeed.setLoader(this::getUpdatedFrames);
+            jobUpdateFeed.setResyncLoader(this::getResyncFrames);
+        }
+    }
 
     @Override
     public Service getService(String id) {
@@ -329,10 +346,16 @@ public class WhiteboardDaoJdbc extends JdbcDaoSupport implements WhiteboardDao {
     @Override
     public JobSeq getJobs(JobSearchInterface r) {
         List<Job> jobs = getJdbcTemplate().query(
-                r.getFilteredQuery(GET_JOB) + "ORDER BY job.str_name ASC", JOB_MAPPER, r.getValuesArray());
+                r.getFilteredQuery(GET_JOB), JOB_MAPPER, r.getValuesArray());
         return JobSeq.newBuilder().addAllJobs(jobs).build();
     }
 
+    @Override
+    public void streamJobs(JobSearchInterface r, int batchSize, Consumer<JobSeq> consumer) {
+        streamQuery(r.getFilteredQuery(GET_JOB), r.getValuesArray(), JOB_MAPPER, batchSize,
+                jobs -> consumer.accept(JobSeq.newBuilder().addAllJobs(jobs).build()));
+    }
+
     @Override
     public Job findJob(String name) {
         return getJdbcTemplate().queryForObject(
@@ -433,6 +456,14 @@ public class WhiteboardDaoJdbc extends JdbcDaoSupport implements WhiteboardDao {
         return FrameSeq.newBuilder().addAllFrames(frames).build();
     }
 
+    @Override
+    public void streamFrames(FrameSearchInterface r, int batchSize, Consumer<FrameSeq> consumer) {
+        streamQuery(r.getFilteredQuery(GET_FRAMES_CRITERIA) +
+                " ORDER BY frame.int_dispatch_order ASC, layer.int_dispatch_order ASC",
+                r.getValuesArray(), FRAME_MAPPER, batchSize,
+                frames -> consumer.accept(FrameSeq.newBuilder().addAllFrames(frames).build()));
+    }
+
     @Override
     public Depend getDepend(DependInterface depend) {
         return getJdbcTemplate().queryForObject(
@@ -535,6 +566,12 @@ public class WhiteboardDaoJdbc extends JdbcDaoSupport implements WhiteboardDao {
         return HostSeq.newBuilder().addAllHosts(hosts).build();
     }
 
+    @Override
+    public void streamHosts(HostSearchInterface r, int batchSize, Consumer<HostSeq> consumer) {
+        streamQuery(r.getFilteredQuery(GET_HOST), r.getValuesArray(), HOST_MAPPER, batchSize,
+                hosts -> consumer.accept(HostSeq.newBuilder().addAllHosts(hosts).build()));
+    }
+
     @Override
     public Host getHost(String id) {
         return getJdbcTemplate().queryForObject(
@@ -600,6 +637,83 @@ public class WhiteboardDaoJdbc extends JdbcDaoSupport implements WhiteboardDao {
         return resultBuilder.build();
     }
 
+    /**
+     * Runs the query with the given fetch size and passes the rows to
+     * the consumer in batches as they are read, so only about one
+     * batch of rows is held in memory no matter how many match.  The
+     * fetch size is only honored inside a transaction.  The batch list
+     * is reused once the consumer returns.
+     */
+    private <T> void streamQuery(String query, Object[] args, RowMapper<T> mapper,
+            int batchSize, Consumer<List<T>> consumer) {
+        List<T> batch = new ArrayList<T>(batchSize);
+        getJdbcTemplate().query(conn -> {
+            PreparedStatement ps = conn.prepareStatement(query,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(batchSize);
+            new ArgumentPreparedStatementSetter(args).setValues(ps);
+            return ps;
+        }, new RowCallbackHandler() {
+            private int rowNum = 0;
+
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+                batch.add(mapper.mapRow(rs, rowNum++));
+                if (batch.size() >= batchSize) {
+                    consumer.accept(batch);
+                    batch.clear();
+                }
+            }
+        });
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+        }
+    }
+
+    /**
+     * Returns the state of the job and the current state of the given
+     * frames, for the job update feed.
+     */
+    private UpdatedFrameCheckResult getUpdatedFrames(String jobId, List<String> frameIds) {
+        UpdatedFrameCheckResult.Builder resultBuilder = UpdatedFrameCheckResult.newBuilder();
+        resultBuilder.setState(JobState.valueOf(getJdbcTemplate().queryForObject(
+                "SELECT str_state FROM job WHERE pk_job=?", String.class, jobId)));
+
+        if (!frameIds.isEmpty()) {
+            List<UpdatedFrame> updatedFrameList = getJdbcTemplate().query(
+                    GET_UPDATED_FRAME + " AND " +
+                    SqlUtil.buildBindVariableArray("frame.pk_frame", frameIds),
+                    UPDATED_FRAME_MAPPER, frameIds.toArray());
+            resultBuilder.setUpdatedFrames(UpdatedFrameSeq.newBuilder().addAllUpdatedFrames(updatedFrameList).build());
+        }
+        resultBuilder.setServerTime((int) (System.currentTimeMillis() / 1000) - 1);
+
+        return resultBuilder.build();
+    }
+
+    private static final String GET_RESYNC_FRAMES =
+        "SELECT " +
+            "pk_frame, " +
+            "pk_layer " +
+        "FROM " +
+            "frame " +
+        "WHERE " +
+            "pk_job=? " +
+        "AND " +
+            "interval_to_seconds(current_timestamp - ts_updated) < ?";
+
+    /**
+     * Returns the frames of the job updated within the given number
+     * of seconds, mapped to their layer, for the job update feed.
+     */
+    private Map<String, String> getResyncFrames(String jobId, Integer seconds) {
+        Map<String, String> frames = new HashMap<String, String>();
+        getJdbcTemplate().query(GET_RESYNC_FRAMES, rs -> {
+            frames.put(rs.getString("pk_frame"), rs.getString("pk_layer"));
+        }, jobId, seconds);
+        return frames;
+    }
+
     @Override
     public Department getDepartment(ShowInterface show, String name) {
         return getJdbcTemplate().queryForObject(
@@ -2173,5 +2287,13 @@ public class WhiteboardDaoJdbc extends JdbcDaoSupport implements WhiteboardDao {
     public void setProcSearchFactory(ProcSearchFactory procSearchFactory) {
         this.procSearchFactory = procSearchFactory;
     }
+
+    public JobUpdateFeed getJobUpdateFeed() {
+        return jobUpdateFeed;
+    }
+
+    public void setJobUpdateFeed(JobUpdateFeed jobUpdateFeed) {
+        this.jobUpdateFeed = jobUpdateFeed;
+    }
 }
 
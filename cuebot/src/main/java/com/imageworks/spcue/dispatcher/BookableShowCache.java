@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.log4j.Logger;
+
+import com.imageworks.spcue.SortableShow;
+
+/**
+ * A cache of the shows with pending work for each allocation.
+ *
+ * The sorted show list for an allocation is loaded once no matter
+ * how many booking threads ask for it at the same time.  Once an
+ * entry is older than the refresh interval, the next read returns
+ * the cached list and starts a reload in the background, so booking
+ * threads don't wait on FIND_SHOWS.  Entries that have not been
+ * refreshed by the expire interval, for example because the reload
+ * keeps failing, are loaded again in the foreground.
+ *
+ * Shows that are skipped for an allocation, or for hosts with a set
+ * of tags that are too small, are remembered separately from the
+ * show list, each for the skip TTL.
+ */
+public class BookableShowCache {
+
+    private static final Logger logger = Logger.getLogger(BookableShowCache.class);
+
+    private final LoadingCache<String, List<SortableShow>> shows;
+
+    /*
+     * Shows skipped for an allocation, keyed by show and allocation.
+     */
+    private final Cache<String, Boolean> skippedAllocs;
+
+    /*
+     * The idle cores and memory a host with the given tags had when
+     * no job in the show could use it, keyed by show and tags.
+     */
+    private final Cache<String, long[]> skippedTags;
+
+    private final ExecutorService refreshExecutor;
+
+    private volatile Function<String, List<SortableShow>> loader;
+
+    public BookableShowCache(long refreshMillis, long expireMillis, int maxSize,
+            long skipTtlMillis) {
+        refreshExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("BookableShowCache-%d")
+                        .setDaemon(true).build());
+
+        shows = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .refreshAfterWrite(refreshMillis, TimeUnit.MILLISECONDS)
+                .expireAfterWrite(expireMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build(CacheLoader.asyncReloading(new CacheLoader<String, List<SortableShow>>() {
+                    @Override
+                    public List<SortableShow> load(String allocId) {
+                        List<SortableShow> result = new ArrayList<SortableShow>(
+                                loader.apply(allocId));
+                        Collections.sort(result);
+                        return Collections.unmodifiableList(result);
+                    }
+                }, refreshExecutor));
+
+        skippedAllocs = CacheBuilder.newBuilder()
+                .maximumSize(maxSize * 100)
+                .expireAfterWrite(skipTtlMillis, TimeUnit.MILLISECONDS)
+                .build();
+
+        skippedTags = CacheBuilder.newBuilder()
+                .maximumSize(maxSize * 100)
+                .expireAfterWrite(skipTtlMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Sets the function that loads the unsorted show list for an
+     * allocation from the database.
+     *
+     * @param loader
+     */
+    public void setLoader(Function<String, List<SortableShow>> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the shows with pending work for the allocation, sorted
+     * by tier.  The returned list can't be modified.
+     *
+     * @param allocId
+     * @return a sorted list of shows
+     */
+    public List<SortableShow> getShows(String allocId) {
+        try {
+            return shows.get(allocId);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new DispatcherException("failed to load bookable shows for " +
+                    allocId + ", " + e.getCause());
+        }
+    }
+
+    /**
+     * Returns true if the show was skipped for hosts with the given
+     * tags that had at least as many cores and as much memory.
+     *
+     * @param showId
+     * @param tags
+     * @param cores
+     * @param memory
+     * @return true if the show should be skipped
+     */
+    public boolean isSkipped(String showId, String tags, long cores, long memory) {
+        long[] mark = skippedTags.getIfPresent(showId + "/" + tags);
+        if (mark == null) {
+            return false;
+        }
+        if (cores <= mark[0]) {
+            logger.info("skipped due to not enough cores " + cores + " <= " + mark[0]);
+            return true;
+        }
+        else if (memory <= mark[1]) {
+            logger.info("skipped due to not enough memory " + memory + " <= " + mark[1]);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips the show for hosts with the given tags and no more than
+     * the given cores and memory.
+     *
+     * @param showId
+     * @param tags
+     * @param cores
+     * @param memory
+     */
+    public void skip(String showId, String tags, long cores, long memory) {
+        skippedTags.put(showId + "/" + tags, new long[] { cores, memory });
+    }
+
+    /**
+     * Returns true if the show was skipped for the allocation.
+     *
+     * @param showId
+     * @param allocId
+     * @return true if the show should be skipped
+     */
+    public boolean isSkipped(String showId, String allocId) {
+        return skippedAllocs.getIfPresent(showId + "/" + allocId) != null;
+    }
+
+    /**
+     * Skips the show for the allocation, usually because the show is
+     * at its burst.
+     *
+     * @param showId
+     * @param allocId
+     */
+    public void skip(String showId, String allocId) {
+        skippedAllocs.put(showId + "/" + allocId, Boolean.TRUE);
+    }
+
+    /**
+     * Drops every cached show list and skip.
+     */
+    public void invalidateAll() {
+        shows.invalidateAll();
+        skippedAllocs.invalidateAll();
+        skippedTags.invalidateAll();
+    }
+
+    public long getHitCount() {
+        return shows.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return shows.stats().missCount();
+    }
+
+    public long getLoadCount() {
+        CacheStats stats = shows.stats();
+        return stats.loadSuccessCount() + stats.loadExceptionCount();
+    }
+
+    public long getLoadFailureCount() {
+        return shows.stats().loadExceptionCount();
+    }
+
+    /**
+     * Returns the average time spent loading a show list.
+     *
+     * @return the average load time in milliseconds
+     */
+    public double getAverageLoadMillis() {
+        return shows.stats().averageLoadPenalty() / 1000000.0;
+    }
+
+    public long getSize() {
+        return shows.size();
+    }
+
+    public void shutdown() {
+        refreshExecutor.shutdown();
+    }
+}
@@ -1,4 +1,3 @@
-
 /*
  * Copyright (c) 2018 Sony Pictures Imageworks Inc.
  *
@@ -19,89 +18,444 @@
 
 package com.imageworks.spcue.dispatcher;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
+import com.imageworks.spcue.dispatcher.commands.DispatchBookHost;
+
+/**
+ * A thread pool for booking hosts.
+ *
+ * Waiting bookings are ordered by the number of idle cores on the
+ * host, so the hosts that can take the most work are booked first.
+ * When the queue is full, the least valuable booking, the one with
+ * the fewest idle cores, is dropped to make room instead of clearing
+ * the queue.
+ *
+ * Each host has at most one booking waiting or running, so bookings
+ * for the same host never race each other for the same rows.  A
+ * later booking for a host with a waiting booking is merged into it,
+ * see DispatchBookHost.merge, or skipped if the waiting booking
+ * already covers it.  A booking for a host that is being booked is
+ * held and merged the same way, then queued once the running
+ * booking completes.
+ *
+ * The number of booking threads adapts to how long bookings take,
+ * which is mostly database and RQD time.  While bookings complete
+ * under the target latency and work is waiting, a thread is added
+ * each interval.  When bookings are slower than the target, the
+ * number of threads is cut by a quarter.
+ */
 public class BookingQueue extends ThreadPoolExecutor {
 
     private static final Logger logger = Logger.getLogger(BookingQueue.class);
 
-    private static final int INITIAL_QUEUE_SIZE = 1000;
-
-    private static final int THREADS_MINIMUM = 6;
-    private static final int THREADS_MAXIMUM = 6;
+    private static final int DEFAULT_THREADS_MINIMUM = 2;
+    private static final int DEFAULT_THREADS_MAXIMUM = 16;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private static final long DEFAULT_TARGET_LATENCY_MILLIS = 1000;
     private static final int THREADS_KEEP_ALIVE_SECONDS = 10;
+    private static final long ADJUST_INTERVAL_MILLIS = 1000;
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final int capacity;
+    private final long targetLatencyMillis;
 
-    private int baseSleepTimeMillis = 400;
     private AtomicBoolean isShutdown = new AtomicBoolean(false);
 
     private QueueRejectCounter rejectCounter = new QueueRejectCounter();
 
-    public BookingQueue(int sleepTimeMs) {
-        super(THREADS_MINIMUM, THREADS_MAXIMUM, THREADS_KEEP_ALIVE_SECONDS,
-                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(INITIAL_QUEUE_SIZE));
-        this.baseSleepTimeMillis = sleepTimeMs;
+    /**
+     * The waiting or running booking for each host.
+     */
+    private final ConcurrentHashMap<String, BookingTask> bookings =
+        new ConcurrentHashMap<String, BookingTask>();
+
+    private final AtomicLong sequence = new AtomicLong(0);
+    private final AtomicLong skippedCount = new AtomicLong(0);
+    private final AtomicLong mergedCount = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+
+    /*
+     * Booking latency since the last adjustment.
+     */
+    private final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
+    private final AtomicLong intervalCount = new AtomicLong(0);
+    private final AtomicLong intervalMillis = new AtomicLong(0);
+    private final Object adjustLock = new Object();
+    private long lastAdjustTime = System.currentTimeMillis();
+    private volatile long lastLatencyMillis = 0;
+
+    public BookingQueue() {
+        this(DEFAULT_THREADS_MINIMUM, DEFAULT_THREADS_MAXIMUM, DEFAULT_QUEUE_CAPACITY,
+                DEFAULT_TARGET_LATENCY_MILLIS);
+    }
+
+    public BookingQueue(int minThreads, int maxThreads, int capacity,
+            long targetLatencyMillis) {
+        super(minThreads, maxThreads, THREADS_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(capacity, new BookingTaskComparator()));
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.capacity = capacity;
+        this.targetLatencyMillis = targetLatencyMillis;
         this.setRejectedExecutionHandler(rejectCounter);
     }
 
     public void execute(Runnable r) {
-        if (!isShutdown.get()) {
-            super.execute(r);
+        if (isShutdown.get()) {
+            return;
         }
+
+        if (!(r instanceof DispatchBookHost)) {
+            queue(new BookingTask(r));
+            return;
+        }
+
+        final DispatchBookHost book = (DispatchBookHost) r;
+        final BookingTask[] created = new BookingTask[1];
+        bookings.compute(book.getDispatchHost().getName(), (hostName, task) -> {
+            if (task == null) {
+                created[0] = new BookingTask(book);
+                return created[0];
+            }
+            task.offer(book);
+            return task;
+        });
+
+        if (created[0] != null) {
+            queue(created[0]);
+        }
+    }
+
+    private void queue(BookingTask task) {
+        task.sequence = sequence.getAndIncrement();
+        if (getQueue().size() >= capacity && !makeRoom(task)) {
+            task.forget();
+            droppedCount.incrementAndGet();
+            return;
+        }
+        super.execute(task);
+    }
+
+    /**
+     * Drops the least valuable waiting booking if it is worth less
+     * than the given one.
+     *
+     * @return true if there is now room for the booking
+     */
+    private synchronized boolean makeRoom(BookingTask task) {
+        BookingTask victim = null;
+        for (Runnable r: getQueue()) {
+            BookingTask queued = (BookingTask) r;
+            if (victim == null || BookingTaskComparator.compareTasks(queued, victim) > 0) {
+                victim = queued;
+            }
+        }
+        if (victim == null) {
+            return true;
+        }
+        if (BookingTaskComparator.compareTasks(task, victim) >= 0) {
+            return false;
+        }
+        if (getQueue().remove(victim)) {
+            victim.forget();
+            droppedCount.incrementAndGet();
+        }
+        return true;
     }
 
     public long getRejectedTaskCount() {
         return rejectCounter.getRejectCount();
     }
 
+    /**
+     * Return the number of bookings skipped because the booking
+     * already waiting for the host covered them.
+     *
+     * @return the number of skipped bookings
+     */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * Return the number of bookings merged into a booking waiting
+     * for, or held behind a booking running on, the same host.
+     *
+     * @return the number of merged bookings
+     */
+    public long getMergedCount() {
+        return mergedCount.get();
+    }
+
+    /**
+     * Return the number of hosts with a booking waiting or running.
+     *
+     * @return the number of hosts
+     */
+    public int getHostCount() {
+        return bookings.size();
+    }
+
+    /**
+     * Return the number of bookings dropped because the queue was
+     * full.
+     *
+     * @return the number of dropped bookings
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Return the number of bookings that can be queued before
+     * waiting bookings start to be dropped.
+     *
+     * @return the remaining capacity
+     */
+    public int getRemainingCapacity() {
+        return Math.max(0, capacity - getQueue().size());
+    }
+
+    /**
+     * Return the average time a booking took over the last
+     * adjustment interval.
+     *
+     * @return the booking latency in milliseconds
+     */
+    public long getLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
     public void shutdown() {
         if (!isShutdown.getAndSet(true)) {
             logger.info("clearing out booking queue: " + this.getQueue().size());
             this.getQueue().clear();
+            bookings.clear();
         }
+    }
+
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        startTime.set(System.currentTimeMillis());
+    }
 
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        Long start = startTime.get();
+        if (start != null) {
+            startTime.remove();
+            intervalMillis.addAndGet(System.currentTimeMillis() - start);
+            intervalCount.incrementAndGet();
+        }
+        adjust();
     }
 
     /**
-     * Lowers the sleep time as the queue grows.
-     *
-     * @return
+     * Adjusts the number of booking threads once per interval.  The
+     * count is raised by one while bookings are fast and work is
+     * waiting, and cut by a quarter when bookings are slow.
      */
-    public int sleepTime() {
-        if (!isShutdown.get()) {
-            int sleep = (int) (baseSleepTimeMillis - (((this.getQueue().size () /
-                    (float) INITIAL_QUEUE_SIZE) * baseSleepTimeMillis)) * 2);
-            if (sleep < 0) {
-                sleep = 0;
+    private void adjust() {
+        long now = System.currentTimeMillis();
+        synchronized (adjustLock) {
+            if (now - lastAdjustTime < ADJUST_INTERVAL_MILLIS) {
+                return;
+            }
+            lastAdjustTime = now;
+
+            long count = intervalCount.getAndSet(0);
+            long millis = intervalMillis.getAndSet(0);
+            if (count == 0) {
+                return;
+            }
+            lastLatencyMillis = millis / count;
+
+            int threads = getCorePoolSize();
+            int target = threads;
+            if (lastLatencyMillis > targetLatencyMillis) {
+                target = Math.max(minThreads, threads - Math.max(1, threads / 4));
+            }
+            else if (!getQueue().isEmpty()) {
+                target = Math.min(maxThreads, threads + 1);
+            }
+
+            if (target != threads) {
+                logger.info("booking latency " + lastLatencyMillis + "ms, " +
+                        getQueue().size() + " waiting, changing booking threads from " +
+                        threads + " to " + target);
+                setCorePoolSize(target);
             }
-            return sleep;
-        } else {
-            return 0;
         }
     }
 
-    protected void beforeExecute(Thread t, Runnable r) {
-        super.beforeExecute(t, r);
-        if (isShutdown()) {
-            this.remove(r);
-        } else {
+    /**
+     * Wraps a booking with its place in line.  A booking for a host
+     * stays registered with the host until it completes and nothing
+     * is held behind it.  All changes to a host's booking are made
+     * while holding the host's entry in the bookings map.
+     */
+    private final class BookingTask implements Runnable {
+
+        private final String hostName;
+        private Runnable command;
+        private final ArrayDeque<DispatchBookHost> held = new ArrayDeque<DispatchBookHost>();
+        private boolean running = false;
+        private volatile int idleCores;
+        private volatile long sequence;
+
+        BookingTask(Runnable command) {
+            this.command = command;
+            this.hostName = null;
+            this.idleCores = 0;
+        }
+
+        BookingTask(DispatchBookHost command) {
+            this.command = command;
+            this.hostName = command.getDispatchHost().getName();
+            this.idleCores = command.getDispatchHost().idleCores;
+        }
+
+        /**
+         * Merges a later booking for the host into this one, or holds
+         * it until this one completes if this one is running or the
+         * bookings cannot be merged.  Held bookings run in the order
+         * they arrived, and each is merged into the one held before
+         * it where possible.
+         */
+        synchronized void offer(DispatchBookHost book) {
+            if (!running && held.isEmpty()) {
+                DispatchBookHost current = (DispatchBookHost) command;
+                if (current.canMerge(book)) {
+                    command = merge(current, book);
+                    reorder(((DispatchBookHost) command).getDispatchHost().idleCores);
+                    return;
+                }
+            }
+
+            DispatchBookHost last = held.peekLast();
+            if (last != null && last.canMerge(book)) {
+                held.pollLast();
+                held.addLast(merge(last, book));
+            }
+            else {
+                held.addLast(book);
+            }
+        }
+
+        private DispatchBookHost merge(DispatchBookHost current, DispatchBookHost book) {
+            if (current.covers(book)) {
+                skippedCount.incrementAndGet();
+            }
+            else {
+                mergedCount.incrementAndGet();
+            }
+            return current.merge(book);
+        }
+
+        /**
+         * Moves a waiting booking to its place for the merged host's
+         * idle cores.  The queue is ordered by idle cores, so the
+         * booking is taken out while they change and put back with
+         * its original sequence.  If a booking thread has already
+         * taken it, only the count is updated.
+         */
+        private void reorder(int cores) {
+            if (cores == idleCores) {
+                return;
+            }
+            if (getQueue().remove(this)) {
+                idleCores = cores;
+                BookingQueue.super.execute(this);
+            }
+            else {
+                idleCores = cores;
+            }
+        }
+
+        void forget() {
+            if (hostName != null) {
+                bookings.remove(hostName, this);
+            }
+        }
+
+        public void run() {
+            Runnable current;
+            synchronized (this) {
+                running = true;
+                current = command;
+            }
+
             try {
-                Thread.sleep(sleepTime());
-            } catch (InterruptedException e) {
-                logger.info("booking queue was interrupted.");
+                current.run();
+            }
+            finally {
+                if (hostName != null) {
+                    complete();
+                }
+            }
+        }
+
+        /**
+         * Releases the host, or queues the booking that was held
+         * while this one ran.
+         */
+        private void complete() {
+            final boolean[] requeue = new boolean[1];
+            bookings.computeIfPresent(hostName, (name, task) -> {
+                if (task != this) {
+                    return task;
+                }
+                synchronized (this) {
+                    running = false;
+                    DispatchBookHost next = held.pollFirst();
+                    if (next == null) {
+                        return null;
+                    }
+                    command = next;
+                    idleCores = next.getDispatchHost().idleCores;
+                    requeue[0] = true;
+                    return this;
+                }
+            });
+
+            if (requeue[0]) {
+                if (isShutdown.get()) {
+                    forget();
+                }
+                else {
+                    queue(this);
+                }
             }
         }
     }
 
-    protected void afterExecute(Runnable r, Throwable t) {
-        super.afterExecute(r, t);
-        if (sleepTime() < 100) {
-            getQueue().clear();
+    /**
+     * Orders bookings by idle cores, most first, then by the order
+     * they were queued.
+     */
+    private static final class BookingTaskComparator implements Comparator<Runnable> {
+
+        static int compareTasks(BookingTask a, BookingTask b) {
+            if (a.idleCores != b.idleCores) {
+                return a.idleCores > b.idleCores ? -1 : 1;
+            }
+            return Long.compare(a.sequence, b.sequence);
+        }
+
+        @Override
+        public int compare(Runnable a, Runnable b) {
+            return compareTasks((BookingTask) a, (BookingTask) b);
         }
     }
 }
-
@@ -40,6 +40,7 @@ import com.imageworks.spcue.JobInterface;
 import com.imageworks.spcue.LayerInterface;
 import com.imageworks.spcue.ShowInterface;
 import com.imageworks.spcue.VirtualProc;
+import com.imageworks.spcue.grpc.job.JobState;
 import com.imageworks.spcue.rqd.RqdClient;
 import com.imageworks.spcue.rqd.RqdClientException;
 import com.imageworks.spcue.service.HostManager;
@@ -59,7 +60,9 @@ import com.imageworks.spcue.util.CueUtil;
  * 2. Reserve processor resources and update resource counts
  * on the host, subscription, job, layer, group, and shot.
  *
- * 3. Contact RQD and launch the frame.
+ * 3. Contact RQD and launch the frame.  If the FrameLauncher is
+ * pipelined, the launch is sent without waiting for RQD and a failed
+ * launch is rolled back from the launch's failure callback.
  *
  * Error Handling
  *
@@ -96,6 +99,10 @@ public class CoreUnitDispatcher implements Dispatcher {
 
     private HostManager hostManager;
 
+    private DispatchIndex dispatchIndex;
+
+    private FrameLauncher frameLauncher;
+
     public boolean testMode = false;
 
     @Autowired
@@ -152,6 +159,19 @@ public class CoreUnitDispatcher implements Dispatcher {
                 }
 
                 DispatchJob job = jobManager.getDispatchJob(jobid);
+
+                /*
+                 * Jobs may come from the dispatch index, which can be a
+                 * few seconds behind.  Drop anything that is no longer
+                 * dispatchable.
+                 */
+                if (job.paused || job.state != JobState.PENDING) {
+                    if (dispatchIndex != null) {
+                        dispatchIndex.removeJob(jobid);
+                    }
+                    continue;
+                }
+
                 try {
                     procs.addAll(dispatchHost(host, job));
                 }
@@ -354,23 +374,74 @@ public class CoreUnitDispatcher implements Dispatcher {
     @Override
     public void dispatch(DispatchFrame frame, VirtualProc proc) {
         /*
-         * The frame is reserved, the proc is created, now update
-         * the frame to the running state.
+         * Reserve the launch before anything is written, so a host
+         * with too many launches in flight is skipped without
+         * waiting and without reserving a frame that has to be
+         * rolled back.
          */
-        dispatchSupport.startFrame(proc, frame);
+        boolean pipelined = !testMode && frameLauncher != null &&
+                frameLauncher.isPipelined();
+        if (pipelined && !frameLauncher.reserve(proc.hostName)) {
+            throw new LaunchThrottledException("too many launches in flight to " +
+                    proc.getName() + ", skipping until its next report");
+        }
 
-        /*
-         * Creates a proc to run on the specified frame.  Throws
-         * a ResourceReservationFailureException if the proc
-         * cannot be created due to lack of resources.
-         */
-        dispatchSupport.reserveProc(proc, frame);
+        try {
+            /*
+             * The frame is reserved, the proc is created, now update
+             * the frame to the running state.
+             */
+            dispatchSupport.startFrame(proc, frame);
+
+            /*
+             * Creates a proc to run on the specified frame.  Throws
+             * a ResourceReservationFailureException if the proc
+             * cannot be created due to lack of resources.
+             */
+            dispatchSupport.reserveProc(proc, frame);
+        } catch (RuntimeException e) {
+            if (pipelined) {
+                frameLauncher.release(proc.hostName);
+            }
+            throw e;
+        }
 
         /*
          * Communicate with RQD to run the frame.
          */
         if (!testMode) {
-            dispatchSupport.runFrame(proc,frame);
+            if (frameLauncher == null) {
+                dispatchSupport.runFrame(proc,frame);
+            }
+            else {
+                frameLauncher.launch(proc, frame, e -> {
+                    DispatchSupport.bookingErrors.incrementAndGet();
+                    rollbackDispatch(proc, frame);
+                });
+            }
+        }
+    }
+
+    /**
+     * Removes the proc and sets the frame back to waiting after a
+     * dispatch failed past the point of reserving the proc.  The frame
+     * could also be running, so it is killed just in case.
+     *
+     * @param proc
+     * @param frame
+     */
+    private void rollbackDispatch(VirtualProc proc, DispatchFrame frame) {
+        dispatchSupport.unbookProc(proc);
+        dispatchSupport.clearFrame(frame);
+
+        try {
+            rqdClient.killFrame(proc, "An accounting error occured " +
+                    "when booking this frame.");
+        } catch (RqdClientException rqde) {
+            /*
+             * Its almost expected that this will fail, as this is
+             * just a precaution if the frame did actually launch.
+             */
         }
     }
 
@@ -438,6 +509,22 @@ public class CoreUnitDispatcher implements Dispatcher {
         this.rqdClient = rqdClient;
     }
 
+    public DispatchIndex getDispatchIndex() {
+        return dispatchIndex;
+    }
+
+    public void setDispatchIndex(DispatchIndex dispatchIndex) {
+        this.dispatchIndex = dispatchIndex;
+    }
+
+    public FrameLauncher getFrameLauncher() {
+        return frameLauncher;
+    }
+
+    public void setFrameLauncher(FrameLauncher frameLauncher) {
+        this.frameLauncher = frameLauncher;
+    }
+
     private abstract class DispatchFrameTemplate {
         protected VirtualProc proc;
         protected JobInterface job;
@@ -470,6 +557,19 @@ public class CoreUnitDispatcher implements Dispatcher {
                 logger.warn(msg);
                 return false;
             }
+            catch (LaunchThrottledException lte) {
+                /*
+                 * Nothing was reserved for the frame.  Give back a
+                 * proc that is already in the DB and stop booking
+                 * the host, it is picked up again on its next report.
+                 */
+                DispatchSupport.bookingRetries.incrementAndGet();
+                logger.info(lte.getMessage());
+                if (procIndb) {
+                    dispatchSupport.unbookProc(proc);
+                }
+                throw new DispatcherException("stopped dispatching host, " + lte);
+            }
             catch (ResourceDuplicationFailureException rrfe) {
                 /*
                     * There is a resource already assigned to the
@@ -517,18 +617,7 @@ public class CoreUnitDispatcher implements Dispatcher {
                 String msg = "dispatchProcToJob failed booking proc " +
                     proc + " on job " + job;
                 logger.warn(msg, e);
-                dispatchSupport.unbookProc(proc);
-                dispatchSupport.clearFrame(frame);
-
-                try {
-                    rqdClient.killFrame(proc, "An accounting error occured " +
-                            "when booking this frame.");
-                } catch (RqdClientException rqde) {
-                    /*
-                        * Its almost expected that this will fail, as this is
-                        * just a precaution if the frame did actually launch.
-                        */
-                }
+                rollbackDispatch(proc, frame);
                 /* Thrown an exception to stop booking */
                 throw new DispatcherException(
                         "stopped dispatching host, " + e);
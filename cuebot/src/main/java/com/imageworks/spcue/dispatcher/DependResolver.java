@@ -0,0 +1,229 @@
+
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.imageworks.spcue.FrameInterface;
+import com.imageworks.spcue.LayerInterface;
+import com.imageworks.spcue.LightweightDependency;
+import com.imageworks.spcue.service.DependManager;
+
+/**
+ * Satisfies the depends waiting on succeeded frames and completed
+ * layers.
+ *
+ * When batching is enabled, succeeded frames are collected and the
+ * depends waiting on them are satisfied by flush(), which is called
+ * on a timer.  Each flush resolves the depends for all of the frames
+ * and layers collected since the last one with a few set-based
+ * queries, instead of satisfying each depend one at a time as every
+ * frame completes.  Dependent frames are released up to one flush
+ * interval later.  When disabled, depends are satisfied as soon as
+ * the frame completes.
+ *
+ * If a batch fails, its depends are satisfied one at a time instead,
+ * and anything that still fails is retried by the next flush.
+ */
+public class DependResolver {
+
+    private static final Logger logger = Logger.getLogger(DependResolver.class);
+
+    /**
+     * The maximum number of frames resolved in a single transaction.
+     */
+    private static final int FLUSH_BATCH_SIZE = 500;
+
+    private final boolean enabled;
+
+    private DependManager dependManager;
+
+    /**
+     * Succeeded frames and completed layers waiting to be
+     * resolved, keyed on id.
+     */
+    private final ConcurrentHashMap<String, FrameInterface> pendingFrames =
+        new ConcurrentHashMap<String, FrameInterface>();
+    private final ConcurrentHashMap<String, LayerInterface> pendingLayers =
+        new ConcurrentHashMap<String, LayerInterface>();
+
+    private final AtomicLong resolvedFrames = new AtomicLong(0);
+    private final AtomicLong satisfiedDepends = new AtomicLong(0);
+
+    public DependResolver(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Called when a frame has succeeded.  If batching is disabled
+     * the depends waiting on the frame, and on its layer if the
+     * layer is complete, are satisfied immediately.
+     *
+     * @param frame
+     * @param layerComplete true if the frame's layer is now complete
+     */
+    public void frameSucceeded(FrameInterface frame, boolean layerComplete) {
+        if (!enabled) {
+            List<LayerInterface> layers = Collections.emptyList();
+            if (layerComplete) {
+                layers = Collections.<LayerInterface>singletonList(frame);
+            }
+            satisfy(Collections.singletonList(frame), layers);
+            return;
+        }
+
+        pendingFrames.put(frame.getFrameId(), frame);
+        if (layerComplete) {
+            pendingLayers.put(frame.getLayerId(), frame);
+        }
+    }
+
+    /**
+     * Satisfies the depends waiting on all pending frames and layers.
+     *
+     * @return the number of depends satisfied
+     */
+    public int flush() {
+        if (pendingFrames.isEmpty() && pendingLayers.isEmpty()) {
+            return 0;
+        }
+
+        List<FrameInterface> frames = drain(pendingFrames);
+        List<LayerInterface> layers = drain(pendingLayers);
+
+        /*
+         * The completed layers go in with the first batch of frames.
+         */
+        int satisfied = satisfy(
+                frames.subList(0, Math.min(FLUSH_BATCH_SIZE, frames.size())), layers);
+        for (int i = FLUSH_BATCH_SIZE; i < frames.size(); i += FLUSH_BATCH_SIZE) {
+            satisfied = satisfied + satisfy(
+                    frames.subList(i, Math.min(i + FLUSH_BATCH_SIZE, frames.size())),
+                    Collections.<LayerInterface>emptyList());
+        }
+
+        logger.trace("resolved depends for " + frames.size() + " frames and " +
+                layers.size() + " layers, satisfied " + satisfied);
+        return satisfied;
+    }
+
+    private int satisfy(List<FrameInterface> frames, List<LayerInterface> layers) {
+        try {
+            int satisfied = dependManager.satisfyWhatDependsOn(frames, layers);
+            resolvedFrames.addAndGet(frames.size());
+            satisfiedDepends.addAndGet(satisfied);
+            return satisfied;
+        } catch (Exception e) {
+            logger.warn("failed to satisfy depends for " + frames.size() +
+                    " frames and " + layers.size() + " layers, " +
+                    "satisfying them one at a time, " + e);
+            return satisfyEach(frames, layers);
+        }
+    }
+
+    /**
+     * Satisfies the depends waiting on each frame and layer one
+     * depend at a time, the same as before batching, so one bad
+     * depend can't hold back the rest of a batch.  A frame or layer
+     * whose depends could not all be satisfied is put back to be
+     * retried by the next flush.
+     */
+    private int satisfyEach(List<FrameInterface> frames, List<LayerInterface> layers) {
+        int satisfied = 0;
+        for (FrameInterface frame: frames) {
+            try {
+                satisfied = satisfied + satisfyEach(dependManager.getWhatDependsOn(frame));
+                resolvedFrames.incrementAndGet();
+            } catch (Exception e) {
+                logger.warn("failed to satisfy depends waiting on frame " + frame + ", " + e);
+                retry(pendingFrames, frame.getFrameId(), frame);
+            }
+        }
+        for (LayerInterface layer: layers) {
+            try {
+                satisfied = satisfied + satisfyEach(dependManager.getWhatDependsOn(layer));
+            } catch (Exception e) {
+                logger.warn("failed to satisfy depends waiting on layer " + layer + ", " + e);
+                retry(pendingLayers, layer.getLayerId(), layer);
+            }
+        }
+        satisfiedDepends.addAndGet(satisfied);
+        return satisfied;
+    }
+
+    private int satisfyEach(List<LightweightDependency> depends) {
+        for (LightweightDependency depend: depends) {
+            dependManager.satisfyDepend(depend);
+        }
+        return depends.size();
+    }
+
+    private <T> void retry(ConcurrentHashMap<String, T> pending, String id, T item) {
+        if (enabled) {
+            pending.putIfAbsent(id, item);
+        }
+    }
+
+    private static <T> List<T> drain(ConcurrentHashMap<String, T> pending) {
+        List<T> result = new ArrayList<T>(pending.size());
+        for (Map.Entry<String, T> e: pending.entrySet()) {
+            if (pending.remove(e.getKey(), e.getValue())) {
+                result.add(e.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of frames waiting to be resolved.
+     *
+     * @return the number of pending frames
+     */
+    public int getPendingCount() {
+        return pendingFrames.size();
+    }
+
+    public long getResolvedFrameCount() {
+        return resolvedFrames.get();
+    }
+
+    public long getSatisfiedDependCount() {
+        return satisfiedDepends.get();
+    }
+
+    public DependManager getDependManager() {
+        return dependManager;
+    }
+
+    public void setDependManager(DependManager dependManager) {
+        this.dependManager = dependManager;
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.imageworks.spcue.DispatchHost;
+import com.imageworks.spcue.grpc.host.ThreadMode;
+import com.imageworks.spcue.util.TagMatcher;
+
+/**
+ * An in-memory index of pending jobs and their dispatchable layers.
+ *
+ * The index is bucketed by facility and OS, and within each bucket
+ * by show.  Jobs in a show are kept in priority order.  A bucket is
+ * reloaded with a single query once it is older than the refresh
+ * interval, while frame starts, proc reservations and unbookings are
+ * applied to the loaded bucket as they happen.  This lets the
+ * dispatcher answer "which jobs fit this host" without running
+ * FIND_JOBS_BY_SHOW for every show on every host report.  The
+ * result is only a candidate list, the frame reservation is still
+ * confirmed against the database.
+ *
+ * Changes are applied once the transaction that made them commits.
+ * The index is only used by the postgres dispatcher DAO.
+ */
+public class DispatchIndex {
+
+    private static final Logger logger = Logger.getLogger(DispatchIndex.class);
+
+    /**
+     * Orders jobs in a show by priority, highest first.
+     */
+    private static final Comparator<IndexedJob> PRIORITY_ORDER =
+        new Comparator<IndexedJob>() {
+            public int compare(IndexedJob a, IndexedJob b) {
+                return Integer.compare(b.priority, a.priority);
+            }
+    };
+
+    /**
+     * A single dispatchable layer, as loaded from the database.
+     */
+    public static final class Entry {
+        public final String jobId;
+        public final String showId;
+        public final int priority;
+        public final int jobCores;
+        public final int jobMaxCores;
+        public final String layerId;
+        public final int minCores;
+        public final long minMemory;
+        public final long minGpu;
+        public final boolean threadable;
+        public final String tags;
+        public final int waiting;
+
+        public Entry(String jobId, String showId, int priority,
+                     int jobCores, int jobMaxCores, String layerId,
+                     int minCores, long minMemory, long minGpu,
+                     boolean threadable, String tags, int waiting) {
+            this.jobId = jobId;
+            this.showId = showId;
+            this.priority = priority;
+            this.jobCores = jobCores;
+            this.jobMaxCores = jobMaxCores;
+            this.layerId = layerId;
+            this.minCores = minCores;
+            this.minMemory = minMemory;
+            this.minGpu = minGpu;
+            this.threadable = threadable;
+            this.tags = tags;
+            this.waiting = waiting;
+        }
+    }
+
+    private static final class IndexedJob {
+        final String id;
+        final int priority;
+        final int maxCores;
+        final AtomicInteger cores;
+        final List<IndexedLayer> layers = new ArrayList<IndexedLayer>(4);
+        volatile boolean removed = false;
+
+        IndexedJob(Entry e) {
+            id = e.jobId;
+            priority = e.priority;
+            maxCores = e.jobMaxCores;
+            cores = new AtomicInteger(e.jobCores);
+        }
+    }
+
+    private static final class IndexedLayer {
+        final String id;
+        final int minCores;
+        final long minMemory;
+        final long minGpu;
+        final boolean threadable;
+        final BitSet tags;
+        final AtomicInteger waiting;
+
+        IndexedLayer(Entry e, BitSet tags) {
+            id = e.layerId;
+            minCores = e.minCores;
+            minMemory = e.minMemory;
+            minGpu = e.minGpu;
+            threadable = e.threadable;
+            this.tags = tags;
+            waiting = new AtomicInteger(e.waiting);
+        }
+    }
+
+    /**
+     * The jobs for one facility and OS, keyed on show.
+     */
+    private static final class Bucket {
+        final long loadTime = System.currentTimeMillis();
+        final Map<String, List<IndexedJob>> shows;
+        final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        Bucket(Map<String, List<IndexedJob>> shows) {
+            this.shows = shows;
+        }
+    }
+
+    private final boolean enabled;
+    private final long refreshIntervalMillis;
+
+    private final ConcurrentHashMap<String, Bucket> buckets =
+        new ConcurrentHashMap<String, Bucket>();
+
+    /*
+     * The buckets being loaded for the first time.
+     */
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, IndexedJob> jobs =
+        new ConcurrentHashMap<String, IndexedJob>();
+    private final ConcurrentHashMap<String, IndexedLayer> layers =
+        new ConcurrentHashMap<String, IndexedLayer>();
+
+    private final TagMatcher tagMatcher = new TagMatcher();
+
+    private final AtomicLong lookups = new AtomicLong(0);
+    private final AtomicLong refreshes = new AtomicLong(0);
+
+    public DispatchIndex(boolean enabled, long refreshIntervalMillis) {
+        this.enabled = enabled;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns true if the calling thread should reload the bucket
+     * for the given facility and OS.  Only one thread at a time is
+     * told to load or reload a bucket, everyone else keeps using the
+     * current contents until the reload completes.
+     *
+     * @param facilityId
+     * @param os
+     * @return true if the bucket should be reloaded
+     */
+    public boolean beginRefresh(String facilityId, String os) {
+        String key = bucketKey(facilityId, os);
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            return loading.add(key);
+        }
+        if (System.currentTimeMillis() - bucket.loadTime < refreshIntervalMillis) {
+            return false;
+        }
+        return bucket.refreshing.compareAndSet(false, true);
+    }
+
+    /**
+     * Abandons a reload started with beginRefresh so another
+     * thread can try again.
+     *
+     * @param facilityId
+     * @param os
+     */
+    public void abortRefresh(String facilityId, String os) {
+        String key = bucketKey(facilityId, os);
+        loading.remove(key);
+        Bucket bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.refreshing.set(false);
+        }
+    }
+
+    /**
+     * Returns true if the bucket for the given facility and OS has
+     * been loaded.  Until then lookups have to go to the database.
+     *
+     * @param facilityId
+     * @param os
+     * @return true if the bucket is loaded
+     */
+    public boolean isLoaded(String facilityId, String os) {
+        return buckets.containsKey(bucketKey(facilityId, os));
+    }
+
+    /**
+     * Replaces the contents of the bucket for the given facility
+     * and OS with the supplied dispatchable layers.
+     *
+     * @param facilityId
+     * @param os
+     * @param entries
+     */
+    public void refresh(String facilityId, String os, List<Entry> entries) {
+
+        Map<String, IndexedJob> loaded = new LinkedHashMap<String, IndexedJob>();
+        Map<String, List<IndexedJob>> shows = new HashMap<String, List<IndexedJob>>();
+
+        for (Entry e: entries) {
+            IndexedJob job = loaded.get(e.jobId);
+            if (job == null) {
+                job = new IndexedJob(e);
+                loaded.put(e.jobId, job);
+
+                List<IndexedJob> showJobs = shows.get(e.showId);
+                if (showJobs == null) {
+                    showJobs = new ArrayList<IndexedJob>();
+                    shows.put(e.showId, showJobs);
+                }
+                showJobs.add(job);
+            }
+            IndexedLayer layer = new IndexedLayer(e, tagMatcher.getTagBits(e.tags));
+            job.layers.add(layer);
+            layers.put(layer.id, layer);
+        }
+
+        for (List<IndexedJob> showJobs: shows.values()) {
+            Collections.sort(showJobs, PRIORITY_ORDER);
+        }
+
+        String key = bucketKey(facilityId, os);
+        Bucket previous = buckets.put(key, new Bucket(shows));
+        loading.remove(key);
+        jobs.putAll(loaded);
+
+        /*
+         * Drop the jobs and layers which were in the previous
+         * bucket but are no longer dispatchable.
+         */
+        if (previous != null) {
+            for (List<IndexedJob> showJobs: previous.shows.values()) {
+                for (IndexedJob job: showJobs) {
+                    if (!loaded.containsKey(job.id)) {
+                        jobs.remove(job.id, job);
+                    }
+                    for (IndexedLayer layer: job.layers) {
+                        layers.remove(layer.id, layer);
+                    }
+                }
+            }
+        }
+
+        refreshes.incrementAndGet();
+        logger.trace("dispatch index refreshed " + facilityId + "/" + os +
+                ", " + loaded.size() + " jobs, " + entries.size() + " layers");
+    }
+
+    /**
+     * Returns up to limit jobs from the given show which have
+     * a layer that fits into the idle resources of the host.
+     * The jobs are returned in priority order.
+     *
+     * @param host
+     * @param showId
+     * @param limit
+     * @return a set of job ids
+     */
+    public Set<String> findDispatchJobs(DispatchHost host, String showId, int limit) {
+        lookups.incrementAndGet();
+
+        LinkedHashSet<String> result = new LinkedHashSet<String>();
+        Bucket bucket = buckets.get(bucketKey(host.getFacilityId(), host.os));
+        if (bucket == null) {
+            return result;
+        }
+
+        List<IndexedJob> showJobs = bucket.shows.get(showId);
+        if (showJobs == null) {
+            return result;
+        }
+
+        BitSet hostTags = tagMatcher.getTagBits(host.tags);
+        for (IndexedJob job: showJobs) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (job.removed) {
+                continue;
+            }
+            for (IndexedLayer layer: job.layers) {
+                if (isDispatchable(job, layer, host, hostTags)) {
+                    result.add(job.id);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Called when a frame has been started on the given layer.
+     *
+     * @param layerId
+     */
+    public void frameStarted(String layerId) {
+        IndexedLayer layer = layers.get(layerId);
+        if (layer != null) {
+            layer.waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Called when a proc with the given number of cores is
+     * booked on the job.
+     *
+     * @param jobId
+     * @param coreUnits
+     */
+    public void coresReserved(String jobId, int coreUnits) {
+        IndexedJob job = jobs.get(jobId);
+        if (job != null) {
+            job.cores.addAndGet(coreUnits);
+        }
+    }
+
+    /**
+     * Called when a proc with the given number of cores is
+     * unbooked from the job.
+     *
+     * @param jobId
+     * @param coreUnits
+     */
+    public void coresReleased(String jobId, int coreUnits) {
+        IndexedJob job = jobs.get(jobId);
+        if (job != null) {
+            job.cores.addAndGet(-coreUnits);
+        }
+    }
+
+    /**
+     * Called when a job is no longer dispatchable, for example
+     * because it was paused or finished.
+     *
+     * @param jobId
+     */
+    public void removeJob(String jobId) {
+        IndexedJob job = jobs.remove(jobId);
+        if (job != null) {
+            job.removed = true;
+        }
+    }
+
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    public int getJobCount() {
+        return jobs.size();
+    }
+
+    private boolean isDispatchable(IndexedJob job, IndexedLayer layer,
+                                   DispatchHost host, BitSet hostTags) {
+        if (layer.waiting.get() < 1) {
+            return false;
+        }
+        if (layer.minCores > host.idleCores || layer.minMemory > host.idleMemory) {
+            return false;
+        }
+        if (!layer.threadable && host.threadMode == ThreadMode.ALL_VALUE) {
+            return false;
+        }
+        long gpuMin = host.idleGpu > 0 ? 1 : 0;
+        if (layer.minGpu < gpuMin || layer.minGpu > host.idleGpu) {
+            return false;
+        }
+        if (job.cores.get() + layer.minCores >= job.maxCores) {
+            return false;
+        }
+        return TagMatcher.matches(hostTags, layer.tags);
+    }
+
+    private static String bucketKey(String facilityId, String os) {
+        return facilityId + "/" + os;
+    }
+}
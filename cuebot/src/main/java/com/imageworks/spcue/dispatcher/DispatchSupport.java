@@ -37,6 +37,7 @@ import com.imageworks.spcue.ProcInterface;
 import com.imageworks.spcue.ShowInterface;
 import com.imageworks.spcue.VirtualProc;
 import com.imageworks.spcue.grpc.job.FrameState;
+import com.imageworks.spcue.grpc.report.HostReport;
 import com.imageworks.spcue.grpc.rqd.RunFrame;
 
 /**
@@ -423,6 +424,16 @@ public interface DispatchSupport {
     void updateProcMemoryUsage(FrameInterface frame, long rss, long maxRss, long vsize,
                                long maxVsize);
 
+    /**
+     * Update the frame, proc, job and layer memory usage for all
+     * the running frames in the given host report.  The updates
+     * are applied as batches in a single transaction so the number
+     * of round trips does not grow with the number of frames.
+     *
+     * @param report
+     */
+    void updateMemoryUsage(HostReport report);
+
     /**
      * Return true if adding the given core units would put the show
      * over its burst value.
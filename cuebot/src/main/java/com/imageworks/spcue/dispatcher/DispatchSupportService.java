@@ -19,10 +19,17 @@
 
 package com.imageworks.spcue.dispatcher;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.log4j.Logger;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.transaction.annotation.Propagation;
@@ -55,11 +62,16 @@ import com.imageworks.spcue.dao.SubscriptionDao;
 import com.imageworks.spcue.grpc.host.ThreadMode;
 import com.imageworks.spcue.grpc.job.CheckpointState;
 import com.imageworks.spcue.grpc.job.FrameState;
+import com.imageworks.spcue.grpc.report.HostReport;
+import com.imageworks.spcue.grpc.report.RunningFrameInfo;
 import com.imageworks.spcue.grpc.rqd.RunFrame;
 import com.imageworks.spcue.rqd.RqdClient;
 import com.imageworks.spcue.service.BookingManager;
 import com.imageworks.spcue.service.DependManager;
+import com.imageworks.spcue.service.JobUpdateFeed;
+import com.imageworks.spcue.service.JobWhiteboardCache;
 import com.imageworks.spcue.util.FrameSet;
+import com.imageworks.spcue.util.TransactionUtil;
 
 @Transactional(propagation = Propagation.REQUIRED)
 public class DispatchSupportService implements DispatchSupport {
@@ -78,10 +90,28 @@ public class DispatchSupportService implements DispatchSupport {
     private RedirectManager redirectManager;
     private BookingManager bookingManager;
     private BookingDao bookingDao;
+    private DispatchIndex dispatchIndex;
+    private SubscriptionHeadroom subscriptionHeadroom;
+    private JobWhiteboardCache jobWhiteboardCache;
+    private JobUpdateFeed jobUpdateFeed;
 
     private ConcurrentHashMap<String, StrandedCores> strandedCores =
         new ConcurrentHashMap<String, StrandedCores>();
 
+    /**
+     * The maximum number of layer frame ranges to keep parsed.
+     */
+    private static final int FRAME_SET_CACHE_SIZE = 10000;
+
+    /**
+     * Parsed layer frame ranges, keyed on the range.  Every frame of
+     * a layer is launched with the same range, so it only has to be
+     * parsed once per layer rather than once per frame.
+     */
+    private final Cache<String, FrameSet> frameSets = CacheBuilder.newBuilder()
+            .maximumSize(FRAME_SET_CACHE_SIZE)
+            .build();
+
     @Override
     public void pickupStrandedCores(DispatchHost host) {
         logger.info(host + "picked up stranded cores");
@@ -277,21 +307,41 @@ public class DispatchSupportService implements DispatchSupport {
 
     @Transactional(propagation = Propagation.REQUIRED, readOnly=true)
     public boolean isShowOverBurst(VirtualProc proc) {
-        return subscriptionDao.isShowOverBurst((ShowInterface) proc, (AllocationInterface) proc, 0);
+        return isShowOverBurst((ShowInterface) proc, (AllocationInterface) proc, 0);
     }
 
     @Override
     @Transactional(propagation = Propagation.REQUIRED, readOnly=true)
     public boolean isShowOverBurst(ShowInterface show, AllocationInterface alloc, int coreUnits) {
+        Integer headroom = getBurstHeadroom(show, alloc);
+        if (headroom != null) {
+            return coreUnits > headroom;
+        }
         return subscriptionDao.isShowOverBurst(show, alloc, coreUnits);
     }
 
     @Override
     @Transactional(propagation = Propagation.REQUIRED, readOnly=true)
     public boolean isShowAtOrOverBurst(ShowInterface show, AllocationInterface alloc) {
+        Integer headroom = getBurstHeadroom(show, alloc);
+        if (headroom != null) {
+            return headroom <= 0;
+        }
         return subscriptionDao.isShowAtOrOverBurst(show, alloc);
     }
 
+    /**
+     * Returns the in-memory burst headroom of the subscription, or
+     * null if it is not being tracked and the database has to be
+     * checked.
+     */
+    private Integer getBurstHeadroom(ShowInterface show, AllocationInterface alloc) {
+        if (subscriptionHeadroom == null) {
+            return null;
+        }
+        return subscriptionHeadroom.getHeadroom(show.getShowId(), alloc.getAllocationId());
+    }
+
 
     @Override
     @Transactional(propagation = Propagation.REQUIRED, readOnly=true)
@@ -306,6 +356,7 @@ public class DispatchSupportService implements DispatchSupport {
         logger.trace("stopping frame " + frame);
         if (frameDao.updateFrameStopped(frame, state, exitStatus)) {
             procDao.clearVirtualProcAssignment(frame);
+            frameChanged(frame);
             return true;
         }
 
@@ -324,12 +375,27 @@ public class DispatchSupportService implements DispatchSupport {
             jobDao.updateMaxRSS(frame, maxRss);
 
             procDao.clearVirtualProcAssignment(frame);
+            frameChanged(frame);
             return true;
         }
 
         return false;
     }
 
+    /**
+     * Marks the show's job whiteboard as changed so it is reloaded
+     * with the new frame state, and passes the change on to clients
+     * subscribed to the job.
+     */
+    private void frameChanged(FrameInterface frame) {
+        if (jobWhiteboardCache != null) {
+            jobWhiteboardCache.showChanged(frame.getShowId());
+        }
+        if (jobUpdateFeed != null) {
+            jobUpdateFeed.frameChanged(frame);
+        }
+    }
+
     @Override
     @Transactional(propagation = Propagation.REQUIRED)
     public void clearFrame(DispatchFrame frame) {
@@ -347,7 +413,7 @@ public class DispatchSupportService implements DispatchSupport {
         int frameNumber = Integer.valueOf(frame.name.substring(0,frame.name.indexOf("-")));
         String zFrameNumber = String.format("%04d", frameNumber);
 
-        FrameSet fs = new FrameSet(frame.range);
+        FrameSet fs = getFrameSet(frame.range);
         int startFrameIndex = fs.index(frameNumber);
         String frameSpec = fs.getChunk(startFrameIndex, frame.chunkSize);
 
@@ -396,12 +462,25 @@ public class DispatchSupportService implements DispatchSupport {
                 .build();
     }
 
+    private FrameSet getFrameSet(String range) {
+        FrameSet frameSet = frameSets.getIfPresent(range);
+        if (frameSet == null) {
+            frameSet = new FrameSet(range);
+            frameSets.put(range, frameSet);
+        }
+        return frameSet;
+    }
+
 
     @Override
     @Transactional(propagation = Propagation.REQUIRED)
     public void startFrame(VirtualProc proc, DispatchFrame frame) {
         logger.trace("starting frame: " + frame);
         frameDao.updateFrameStarted(proc, frame);
+        if (dispatchIndex != null) {
+            TransactionUtil.afterCommit(() -> dispatchIndex.frameStarted(frame.getLayerId()));
+        }
+        frameChanged(frame);
     }
 
     @Override
@@ -455,12 +534,24 @@ public class DispatchSupportService implements DispatchSupport {
             logger.info("creating proc " + proc.getName() + " for " +
                     frame.getName());
             procDao.insertVirtualProc(proc);
+            if (subscriptionHeadroom != null && !proc.isLocalDispatch) {
+                String showId = proc.getShowId();
+                String allocId = proc.getAllocationId();
+                int cores = proc.coresReserved;
+                TransactionUtil.afterCommit(() ->
+                        subscriptionHeadroom.coresReserved(showId, allocId, cores));
+            }
         }
         else {
             logger.info("updated proc " + proc.getName() + " for " +
                     frame.getName());
             procDao.updateVirtualProcAssignment(proc);
         }
+        if (dispatchIndex != null) {
+            String jobId = proc.getJobId();
+            int cores = proc.coresReserved;
+            TransactionUtil.afterCommit(() -> dispatchIndex.coresReserved(jobId, cores));
+        }
     }
 
     @Transactional(propagation = Propagation.REQUIRED)
@@ -473,7 +564,19 @@ public class DispatchSupportService implements DispatchSupport {
         if (proc == null) { return; }
         if (proc.isNew()) { return; }
         proc.unbooked = true;
-        procDao.deleteVirtualProc(proc);
+        boolean deleted = procDao.deleteVirtualProc(proc);
+        if (deleted && subscriptionHeadroom != null && !proc.isLocalDispatch) {
+            String showId = proc.getShowId();
+            String allocId = proc.getAllocationId();
+            int cores = proc.coresReserved;
+            TransactionUtil.afterCommit(() ->
+                    subscriptionHeadroom.coresReleased(showId, allocId, cores));
+        }
+        if (deleted && dispatchIndex != null) {
+            String jobId = proc.getJobId();
+            int cores = proc.coresReserved;
+            TransactionUtil.afterCommit(() -> dispatchIndex.coresReleased(jobId, cores));
+        }
         DispatchSupport.unbookedProcs.getAndIncrement();
         logger.info(proc + " " + reason);
 
@@ -516,6 +619,7 @@ public class DispatchSupportService implements DispatchSupport {
             if (frameDao.updateFrameStopped(f,
                     FrameState.WAITING, exitStatus)) {
                 updateUsageCounters(proc, exitStatus);
+                frameChanged(f);
             }
         }
     }
@@ -543,6 +647,46 @@ public class DispatchSupportService implements DispatchSupport {
         }
     }
 
+    @Override
+    @Transactional(propagation = Propagation.REQUIRED)
+    public void updateMemoryUsage(HostReport report) {
+
+        if (report.getFramesCount() == 0) {
+            return;
+        }
+
+        /*
+         * Rows are updated in primary key order so concurrent
+         * reports touching the same jobs and layers always take
+         * their row locks in the same order.
+         */
+        List<RunningFrameInfo> frames =
+            new ArrayList<RunningFrameInfo>(report.getFramesList());
+        Collections.sort(frames, new Comparator<RunningFrameInfo>() {
+            public int compare(RunningFrameInfo a, RunningFrameInfo b) {
+                return a.getFrameId().compareTo(b.getFrameId());
+            }
+        });
+
+        Map<String, Long> jobs = new TreeMap<String, Long>();
+        Map<String, Long> layers = new TreeMap<String, Long>();
+        for (RunningFrameInfo frame: frames) {
+            Long jobRss = jobs.get(frame.getJobId());
+            if (jobRss == null || jobRss < frame.getMaxRss()) {
+                jobs.put(frame.getJobId(), frame.getMaxRss());
+            }
+            Long layerRss = layers.get(frame.getLayerId());
+            if (layerRss == null || layerRss < frame.getMaxRss()) {
+                layers.put(frame.getLayerId(), frame.getMaxRss());
+            }
+        }
+
+        frameDao.updateFrameMemoryUsage(frames);
+        procDao.updateProcMemoryUsage(frames);
+        jobDao.updateMaxRSS(jobs);
+        layerDao.updateLayerMemoryUsage(layers);
+    }
+
     @Override
     public void determineIdleCores(DispatchHost host, int load) {
         int maxLoad = host.cores + ((host.cores / 100) *
@@ -657,5 +801,37 @@ public class DispatchSupportService implements DispatchSupport {
     public void setBookingDao(BookingDao bookingDao) {
         this.bookingDao = bookingDao;
     }
+
+    public DispatchIndex getDispatchIndex() {
+        return dispatchIndex;
+    }
+
+    public void setDispatchIndex(DispatchIndex dispatchIndex) {
+        this.dispatchIndex = dispatchIndex;
+    }
+
+    public SubscriptionHeadroom getSubscriptionHeadroom() {
+        return subscriptionHeadroom;
+    }
+
+    public void setSubscriptionHeadroom(SubscriptionHeadroom subscriptionHeadroom) {
+        this.subscriptionHeadroom = subscriptionHeadroom;
+    }
+
+    public JobWhiteboardCache getJobWhiteboardCache() {
+        return jobWhiteboardCache;
+    }
+
+    public void setJobWhiteboardCache(JobWhiteboardCache jobWhiteboardCache) {
+        this.jobWhiteboardCache = jobWhiteboardCache;
+    }
+
+    public JobUpdateFeed getJobUpdateFeed() {
+        return jobUpdateFeed;
+    }
+
+    public void setJobUpdateFeed(JobUpdateFeed jobUpdateFeed) {
+        this.jobUpdateFeed = jobUpdateFeed;
+    }
 }
 
@@ -30,7 +30,6 @@ import com.imageworks.spcue.DispatchFrame;
 import com.imageworks.spcue.DispatchHost;
 import com.imageworks.spcue.DispatchJob;
 import com.imageworks.spcue.JobDetail;
-import com.imageworks.spcue.LayerInterface;
 import com.imageworks.spcue.Source;
 import com.imageworks.spcue.VirtualProc;
 import com.imageworks.spcue.dispatcher.commands.DispatchBookHost;
@@ -69,6 +68,8 @@ public class FrameCompleteHandler {
     private JobManagerSupport jobManagerSupport;
     private DispatchSupport dispatchSupport;
     private JmsMover jsmMover;
+    private MemoryUsageAggregator memoryUsageAggregator;
+    private DependResolver dependResolver;
 
     /*
      * The last time a proc was unbooked for subscription or job balancing.
@@ -107,6 +108,12 @@ public class FrameCompleteHandler {
                     "cuebot not accepting packets.");
         }
 
+        /*
+         * Drop any buffered memory usage so it can't overwrite
+         * the final values recorded for the frame.
+         */
+        memoryUsageAggregator.remove(report.getFrame().getFrameId());
+
         try {
 
             final VirtualProc proc;
@@ -235,10 +242,9 @@ public class FrameCompleteHandler {
             dispatchSupport.updateUsageCounters(frame, report.getExitStatus());
 
             if (newFrameState.equals(FrameState.SUCCEEDED)) {
-                jobManagerSupport.satisfyWhatDependsOn(frame);
-                if (jobManager.isLayerComplete(frame)) {
-                    jobManagerSupport.satisfyWhatDependsOn((LayerInterface) frame);
-                } else {
+                boolean layerComplete = jobManager.isLayerComplete(frame);
+                dependResolver.frameSucceeded(frame, layerComplete);
+                if (!layerComplete) {
                     /*
                      * If the layer meets some specific criteria then try to
                      * update the minimum memory and tags so it can run on a
@@ -644,5 +650,20 @@ public class FrameCompleteHandler {
     public void setJmsMover(JmsMover jsmMover) {
         this.jsmMover = jsmMover;
     }
-}
 
+    public MemoryUsageAggregator getMemoryUsageAggregator() {
+        return memoryUsageAggregator;
+    }
+
+    public void setMemoryUsageAggregator(MemoryUsageAggregator memoryUsageAggregator) {
+        this.memoryUsageAggregator = memoryUsageAggregator;
+    }
+
+    public DependResolver getDependResolver() {
+        return dependResolver;
+    }
+
+    public void setDependResolver(DependResolver dependResolver) {
+        this.dependResolver = dependResolver;
+    }
+}
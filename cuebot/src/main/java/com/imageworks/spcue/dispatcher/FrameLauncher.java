@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.Logger;
+
+import com.imageworks.spcue.DispatchFrame;
+import com.imageworks.spcue.VirtualProc;
+import com.imageworks.spcue.grpc.rqd.RqdStaticLaunchFrameResponse;
+import com.imageworks.spcue.rqd.RqdClient;
+
+/**
+ * Launches frames on RQD without waiting for RQD to respond.
+ *
+ * When pipelined, the booking thread hands the RunFrame to this
+ * stage once the frame and proc are reserved in the database and
+ * moves on to the next frame or host.  The number of launches in
+ * flight is bounded for each host and across all hosts.  The
+ * dispatcher reserves a launch before it reserves the frame and proc,
+ * and a booking thread never waits for one: when either bound is
+ * reached the reservation fails, the host is not booked any further,
+ * and it is booked again on its next report.  If a launch fails, the
+ * failure handler given by the dispatcher is run on a separate thread
+ * to roll the dispatch back.
+ *
+ * When not pipelined, frames are launched with a blocking call
+ * exactly as DispatchSupport.runFrame does.
+ */
+public class FrameLauncher {
+
+    private static final Logger logger = Logger.getLogger(FrameLauncher.class);
+
+    private final boolean pipelined;
+    private final int maxPerHost;
+    private final long deadlineMillis;
+
+    private RqdClient rqdClient;
+    private DispatchSupport dispatchSupport;
+
+    private final Semaphore permits;
+    private final ConcurrentHashMap<String, Semaphore> hostPermits =
+        new ConcurrentHashMap<String, Semaphore>();
+
+    /*
+     * Runs the failure handlers, which go back to the database, so
+     * they do not tie up the RQD client's threads.
+     */
+    private final ExecutorService failureExecutor;
+
+    private final AtomicLong launched = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong throttled = new AtomicLong(0);
+
+    public FrameLauncher(boolean pipelined, int maxInFlight, int maxPerHost,
+            long deadlineMillis) {
+        this.pipelined = pipelined;
+        this.maxPerHost = maxPerHost;
+        this.deadlineMillis = deadlineMillis;
+        this.permits = new Semaphore(maxInFlight);
+        this.failureExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("FrameLauncher-%d")
+                        .setDaemon(true).build());
+    }
+
+    /**
+     * Reserves a pipelined launch to the given host without waiting.
+     * Every successful reservation must be followed by exactly one
+     * call to launch or release.
+     *
+     * @param hostName
+     * @return false if too many launches are in flight to the host or
+     *         to all hosts
+     */
+    public boolean reserve(String hostName) {
+        Semaphore hostPermit = getHostPermit(hostName);
+        if (!hostPermit.tryAcquire()) {
+            throttled.incrementAndGet();
+            return false;
+        }
+        if (!permits.tryAcquire()) {
+            hostPermit.release();
+            throttled.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives back a launch reserved with reserve which is not going to
+     * be made.
+     *
+     * @param hostName
+     */
+    public void release(String hostName) {
+        permits.release();
+        getHostPermit(hostName).release();
+    }
+
+    private Semaphore getHostPermit(String hostName) {
+        Semaphore hostPermit = hostPermits.get(hostName);
+        if (hostPermit == null) {
+            hostPermits.putIfAbsent(hostName, new Semaphore(maxPerHost));
+            hostPermit = hostPermits.get(hostName);
+        }
+        return hostPermit;
+    }
+
+    /**
+     * Launches the frame on the proc.  If pipelined, the launch must
+     * have been reserved with reserve.  This returns as soon as the
+     * launch is sent and onFailure is called later if the launch
+     * fails.  Otherwise the launch is made with a blocking call and
+     * failures are thrown as a DispatcherException.
+     *
+     * @param proc
+     * @param frame
+     * @param onFailure rolls back the dispatch if a pipelined launch fails
+     * @throws DispatcherException if the launch could not be sent
+     */
+    public void launch(final VirtualProc proc, final DispatchFrame frame,
+            final Consumer<Throwable> onFailure) {
+
+        if (!pipelined) {
+            dispatchSupport.runFrame(proc, frame);
+            return;
+        }
+
+        ListenableFuture<RqdStaticLaunchFrameResponse> future;
+        try {
+            future = rqdClient.launchFrameAsync(
+                    dispatchSupport.prepareRqdRunFrame(proc, frame), proc, deadlineMillis);
+        } catch (RuntimeException e) {
+            release(proc.hostName);
+            throw new DispatcherException(proc.getName() +
+                    " could not be booked on " + frame.getName() + ", " + e);
+        }
+
+        Futures.addCallback(future, new FutureCallback<RqdStaticLaunchFrameResponse>() {
+            @Override
+            public void onSuccess(RqdStaticLaunchFrameResponse response) {
+                release(proc.hostName);
+                launched.incrementAndGet();
+                DispatchSupport.dispatchedProcs.getAndIncrement();
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+                release(proc.hostName);
+                failed.incrementAndGet();
+                logger.warn(proc.getName() + " could not be booked on " +
+                        frame.getName() + ", " + t);
+                failureExecutor.execute(() -> {
+                    try {
+                        onFailure.accept(t);
+                    } catch (Exception e) {
+                        logger.warn("failed to roll back the launch of " +
+                                frame.getName() + " on " + proc.getName() + ", " + e);
+                    }
+                });
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    public long getLaunchedCount() {
+        return launched.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of reservations refused because too many
+     * launches were in flight.
+     *
+     * @return the throttled count
+     */
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    /**
+     * Returns the number of launches waiting on RQD.
+     *
+     * @return the number of launches in flight
+     */
+    public int getInFlightCount() {
+        int count = 0;
+        for (Semaphore hostPermit: hostPermits.values()) {
+            count = count + maxPerHost - hostPermit.availablePermits();
+        }
+        return count;
+    }
+
+    public void shutdown() {
+        failureExecutor.shutdown();
+    }
+
+    public RqdClient getRqdClient() {
+        return rqdClient;
+    }
+
+    public void setRqdClient(RqdClient rqdClient) {
+        this.rqdClient = rqdClient;
+    }
+
+    public DispatchSupport getDispatchSupport() {
+        return dispatchSupport;
+    }
+
+    public void setDispatchSupport(DispatchSupport dispatchSupport) {
+        this.dispatchSupport = dispatchSupport;
+    }
+}
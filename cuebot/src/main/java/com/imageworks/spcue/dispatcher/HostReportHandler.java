@@ -22,9 +22,7 @@ package com.imageworks.spcue.dispatcher;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.log4j.Logger;
@@ -33,9 +31,6 @@ import org.springframework.dao.DataAccessException;
 import org.springframework.dao.EmptyResultDataAccessException;
 
 import com.imageworks.spcue.DispatchHost;
-import com.imageworks.spcue.FrameInterface;
-import com.imageworks.spcue.JobEntity;
-import com.imageworks.spcue.LayerEntity;
 import com.imageworks.spcue.LocalHostAssignment;
 import com.imageworks.spcue.Source;
 import com.imageworks.spcue.VirtualProc;
@@ -68,7 +63,7 @@ public class HostReportHandler {
     private BookingManager bookingManager;
     private HostManager hostManager;
     private BookingQueue bookingQueue;
-    private ThreadPoolExecutor reportQueue;
+    private HostReportQueue reportQueue;
     private ThreadPoolExecutor killQueue;
     private DispatchSupport dispatchSupport;
     private Dispatcher dispatcher;
@@ -78,6 +73,8 @@ public class HostReportHandler {
     private JobManagerSupport jobManagerSupport;
     private JobDao jobDao;
     private LayerDao layerDao;
+    private MemoryUsageAggregator memoryUsageAggregator;
+    private HostStatsFilter hostStatsFilter;
 
     /**
      * Boolean to toggle if this class is accepting data or not.
@@ -158,13 +155,26 @@ public class HostReportHandler {
             RenderHost rhost = report.getHost();
             try {
                 host = hostManager.findDispatchHost(rhost.getName());
-                hostManager.setHostStatistics(host,
-                        rhost.getTotalMem(), rhost.getFreeMem(),
-                        rhost.getTotalSwap(), rhost.getFreeSwap(),
-                        rhost.getTotalMcp(), rhost.getFreeMcp(),
-                        totalGpu, freeGpu,
-                        rhost.getLoad(), new Timestamp(rhost.getBootTime() * 1000l),
-                        rhost.getAttributes().get("SP_OS"));
+
+                /*
+                 * Only write the host statistics if they changed enough
+                 * to matter or haven't been written for a while.
+                 * Otherwise the ping time, which is how a host is known
+                 * to be alive, is written once per ping interval.
+                 */
+                if (hostStatsFilter.isChanged(host.getHostId(), rhost, totalGpu, freeGpu)) {
+                    hostManager.setHostStatistics(host,
+                            rhost.getTotalMem(), rhost.getFreeMem(),
+                            rhost.getTotalSwap(), rhost.getFreeSwap(),
+                            rhost.getTotalMcp(), rhost.getFreeMcp(),
+                            totalGpu, freeGpu,
+                            rhost.getLoad(), new Timestamp(rhost.getBootTime() * 1000l),
+                            rhost.getAttributes().get("SP_OS"));
+                    hostStatsFilter.written(host.getHostId(), rhost, totalGpu, freeGpu);
+                }
+                else if (hostStatsFilter.isPingDue(host.getHostId())) {
+                    hostManager.setHostPing(host);
+                }
 
                 changeHardwareState(host, report.getHost().getState());
                 changeLockState(host, report.getCoreInfo());
@@ -202,7 +212,7 @@ public class HostReportHandler {
              * Updates memory usage for the proc, frames,
              * jobs, and layers.
              */
-            updateMemoryUsage(report.getFramesList());
+            memoryUsageAggregator.record(report);
 
             /*
              * Increase/decreased reserved memory.
@@ -483,6 +493,18 @@ public class HostReportHandler {
 
         if (killMode) {
             VirtualProc proc;
+            /*
+             * The worst offender is picked from the proc table, so
+             * make sure it has the usage from this report when the
+             * write-behind buffer is holding it back.
+             */
+            if (memoryUsageAggregator.isEnabled()) {
+                try {
+                    memoryUsageAggregator.writeThrough(report);
+                } catch (Exception e) {
+                    logger.warn("failed to write memory usage for " + host.name + ", " + e);
+                }
+            }
             try {
                 proc = hostManager.getWorstMemoryOffender(host);
             }
@@ -500,84 +522,6 @@ public class HostReportHandler {
         }
     }
 
-    /**
-     *  Update memory usage for the given list of frames.
-     *
-     * @param rFrames
-     */
-    private void updateMemoryUsage(List<RunningFrameInfo> rFrames) {
-
-        for (RunningFrameInfo rf: rFrames) {
-
-            FrameInterface frame = jobManager.getFrame(rf.getFrameId());
-
-            dispatchSupport.updateFrameMemoryUsage(frame,
-                    rf.getRss(), rf.getMaxRss());
-
-            dispatchSupport.updateProcMemoryUsage(frame,
-                    rf.getRss(), rf.getMaxRss(), rf.getVsize(), rf.getMaxVsize());
-        }
-
-        updateJobMemoryUsage(rFrames);
-        updateLayerMemoryUsage(rFrames);
-    }
-
-    /**
-     * Update job memory using for the given list of frames.
-     *
-     * @param frames
-     */
-    private void updateJobMemoryUsage(List<RunningFrameInfo> frames) {
-
-        final Map<JobEntity, Long> jobs =
-            new HashMap<JobEntity, Long>(frames.size());
-
-        for (RunningFrameInfo frame: frames) {
-            JobEntity job = new JobEntity(frame.getJobId());
-            if (jobs.containsKey(job)) {
-                if (jobs.get(job) < frame.getMaxRss()) {
-                    jobs.put(job, frame.getMaxRss());
-                }
-            }
-            else {
-                jobs.put(job, frame.getMaxRss());
-            }
-        }
-
-        for (Map.Entry<JobEntity,Long> set: jobs.entrySet()) {
-            jobDao.updateMaxRSS(set.getKey(), set.getValue());
-        }
-    }
-
-    /**
-     * Update layer memory usage for the given list of frames.
-     *
-     * @param frames
-     */
-    private void updateLayerMemoryUsage(List<RunningFrameInfo> frames) {
-
-        final Map<LayerEntity, Long> layers =
-            new HashMap<LayerEntity, Long>(frames.size());
-
-        for (RunningFrameInfo frame: frames) {
-            LayerEntity layer = new LayerEntity(frame.getLayerId());
-            if (layers.containsKey(layer)) {
-                if (layers.get(layer) < frame.getMaxRss()) {
-                    layers.put(layer, frame.getMaxRss());
-                }
-            }
-            else {
-                layers.put(layer, frame.getMaxRss());
-            }
-        }
-
-        /* Attempt to update the max RSS value for the job **/
-        for (Map.Entry<LayerEntity,Long> set: layers.entrySet()) {
-            layerDao.increaseLayerMinMemory(set.getKey(), set.getValue());
-            layerDao.updateLayerMaxRSS(set.getKey(), set.getValue(), false);
-        }
-    }
-
     /**
      * Number of seconds before running frames have to exist before being
      * verified against the DB.
@@ -731,11 +675,11 @@ public class HostReportHandler {
         this.bookingQueue = bookingQueue;
     }
 
-    public ThreadPoolExecutor getReportQueue() {
+    public HostReportQueue getReportQueue() {
         return reportQueue;
     }
 
-    public void setReportQueue(ThreadPoolExecutor reportQueue) {
+    public void setReportQueue(HostReportQueue reportQueue) {
         this.reportQueue = reportQueue;
     }
 
@@ -810,6 +754,22 @@ public class HostReportHandler {
     public void setLocalDispatcher(Dispatcher localDispatcher) {
         this.localDispatcher = localDispatcher;
     }
+    public MemoryUsageAggregator getMemoryUsageAggregator() {
+        return memoryUsageAggregator;
+    }
+
+    public void setMemoryUsageAggregator(MemoryUsageAggregator memoryUsageAggregator) {
+        this.memoryUsageAggregator = memoryUsageAggregator;
+    }
+
+    public HostStatsFilter getHostStatsFilter() {
+        return hostStatsFilter;
+    }
+
+    public void setHostStatsFilter(HostStatsFilter hostStatsFilter) {
+        this.hostStatsFilter = hostStatsFilter;
+    }
+
     public ThreadPoolExecutor getKillQueue() {
         return killQueue;
     }
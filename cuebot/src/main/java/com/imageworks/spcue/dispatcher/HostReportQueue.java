@@ -15,19 +15,35 @@
  * limitations under the License.
  */
 
-
-
 package com.imageworks.spcue.dispatcher;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 import com.imageworks.spcue.dispatcher.commands.DispatchHandleHostReport;
 
+/**
+ * A thread pool for handling host reports.
+ *
+ * Host reports are coalesced by host.  The pending report for each
+ * host is held in a concurrent map and the executor queue only holds
+ * one slot per host, which preserves the order hosts reported in.
+ * If a host reports again before its pending report is handled, the
+ * new report replaces the old one in O(1) and keeps its place in
+ * line.  When a slot runs it takes whatever report is current for
+ * the host.  A report that replaces a boot report is handled as a
+ * boot report, so the host's resources are still set.
+ *
+ * Any other Runnable, like the kill commands queued on the kill
+ * queue, is executed as-is.
+ */
 public class HostReportQueue extends ThreadPoolExecutor {
 
     private static final Logger logger = Logger.getLogger(HostReportQueue.class);
@@ -39,27 +55,104 @@ public class HostReportQueue extends ThreadPoolExecutor {
     private QueueRejectCounter rejectCounter = new QueueRejectCounter();
     private AtomicBoolean isShutdown = new AtomicBoolean(false);
 
+    /**
+     * The pending report for each host with a slot in the queue.
+     */
+    private final ConcurrentHashMap<String, DispatchHandleHostReport> pending =
+        new ConcurrentHashMap<String, DispatchHandleHostReport>();
+
+    private final AtomicLong coalescedCount = new AtomicLong(0);
+    private final AtomicLong droppedCount = new AtomicLong(0);
+    private final AtomicLong processedCount = new AtomicLong(0);
+
     public HostReportQueue() {
-        super(THREAD_POOL_SIZE_INITIAL, THREAD_POOL_SIZE_MAX, 10 , TimeUnit.SECONDS,
-                new LinkedBlockingQueue<Runnable>(QUEUE_SIZE_INITIAL));
-        this.setRejectedExecutionHandler(rejectCounter);
+        this(THREAD_POOL_SIZE_INITIAL, THREAD_POOL_SIZE_MAX, QUEUE_SIZE_INITIAL);
+    }
+
+    public HostReportQueue(int corePoolSize, int maxPoolSize, int queueSize) {
+        super(corePoolSize, maxPoolSize, 10 , TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize));
+        this.setRejectedExecutionHandler(new SlotRejectHandler());
+    }
 
+    @Override
+    public void execute(Runnable r) {
+        if (r instanceof DispatchHandleHostReport) {
+            execute((DispatchHandleHostReport) r);
+        }
+        else {
+            super.execute(r);
+        }
     }
 
     public void execute(DispatchHandleHostReport r) {
         if (isShutdown.get()) {
             return;
         }
-        if (getQueue().contains(r)) {
-            getQueue().remove(r);
+        String hostName = r.getHostReport().getHost().getName();
+        AtomicBoolean queued = new AtomicBoolean(false);
+        pending.compute(hostName, (k, previous) -> {
+            if (previous == null) {
+                queued.set(true);
+                return r;
+            }
+            /*
+             * The host already has a slot in the queue which
+             * will pick up this report instead.
+             */
+            coalescedCount.incrementAndGet();
+            if (previous.isBootReport() && !r.isBootReport()) {
+                return r.asBootReport();
+            }
+            return r;
+        });
+        if (queued.get()) {
+            super.execute(new HostReportSlot(hostName));
         }
-        super.execute(r);
     }
 
     public long getRejectedTaskCount() {
         return rejectCounter.getRejectCount();
     }
 
+    /**
+     * Return the number of host reports that were replaced by a
+     * newer report from the same host before being handled.
+     *
+     * @return the number of coalesced reports
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Return the number of host reports that were dropped because
+     * the queue was full.
+     *
+     * @return the number of dropped reports
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Return the number of host reports that have been handled.
+     *
+     * @return the number of processed reports
+     */
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    /**
+     * Return the number of hosts with a report waiting to be handled.
+     *
+     * @return the number of pending hosts
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
     public void shutdown() {
         if (!isShutdown.getAndSet(true)) {
             logger.info("Shutting down report pool, currently " + this.getActiveCount() + " active threads.");
@@ -78,5 +171,42 @@ public class HostReportQueue extends ThreadPoolExecutor {
             }
         }
     }
-}
 
+    /**
+     * A place in the queue for a host.  Runs the most recent
+     * report for the host at the time it is executed.
+     */
+    private final class HostReportSlot implements Runnable {
+
+        private final String hostName;
+
+        HostReportSlot(String hostName) {
+            this.hostName = hostName;
+        }
+
+        public void run() {
+            DispatchHandleHostReport report = pending.remove(hostName);
+            if (report != null) {
+                processedCount.incrementAndGet();
+                report.run();
+            }
+        }
+    }
+
+    /**
+     * Counts rejected tasks and drops the pending report for
+     * a host whose slot could not be queued.
+     */
+    private final class SlotRejectHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            rejectCounter.rejectedExecution(r, executor);
+            if (r instanceof HostReportSlot) {
+                if (pending.remove(((HostReportSlot) r).hostName) != null) {
+                    droppedCount.incrementAndGet();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.imageworks.spcue.grpc.report.RenderHost;
+
+/**
+ * Decides whether the statistics in a host report are worth writing
+ * to the host_stat table.
+ *
+ * The last statistics written for each host are kept in memory.  A
+ * report is written when the host rebooted, changed OS or hardware,
+ * when free memory, swap, MCP or GPU memory moved by more than the
+ * memory threshold, given as a percentage of the total, or when the
+ * load moved by more than the load threshold.  Reports from hosts
+ * that are low on memory are always written so the kill mode check
+ * sees current numbers.  Every host is written at least once per
+ * max stale interval.
+ *
+ * Between statistics writes, the ping time alone is written at most
+ * once per ping interval, so a host reporting unchanged statistics
+ * still costs one host_stat row version per interval rather than one
+ * per report.
+ */
+public class HostStatsFilter {
+
+    /**
+     * The statistics last written for a host.
+     */
+    private static final class Snapshot {
+        final long writeTime = System.currentTimeMillis();
+        final AtomicLong pingTime = new AtomicLong(writeTime);
+        final long totalMemory;
+        final long freeMemory;
+        final long totalSwap;
+        final long freeSwap;
+        final long totalMcp;
+        final long freeMcp;
+        final long totalGpu;
+        final long freeGpu;
+        final int load;
+        final long bootTime;
+        final String os;
+
+        Snapshot(RenderHost rhost, long totalGpu, long freeGpu) {
+            totalMemory = rhost.getTotalMem();
+            freeMemory = rhost.getFreeMem();
+            totalSwap = rhost.getTotalSwap();
+            freeSwap = rhost.getFreeSwap();
+            totalMcp = rhost.getTotalMcp();
+            freeMcp = rhost.getFreeMcp();
+            this.totalGpu = totalGpu;
+            this.freeGpu = freeGpu;
+            load = rhost.getLoad();
+            bootTime = rhost.getBootTime();
+            os = rhost.getAttributes().get("SP_OS");
+        }
+    }
+
+    private final boolean enabled;
+    private final float memoryThresholdPercent;
+    private final int loadThreshold;
+    private final long maxStaleMillis;
+    private final long pingMillis;
+
+    private final ConcurrentHashMap<String, Snapshot> snapshots =
+        new ConcurrentHashMap<String, Snapshot>();
+
+    private final AtomicLong writeCount = new AtomicLong(0);
+    private final AtomicLong skipCount = new AtomicLong(0);
+    private final AtomicLong pingCount = new AtomicLong(0);
+
+    public HostStatsFilter(boolean enabled, float memoryThresholdPercent,
+            int loadThreshold, long maxStaleMillis, long pingMillis) {
+        this.enabled = enabled;
+        this.memoryThresholdPercent = memoryThresholdPercent;
+        this.loadThreshold = loadThreshold;
+        this.maxStaleMillis = maxStaleMillis;
+        this.pingMillis = pingMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns true if the statistics in the report should be written
+     * for the host.
+     *
+     * @param hostId
+     * @param rhost
+     * @param totalGpu
+     * @param freeGpu
+     * @return true if the statistics should be written
+     */
+    public boolean isChanged(String hostId, RenderHost rhost, long totalGpu, long freeGpu) {
+        if (!enabled) {
+            return true;
+        }
+
+        Snapshot last = snapshots.get(hostId);
+        if (last == null || isChanged(last, rhost, totalGpu, freeGpu)) {
+            writeCount.incrementAndGet();
+            return true;
+        }
+
+        skipCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Records the statistics that were just written for the host.
+     *
+     * @param hostId
+     * @param rhost
+     * @param totalGpu
+     * @param freeGpu
+     */
+    public void written(String hostId, RenderHost rhost, long totalGpu, long freeGpu) {
+        if (enabled) {
+            snapshots.put(hostId, new Snapshot(rhost, totalGpu, freeGpu));
+        }
+    }
+
+    /**
+     * Returns true if the ping time should be written for a host whose
+     * statistics were skipped.  Only one caller per ping interval is
+     * told to write it.
+     *
+     * @param hostId
+     * @return true if the ping time should be written
+     */
+    public boolean isPingDue(String hostId) {
+        Snapshot last = snapshots.get(hostId);
+        if (last == null) {
+            pingCount.incrementAndGet();
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        long pingTime = last.pingTime.get();
+        if (now - pingTime >= pingMillis && last.pingTime.compareAndSet(pingTime, now)) {
+            pingCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public long getPingCount() {
+        return pingCount.get();
+    }
+
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    public long getSkipCount() {
+        return skipCount.get();
+    }
+
+    private boolean isChanged(Snapshot last, RenderHost rhost, long totalGpu, long freeGpu) {
+        if (System.currentTimeMillis() - last.writeTime >= maxStaleMillis) {
+            return true;
+        }
+
+        if (last.bootTime != rhost.getBootTime()
+                || last.totalMemory != rhost.getTotalMem()
+                || last.totalSwap != rhost.getTotalSwap()
+                || last.totalMcp != rhost.getTotalMcp()
+                || last.totalGpu != totalGpu
+                || !Objects.equals(last.os, rhost.getAttributes().get("SP_OS"))) {
+            return true;
+        }
+
+        if (rhost.getFreeMem() < Dispatcher.KILL_MODE_MEM_THRESHOLD
+                || rhost.getTotalSwap() - rhost.getFreeSwap() > Dispatcher.KILL_MODE_SWAP_THRESHOLD) {
+            return true;
+        }
+
+        if (Math.abs(rhost.getLoad() - last.load) > loadThreshold) {
+            return true;
+        }
+
+        return isSignificant(last.freeMemory, rhost.getFreeMem(), last.totalMemory)
+                || isSignificant(last.freeSwap, rhost.getFreeSwap(), last.totalSwap)
+                || isSignificant(last.freeMcp, rhost.getFreeMcp(), last.totalMcp)
+                || isSignificant(last.freeGpu, freeGpu, totalGpu);
+    }
+
+    private boolean isSignificant(long last, long current, long total) {
+        if (total <= 0) {
+            return last != current;
+        }
+        return Math.abs(current - last) * 100.0f / total > memoryThresholdPercent;
+    }
+}
@@ -0,0 +1,268 @@
+
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.springframework.core.task.TaskRejectedException;
+
+/**
+ * Runs job launches in two bounded stages.
+ *
+ * The first stage creates the jobs in the database.  Launches are
+ * queued per show and handed to the stage round robin across shows,
+ * with a limit on how many launches a single show can have running
+ * at once, so one show submitting a large number of specs cannot
+ * starve everyone else.  The second stage runs the post launch work,
+ * like sending the jobs to the mover and syncing department
+ * tasks, on its own pool so it never holds up job creation.  If the
+ * post launch queue is full the work is run by the creating thread,
+ * which slows down the first stage.
+ *
+ * The number of queued launches is bounded both overall and per
+ * show.  Once either limit is hit new launches are rejected with a
+ * TaskRejectedException so the caller can retry later.
+ */
+public class JobLaunchQueue {
+
+    private static final Logger logger = Logger.getLogger(JobLaunchQueue.class);
+
+    private final int maxPending;
+    private final int maxPendingPerShow;
+    private final int maxActivePerShow;
+    private final int createThreads;
+
+    private final ThreadPoolExecutor createPool;
+    private final ThreadPoolExecutor postLaunchPool;
+
+    /**
+     * The launches waiting for the create stage, keyed on show.
+     * Guarded by the queue lock, as is everything below.
+     */
+    private final Map<String, ShowLaunches> shows = new HashMap<String, ShowLaunches>();
+
+    /**
+     * Shows with waiting launches, in the order they will be served.
+     */
+    private final LinkedList<String> order = new LinkedList<String>();
+
+    private int pending = 0;
+    private int active = 0;
+    private boolean isShutdown = false;
+
+    private final AtomicLong launchedCount = new AtomicLong(0);
+    private final AtomicLong rejectedCount = new AtomicLong(0);
+
+    private static final class ShowLaunches {
+        final ArrayDeque<Runnable> waiting = new ArrayDeque<Runnable>();
+        int active = 0;
+    }
+
+    public JobLaunchQueue(int createThreads, int postLaunchThreads,
+                          int maxPending, int maxPendingPerShow,
+                          int maxActivePerShow) {
+        this.createThreads = createThreads;
+        this.maxPending = maxPending;
+        this.maxPendingPerShow = maxPendingPerShow;
+        this.maxActivePerShow = maxActivePerShow;
+
+        /*
+         * Never holds more than createThreads tasks, the show
+         * queues above are where launches wait.
+         */
+        createPool = new ThreadPoolExecutor(createThreads, createThreads,
+                10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        postLaunchPool = new ThreadPoolExecutor(postLaunchThreads, postLaunchThreads,
+                10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(maxPending),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Queues a launch for the given show.
+     *
+     * @param show the name of the show the launch belongs to
+     * @param launch creates the jobs
+     * @throws TaskRejectedException if the queue is full
+     */
+    public void execute(String show, Runnable launch) {
+        synchronized (this) {
+            if (isShutdown) {
+                throw new TaskRejectedException("The launch queue is shut down.");
+            }
+            ShowLaunches s = shows.get(show);
+            if (pending >= maxPending) {
+                rejectedCount.incrementAndGet();
+                throw new TaskRejectedException("The launch queue is full, " +
+                        pending + " launches are waiting.  Please try again later.");
+            }
+            if (s != null && s.waiting.size() >= maxPendingPerShow) {
+                rejectedCount.incrementAndGet();
+                throw new TaskRejectedException("The launch queue is full for the " +
+                        show + " show, " + s.waiting.size() +
+                        " launches are waiting.  Please try again later.");
+            }
+            if (s == null) {
+                s = new ShowLaunches();
+                shows.put(show, s);
+            }
+            if (s.waiting.isEmpty()) {
+                order.addLast(show);
+            }
+            s.waiting.addLast(launch);
+            pending++;
+            schedule();
+        }
+    }
+
+    /**
+     * Queues the post launch work for a launch which has finished
+     * creating its jobs.
+     *
+     * @param r
+     */
+    public void executePostLaunch(Runnable r) {
+        postLaunchPool.execute(r);
+    }
+
+    /**
+     * Hands waiting launches to the create stage until all threads
+     * are busy or every show with waiting launches is at its limit.
+     * Must be called with the queue lock held.
+     */
+    private void schedule() {
+        while (!isShutdown && active < createThreads) {
+            String show = null;
+            Iterator<String> i = order.iterator();
+            while (i.hasNext()) {
+                String candidate = i.next();
+                if (shows.get(candidate).active < maxActivePerShow) {
+                    i.remove();
+                    show = candidate;
+                    break;
+                }
+            }
+            if (show == null) {
+                return;
+            }
+
+            ShowLaunches s = shows.get(show);
+            Runnable launch = s.waiting.pollFirst();
+            if (!s.waiting.isEmpty()) {
+                order.addLast(show);
+            }
+            s.active++;
+            pending--;
+            active++;
+            createPool.execute(new CreateSlot(show, launch));
+        }
+    }
+
+    private synchronized void finished(String show) {
+        ShowLaunches s = shows.get(show);
+        s.active--;
+        active--;
+        if (s.active == 0 && s.waiting.isEmpty()) {
+            shows.remove(show);
+        }
+        schedule();
+    }
+
+    /**
+     * Return the number of launches waiting for the create stage.
+     *
+     * @return the number of pending launches
+     */
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    /**
+     * Return the number of launches in the create stage.
+     *
+     * @return the number of active launches
+     */
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    /**
+     * Return the number of launches that have been through the
+     * create stage.
+     *
+     * @return the number of launches
+     */
+    public long getLaunchedCount() {
+        return launchedCount.get();
+    }
+
+    /**
+     * Return the number of launches rejected because the queue
+     * was full.
+     *
+     * @return the number of rejected launches
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            if (isShutdown) {
+                return;
+            }
+            isShutdown = true;
+        }
+        logger.info("Shutting down launch queue, " + getPendingCount() +
+                " launches pending, " + getActiveCount() + " active.");
+        createPool.shutdown();
+        postLaunchPool.shutdown();
+    }
+
+    /**
+     * Runs a launch and frees its place in the create stage.
+     */
+    private final class CreateSlot implements Runnable {
+
+        private final String show;
+        private final Runnable launch;
+
+        CreateSlot(String show, Runnable launch) {
+            this.show = show;
+            this.launch = launch;
+        }
+
+        public void run() {
+            try {
+                launch.run();
+            } finally {
+                launchedCount.incrementAndGet();
+                finished(show);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.dispatcher;
+
+import com.imageworks.spcue.SpcueRuntimeException;
+
+/**
+ * Thrown when a frame is not dispatched to a host because too many
+ * launches are already in flight.  Nothing has been reserved for the
+ * frame when this is thrown.
+ */
+@SuppressWarnings("serial")
+public class LaunchThrottledException extends SpcueRuntimeException {
+
+    public LaunchThrottledException(String message) {
+        super(message);
+    }
+}
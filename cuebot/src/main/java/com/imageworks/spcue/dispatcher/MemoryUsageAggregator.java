@@ -0,0 +1,228 @@
+
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.imageworks.spcue.grpc.report.HostReport;
+import com.imageworks.spcue.grpc.report.RunningFrameInfo;
+
+/**
+ * Write-behind buffer for the memory usage sent with host reports.
+ *
+ * Running frames report their rss, max rss and vsize every time
+ * their host reports in, and most of those values are overwritten by
+ * the next report a few seconds later.  When enabled, the latest
+ * value for each running frame is held in memory and written to the
+ * frame, proc, job and layer tables by flush(), which is called on a
+ * timer.  The job and layer max rss values are derived from the
+ * latest frame values at flush time, which is the same result since
+ * a frame's max rss only grows.
+ *
+ * Decisions that can't wait, like killing frames that are out of
+ * memory, use the values in the host report rather than the
+ * database.  A report from a swapping host is written through before
+ * the worst memory offender is picked from the proc table.  When
+ * disabled, every report is written through.
+ */
+public class MemoryUsageAggregator {
+
+    private static final Logger logger = Logger.getLogger(MemoryUsageAggregator.class);
+
+    /**
+     * The maximum number of frames written in a single transaction.
+     */
+    private static final int FLUSH_BATCH_SIZE = 500;
+
+    private final boolean enabled;
+
+    private DispatchSupport dispatchSupport;
+
+    /**
+     * The most recent usage for each running frame, keyed on frame id.
+     */
+    private final ConcurrentHashMap<String, RunningFrameInfo> pending =
+        new ConcurrentHashMap<String, RunningFrameInfo>();
+
+    /**
+     * Frames which completed since the last flush.  A host report
+     * sent before a frame completed can arrive after it, and must not
+     * put the frame back into the buffer.
+     */
+    private final Set<String> completed = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong recordedCount = new AtomicLong(0);
+    private final AtomicLong flushedCount = new AtomicLong(0);
+
+    public MemoryUsageAggregator(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records the memory usage of all running frames in the given
+     * report.  If write-behind is disabled the usage is written to
+     * the database immediately.
+     *
+     * @param report
+     */
+    public void record(HostReport report) {
+        if (!enabled) {
+            dispatchSupport.updateMemoryUsage(report);
+            return;
+        }
+        for (RunningFrameInfo frame: report.getFramesList()) {
+            pending.put(frame.getFrameId(), frame);
+            /*
+             * Checked after the put so a concurrent remove() either
+             * sees the entry or the entry is taken back out here.
+             */
+            if (completed.contains(frame.getFrameId())) {
+                pending.remove(frame.getFrameId(), frame);
+            }
+        }
+        recordedCount.addAndGet(report.getFramesCount());
+    }
+
+    /**
+     * Returns the most recent unflushed memory usage for the
+     * given frame, or null if there is none.
+     *
+     * @param frameId
+     * @return the latest running frame info
+     */
+    public RunningFrameInfo getFrame(String frameId) {
+        return pending.get(frameId);
+    }
+
+    /**
+     * Discards any unflushed usage for the given frame.  Called when
+     * the frame completes so a late flush doesn't overwrite the final
+     * values written by the frame complete handler.  Reports for
+     * the frame which arrive before the next flush are ignored.
+     *
+     * @param frameId
+     */
+    public void remove(String frameId) {
+        if (enabled) {
+            completed.add(frameId);
+        }
+        pending.remove(frameId);
+    }
+
+    /**
+     * Writes the memory usage in the given report to the database
+     * right away and drops it from the buffer.  Used when a decision
+     * has to be made from the database, like picking the worst memory
+     * offender on a swapping host.
+     *
+     * @param report
+     */
+    public void writeThrough(HostReport report) {
+        if (enabled) {
+            for (RunningFrameInfo frame: report.getFramesList()) {
+                pending.remove(frame.getFrameId(), frame);
+            }
+        }
+        dispatchSupport.updateMemoryUsage(report);
+    }
+
+    /**
+     * Writes all pending memory usage to the database.
+     *
+     * @return the number of frames written
+     */
+    public int flush() {
+        /*
+         * Late reports for completed frames are also rejected by the
+         * flush SQL, which only updates running frames and the procs
+         * still assigned to them, so the tombstones only need to last
+         * until the next flush.
+         */
+        completed.clear();
+
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        List<RunningFrameInfo> frames = new ArrayList<RunningFrameInfo>(pending.size());
+        for (Map.Entry<String, RunningFrameInfo> e: pending.entrySet()) {
+            /*
+             * Only take the entry if it wasn't replaced by a newer
+             * report in the meantime, otherwise leave the newer one
+             * for the next flush.
+             */
+            if (pending.remove(e.getKey(), e.getValue())) {
+                frames.add(e.getValue());
+            }
+        }
+
+        int flushed = 0;
+        for (int i = 0; i < frames.size(); i += FLUSH_BATCH_SIZE) {
+            List<RunningFrameInfo> batch =
+                frames.subList(i, Math.min(i + FLUSH_BATCH_SIZE, frames.size()));
+            try {
+                dispatchSupport.updateMemoryUsage(
+                        HostReport.newBuilder().addAllFrames(batch).build());
+                flushed = flushed + batch.size();
+            } catch (Exception e) {
+                logger.warn("failed to flush memory usage for " +
+                        batch.size() + " frames, " + e);
+            }
+        }
+
+        flushedCount.addAndGet(flushed);
+        logger.trace("flushed memory usage for " + flushed + " frames");
+        return flushed;
+    }
+
+    /**
+     * Return the number of frames with unflushed memory usage.
+     *
+     * @return the number of pending frames
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getRecordedCount() {
+        return recordedCount.get();
+    }
+
+    public long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    public DispatchSupport getDispatchSupport() {
+        return dispatchSupport;
+    }
+
+    public void setDispatchSupport(DispatchSupport dispatchSupport) {
+        this.dispatchSupport = dispatchSupport;
+    }
+}
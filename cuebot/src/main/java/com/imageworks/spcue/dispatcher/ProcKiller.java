@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.log4j.Logger;
+
+import com.imageworks.spcue.VirtualProc;
+import com.imageworks.spcue.rqd.RqdClient;
+
+/**
+ * Kills procs on RQD in parallel.
+ *
+ * Kill requests are sent with the async RQD client, each with its
+ * own deadline, so killing a large job takes about as long as the
+ * slowest host instead of the sum of every call.  The number of
+ * kills in flight is bounded for each host and across all hosts.
+ * Procs are sent round robin across hosts so a host with many procs
+ * does not hold up the others.  Once every kill has completed or
+ * timed out, the procs which could not be killed are cleared with
+ * DispatchSupport.lostProc.
+ */
+public class ProcKiller {
+
+    private static final Logger logger = Logger.getLogger(ProcKiller.class);
+
+    /**
+     * Upper bounds, in milliseconds, of the kill latency histogram
+     * buckets.  The last bucket counts everything slower.
+     */
+    private static final long[] LATENCY_BUCKETS = {
+        10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    /**
+     * The outcome of killing a set of procs.
+     */
+    public static final class KillResult {
+        public final int killed;
+        public final int failed;
+
+        KillResult(int killed, int failed) {
+            this.killed = killed;
+            this.failed = failed;
+        }
+    }
+
+    private final int maxConcurrent;
+    private final int maxPerHost;
+    private final long deadlineMillis;
+
+    private RqdClient rqdClient;
+    private DispatchSupport dispatchSupport;
+
+    private final Semaphore permits;
+    private final ConcurrentHashMap<String, Semaphore> hostPermits =
+        new ConcurrentHashMap<String, Semaphore>();
+
+    private final AtomicLong killed = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLongArray latency = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+
+    public ProcKiller(int maxConcurrent, int maxPerHost, long deadlineMillis) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxPerHost = maxPerHost;
+        this.deadlineMillis = deadlineMillis;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * Kills a single proc.  If RQD fails to kill it, the proc is
+     * considered lost and is manually removed.
+     *
+     * @param proc
+     * @param message
+     * @return true if the proc was killed
+     */
+    public boolean kill(VirtualProc proc, String message) {
+        List<VirtualProc> procs = new ArrayList<VirtualProc>(1);
+        procs.add(proc);
+        return kill(procs, message).killed == 1;
+    }
+
+    /**
+     * Kills the given procs in parallel and waits for every kill to
+     * complete or time out.  Procs RQD fails to kill are considered
+     * lost and are manually removed.
+     *
+     * @param procs
+     * @param message
+     * @return the number of procs killed and failed
+     */
+    public KillResult kill(Collection<VirtualProc> procs, String message) {
+        if (procs.isEmpty()) {
+            return new KillResult(0, 0);
+        }
+
+        long startTime = System.currentTimeMillis();
+        List<VirtualProc> sent = new ArrayList<VirtualProc>(procs.size());
+        List<ListenableFuture<?>> futures = new ArrayList<ListenableFuture<?>>(procs.size());
+
+        for (VirtualProc proc: roundRobin(procs)) {
+            ListenableFuture<?> future;
+            try {
+                future = send(proc, message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("interrupted while killing procs, " +
+                        (procs.size() - sent.size()) + " procs were not killed");
+                break;
+            } catch (RuntimeException e) {
+                future = Futures.immediateFailedFuture(e);
+            }
+            sent.add(proc);
+            futures.add(future);
+        }
+
+        int killedCount = 0;
+        int failedCount = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            VirtualProc proc = sent.get(i);
+            try {
+                futures.get(i).get();
+                killedCount++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lostProc(proc, e);
+                failedCount++;
+            } catch (ExecutionException e) {
+                lostProc(proc, e.getCause());
+                failedCount++;
+            }
+        }
+
+        killed.addAndGet(killedCount);
+        failed.addAndGet(failedCount);
+        logger.info("killed " + killedCount + " procs, " + failedCount +
+                " failed, in " + (System.currentTimeMillis() - startTime) + "ms");
+        return new KillResult(killedCount, failedCount);
+    }
+
+    /**
+     * Sends the kill for a single proc once a permit for its host
+     * and a global permit are available.  Both are released when
+     * the call completes.
+     */
+    private ListenableFuture<?> send(VirtualProc proc, String message)
+            throws InterruptedException {
+
+        Semaphore hostPermit = hostPermits.get(proc.hostName);
+        if (hostPermit == null) {
+            hostPermits.putIfAbsent(proc.hostName, new Semaphore(maxPerHost));
+            hostPermit = hostPermits.get(proc.hostName);
+        }
+
+        /*
+         * Wait on the host before taking a global permit, so a busy
+         * host does not hold permits other hosts could use.
+         */
+        hostPermit.acquire();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            hostPermit.release();
+            throw e;
+        }
+
+        final Semaphore acquiredHostPermit = hostPermit;
+        final long callTime = System.currentTimeMillis();
+        ListenableFuture<?> future;
+        try {
+            future = rqdClient.killFrameAsync(proc, message, deadlineMillis);
+        } catch (RuntimeException e) {
+            permits.release();
+            acquiredHostPermit.release();
+            throw e;
+        }
+        future.addListener(new Runnable() {
+            public void run() {
+                recordLatency(System.currentTimeMillis() - callTime);
+                permits.release();
+                acquiredHostPermit.release();
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    private void lostProc(VirtualProc proc, Throwable cause) {
+        try {
+            dispatchSupport.lostProc(proc, "clearing due to failed kill," +
+                    proc.getName() + "," + cause, Dispatcher.EXIT_STATUS_FAILED_KILL);
+        } catch (Exception e) {
+            logger.warn("failed to clear proc " + proc.getName() +
+                    " after a failed kill, " + e);
+        }
+    }
+
+    private void recordLatency(long millis) {
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[bucket]) {
+            bucket++;
+        }
+        latency.incrementAndGet(bucket);
+    }
+
+    /**
+     * Orders the procs so consecutive kills go to different hosts.
+     */
+    private static List<VirtualProc> roundRobin(Collection<VirtualProc> procs) {
+        Map<String, Deque<VirtualProc>> hosts = new LinkedHashMap<String, Deque<VirtualProc>>();
+        for (VirtualProc proc: procs) {
+            Deque<VirtualProc> hostProcs = hosts.get(proc.hostName);
+            if (hostProcs == null) {
+                hostProcs = new ArrayDeque<VirtualProc>();
+                hosts.put(proc.hostName, hostProcs);
+            }
+            hostProcs.add(proc);
+        }
+
+        List<VirtualProc> result = new ArrayList<VirtualProc>(procs.size());
+        while (result.size() < procs.size()) {
+            for (Deque<VirtualProc> hostProcs: hosts.values()) {
+                VirtualProc proc = hostProcs.poll();
+                if (proc != null) {
+                    result.add(proc);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the upper bound in milliseconds of each kill latency
+     * bucket.  There is one more bucket than bounds, for kills
+     * slower than the last bound.
+     *
+     * @return the bucket bounds
+     */
+    public long[] getLatencyBuckets() {
+        return LATENCY_BUCKETS.clone();
+    }
+
+    /**
+     * Returns the number of kills which completed within each
+     * latency bucket, including kills that failed or timed out.
+     *
+     * @return the count for each bucket
+     */
+    public long[] getLatencyCounts() {
+        long[] result = new long[latency.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = latency.get(i);
+        }
+        return result;
+    }
+
+    public long getKilledCount() {
+        return killed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public RqdClient getRqdClient() {
+        return rqdClient;
+    }
+
+    public void setRqdClient(RqdClient rqdClient) {
+        this.rqdClient = rqdClient;
+    }
+
+    public DispatchSupport getDispatchSupport() {
+        return dispatchSupport;
+    }
+
+    public void setDispatchSupport(DispatchSupport dispatchSupport) {
+        this.dispatchSupport = dispatchSupport;
+    }
+}
@@ -328,8 +328,9 @@ public class RedirectManager {
                         dispatcher.dispatchHost(host, job);
                     }
                     else {
-                        bookingQueue.execute(new
-                                DispatchBookHost(host, job, dispatcher));
+                        DispatchBookHost book = new DispatchBookHost(host, job, dispatcher);
+                        book.setRedirect(true);
+                        bookingQueue.execute(book);
                     }
                     return true;
 
@@ -344,8 +345,9 @@ public class RedirectManager {
                         dispatcher.dispatchHost(host, group);
                     }
                     else {
-                        bookingQueue.execute(new DispatchBookHost(host,
-                                group, dispatcher));
+                        DispatchBookHost book = new DispatchBookHost(host, group, dispatcher);
+                        book.setRedirect(true);
+                        bookingQueue.execute(book);
                     }
                     return true;
 
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.dispatcher;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An in-memory copy of the burst and booked cores of every
+ * subscription, keyed on show and allocation.
+ *
+ * Proc reservations and unbookings are applied as they happen, so
+ * the burst checks made while booking and when frames complete don't
+ * have to query the subscription table.  The table is reconciled
+ * against the database periodically, which also picks up burst
+ * changes and new or removed subscriptions.  Until a subscription
+ * has been loaded its headroom is unknown and callers fall back to
+ * querying the database.
+ */
+public class SubscriptionHeadroom {
+
+    private static final Logger logger = Logger.getLogger(SubscriptionHeadroom.class);
+
+    /**
+     * The burst and booked cores of a subscription, as loaded from
+     * the database.
+     */
+    public static final class Entry {
+        public final String showId;
+        public final String allocId;
+        public final int burst;
+        public final int cores;
+
+        public Entry(String showId, String allocId, int burst, int cores) {
+            this.showId = showId;
+            this.allocId = allocId;
+            this.burst = burst;
+            this.cores = cores;
+        }
+    }
+
+    private static final class Subscription {
+        final int burst;
+        final AtomicInteger cores;
+
+        Subscription(Entry e) {
+            burst = e.burst;
+            cores = new AtomicInteger(e.cores);
+        }
+    }
+
+    private final boolean enabled;
+
+    private final ConcurrentHashMap<String, Subscription> subscriptions =
+        new ConcurrentHashMap<String, Subscription>();
+
+    private volatile Supplier<List<Entry>> loader;
+
+    private final AtomicLong lookups = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong reconciles = new AtomicLong(0);
+
+    public SubscriptionHeadroom(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the function that loads every subscription from the
+     * database.
+     *
+     * @param loader
+     */
+    public void setLoader(Supplier<List<Entry>> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the number of core units the show can still book in
+     * the allocation before reaching its burst, or null if the
+     * subscription has not been loaded.  The headroom is negative
+     * if the show is over its burst.
+     *
+     * @param showId
+     * @param allocId
+     * @return the headroom in core units or null
+     */
+    public Integer getHeadroom(String showId, String allocId) {
+        if (!enabled) {
+            return null;
+        }
+        lookups.incrementAndGet();
+        Subscription s = subscriptions.get(key(showId, allocId));
+        if (s == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        return s.burst - s.cores.get();
+    }
+
+    /**
+     * Called when a proc with the given number of cores is booked
+     * for the show in the allocation.
+     *
+     * @param showId
+     * @param allocId
+     * @param coreUnits
+     */
+    public void coresReserved(String showId, String allocId, int coreUnits) {
+        Subscription s = subscriptions.get(key(showId, allocId));
+        if (s != null) {
+            s.cores.addAndGet(coreUnits);
+        }
+    }
+
+    /**
+     * Called when a proc with the given number of cores is unbooked
+     * from the show in the allocation.
+     *
+     * @param showId
+     * @param allocId
+     * @param coreUnits
+     */
+    public void coresReleased(String showId, String allocId, int coreUnits) {
+        Subscription s = subscriptions.get(key(showId, allocId));
+        if (s != null) {
+            s.cores.addAndGet(-coreUnits);
+        }
+    }
+
+    /**
+     * Reloads every subscription from the database, replacing the
+     * booked cores tracked in memory and dropping subscriptions that
+     * no longer exist.
+     */
+    public void reconcile() {
+        if (!enabled || loader == null) {
+            return;
+        }
+
+        List<Entry> entries;
+        try {
+            entries = loader.get();
+        } catch (RuntimeException e) {
+            logger.warn("failed to reconcile subscription headroom, " + e);
+            return;
+        }
+
+        int drifted = 0;
+        Set<String> loaded = new HashSet<String>(entries.size());
+        for (Entry e: entries) {
+            String key = key(e.showId, e.allocId);
+            loaded.add(key);
+            Subscription previous = subscriptions.put(key, new Subscription(e));
+            if (previous != null && previous.cores.get() != e.cores) {
+                drifted++;
+            }
+        }
+        subscriptions.keySet().retainAll(loaded);
+
+        reconciles.incrementAndGet();
+        if (drifted > 0) {
+            logger.info("reconciled subscription headroom, " + drifted +
+                    " of " + entries.size() + " subscriptions had drifted");
+        }
+    }
+
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getReconcileCount() {
+        return reconciles.get();
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    private static String key(String showId, String allocId) {
+        return showId + "/" + allocId;
+    }
+}
@@ -22,6 +22,7 @@ package com.imageworks.spcue.dispatcher.commands;
 import com.imageworks.spcue.DispatchHost;
 import com.imageworks.spcue.GroupInterface;
 import com.imageworks.spcue.JobInterface;
+import com.imageworks.spcue.ShowEntity;
 import com.imageworks.spcue.ShowInterface;
 import com.imageworks.spcue.dispatcher.Dispatcher;
 
@@ -37,6 +38,7 @@ public class DispatchBookHost implements Runnable  {
     private JobInterface job = null;
     private DispatchHost host;
     private Dispatcher dispatcher;
+    private boolean redirect = false;
 
     public DispatchHost getDispatchHost() {
         return host;
@@ -65,6 +67,110 @@ public class DispatchBookHost implements Runnable  {
         this.dispatcher = d;
     }
 
+    /**
+     * Returns true if this booking was made to send the host to the
+     * destination of a redirect.
+     *
+     * @return true if this is a redirect
+     */
+    public boolean isRedirect() {
+        return redirect;
+    }
+
+    public void setRedirect(boolean redirect) {
+        this.redirect = redirect;
+    }
+
+    /**
+     * Returns true if the other booking can be merged into this one.
+     * A redirect must send the host to its own job or group, so it is
+     * never merged with, or widened by, a booking of any other scope.
+     *
+     * @param other
+     * @return true if the bookings can be merged
+     */
+    public boolean canMerge(DispatchBookHost other) {
+        if (!redirect && !other.redirect) {
+            return true;
+        }
+        return redirect && other.redirect && scopeId().equals(other.scopeId());
+    }
+
+    /**
+     * Returns true if booking this host would also do everything
+     * the other booking would.  A booking for a show, group or job
+     * also books the host for everything else, so it covers an
+     * unscoped booking and a booking for the same show, group or job.
+     *
+     * @param other
+     * @return true if the other booking is covered by this one
+     */
+    public boolean covers(DispatchBookHost other) {
+        if (other.scopeId() == null) {
+            return true;
+        }
+        return other.scopeId().equals(scopeId());
+    }
+
+    /**
+     * Merges a later booking for the same host into this one.  The
+     * merged booking uses the later booking's host, which has the more
+     * recent idle resources.  If neither booking covers the other, the
+     * scope is widened to the show they share, or dropped if they are
+     * for different shows.  Only call this if canMerge is true.
+     *
+     * @param other
+     * @return the merged booking
+     */
+    public DispatchBookHost merge(DispatchBookHost other) {
+        if (covers(other)) {
+            return withHost(other.host);
+        }
+        if (scopeId() == null) {
+            return other;
+        }
+
+        String showId = scope().getShowId();
+        if (showId != null && showId.equals(other.scope().getShowId())) {
+            ShowEntity shared = new ShowEntity();
+            shared.id = showId;
+            return new DispatchBookHost(other.host, shared, dispatcher);
+        }
+        return new DispatchBookHost(other.host, dispatcher);
+    }
+
+    private DispatchBookHost withHost(DispatchHost newHost) {
+        DispatchBookHost result = new DispatchBookHost(newHost, dispatcher);
+        result.show = show;
+        result.group = group;
+        result.job = job;
+        result.redirect = redirect;
+        return result;
+    }
+
+    private ShowInterface scope() {
+        if (show != null) {
+            return show;
+        }
+        else if (group != null) {
+            return group;
+        }
+        return job;
+    }
+
+    private String scopeId() {
+        if (show != null) {
+            return "show:" + show.getShowId();
+        }
+        else if (group != null) {
+            return "group:" + group.getGroupId();
+        }
+        else if (job != null) {
+            return "job:" + job.getJobId();
+        }
+        return null;
+    }
+
     public void run() {
         new DispatchCommandTemplate() {
             public void wrapDispatchCommand() {
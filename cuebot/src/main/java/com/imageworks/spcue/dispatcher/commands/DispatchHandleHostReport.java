@@ -52,6 +52,24 @@ public class DispatchHandleHostReport implements Runnable {
         this.hostReportHandler = rqdReportManager;
     }
 
+    private DispatchHandleHostReport(HostReport report, HostReportHandler rqdReportManager,
+            boolean isBootReport) {
+        this.hostReport = report;
+        this.isBootReport = isBootReport;
+        this.hostReportHandler = rqdReportManager;
+    }
+
+    /**
+     * Returns a copy of this command that is handled as a boot
+     * report, for when it replaces a boot report that was never
+     * handled.
+     *
+     * @return a boot report command for the same host report
+     */
+    public DispatchHandleHostReport asBootReport() {
+        return new DispatchHandleHostReport(hostReport, hostReportHandler, true);
+    }
+
     public void run() {
         new DispatchCommandTemplate() {
             public void wrapDispatchCommand() {
@@ -67,5 +85,9 @@ public class DispatchHandleHostReport implements Runnable {
     public HostReport getHostReport() {
         return hostReport;
     }
+
+    public boolean isBootReport() {
+        return isBootReport;
+    }
 }
 
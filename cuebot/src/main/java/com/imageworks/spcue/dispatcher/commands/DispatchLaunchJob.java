@@ -38,7 +38,7 @@ public class DispatchLaunchJob implements Runnable {
     public void run() {
         new DispatchCommandTemplate() {
             public void wrapDispatchCommand() {
-                jobLauncher.launch(spec);
+                jobLauncher.launchQueued(spec);
             }
         }.execute();
     }
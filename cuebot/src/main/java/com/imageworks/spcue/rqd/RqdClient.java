@@ -17,10 +17,14 @@
 
 package com.imageworks.spcue.rqd;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import com.imageworks.spcue.HostInterface;
 import com.imageworks.spcue.VirtualProc;
 import com.imageworks.spcue.grpc.host.LockState;
 import com.imageworks.spcue.grpc.report.RunningFrameInfo;
+import com.imageworks.spcue.grpc.rqd.RqdStaticKillRunningFrameResponse;
+import com.imageworks.spcue.grpc.rqd.RqdStaticLaunchFrameResponse;
 import com.imageworks.spcue.grpc.rqd.RunFrame;
 
 public interface RqdClient {
@@ -85,6 +89,19 @@ public interface RqdClient {
      */
     void launchFrame(RunFrame frame, VirtualProc proc);
 
+    /**
+     * Launches a frame without waiting for RQD to respond.  The
+     * returned future fails with an RqdClientException if the call
+     * fails or does not complete within the deadline.
+     *
+     * @param frame
+     * @param proc
+     * @param deadlineMillis
+     * @return a future for the RQD response
+     */
+    ListenableFuture<RqdStaticLaunchFrameResponse> launchFrameAsync(
+            RunFrame frame, VirtualProc proc, long deadlineMillis);
+
     /**
      * Kills a running frame by resource
      *
@@ -99,5 +116,18 @@ public interface RqdClient {
      * @param frameId
      */
     void killFrame(String hostName, String frameId, String message);
+
+    /**
+     * Kills a running frame without waiting for RQD to respond.
+     * The returned future fails with an RqdClientException if the
+     * call fails or does not complete within the deadline.
+     *
+     * @param proc
+     * @param message
+     * @param deadlineMillis
+     * @return a future for the RQD response
+     */
+    ListenableFuture<RqdStaticKillRunningFrameResponse> killFrameAsync(
+            VirtualProc proc, String message, long deadlineMillis);
 }
 
@@ -17,12 +17,27 @@
 
 package com.imageworks.spcue.rqd;
 
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import io.grpc.StatusRuntimeException;
+import io.grpc.netty.NettyChannelBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import org.apache.log4j.Logger;
 
 import com.google.common.cache.CacheBuilder;
@@ -38,9 +53,11 @@ import com.imageworks.spcue.grpc.rqd.RqdInterfaceGrpc;
 import com.imageworks.spcue.grpc.rqd.RqdStaticGetRunFrameRequest;
 import com.imageworks.spcue.grpc.rqd.RqdStaticGetRunFrameResponse;
 import com.imageworks.spcue.grpc.rqd.RqdStaticKillRunningFrameRequest;
+import com.imageworks.spcue.grpc.rqd.RqdStaticKillRunningFrameResponse;
 import com.imageworks.spcue.grpc.rqd.RqdStaticLockAllRequest;
 import com.imageworks.spcue.grpc.rqd.RqdStaticUnlockAllRequest;
 import com.imageworks.spcue.grpc.rqd.RqdStaticLaunchFrameRequest;
+import com.imageworks.spcue.grpc.rqd.RqdStaticLaunchFrameResponse;
 import com.imageworks.spcue.grpc.rqd.RqdStaticRebootIdleRequest;
 import com.imageworks.spcue.grpc.rqd.RqdStaticRebootNowRequest;
 import com.imageworks.spcue.grpc.rqd.RunFrame;
@@ -48,59 +65,282 @@ import com.imageworks.spcue.grpc.rqd.RunningFrameGrpc;
 import com.imageworks.spcue.grpc.rqd.RunningFrameStatusRequest;
 import com.imageworks.spcue.grpc.rqd.RunningFrameStatusResponse;
 
+/**
+ * RQD client backed by one gRPC channel per host.
+ *
+ * All channels share a single Netty event loop group, so the number
+ * of I/O threads does not grow with the number of hosts.  Every call
+ * is made with a deadline, so a hung RQD fails the call instead of
+ * blocking the calling thread forever.  Channels evicted from the
+ * cache are shut down once the calls using them have completed.
+ */
 public final class RqdClientGrpc implements RqdClient {
     private static final Logger logger = Logger.getLogger(RqdClientGrpc.class);
 
     private final int rqdCacheSize;
     private final int rqdCacheExpiration;
     private final int rqdServerPort;
-    private LoadingCache<String, ManagedChannel> channelCache;
+    private final int rqdEventLoopThreads;
+    private final long rqdDeadlineMillis;
+    private LoadingCache<String, RqdChannel> channelCache;
+    private EventLoopGroup eventLoopGroup;
+
+    private final ConcurrentHashMap<String, CallStats> callStats =
+            new ConcurrentHashMap<String, CallStats>();
+
+    private Function<String, ManagedChannel> channelFactory;
 
     private boolean testMode = false;
 
+    /**
+     * Call counts and latencies for one type of RQD call.
+     */
+    public static final class CallStats {
+        private final AtomicLong calls = new AtomicLong(0);
+        private final AtomicLong failures = new AtomicLong(0);
+        private final AtomicLong totalMillis = new AtomicLong(0);
+        private final AtomicLong maxMillis = new AtomicLong(0);
+
+        private void record(long millis, boolean failed) {
+            calls.incrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+            }
+            totalMillis.addAndGet(millis);
+            maxMillis.accumulateAndGet(millis, Math::max);
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getTotalMillis() {
+            return totalMillis.get();
+        }
+
+        public long getMaxMillis() {
+            return maxMillis.get();
+        }
+
+        @Override
+        public String toString() {
+            long count = calls.get();
+            return String.format("calls=%d failures=%d avg=%dms max=%dms",
+                    count, failures.get(), count == 0 ? 0 : totalMillis.get() / count,
+                    maxMillis.get());
+        }
+    }
+
+    /**
+     * A channel and the number of calls currently using it.  Once
+     * retired, the channel is shut down when the last call releases
+     * it, and it can no longer be acquired.
+     */
+    private static final class RqdChannel {
+        private final ManagedChannel channel;
+        private final AtomicInteger refs = new AtomicInteger(0);
+        private volatile boolean retired = false;
+
+        RqdChannel(ManagedChannel channel) {
+            this.channel = channel;
+        }
+
+        boolean acquire() {
+            for (;;) {
+                int count = refs.get();
+                if (count < 0) {
+                    return false;
+                }
+                if (refs.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0 && retired) {
+                tryShutdown();
+            }
+        }
+
+        void retire() {
+            retired = true;
+            tryShutdown();
+        }
+
+        private void tryShutdown() {
+            if (refs.compareAndSet(0, -1)) {
+                channel.shutdown();
+            }
+        }
+    }
 
     public RqdClientGrpc(int rqdServerPort, int rqdCacheSize, int rqdCacheExpiration) {
+        this(rqdServerPort, rqdCacheSize, rqdCacheExpiration, 0, 30000);
+    }
+
+    /**
+     * @param rqdServerPort
+     * @param rqdCacheSize
+     * @param rqdCacheExpiration channel expiration in minutes
+     * @param rqdEventLoopThreads Netty I/O threads shared by all
+     *        channels, 0 for Netty's default
+     * @param rqdDeadlineMillis deadline for blocking calls
+     */
+    public RqdClientGrpc(int rqdServerPort, int rqdCacheSize, int rqdCacheExpiration,
+            int rqdEventLoopThreads, long rqdDeadlineMillis) {
         this.rqdServerPort = rqdServerPort;
         this.rqdCacheSize = rqdCacheSize;
         this.rqdCacheExpiration = rqdCacheExpiration;
+        this.rqdEventLoopThreads = rqdEventLoopThreads;
+        this.rqdDeadlineMillis = rqdDeadlineMillis;
     }
 
-    private void buildChannelCache() {
+    private synchronized void buildChannelCache() {
+        if (channelCache != null) {
+            return;
+        }
+        eventLoopGroup = new NioEventLoopGroup(rqdEventLoopThreads,
+                new DefaultThreadFactory("rqd-client", true));
         this.channelCache = CacheBuilder.newBuilder()
                 .maximumSize(rqdCacheSize)
                 .expireAfterAccess(rqdCacheExpiration, TimeUnit.MINUTES)
-                .removalListener(new RemovalListener<String, ManagedChannel>() {
+                .removalListener(new RemovalListener<String, RqdChannel>() {
                     @Override
-                    public void onRemoval(RemovalNotification<String, ManagedChannel> removal){
-                        ManagedChannel conn = removal.getValue();
-                        conn.shutdown();
+                    public void onRemoval(RemovalNotification<String, RqdChannel> removal){
+                        removal.getValue().retire();
                     }
                 })
                 .build(
-                        new CacheLoader<String, ManagedChannel>() {
+                        new CacheLoader<String, RqdChannel>() {
                             @Override
-                            public ManagedChannel load(String host) throws Exception {
-                                ManagedChannelBuilder channelBuilder = ManagedChannelBuilder.forAddress(
-                                        host, rqdServerPort).usePlaintext();
-                                return channelBuilder.build();
+                            public RqdChannel load(String host) throws Exception {
+                                if (channelFactory != null) {
+                                    return new RqdChannel(channelFactory.apply(host));
+                                }
+                                return new RqdChannel(NettyChannelBuilder
+                                        .forAddress(host, rqdServerPort)
+                                        .eventLoopGroup(eventLoopGroup)
+                                        .channelType(NioSocketChannel.class)
+                                        .usePlaintext()
+                                        .build());
                             }
                         });
     }
 
-    private RqdInterfaceGrpc.RqdInterfaceBlockingStub getStub(String host) throws ExecutionException {
+    /**
+     * Returns the channel for the given host, acquired for one call.
+     * The caller must release it when the call completes.
+     */
+    private RqdChannel acquireChannel(String host) throws ExecutionException {
         if (channelCache == null) {
             buildChannelCache();
         }
-        ManagedChannel channel = channelCache.get(host);
-        return RqdInterfaceGrpc.newBlockingStub(channel);
+        for (;;) {
+            RqdChannel channel = channelCache.get(host);
+            if (channel.acquire()) {
+                return channel;
+            }
+            /*
+             * The channel was evicted and shut down after it was
+             * read from the cache.  Only remove that channel, another
+             * thread may have already loaded a new one.
+             */
+            channelCache.asMap().remove(host, channel);
+        }
     }
 
-    private RunningFrameGrpc.RunningFrameBlockingStub getRunningFrameStub(String host) throws ExecutionException {
-        if (channelCache == null) {
-            buildChannelCache();
+    private CallStats getCallStats(String rpc) {
+        CallStats stats = callStats.get(rpc);
+        if (stats == null) {
+            callStats.putIfAbsent(rpc, new CallStats());
+            stats = callStats.get(rpc);
+        }
+        return stats;
+    }
+
+    /**
+     * Makes a blocking call to the given host.
+     */
+    private <T> T call(String host, String rpc, Function<ManagedChannel, T> call)
+            throws ExecutionException {
+        RqdChannel channel = acquireChannel(host);
+        long startTime = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            T result = call.apply(channel.channel);
+            failed = false;
+            return result;
+        } finally {
+            channel.release();
+            getCallStats(rpc).record(System.currentTimeMillis() - startTime, failed);
         }
-        ManagedChannel channel = channelCache.get(host);
-        return RunningFrameGrpc.newBlockingStub(channel);
+    }
+
+    /**
+     * Makes an async call to the given host.  The returned future
+     * fails with an RqdClientException carrying the given error
+     * message if the call fails.
+     */
+    private <T> ListenableFuture<T> callAsync(String host, String rpc, final String error,
+            Function<ManagedChannel, ListenableFuture<T>> call) {
+        final SettableFuture<T> result = SettableFuture.create();
+        final RqdChannel channel;
+        try {
+            channel = acquireChannel(host);
+        } catch (ExecutionException e) {
+            result.setException(new RqdClientException(error, e));
+            return result;
+        }
+
+        final CallStats stats = getCallStats(rpc);
+        final long startTime = System.currentTimeMillis();
+        ListenableFuture<T> future;
+        try {
+            future = call.apply(channel.channel);
+        } catch (RuntimeException e) {
+            channel.release();
+            stats.record(System.currentTimeMillis() - startTime, true);
+            result.setException(new RqdClientException(error, e));
+            return result;
+        }
+
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T response) {
+                channel.release();
+                stats.record(System.currentTimeMillis() - startTime, false);
+                result.set(response);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                channel.release();
+                stats.record(System.currentTimeMillis() - startTime, true);
+                result.setException(new RqdClientException(error, t));
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    private RqdInterfaceGrpc.RqdInterfaceBlockingStub getStub(ManagedChannel channel) {
+        return RqdInterfaceGrpc.newBlockingStub(channel)
+                .withDeadlineAfter(rqdDeadlineMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private RunningFrameGrpc.RunningFrameBlockingStub getRunningFrameStub(ManagedChannel channel) {
+        return RunningFrameGrpc.newBlockingStub(channel)
+                .withDeadlineAfter(rqdDeadlineMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private RqdInterfaceGrpc.RqdInterfaceFutureStub getFutureStub(
+            ManagedChannel channel, long deadlineMillis) {
+        return RqdInterfaceGrpc.newFutureStub(channel)
+                .withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS);
     }
 
     public void setHostLock(HostInterface host, LockState lock) {
@@ -119,7 +359,7 @@ public final class RqdClientGrpc implements RqdClient {
         RqdStaticLockAllRequest request = RqdStaticLockAllRequest.newBuilder().build();
 
         try {
-            getStub(host.getName()).lockAll(request);
+            call(host.getName(), "lockAll", c -> getStub(c).lockAll(request));
         } catch (StatusRuntimeException | ExecutionException e) {
             throw new RqdClientException("failed to lock host: " + host.getName(), e);
         }
@@ -129,7 +369,7 @@ public final class RqdClientGrpc implements RqdClient {
         RqdStaticUnlockAllRequest request = RqdStaticUnlockAllRequest.newBuilder().build();
 
         try {
-            getStub(host.getName()).unlockAll(request);
+            call(host.getName(), "unlockAll", c -> getStub(c).unlockAll(request));
         } catch (StatusRuntimeException | ExecutionException e) {
             throw new RqdClientException("failed to unlock host: " + host.getName(), e);
         }
@@ -139,7 +379,7 @@ public final class RqdClientGrpc implements RqdClient {
         RqdStaticRebootNowRequest request = RqdStaticRebootNowRequest.newBuilder().build();
 
         try {
-            getStub(host.getName()).rebootNow(request);
+            call(host.getName(), "rebootNow", c -> getStub(c).rebootNow(request));
         } catch (StatusRuntimeException | ExecutionException e) {
             throw new RqdClientException("failed to reboot host: " + host.getName(), e);
         }
@@ -153,7 +393,7 @@ public final class RqdClientGrpc implements RqdClient {
         }
 
         try {
-            getStub(host.getName()).rebootIdle(request);
+            call(host.getName(), "rebootIdle", c -> getStub(c).rebootIdle(request));
         } catch (StatusRuntimeException | ExecutionException e) {
             throw new RqdClientException("failed to reboot host: " + host.getName(), e);
         }
@@ -176,26 +416,46 @@ public final class RqdClientGrpc implements RqdClient {
 
         try {
             logger.info("killing frame on " + host + ", source: " + message);
-            getStub(host).killRunningFrame(request);
+            call(host, "killRunningFrame", c -> getStub(c).killRunningFrame(request));
         } catch(StatusRuntimeException | ExecutionException e) {
             throw new RqdClientException("failed to kill frame " + frameId, e);
         }
     }
 
+    public ListenableFuture<RqdStaticKillRunningFrameResponse> killFrameAsync(
+            VirtualProc proc, String message, long deadlineMillis) {
+        RqdStaticKillRunningFrameRequest request =
+                RqdStaticKillRunningFrameRequest.newBuilder()
+                .setFrameId(proc.frameId)
+                .setMessage(message)
+                .build();
+
+        if (testMode) {
+            return Futures.immediateFuture(
+                    RqdStaticKillRunningFrameResponse.getDefaultInstance());
+        }
+
+        logger.info("killing frame on " + proc.hostName + ", source: " + message);
+        return callAsync(proc.hostName, "killRunningFrame",
+                "failed to kill frame " + proc.frameId,
+                c -> getFutureStub(c, deadlineMillis).killRunningFrame(request));
+    }
+
     public RunningFrameInfo getFrameStatus(VirtualProc proc) {
         try {
-            RqdStaticGetRunFrameResponse getRunFrameResponse =
-                    getStub(proc.hostName)
-                            .getRunFrame(
-                                    RqdStaticGetRunFrameRequest.newBuilder()
-                                            .setFrameId(proc.frameId)
-                                            .build());
-            RunningFrameStatusResponse frameStatusResponse =
-                    getRunningFrameStub(proc.hostName)
-                            .status(RunningFrameStatusRequest.newBuilder()
-                                    .setRunFrame(getRunFrameResponse.getRunFrame())
-                                    .build());
-            return frameStatusResponse.getRunningFrameInfo();
+            return call(proc.hostName, "getRunFrame", c -> {
+                RqdStaticGetRunFrameResponse getRunFrameResponse =
+                        getStub(c).getRunFrame(
+                                RqdStaticGetRunFrameRequest.newBuilder()
+                                        .setFrameId(proc.frameId)
+                                        .build());
+                RunningFrameStatusResponse frameStatusResponse =
+                        getRunningFrameStub(c)
+                                .status(RunningFrameStatusRequest.newBuilder()
+                                        .setRunFrame(getRunFrameResponse.getRunFrame())
+                                        .build());
+                return frameStatusResponse.getRunningFrameInfo();
+            });
         } catch(StatusRuntimeException | ExecutionException e) {
             throw new RqdClientException("failed to obtain status for frame " + proc.frameId, e);
         }
@@ -210,15 +470,72 @@ public final class RqdClientGrpc implements RqdClient {
         }
 
         try {
-            getStub(proc.hostName).launchFrame(request);
+            call(proc.hostName, "launchFrame", c -> getStub(c).launchFrame(request));
         } catch (StatusRuntimeException | ExecutionException e) {
             throw new RqdClientException("failed to launch frame", e);
         }
     }
 
+    public ListenableFuture<RqdStaticLaunchFrameResponse> launchFrameAsync(
+            RunFrame frame, VirtualProc proc, long deadlineMillis) {
+        RqdStaticLaunchFrameRequest request =
+                RqdStaticLaunchFrameRequest.newBuilder().setRunFrame(frame).build();
+
+        if (testMode) {
+            return Futures.immediateFuture(
+                    RqdStaticLaunchFrameResponse.getDefaultInstance());
+        }
+
+        return callAsync(proc.hostName, "launchFrame", "failed to launch frame",
+                c -> getFutureStub(c, deadlineMillis).launchFrame(request));
+    }
+
+    /**
+     * Returns the call stats for each type of RQD call made so far,
+     * keyed by RPC name.
+     *
+     * @return call stats by RPC name
+     */
+    public Map<String, CallStats> getCallStats() {
+        return new TreeMap<String, CallStats>(callStats);
+    }
+
+    /**
+     * Returns the number of cached host channels.
+     *
+     * @return the channel count
+     */
+    public long getChannelCount() {
+        return channelCache == null ? 0 : channelCache.size();
+    }
+
+    /**
+     * Closes every channel once its calls complete and stops the
+     * shared event loop.
+     */
+    public synchronized void shutdown() {
+        if (channelCache == null) {
+            return;
+        }
+        logger.info("shutting down RQD client, " + getCallStats());
+        channelCache.invalidateAll();
+        channelCache.cleanUp();
+        eventLoopGroup.shutdownGracefully();
+    }
+
+    /**
+     * Replaces the Netty channels with channels made by the given
+     * factory, which is passed the host name.  Used by tests to
+     * talk to an in-process RQD.
+     *
+     * @param channelFactory
+     */
+    public void setChannelFactory(Function<String, ManagedChannel> channelFactory) {
+        this.channelFactory = channelFactory;
+    }
+
     @Override
     public void setTestMode(boolean testMode) {
         this.testMode = testMode;
     }
 }
-
@@ -29,6 +29,9 @@ import com.imageworks.spcue.grpc.cue.CueGetSystemStatsRequest;
 import com.imageworks.spcue.grpc.cue.CueGetSystemStatsResponse;
 import com.imageworks.spcue.grpc.cue.CueInterfaceGrpc;
 import com.imageworks.spcue.grpc.cue.SystemStats;
+import com.imageworks.spcue.service.HistoricalSupport;
+import com.imageworks.spcue.service.JobUpdateFeed;
+import com.imageworks.spcue.service.JobWhiteboardCache;
 import com.imageworks.spcue.service.Whiteboard;
 
 public class CueStatic extends CueInterfaceGrpc.CueInterfaceImplBase {
@@ -39,6 +42,9 @@ public class CueStatic extends CueInterfaceGrpc.CueInterfaceImplBase {
     private HostReportQueue reportQueue;
     private BookingQueue bookingQueue;
     private DispatchSupport dispatchSupport;
+    private HistoricalSupport historicalSupport;
+    private JobWhiteboardCache jobWhiteboardCache;
+    private JobUpdateFeed jobUpdateFeed;
 
     @Override
     public void getSystemStats(CueGetSystemStatsRequest request,
@@ -61,13 +67,19 @@ public class CueStatic extends CueInterfaceGrpc.CueInterfaceImplBase {
                 .setReportRemainingCapacity(reportQueue.getQueue().remainingCapacity())
                 .setReportExecuted(reportQueue.getTaskCount())
                 .setReportRejected(reportQueue.getRejectedTaskCount())
+                .setReportCoalesced(reportQueue.getCoalescedCount())
+                .setReportDropped(reportQueue.getDroppedCount())
+                .setReportProcessed(reportQueue.getProcessedCount())
 
                 .setBookingWaiting(bookingQueue.getQueue().size())
-                .setBookingRemainingCapacity(bookingQueue.getQueue().remainingCapacity())
+                .setBookingRemainingCapacity(bookingQueue.getRemainingCapacity())
                 .setBookingThreads(bookingQueue.getActiveCount())
                 .setBookingExecuted(bookingQueue.getCompletedTaskCount())
                 .setBookingRejected(bookingQueue.getRejectedTaskCount())
-                .setBookingSleepMillis(bookingQueue.sleepTime())
+                .setBookingSkipped(bookingQueue.getSkippedCount())
+                .setBookingMerged(bookingQueue.getMergedCount())
+                .setBookingDropped(bookingQueue.getDroppedCount())
+                .setBookingLatencyMillis(bookingQueue.getLatencyMillis())
 
                 .setHostBalanceSuccess(DispatchSupport.balanceSuccess.get())
                 .setHostBalanceFailed(DispatchSupport.balanceFailed.get())
@@ -86,6 +98,19 @@ public class CueStatic extends CueInterfaceGrpc.CueInterfaceImplBase {
                 .setUnbookedProcs(DispatchSupport.unbookedProcs.get())
                 .setPickedUpCores(DispatchSupport.pickedUpCoresCount.get())
                 .setStrandedCores(DispatchSupport.strandedCoresCount.get())
+
+                .setArchiveBacklog(historicalSupport.getBacklog())
+                .setArchiveJobs(historicalSupport.getJobsArchived())
+                .setArchiveRows(historicalSupport.getRowsArchived())
+                .setArchiveRowsPerSec(historicalSupport.getRowsPerSecond())
+
+                .setWhiteboardCacheShows(jobWhiteboardCache.getSize())
+                .setWhiteboardCacheBytes(jobWhiteboardCache.getSizeBytes())
+                .setWhiteboardCacheMaxAgeMillis(jobWhiteboardCache.getMaxAgeMillis())
+                .setWhiteboardCacheLoads(jobWhiteboardCache.getLoadCount())
+                .setWhiteboardCacheHits(jobWhiteboardCache.getHitCount())
+                .setUpdateFeedSubscriptions(jobUpdateFeed.getSubscriptionCount())
+                .setUpdateFeedUpdates(jobUpdateFeed.getUpdatesSent())
                 .build();
         responseObserver.onNext(CueGetSystemStatsResponse.newBuilder()
                 .setStats(stats)
@@ -141,5 +166,29 @@ public class CueStatic extends CueInterfaceGrpc.CueInterfaceImplBase {
     public void setDispatchSupport(DispatchSupport dispatchSupport) {
         this.dispatchSupport = dispatchSupport;
     }
+
+    public HistoricalSupport getHistoricalSupport() {
+        return historicalSupport;
+    }
+
+    public void setHistoricalSupport(HistoricalSupport historicalSupport) {
+        this.historicalSupport = historicalSupport;
+    }
+
+    public JobWhiteboardCache getJobWhiteboardCache() {
+        return jobWhiteboardCache;
+    }
+
+    public void setJobWhiteboardCache(JobWhiteboardCache jobWhiteboardCache) {
+        this.jobWhiteboardCache = jobWhiteboardCache;
+    }
+
+    public JobUpdateFeed getJobUpdateFeed() {
+        return jobUpdateFeed;
+    }
+
+    public void setJobUpdateFeed(JobUpdateFeed jobUpdateFeed) {
+        this.jobUpdateFeed = jobUpdateFeed;
+    }
 }
 
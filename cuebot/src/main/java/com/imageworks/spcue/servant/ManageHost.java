@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 import org.springframework.dao.EmptyResultDataAccessException;
 
@@ -81,6 +82,8 @@ import com.imageworks.spcue.grpc.host.HostSetOsRequest;
 import com.imageworks.spcue.grpc.host.HostSetOsResponse;
 import com.imageworks.spcue.grpc.host.HostSetThreadModeRequest;
 import com.imageworks.spcue.grpc.host.HostSetThreadModeResponse;
+import com.imageworks.spcue.grpc.host.HostStreamHostsRequest;
+import com.imageworks.spcue.grpc.host.HostStreamHostsResponse;
 import com.imageworks.spcue.grpc.host.HostUnlockRequest;
 import com.imageworks.spcue.grpc.host.HostUnlockResponse;
 import com.imageworks.spcue.grpc.host.LockState;
@@ -101,6 +104,8 @@ public class ManageHost extends HostInterfaceGrpc.HostInterfaceImplBase {
     private JobManager jobManager;
     private Whiteboard whiteboard;
     private HostSearchFactory hostSearchFactory;
+    private int streamBatchSize;
+    private long streamTimeoutMillis;
 
     @Override
     public void getHosts(HostGetHostsRequest request, StreamObserver<HostGetHostsResponse> responseObserver) {
@@ -110,6 +115,25 @@ public class ManageHost extends HostInterfaceGrpc.HostInterfaceImplBase {
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void streamHosts(HostStreamHostsRequest request,
+                            StreamObserver<HostStreamHostsResponse> responseObserver) {
+        ReadyWaiter ready = new ReadyWaiter(responseObserver, streamTimeoutMillis);
+        try {
+            whiteboard.streamHosts(hostSearchFactory.create(request.getR()), streamBatchSize,
+                    hosts -> {
+                        ready.await();
+                        responseObserver.onNext(HostStreamHostsResponse.newBuilder()
+                                .setHosts(hosts)
+                                .build());
+                    });
+        } catch (StatusRuntimeException e) {
+            responseObserver.onError(e);
+            return;
+        }
+        responseObserver.onCompleted();
+    }
+
     @Override
     public void getHostWhiteboard(HostGetHostWhiteboardRequest request,
                                   StreamObserver<HostGetHostWhiteboardResponse> responseObserver) {
@@ -393,8 +417,23 @@ public class ManageHost extends HostInterfaceGrpc.HostInterfaceImplBase {
         this.hostSearchFactory = hostSearchFactory;
     }
 
+    public int getStreamBatchSize() {
+        return streamBatchSize;
+    }
+
+    public void setStreamBatchSize(int streamBatchSize) {
+        this.streamBatchSize = streamBatchSize;
+    }
+
+    public long getStreamTimeoutMillis() {
+        return streamTimeoutMillis;
+    }
+
+    public void setStreamTimeoutMillis(long streamTimeoutMillis) {
+        this.streamTimeoutMillis = streamTimeoutMillis;
+    }
+
     private HostInterface getHostInterface(Host host) {
         return hostManager.getHost(host.getId());
     }
 }
-
@@ -23,14 +23,18 @@ import java.util.ArrayList;
 import java.util.List;
 
 import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import org.apache.log4j.Logger;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.dao.EmptyResultDataAccessException;
 
 import com.imageworks.spcue.BuildableJob;
 import com.imageworks.spcue.CommentDetail;
 import com.imageworks.spcue.JobDetail;
 import com.imageworks.spcue.JobInterface;
+import com.imageworks.spcue.LayerInterface;
 import com.imageworks.spcue.LocalHostAssignment;
 import com.imageworks.spcue.Source;
 import com.imageworks.spcue.dao.JobDao;
@@ -132,6 +136,12 @@ import com.imageworks.spcue.grpc.job.JobSetPriorityRequest;
 import com.imageworks.spcue.grpc.job.JobSetPriorityResponse;
 import com.imageworks.spcue.grpc.job.JobStaggerFramesRequest;
 import com.imageworks.spcue.grpc.job.JobStaggerFramesResponse;
+import com.imageworks.spcue.grpc.job.JobStreamFramesRequest;
+import com.imageworks.spcue.grpc.job.JobStreamFramesResponse;
+import com.imageworks.spcue.grpc.job.JobStreamJobsRequest;
+import com.imageworks.spcue.grpc.job.JobStreamJobsResponse;
+import com.imageworks.spcue.grpc.job.JobSubscribeUpdatesRequest;
+import com.imageworks.spcue.grpc.job.JobSubscribeUpdatesResponse;
 import com.imageworks.spcue.grpc.job.LayerSeq;
 import com.imageworks.spcue.grpc.job.UpdatedFrameCheckResult;
 import com.imageworks.spcue.grpc.renderpartition.RenderPartition;
@@ -144,6 +154,7 @@ import com.imageworks.spcue.service.JobLauncher;
 import com.imageworks.spcue.service.JobManager;
 import com.imageworks.spcue.service.JobManagerSupport;
 import com.imageworks.spcue.service.JobSpec;
+import com.imageworks.spcue.service.JobUpdateFeed;
 import com.imageworks.spcue.service.LocalBookingSupport;
 import com.imageworks.spcue.service.Whiteboard;
 import com.imageworks.spcue.util.Convert;
@@ -166,6 +177,9 @@ public class ManageJob extends JobInterfaceGrpc.JobInterfaceImplBase {
     private JobInterface job;
     private FrameSearchFactory frameSearchFactory;
     private JobSearchFactory jobSearchFactory;
+    private JobUpdateFeed jobUpdateFeed;
+    private int streamBatchSize;
+    private long streamTimeoutMillis;
 
     @Override
     public void findJob(JobFindJobRequest request, StreamObserver<JobFindJobResponse> responseObserver) {
@@ -205,6 +219,25 @@ public class ManageJob extends JobInterfaceGrpc.JobInterfaceImplBase {
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void streamJobs(JobStreamJobsRequest request,
+                           StreamObserver<JobStreamJobsResponse> responseObserver) {
+        ReadyWaiter ready = new ReadyWaiter(responseObserver, streamTimeoutMillis);
+        try {
+            whiteboard.streamJobs(jobSearchFactory.create(request.getR()), streamBatchSize,
+                    jobs -> {
+                        ready.await();
+                        responseObserver.onNext(JobStreamJobsResponse.newBuilder()
+                                .setJobs(jobs)
+                                .build());
+                    });
+        } catch (StatusRuntimeException e) {
+            responseObserver.onError(e);
+            return;
+        }
+        responseObserver.onCompleted();
+    }
+
     @Override
     public void getJobNames(JobGetJobNamesRequest request, StreamObserver<JobGetJobNamesResponse> responseObserver) {
         responseObserver.onNext(JobGetJobNamesResponse.newBuilder()
@@ -231,6 +264,26 @@ public class ManageJob extends JobInterfaceGrpc.JobInterfaceImplBase {
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void streamFrames(JobStreamFramesRequest request,
+                             StreamObserver<JobStreamFramesResponse> responseObserver) {
+        setupJobData(request.getJob());
+        ReadyWaiter ready = new ReadyWaiter(responseObserver, streamTimeoutMillis);
+        try {
+            whiteboard.streamFrames(frameSearchFactory.create(job, request.getReq()),
+                    streamBatchSize, frames -> {
+                        ready.await();
+                        responseObserver.onNext(JobStreamFramesResponse.newBuilder()
+                                .setFrames(frames)
+                                .build());
+                    });
+        } catch (StatusRuntimeException e) {
+            responseObserver.onError(e);
+            return;
+        }
+        responseObserver.onCompleted();
+    }
+
     @Override
     public void getLayers(JobGetLayersRequest request, StreamObserver<JobGetLayersResponse> responseObserver) {
         setupJobData(request.getJob());
@@ -286,6 +339,11 @@ public class ManageJob extends JobInterfaceGrpc.JobInterfaceImplBase {
                     .addAllNames(result)
                     .build());
             responseObserver.onCompleted();
+        } catch (TaskRejectedException e) {
+            logger.warn("Failed to add job to launch queue: " + e.getMessage());
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                    .withDescription(e.getMessage())
+                    .asRuntimeException());
         } catch (Exception e) {
             logger.error("Failed to add job to launch queue.", e);
             responseObserver.onError(Status.INTERNAL
@@ -557,6 +615,52 @@ public class ManageJob extends JobInterfaceGrpc.JobInterfaceImplBase {
         responseObserver.onCompleted();
     }
 
+    @Override
+    public void subscribeUpdates(JobSubscribeUpdatesRequest request,
+                                 StreamObserver<JobSubscribeUpdatesResponse> responseObserver) {
+        setupJobData(request.getJob());
+        List<String> layerIds = new ArrayList<String>();
+        for (LayerInterface layer: ServantUtil.convertLayerFilterList(request.getLayerFilter())) {
+            layerIds.add(layer.getLayerId());
+        }
+
+        JobUpdateFeed.Subscription subscription;
+        try {
+            subscription = jobUpdateFeed.subscribe(job.getJobId(), layerIds,
+                    new JobUpdateFeed.Listener() {
+                        @Override
+                        public void onUpdate(UpdatedFrameCheckResult update) {
+                            responseObserver.onNext(JobSubscribeUpdatesResponse.newBuilder()
+                                    .setState(update.getState())
+                                    .setServerTime(update.getServerTime())
+                                    .setUpdatedFrames(update.getUpdatedFrames())
+                                    .build());
+                        }
+
+                        @Override
+                        public void onClose() {
+                            responseObserver.onCompleted();
+                        }
+
+                        @Override
+                        public boolean isReady() {
+                            return !(responseObserver instanceof ServerCallStreamObserver) ||
+                                    ((ServerCallStreamObserver<?>) responseObserver).isReady();
+                        }
+                    });
+        } catch (IllegalStateException e) {
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                    .withDescription(e.getMessage())
+                    .asRuntimeException());
+            return;
+        }
+
+        if (responseObserver instanceof ServerCallStreamObserver) {
+            ((ServerCallStreamObserver<JobSubscribeUpdatesResponse>) responseObserver)
+                    .setOnCancelHandler(() -> jobUpdateFeed.unsubscribe(subscription));
+        }
+    }
+
     @Override
     public void addRenderPartition(JobAddRenderPartRequest request, StreamObserver<JobAddRenderPartResponse> responseObserver) {
         setupJobData(request.getJob());
@@ -706,5 +810,28 @@ public class ManageJob extends JobInterfaceGrpc.JobInterfaceImplBase {
     public void setJobSearchFactory(JobSearchFactory jobSearchFactory) {
         this.jobSearchFactory = jobSearchFactory;
     }
-}
 
+    public JobUpdateFeed getJobUpdateFeed() {
+        return jobUpdateFeed;
+    }
+
+    public void setJobUpdateFeed(JobUpdateFeed jobUpdateFeed) {
+        this.jobUpdateFeed = jobUpdateFeed;
+    }
+
+    public int getStreamBatchSize() {
+        return streamBatchSize;
+    }
+
+    public void setStreamBatchSize(int streamBatchSize) {
+        this.streamBatchSize = streamBatchSize;
+    }
+
+    public long getStreamTimeoutMillis() {
+        return streamTimeoutMillis;
+    }
+
+    public void setStreamTimeoutMillis(long streamTimeoutMillis) {
+        this.streamTimeoutMillis = streamTimeoutMillis;
+    }
+}
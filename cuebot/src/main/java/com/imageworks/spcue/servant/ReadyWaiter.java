@@ -0,0 +1,129 @@
+
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.servant;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Waits for the client of a streaming call to be ready for another
+ * message, so results that are streamed faster than the client reads
+ * them are not buffered in memory.
+ *
+ * grpc runs the call's onReady and onCancel handlers on the call's
+ * serializing executor, which is busy running the service method that
+ * is waiting here, so they can't be relied on to wake the waiter.
+ * The readiness of the call is checked again at least every
+ * POLL_MILLIS, and the handlers only cut that short when they do get
+ * to run.
+ *
+ * Results are streamed from inside a read transaction, so waiting is
+ * bounded by a deadline, or the call's own deadline if it is sooner.
+ * A client that doesn't read the results in time fails with
+ * DEADLINE_EXCEEDED instead of holding the transaction open.
+ */
+public class ReadyWaiter {
+
+    private static final long POLL_MILLIS = 10;
+
+    private final ServerCallStreamObserver<?> observer;
+    private final long deadlineNanos;
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * Creates a waiter for the call.  Must be created by the service
+     * method, before the first message is sent.
+     *
+     * @param responseObserver
+     * @param timeoutMillis the most time the call can spend waiting
+     */
+    public ReadyWaiter(StreamObserver<?> responseObserver, long timeoutMillis) {
+        long now = System.nanoTime();
+        long deadline = now + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Deadline callDeadline = Context.current().getDeadline();
+        if (callDeadline != null) {
+            deadline = Math.min(deadline, now + callDeadline.timeRemaining(TimeUnit.NANOSECONDS));
+        }
+        deadlineNanos = deadline;
+
+        if (responseObserver instanceof ServerCallStreamObserver) {
+            observer = (ServerCallStreamObserver<?>) responseObserver;
+            observer.setOnReadyHandler(this::signal);
+            observer.setOnCancelHandler(this::signal);
+        }
+        else {
+            observer = null;
+        }
+    }
+
+    /**
+     * Waits until the client is ready for another message.
+     *
+     * @throws io.grpc.StatusRuntimeException if the call was cancelled
+     *         or the deadline has passed
+     */
+    public void await() {
+        if (observer == null || observer.isReady()) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (!observer.isReady()) {
+                if (observer.isCancelled()) {
+                    throw Status.CANCELLED
+                            .withDescription("the call was cancelled by the client")
+                            .asRuntimeException();
+                }
+                long remaining = deadlineNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    throw Status.DEADLINE_EXCEEDED
+                            .withDescription("the client did not read the results in time")
+                            .asRuntimeException();
+                }
+                changed.awaitNanos(Math.min(remaining,
+                        TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Status.CANCELLED.withCause(e).asRuntimeException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,701 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.apache.log4j.Logger;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.imageworks.spcue.FrameInterface;
+import com.imageworks.spcue.JobEntity;
+import com.imageworks.spcue.JobInterface;
+import com.imageworks.spcue.LayerInterface;
+import com.imageworks.spcue.LightweightDependency;
+import com.imageworks.spcue.dao.DependDao;
+import com.imageworks.spcue.grpc.depend.DependTarget;
+import com.imageworks.spcue.grpc.depend.DependType;
+
+/**
+ * An in-memory graph of the depends of active jobs.
+ *
+ * A job's graph holds every depend where the job is either the
+ * depend-er or the depend-on job, and is loaded with a single query
+ * the first time it is needed.  Layer and frame ids are mapped to
+ * int indices and depends are kept in adjacency lists per index, so
+ * the what depends on / what this depends on lookups DependDao would
+ * run are answered from memory.  Inserts, satisfies and deletes are
+ * applied to the loaded graphs once they commit, and a job's graph
+ * is dropped once the job finishing commits.
+ *
+ * Graphs are loaded on the caller's connection.  If the caller's
+ * transaction does not commit, any graph it loaded is dropped, so a
+ * graph never keeps depends that were rolled back.  Changes made by
+ * other cuebots are not seen until the graph is reloaded, so a graph
+ * is only used for ttlMillis after it was loaded, and expired graphs
+ * are dropped by evictExpired().  Because of that the graph is not
+ * used to decide which depends a finished frame or layer satisfies,
+ * which always goes to the database.
+ *
+ * Lookups return null when the graph is disabled or the job's graph
+ * is not loaded yet, in which case the caller goes to the database.
+ * Depends returned by the graph are copies and can be modified.
+ */
+public class DependGraph {
+
+    private static final Logger logger = Logger.getLogger(DependGraph.class);
+
+    private static final EnumSet<DependType> ON_JOB_TYPES = EnumSet.of(
+            DependType.JOB_ON_JOB, DependType.LAYER_ON_JOB, DependType.FRAME_ON_JOB);
+
+    private static final EnumSet<DependType> ON_LAYER_TYPES = EnumSet.of(
+            DependType.JOB_ON_LAYER, DependType.LAYER_ON_LAYER, DependType.FRAME_ON_LAYER);
+
+    private static final EnumSet<DependType> ON_FRAME_TYPES = EnumSet.of(
+            DependType.JOB_ON_FRAME, DependType.LAYER_ON_FRAME, DependType.FRAME_ON_FRAME);
+
+    private static final EnumSet<DependType> LAYER_ER_PARENT_TYPES = EnumSet.of(
+            DependType.LAYER_ON_JOB, DependType.LAYER_ON_LAYER, DependType.LAYER_ON_FRAME,
+            DependType.FRAME_BY_FRAME);
+
+    private static final EnumSet<DependType> FRAME_ER_TYPES = EnumSet.of(
+            DependType.FRAME_ON_JOB, DependType.FRAME_ON_LAYER, DependType.FRAME_ON_FRAME);
+
+    /**
+     * A growable list of ints.
+     */
+    private static final class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * A change waiting to be applied to a graph that is still loading.
+     */
+    private static final class Change {
+        final LightweightDependency depend;
+        final boolean removed;
+
+        Change(LightweightDependency depend, boolean removed) {
+            this.depend = depend;
+            this.removed = removed;
+        }
+    }
+
+    /**
+     * The depends of a single job.
+     */
+    private static final class JobGraph {
+
+        /**
+         * Depend slots, null once the depend is deleted.
+         */
+        final List<LightweightDependency> depends = new ArrayList<LightweightDependency>();
+        final Map<String, Integer> slots = new HashMap<String, Integer>();
+
+        /**
+         * Layer and frame ids mapped to their node index.
+         */
+        final Map<String, Integer> nodes = new HashMap<String, Integer>();
+
+        /*
+         * Adjacency lists of depend slots.  dependOn/dependEr are
+         * indexed on node, children on the slot of the parent depend.
+         */
+        IntList[] dependOn = new IntList[64];
+        IntList[] dependEr = new IntList[64];
+        IntList[] children = new IntList[64];
+        final IntList dependOnJob = new IntList();
+        final IntList dependErJob = new IntList();
+
+        final String jobId;
+        boolean loaded = false;
+        long loadedAt = 0;
+        List<Change> pending = new ArrayList<Change>();
+
+        JobGraph(String jobId) {
+            this.jobId = jobId;
+        }
+
+        synchronized boolean isLoaded() {
+            return loaded;
+        }
+
+        synchronized boolean isExpired(long now, long ttlMillis) {
+            return loaded && now - loadedAt > ttlMillis;
+        }
+
+        synchronized void load(List<LightweightDependency> loadedDepends) {
+            /*
+             * Parents go in first so their children can be linked.
+             */
+            for (LightweightDependency d: loadedDepends) {
+                if (d.parent == null) {
+                    put(d);
+                }
+            }
+            for (LightweightDependency d: loadedDepends) {
+                if (d.parent != null) {
+                    put(d);
+                }
+            }
+            for (Change c: pending) {
+                apply(c);
+            }
+            pending = null;
+            loaded = true;
+            loadedAt = System.currentTimeMillis();
+        }
+
+        synchronized void change(Change c) {
+            if (loaded) {
+                apply(c);
+            }
+            else {
+                pending.add(c);
+            }
+        }
+
+        private void apply(Change c) {
+            if (c.removed) {
+                remove(c.depend.getId());
+            }
+            else {
+                put(c.depend);
+            }
+        }
+
+        private void put(LightweightDependency d) {
+            Integer slot = slots.get(d.getId());
+            if (slot != null) {
+                depends.set(slot, d);
+                return;
+            }
+
+            slot = depends.size();
+            depends.add(d);
+            slots.put(d.getId(), slot);
+
+            if (jobId.equals(d.dependErJobId)) {
+                if (d.dependErFrameId != null) {
+                    dependEr = link(dependEr, node(d.dependErFrameId), slot);
+                }
+                if (d.dependErLayerId != null) {
+                    dependEr = link(dependEr, node(d.dependErLayerId), slot);
+                }
+                dependErJob.add(slot);
+            }
+            if (jobId.equals(d.dependOnJobId)) {
+                if (d.dependOnFrameId != null) {
+                    dependOn = link(dependOn, node(d.dependOnFrameId), slot);
+                }
+                if (d.dependOnLayerId != null) {
+                    dependOn = link(dependOn, node(d.dependOnLayerId), slot);
+                }
+                dependOnJob.add(slot);
+            }
+            if (d.parent != null) {
+                Integer parent = slots.get(d.parent);
+                if (parent != null) {
+                    children = link(children, parent, slot);
+                }
+            }
+        }
+
+        /**
+         * Removes the depend and, for a FrameByFrame depend, its
+         * children.  The slots are left in the adjacency lists and
+         * skipped on lookup.
+         */
+        private void remove(String id) {
+            Integer slot = slots.remove(id);
+            if (slot == null) {
+                return;
+            }
+            depends.set(slot, null);
+            if (slot < children.length && children[slot] != null) {
+                IntList list = children[slot];
+                for (int i = 0; i < list.size; i++) {
+                    LightweightDependency child = depends.get(list.values[i]);
+                    if (child != null) {
+                        slots.remove(child.getId());
+                        depends.set(list.values[i], null);
+                    }
+                }
+                children[slot] = null;
+            }
+        }
+
+        private int node(String id) {
+            Integer idx = nodes.get(id);
+            if (idx == null) {
+                idx = nodes.size();
+                nodes.put(id, idx);
+            }
+            return idx;
+        }
+
+        synchronized void collectOn(String id, Predicate<LightweightDependency> filter,
+                                    Collection<LightweightDependency> result) {
+            Integer idx = nodes.get(id);
+            if (idx != null && idx < dependOn.length) {
+                collect(dependOn[idx], filter, result);
+            }
+        }
+
+        synchronized void collectEr(String id, Predicate<LightweightDependency> filter,
+                                    Collection<LightweightDependency> result) {
+            Integer idx = nodes.get(id);
+            if (idx != null && idx < dependEr.length) {
+                collect(dependEr[idx], filter, result);
+            }
+        }
+
+        synchronized void collectOnJob(Predicate<LightweightDependency> filter,
+                                       Collection<LightweightDependency> result) {
+            collect(dependOnJob, filter, result);
+        }
+
+        synchronized void collectErJob(Predicate<LightweightDependency> filter,
+                                       Collection<LightweightDependency> result) {
+            collect(dependErJob, filter, result);
+        }
+
+        private void collect(IntList list, Predicate<LightweightDependency> filter,
+                             Collection<LightweightDependency> result) {
+            if (list == null) {
+                return;
+            }
+            for (int i = 0; i < list.size; i++) {
+                LightweightDependency d = depends.get(list.values[i]);
+                if (d != null && filter.test(d)) {
+                    result.add(copy(d));
+                }
+            }
+        }
+
+        synchronized int size() {
+            return slots.size();
+        }
+
+        private static IntList[] link(IntList[] lists, int idx, int slot) {
+            if (idx >= lists.length) {
+                lists = Arrays.copyOf(lists, Math.max(lists.length * 2, idx + 1));
+            }
+            if (lists[idx] == null) {
+                lists[idx] = new IntList();
+            }
+            lists[idx].add(slot);
+            return lists;
+        }
+    }
+
+    private final boolean enabled;
+
+    /**
+     * How long a loaded graph is used before it is reloaded.
+     */
+    private final long ttlMillis;
+
+    private DependDao dependDao;
+
+    private final ConcurrentHashMap<String, JobGraph> graphs =
+        new ConcurrentHashMap<String, JobGraph>();
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong loads = new AtomicLong(0);
+
+    public DependGraph(boolean enabled, long ttlMillis) {
+        this.enabled = enabled;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the active depends on the given job of the types
+     * DependDao.getWhatDependsOn(JobInterface, DependTarget) returns.
+     *
+     * @param job
+     * @param target
+     * @return the depends, or null if the graph is not loaded
+     */
+    public List<LightweightDependency> getWhatDependsOn(JobInterface job, DependTarget target) {
+        JobGraph graph = getGraph(job);
+        if (graph == null) {
+            return null;
+        }
+        List<LightweightDependency> result = new ArrayList<LightweightDependency>();
+        graph.collectOnJob(d -> d.active && ON_JOB_TYPES.contains(d.type)
+                && isTarget(d, target), result);
+        return result;
+    }
+
+    /**
+     * Returns the depends on the given layer with the given state.
+     *
+     * @param layer
+     * @param active
+     * @return the depends, or null if the graph is not loaded
+     */
+    public List<LightweightDependency> getWhatDependsOn(LayerInterface layer, boolean active) {
+        JobGraph graph = getGraph(layer);
+        if (graph == null) {
+            return null;
+        }
+        List<LightweightDependency> result = new ArrayList<LightweightDependency>();
+        graph.collectOn(layer.getLayerId(), d -> d.active == active
+                && ON_LAYER_TYPES.contains(d.type)
+                && layer.getLayerId().equals(d.dependOnLayerId), result);
+        return result;
+    }
+
+    /**
+     * Returns the depends with the given state on the given frame,
+     * including any frame LayerOnLayer depends on its layer.
+     *
+     * @param frame
+     * @param active
+     * @return the depends, or null if the graph is not loaded
+     */
+    public List<LightweightDependency> getWhatDependsOn(FrameInterface frame, boolean active) {
+        JobGraph graph = getGraph(frame);
+        if (graph == null) {
+            return null;
+        }
+        Map<String, LightweightDependency> result =
+            new LinkedHashMap<String, LightweightDependency>();
+        collectWhatDependsOn(graph, frame, active, result);
+        return new ArrayList<LightweightDependency>(result.values());
+    }
+
+    /**
+     * Returns the active top level depends the given job is waiting on.
+     *
+     * @param job
+     * @param target
+     * @return the depends, or null if the graph is not loaded
+     */
+    public List<LightweightDependency> getWhatThisDependsOn(JobInterface job, DependTarget target) {
+        JobGraph graph = getGraph(job);
+        if (graph == null) {
+            return null;
+        }
+        List<LightweightDependency> result = new ArrayList<LightweightDependency>();
+        graph.collectErJob(d -> d.active && d.parent == null
+                && isTarget(d, target), result);
+        return result;
+    }
+
+    /**
+     * Returns the active top level depends the given layer is waiting on.
+     *
+     * @param layer
+     * @param target
+     * @return the depends, or null if the graph is not loaded
+     */
+    public List<LightweightDependency> getWhatThisDependsOn(LayerInterface layer, DependTarget target) {
+        JobGraph graph = getGraph(layer);
+        if (graph == null) {
+            return null;
+        }
+        List<LightweightDependency> result = new ArrayList<LightweightDependency>();
+        graph.collectEr(layer.getLayerId(), d -> d.active && d.parent == null
+                && LAYER_ER_PARENT_TYPES.contains(d.type)
+                && layer.getLayerId().equals(d.dependErLayerId)
+                && isTarget(d, target), result);
+        return result;
+    }
+
+    /**
+     * Returns the active depends the given frame is waiting on.
+     *
+     * @param frame
+     * @param target
+     * @return the depends, or null if the graph is not loaded
+     */
+    public List<LightweightDependency> getWhatThisDependsOn(FrameInterface frame, DependTarget target) {
+        JobGraph graph = getGraph(frame);
+        if (graph == null) {
+            return null;
+        }
+        List<LightweightDependency> result = new ArrayList<LightweightDependency>();
+        graph.collectEr(frame.getFrameId(), d -> d.active
+                && FRAME_ER_TYPES.contains(d.type)
+                && frame.getFrameId().equals(d.dependErFrameId)
+                && isTarget(d, target), result);
+        return result;
+    }
+
+    /**
+     * Adds or replaces the given depends in the loaded graphs of
+     * their depend-er and depend-on jobs.  Call once the depends
+     * have been committed.
+     *
+     * @param depends
+     */
+    public void update(Collection<LightweightDependency> depends) {
+        if (!enabled || graphs.isEmpty()) {
+            return;
+        }
+        for (LightweightDependency d: depends) {
+            change(new Change(copy(d), false));
+        }
+    }
+
+    /**
+     * Marks the given depends as satisfied in the loaded graphs of
+     * their depend-er and depend-on jobs.  Call once the depends
+     * have been committed.
+     *
+     * @param depends
+     */
+    public void satisfied(Collection<LightweightDependency> depends) {
+        if (!enabled || graphs.isEmpty()) {
+            return;
+        }
+        for (LightweightDependency d: depends) {
+            LightweightDependency c = copy(d);
+            c.active = false;
+            change(new Change(c, false));
+        }
+    }
+
+    /**
+     * Removes the given depend, and its children, from the loaded
+     * graphs of its depend-er and depend-on jobs.  Call once the
+     * delete has been committed.
+     *
+     * @param depend
+     */
+    public void remove(LightweightDependency depend) {
+        if (!enabled || graphs.isEmpty()) {
+            return;
+        }
+        change(new Change(copy(depend), true));
+    }
+
+    /**
+     * Returns true if the graph of either of the given jobs is
+     * loaded or loading, and so needs to see changes to depends
+     * between them.
+     *
+     * @param erJobId
+     * @param onJobId
+     * @return
+     */
+    public boolean isTracked(String erJobId, String onJobId) {
+        return enabled && (graphs.containsKey(erJobId) || graphs.containsKey(onJobId));
+    }
+
+    /**
+     * Drops the graph for the given job, for example because the
+     * job has finished.
+     *
+     * @param job
+     */
+    public void invalidate(JobInterface job) {
+        if (graphs.remove(job.getJobId()) != null) {
+            logger.trace("dropped depend graph for " + job.getJobId());
+        }
+    }
+
+    /**
+     * Drops the graphs which were loaded more than ttlMillis ago,
+     * including those of jobs which finished on another cuebot.
+     *
+     * @return the number of graphs dropped
+     */
+    public int evictExpired() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (Map.Entry<String, JobGraph> e: graphs.entrySet()) {
+            if (e.getValue().isExpired(now, ttlMillis)
+                    && graphs.remove(e.getKey(), e.getValue())) {
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            logger.trace("dropped " + evicted + " expired depend graphs");
+        }
+        return evicted;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    public int getJobCount() {
+        return graphs.size();
+    }
+
+    private void change(Change c) {
+        JobGraph graph = graphs.get(c.depend.dependErJobId);
+        if (graph != null) {
+            graph.change(c);
+        }
+        if (c.depend.dependOnJobId != null
+                && !c.depend.dependOnJobId.equals(c.depend.dependErJobId)) {
+            graph = graphs.get(c.depend.dependOnJobId);
+            if (graph != null) {
+                graph.change(c);
+            }
+        }
+    }
+
+    private void collectWhatDependsOn(JobGraph graph, FrameInterface frame, boolean active,
+                                      Map<String, LightweightDependency> result) {
+        List<LightweightDependency> depends = new ArrayList<LightweightDependency>();
+        graph.collectOn(frame.getFrameId(), d -> d.active == active
+                && ON_FRAME_TYPES.contains(d.type)
+                && frame.getFrameId().equals(d.dependOnFrameId), depends);
+
+        /*
+         * A LayerOnLayer depend with the any frame option is satisfied
+         * by any frame in the layer.
+         */
+        graph.collectOn(frame.getLayerId(), d -> d.active == active
+                && d.anyFrame && DependType.LAYER_ON_LAYER.equals(d.type)
+                && frame.getLayerId().equals(d.dependOnLayerId), depends);
+
+        for (LightweightDependency d: depends) {
+            result.put(d.getId(), d);
+        }
+    }
+
+    private JobGraph getGraph(JobInterface job) {
+        return getGraph(job.getJobId());
+    }
+
+    /**
+     * Returns the loaded graph for the given job, loading it if no
+     * other thread is.  Changes which arrive while a graph is loading
+     * are queued and applied on top of the loaded depends, so none
+     * are lost between the query and the graph being installed.
+     */
+    private JobGraph getGraph(String jobId) {
+        if (!enabled || jobId == null) {
+            return null;
+        }
+
+        JobGraph graph = graphs.get(jobId);
+        if (graph != null && graph.isExpired(System.currentTimeMillis(), ttlMillis)) {
+            graphs.remove(jobId, graph);
+            graph = null;
+        }
+        if (graph == null) {
+            JobGraph created = new JobGraph(jobId);
+            graph = graphs.putIfAbsent(jobId, created);
+            if (graph == null) {
+                try {
+                    created.load(loadDepends(jobId, created));
+                    loads.incrementAndGet();
+                    logger.trace("loaded depend graph for " + jobId + ", " +
+                            created.size() + " depends");
+                    return created;
+                } catch (RuntimeException e) {
+                    graphs.remove(jobId, created);
+                    logger.warn("failed to load depend graph for " + jobId + ", " + e);
+                    return null;
+                }
+            }
+        }
+
+        if (!graph.isLoaded()) {
+            return null;
+        }
+        hits.incrementAndGet();
+        return graph;
+    }
+
+    /**
+     * Reads the depends of the given job in the caller's transaction,
+     * which may include its own uncommitted changes.  Those are
+     * applied to the graph anyway once they commit, and if the
+     * transaction rolls back instead the graph is dropped.
+     */
+    private List<LightweightDependency> loadDepends(String jobId, JobGraph graph) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronizationAdapter() {
+                        @Override
+                        public void afterCompletion(int status) {
+                            if (status != TransactionSynchronization.STATUS_COMMITTED) {
+                                graphs.remove(jobId, graph);
+                            }
+                        }
+                    });
+        }
+        return dependDao.getDepends(new JobEntity(jobId));
+    }
+
+    private static boolean isTarget(LightweightDependency d, DependTarget target) {
+        return DependTarget.ANY_TARGET.equals(target) || target.equals(d.target);
+    }
+
+    private static LightweightDependency copy(LightweightDependency d) {
+        LightweightDependency c = new LightweightDependency();
+        c.id = d.id;
+        c.type = d.type;
+        c.target = d.target;
+        c.parent = d.parent;
+        c.dependErJobId = d.dependErJobId;
+        c.dependErLayerId = d.dependErLayerId;
+        c.dependErFrameId = d.dependErFrameId;
+        c.dependOnJobId = d.dependOnJobId;
+        c.dependOnLayerId = d.dependOnLayerId;
+        c.dependOnFrameId = d.dependOnFrameId;
+        c.anyFrame = d.anyFrame;
+        c.active = d.active;
+        return c;
+    }
+
+    public DependDao getDependDao() {
+        return dependDao;
+    }
+
+    public void setDependDao(DependDao dependDao) {
+        this.dependDao = dependDao;
+    }
+}
@@ -83,6 +83,28 @@ public interface DependManager {
     LightweightDependency getDepend(String id);
     void satisfyDepend(LightweightDependency depend);
 
+    /**
+     * Satisfies every active depend waiting on the given frames or
+     * layers in a single transaction.  The frames must have succeeded
+     * and the layers must be complete.  The depends are set inactive
+     * and the depend counts of the frames waiting on them are
+     * decremented with set-based updates rather than one depend at
+     * a time.
+     *
+     * @param frames    succeeded frames
+     * @param layers    completed layers
+     * @return the number of depends satisfied
+     */
+    int satisfyWhatDependsOn(List<FrameInterface> frames, List<LayerInterface> layers);
+
+    /**
+     * Drops the in-memory depend graph of the given job, if one
+     * is loaded.  Called when the job finishes.
+     *
+     * @param job
+     */
+    void invalidateDependGraph(JobInterface job);
+
     /**
      * Returns a list of depends where the specified job is the depender.  Passing a
      * depend target will limit the results to either internal or external. This
@@ -19,10 +19,17 @@
 
 package com.imageworks.spcue.service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import com.google.common.primitives.Ints;
 import org.apache.log4j.Logger;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.DataRetrievalFailureException;
@@ -31,6 +38,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.imageworks.spcue.BuildableDependency;
 import com.imageworks.spcue.DependencyManagerException;
+import com.imageworks.spcue.FrameDetail;
 import com.imageworks.spcue.FrameInterface;
 import com.imageworks.spcue.JobInterface;
 import com.imageworks.spcue.LayerDetail;
@@ -42,6 +50,7 @@ import com.imageworks.spcue.dao.JobDao;
 import com.imageworks.spcue.dao.LayerDao;
 import com.imageworks.spcue.dao.criteria.FrameSearchFactory;
 import com.imageworks.spcue.dao.criteria.FrameSearchInterface;
+import com.imageworks.spcue.depend.AbstractDepend;
 import com.imageworks.spcue.depend.DependException;
 import com.imageworks.spcue.depend.FrameByFrame;
 import com.imageworks.spcue.depend.FrameOnFrame;
@@ -57,8 +66,10 @@ import com.imageworks.spcue.depend.LayerOnSimFrame;
 import com.imageworks.spcue.depend.PreviousFrame;
 import com.imageworks.spcue.grpc.depend.DependTarget;
 import com.imageworks.spcue.grpc.depend.DependType;
+import com.imageworks.spcue.grpc.job.FrameState;
 import com.imageworks.spcue.util.CueUtil;
 import com.imageworks.spcue.util.FrameSet;
+import com.imageworks.spcue.util.TransactionUtil;
 
 @Transactional
 public class DependManagerService implements DependManager {
@@ -70,6 +81,8 @@ public class DependManagerService implements DependManager {
     private LayerDao layerDao;
     private FrameDao frameDao;
     private FrameSearchFactory frameSearchFactory;
+    private DependGraph dependGraph;
+    private JobUpdateFeed jobUpdateFeed;
 
     /** Job Depends **/
     @Override
@@ -80,6 +93,7 @@ public class DependManagerService implements DependManager {
                     "The job you are depending on is already complete.");
         }
         dependDao.insertDepend(depend);
+        dependInserted(depend, depend.getDependErJob(), depend.getDependOnJob());
         updateDependCount(depend.getDependErJob());
     }
 
@@ -90,6 +104,7 @@ public class DependManagerService implements DependManager {
             depend.setActive(false);
         }
         dependDao.insertDepend(depend);
+        dependInserted(depend, depend.getDependErJob(), depend.getDependOnLayer());
         if (depend.isActive()) {
             updateDependCount(depend.getDependErJob());
         }
@@ -102,6 +117,7 @@ public class DependManagerService implements DependManager {
             depend.setActive(false);
         }
         dependDao.insertDepend(depend);
+        dependInserted(depend, depend.getDependErJob(), depend.getDependOnFrame());
         if (depend.isActive()) {
             updateDependCount(depend.getDependErJob());
         }
@@ -116,6 +132,7 @@ public class DependManagerService implements DependManager {
                     "The job you are depending on is already complete.");
         }
         dependDao.insertDepend(depend);
+        dependInserted(depend, depend.getDependErLayer(), depend.getDependOnJob());
         updateDependCount(depend.getDependErLayer());
     }
 
@@ -126,6 +143,7 @@ public class DependManagerService implements DependManager {
             depend.setActive(false);
         }
         dependDao.insertDepend(depend);
+        dependInserted(depend, depend.getDependErLayer(), depend.getDependOnLayer());
         if (depend.isActive()) {
             updateDependCount(depend.getDependErLayer());
         }
@@ -138,6 +156,7 @@ public class DependManagerService implements DependManager {
             depend.setActive(false);
         }
         dependDao.insertDepend(depend);
+        dependInserted(depend, depend.getDependErLayer(), depend.getDependOnFrame());
         if (depend.isActive()) {
             updateDependCount(depend.getDependErLayer());
         }
@@ -152,6 +171,7 @@ public class DependManagerService implements DependManager {
                     "The job you are depending on is already complete.");
         }
         dependDao.insertDepend(depend);
+        dependInserted(depend, depend.getDependErFrame(), depend.getDependOnJob());
         if (depend.isActive()) {
             updateDependCounts(depend.getDependErFrame());
         }
@@ -164,6 +184,7 @@ public class DependManagerService implements DependManager {
             depend.setActive(false);
         }
         dependDao.insertDepend(depend);
+        dependInserted(depend, depend.getDependErFrame(), depend.getDependOnLayer());
         if (depend.isActive()) {
             updateDependCounts(depend.getDependErFrame());
         }
@@ -176,6 +197,7 @@ public class DependManagerService implements DependManager {
             depend.setActive(false);
         }
         dependDao.insertDepend(depend);
+        dependInserted(depend, depend.getDependErFrame(), depend.getDependOnFrame());
         if (depend.isActive()) {
             updateDependCounts(depend.getDependErFrame());
         }
@@ -186,28 +208,26 @@ public class DependManagerService implements DependManager {
     public void createDepend(LayerOnSimFrame depend) {
 
         /*
-         * Need the frame range to make all the dependencies.
+         * Every frame in the depend-er layer depends on the sim frame,
+         * so the child depends are inserted in one batch and the depend
+         * counts are updated for the whole layer at once.
          */
-        LayerDetail dependErLayer = layerDao.getLayerDetail(
-                depend.getDependErLayer().getLayerId());
-
-        /*
-         * A normalized list of frames.
-         */
-        List<Integer> dependErFrameSet = CueUtil.normalizeFrameRange(
-                dependErLayer.range, dependErLayer.chunkSize);
-
-        int dependErFrameSetSize = dependErFrameSet.size();
-        for (int idx = 0; idx < dependErFrameSetSize; idx = idx +1) {
-            /*
-             * Lookup the frame we need out of our depend-er layer.
-             */
-            int frameNum = dependErFrameSet.get(idx);
+        LayerInterface dependErLayer = depend.getDependErLayer();
+        FrameInterface dependOnFrame = depend.getDependOnFrame();
+        boolean active = !frameDao.isFrameComplete(dependOnFrame);
+
+        List<FrameDetail> dependErFrames = frameDao.getFrameDetails(dependErLayer);
+        List<FrameOnFrame> children = new ArrayList<FrameOnFrame>(dependErFrames.size());
+        for (FrameDetail dependErFrame: dependErFrames) {
+            FrameOnFrame fofDepend = new FrameOnFrame(dependErFrame, dependOnFrame);
+            fofDepend.setActive(active);
+            children.add(fofDepend);
+        }
 
-            FrameInterface dependErFrame = frameDao.findFrame(dependErLayer, frameNum);
-            FrameOnFrame fofDepend = new FrameOnFrame(dependErFrame,
-                    depend.getDependOnFrame());
-            createDepend(fofDepend);
+        dependDao.insertDepends(children);
+        dependsInserted(children);
+        if (active) {
+            dependDao.incrementDependCounts(dependErLayer);
         }
     }
 
@@ -241,10 +261,10 @@ public class DependManagerService implements DependManager {
          * ignore duplicate frames.
          */
 
-        List<Integer> dependErFrameSet = CueUtil.normalizeFrameRange(
+        int[] dependErFrameSet = CueUtil.normalizeFrames(
                 dependErLayer.range, dependErLayer.chunkSize);
 
-        List<Integer> dependOnFrameSet = CueUtil.normalizeFrameRange(
+        int[] dependOnFrameSet = CueUtil.normalizeFrames(
                 dependOnLayer.range, dependOnLayer.chunkSize);
 
         /*
@@ -252,8 +272,8 @@ public class DependManagerService implements DependManager {
          * any FrameByFrame depends to/from that that layer are converted
          * to LayerOnLayer depends.
          */
-        if ((dependOnFrameSet.size() == 1 && dependOnLayer.chunkSize > 1)
-                || (dependErFrameSet.size() == 1 && dependErLayer.chunkSize > 1)) {
+        if ((dependOnFrameSet.length == 1 && dependOnLayer.chunkSize > 1)
+                || (dependErFrameSet.length == 1 && dependErLayer.chunkSize > 1)) {
 
             LayerOnLayer lolDepend = new LayerOnLayer(depend.getDependErLayer(),
                     depend.getDependOnLayer());
@@ -268,6 +288,7 @@ public class DependManagerService implements DependManager {
          */
         try {
             dependDao.insertDepend(depend);
+            dependInserted(depend, dependErLayer, dependOnLayer);
         }
         catch (DataIntegrityViolationException e) {
             LightweightDependency originalDep =
@@ -281,69 +302,183 @@ public class DependManagerService implements DependManager {
             }
         }
 
-        int dependErFrameSetSize = dependErFrameSet.size();
-        for (int idx = 0; idx < dependErFrameSetSize; idx = idx +1) {
+        /*
+         * Work out every frame pairing in memory, then insert all of
+         * the child depends in one batch and update the depend counts
+         * with a single statement.
+         */
+        Map<Integer, FrameDetail> dependErFrames = getFramesByNumber(dependErLayer);
+        Map<Integer, FrameDetail> dependOnFrames = getFramesByNumber(dependOnLayer);
+
+        boolean ascending = CueUtil.isAscending(dependOnFrameSet);
+        boolean sameFrameSet = Arrays.equals(dependErFrameSet, dependOnFrameSet);
 
-            Set<Integer> dependOnFrames = new HashSet<Integer>(dependOnFrameSet.size());
+        List<FrameOnFrame> children = new ArrayList<FrameOnFrame>(dependErFrameSet.length);
+        Set<Integer> dependOnFrameNums = new HashSet<Integer>();
 
-            int dependErFrameNum = dependErFrameSet.get(idx);
-            /* The frame always depends on the corresponding frame. */
-            int dependOnFrameNum = dependErFrameNum;
+        for (int dependErFrameNum: dependErFrameSet) {
+
+            dependOnFrameNums.clear();
 
             /*
              * Finds any additional frames the dependErFrame might need to
              * depend on.
              */
             if (dependOnLayer.chunkSize > dependErLayer.chunkSize) {
-                dependOnFrameNum = CueUtil.findChunk(dependOnFrameSet, dependErFrameNum);
-                dependOnFrames.add(dependOnFrameNum);
+                int chunkIdx = findChunkIndex(dependOnFrameSet, ascending, dependErFrameNum);
+                dependOnFrameNums.add(dependOnFrameSet[chunkIdx]);
             }
             else if (dependOnLayer.chunkSize < dependErLayer.chunkSize) {
-                dependOnFrameNum = CueUtil.findChunk(dependOnFrameSet, dependErFrameNum);
-                dependOnFrames.add(dependOnFrameNum);
-
-                for(int i=0; i <= dependErLayer.chunkSize - dependOnLayer.chunkSize; i++) {
-                    int nextFrameIdx = dependOnFrameSet.indexOf(dependOnFrameNum) + i;
-                    try {
-                        dependOnFrames.add(dependOnFrameSet.get(nextFrameIdx));
-                    } catch (java.lang.IndexOutOfBoundsException e) {
-                        continue;
-                    }
+                int chunkIdx = findChunkIndex(dependOnFrameSet, ascending, dependErFrameNum);
+                int lastIdx = Math.min(chunkIdx + dependErLayer.chunkSize - dependOnLayer.chunkSize,
+                        dependOnFrameSet.length - 1);
+                for (int i = chunkIdx; i <= lastIdx; i++) {
+                    dependOnFrameNums.add(dependOnFrameSet[i]);
                 }
             }
-            else if (!dependErFrameSet.equals(dependOnFrameSet)) {
-                if (dependOnFrameSet.contains(dependErFrameNum)) {
-                    dependOnFrames.add(dependErFrameNum);
+            else if (!sameFrameSet) {
+                if (dependOnFrames.containsKey(dependErFrameNum)) {
+                    dependOnFrameNums.add(dependErFrameNum);
                 }
                 else {
                     continue;
                 }
             }
             else {
-                dependOnFrames.add(dependErFrameNum);
+                dependOnFrameNums.add(dependErFrameNum);
             }
 
-            /*
-             * Now we can finally start adding child dependencies.
-             */
-            try {
-                FrameInterface dependErFrame = frameDao.findFrame(dependErLayer,
-                        dependErFrameNum);
-                for (int frameNum: dependOnFrames) {
-                    FrameInterface dependOnFrame = frameDao.findFrame(dependOnLayer,
-                            frameNum);
-                    FrameOnFrame fofDepend = new FrameOnFrame(dependErFrame,
-                            dependOnFrame, depend);
-
-                    createDepend(fofDepend);
+            FrameDetail dependErFrame = dependErFrames.get(dependErFrameNum);
+            if (dependErFrame == null) {
+                logger.warn("failed to create frame by frame depend, " +
+                        "part of frame on frame depend: " + depend.getId() +
+                        " reason: frame " + dependErFrameNum + " not found in layer " +
+                        dependErLayer.getName());
+                continue;
+            }
 
+            for (int frameNum: dependOnFrameNums) {
+                FrameDetail dependOnFrame = dependOnFrames.get(frameNum);
+                if (dependOnFrame == null) {
+                    logger.warn("failed to create frame by frame depend, " +
+                            "part of frame on frame depend: " + depend.getId() +
+                            " reason: frame " + frameNum + " not found in layer " +
+                            dependOnLayer.getName());
+                    continue;
                 }
-            } catch (DataRetrievalFailureException dre) {
-                logger.warn("failed to create frame by frame depend, " +
-                		"part of frame on frame depend: "+
-                        depend.getId() + " reason: " + dre);
+                FrameOnFrame fofDepend = new FrameOnFrame(dependErFrame,
+                        dependOnFrame, depend);
+                if (isFrameComplete(dependOnFrame)) {
+                    fofDepend.setActive(false);
+                }
+                children.add(fofDepend);
             }
         }
+
+        dependDao.insertDepends(children);
+        dependsInserted(children);
+        dependDao.incrementDependCounts(depend);
+    }
+
+    /**
+     * Returns every frame in the layer, keyed on frame number.
+     *
+     * @param layer
+     * @return
+     */
+    private Map<Integer, FrameDetail> getFramesByNumber(LayerInterface layer) {
+        List<FrameDetail> frames = frameDao.getFrameDetails(layer);
+        Map<Integer, FrameDetail> result = new HashMap<Integer, FrameDetail>(
+                frames.size() * 2);
+        for (FrameDetail frame: frames) {
+            result.put(frame.number, frame);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the position of the chunk the given frame belongs to.
+     * Ascending frame sets are binary searched, anything else, like
+     * a reversed range, falls back to a linear scan.
+     *
+     * @param frames
+     * @param ascending
+     * @param frame
+     * @return
+     */
+    private static int findChunkIndex(int[] frames, boolean ascending, int frame) {
+        if (ascending) {
+            return CueUtil.findChunkIndex(frames, frame);
+        }
+        return Ints.indexOf(frames, CueUtil.findChunk(Ints.asList(frames), frame));
+    }
+
+    private static boolean isFrameComplete(FrameDetail frame) {
+        return frame.state == FrameState.SUCCEEDED
+                || frame.state == FrameState.EATEN;
+    }
+
+    /**
+     * Adds a newly inserted depend to the depend graph once the
+     * transaction commits.  The depend is only read back if the
+     * graph of either job is loaded by then.
+     *
+     * @param depend
+     * @param dependEr
+     * @param dependOn
+     */
+    private void dependInserted(AbstractDepend depend, JobInterface dependEr,
+                                JobInterface dependOn) {
+        if (!dependGraph.isEnabled()) {
+            return;
+        }
+        String id = depend.getId();
+        String erJobId = dependEr.getJobId();
+        String onJobId = dependOn.getJobId();
+        TransactionUtil.afterCommit(() -> {
+            if (dependGraph.isTracked(erJobId, onJobId)) {
+                dependGraph.update(Collections.singletonList(dependDao.getDepend(id)));
+            }
+        });
+    }
+
+    /**
+     * Adds a batch of newly inserted FrameOnFrame depends, which all
+     * share the same depend-er and depend-on jobs, to the depend graph
+     * once the transaction commits.
+     *
+     * @param depends
+     */
+    private void dependsInserted(List<FrameOnFrame> depends) {
+        if (!dependGraph.isEnabled() || depends.isEmpty()) {
+            return;
+        }
+        TransactionUtil.afterCommit(() -> {
+            FrameOnFrame first = depends.get(0);
+            if (!dependGraph.isTracked(first.getDependErFrame().getJobId(),
+                    first.getDependOnFrame().getJobId())) {
+                return;
+            }
+            List<LightweightDependency> inserted =
+                new ArrayList<LightweightDependency>(depends.size());
+            for (FrameOnFrame d: depends) {
+                LightweightDependency lwd = new LightweightDependency();
+                lwd.id = d.getId();
+                lwd.type = DependType.FRAME_ON_FRAME;
+                lwd.target = d.getTarget();
+                lwd.parent = d.getParent() == null ? null : d.getParent().getId();
+                lwd.dependErJobId = d.getDependErFrame().getJobId();
+                lwd.dependErLayerId = d.getDependErFrame().getLayerId();
+                lwd.dependErFrameId = d.getDependErFrame().getFrameId();
+                lwd.dependOnJobId = d.getDependOnFrame().getJobId();
+                lwd.dependOnLayerId = d.getDependOnFrame().getLayerId();
+                lwd.dependOnFrameId = d.getDependOnFrame().getFrameId();
+                lwd.anyFrame = d.isAnyFrame();
+                lwd.active = d.isActive();
+                inserted.add(lwd);
+            }
+            dependGraph.update(inserted);
+        });
     }
 
     @Override
@@ -363,6 +498,7 @@ public class DependManagerService implements DependManager {
         FrameSet dependOnFrameSet = new FrameSet(dependOnLayer.range);
 
         dependDao.insertDepend(depend);
+        dependInserted(depend, dependErLayer, dependOnLayer);
         int dependErFrameSetSize = dependErFrameSet.size();
         for (int idx = 1; idx < dependErFrameSetSize; idx = idx + 1) {
 
@@ -527,6 +663,9 @@ public class DependManagerService implements DependManager {
 
         // Currently only handles FrameOnFrame and LayerOnLayer.
         if (dependDao.setActive(depend)) {
+            List<LightweightDependency> changed = Collections.singletonList(depend);
+            TransactionUtil.afterCommit(() -> dependGraph.update(changed));
+            dependErFramesChanged(changed);
 
             switch(depend.type) {
 
@@ -549,10 +688,7 @@ public class DependManagerService implements DependManager {
          * of frames and decrement the depend count on them.
          */
         if (DependType.FRAME_BY_FRAME.equals(depend.type)) {
-            List<LightweightDependency> children =
-                dependDao.getChildDepends(depend);
-
-            for (LightweightDependency lwd: children) {
+            for (LightweightDependency lwd: dependDao.getChildDepends(depend)) {
                 satisfyDepend(lwd);
             }
             return;
@@ -564,6 +700,9 @@ public class DependManagerService implements DependManager {
          */
         if (dependDao.setInactive(depend)) {
             logger.info("satisfied depend: " + depend.getId());
+            List<LightweightDependency> changed = Collections.singletonList(depend);
+            TransactionUtil.afterCommit(() -> dependGraph.satisfied(changed));
+            dependErFramesChanged(changed);
             for (FrameInterface f: frameDao.getDependentFrames(depend)) {
                 if (!dependDao.decrementDependCount(f)) {
                     logger.warn("warning, depend count for " +
@@ -575,18 +714,89 @@ public class DependManagerService implements DependManager {
         }
     }
 
+    @Override
+    @Transactional(propagation=Propagation.REQUIRED)
+    public int satisfyWhatDependsOn(List<FrameInterface> frames, List<LayerInterface> layers) {
+
+        /*
+         * The depends to satisfy are always read from the database.  A
+         * depend graph may be missing depends created on another
+         * cuebot since it loaded, and a depend missed here is never
+         * satisfied.  An any frame LayerOnLayer depend can be waiting
+         * on both a frame and its layer, so only keep the first copy.
+         */
+        Map<String, LightweightDependency> depends =
+            new LinkedHashMap<String, LightweightDependency>();
+        if (!frames.isEmpty()) {
+            for (LightweightDependency depend: dependDao.getWhatDependsOnFrames(frames)) {
+                depends.put(depend.getId(), depend);
+            }
+        }
+        if (!layers.isEmpty()) {
+            for (LightweightDependency depend: dependDao.getWhatDependsOnLayers(layers)) {
+                depends.put(depend.getId(), depend);
+            }
+        }
+        if (depends.isEmpty()) {
+            return 0;
+        }
+
+        /*
+         * Only decrement the depend counts for the depends that
+         * this thread actually set to inactive.
+         */
+        List<LightweightDependency> satisfied = dependDao.setInactive(
+                new ArrayList<LightweightDependency>(depends.values()));
+        dependDao.decrementDependCounts(satisfied);
+        TransactionUtil.afterCommit(() -> dependGraph.satisfied(satisfied));
+        dependErFramesChanged(satisfied);
+
+        logger.info("satisfied " + satisfied.size() + " depends waiting on " +
+                frames.size() + " frames and " + layers.size() + " layers");
+        return satisfied.size();
+    }
+
+    /**
+     * Tells the job update feed that frames of the depend-er jobs may
+     * have moved between DEPEND and WAITING, which is done by the
+     * database when their depend counts change.
+     */
+    private void dependErFramesChanged(List<LightweightDependency> depends) {
+        if (jobUpdateFeed == null) {
+            return;
+        }
+        Set<String> jobIds = new HashSet<String>();
+        for (LightweightDependency depend: depends) {
+            if (jobIds.add(depend.dependErJobId)) {
+                jobUpdateFeed.framesChanged(depend.dependErJobId);
+            }
+        }
+    }
+
     @Transactional(propagation=Propagation.REQUIRED, readOnly=true)
     public List<LightweightDependency> getWhatThisDependsOn(JobInterface job, DependTarget target) {
+        List<LightweightDependency> depends = dependGraph.getWhatThisDependsOn(job, target);
+        if (depends != null) {
+            return depends;
+        }
         return dependDao.getWhatThisDependsOn(job, target);
     }
 
     @Transactional(propagation=Propagation.REQUIRED, readOnly=true)
     public List<LightweightDependency> getWhatThisDependsOn(LayerInterface layer, DependTarget target) {
+        List<LightweightDependency> depends = dependGraph.getWhatThisDependsOn(layer, target);
+        if (depends != null) {
+            return depends;
+        }
         return dependDao.getWhatThisDependsOn(layer, target);
     }
 
     @Transactional(propagation=Propagation.REQUIRED, readOnly=true)
     public List<LightweightDependency> getWhatThisDependsOn(FrameInterface frame, DependTarget target) {
+        List<LightweightDependency> depends = dependGraph.getWhatThisDependsOn(frame, target);
+        if (depends != null) {
+            return depends;
+        }
         return dependDao.getWhatThisDependsOn(frame, target);
     }
 
@@ -597,39 +807,58 @@ public class DependManagerService implements DependManager {
 
     @Transactional(propagation=Propagation.REQUIRED, readOnly=true)
     public List<LightweightDependency> getWhatDependsOn(JobInterface job) {
-        return dependDao.getWhatDependsOn(job);
+        return getWhatDependsOn(job, DependTarget.ANY_TARGET);
     }
 
     @Transactional(propagation=Propagation.REQUIRED, readOnly=true)
     public List<LightweightDependency> getWhatDependsOn(JobInterface job, DependTarget target) {
+        List<LightweightDependency> depends = dependGraph.getWhatDependsOn(job, target);
+        if (depends != null) {
+            return depends;
+        }
         return dependDao.getWhatDependsOn(job, target);
     }
 
     @Transactional(propagation=Propagation.REQUIRED, readOnly=true)
     public List<LightweightDependency> getWhatDependsOn(FrameInterface frame) {
-        return dependDao.getWhatDependsOn(frame);
+        return getWhatDependsOn(frame, true);
     }
 
     @Override
     @Transactional(propagation=Propagation.REQUIRED, readOnly=true)
     public List<LightweightDependency> getWhatDependsOn(FrameInterface frame, boolean active) {
+        List<LightweightDependency> depends = dependGraph.getWhatDependsOn(frame, active);
+        if (depends != null) {
+            return depends;
+        }
         return dependDao.getWhatDependsOn(frame, active);
     }
 
     @Transactional(propagation=Propagation.REQUIRED, readOnly=true)
     public List<LightweightDependency> getWhatDependsOn(LayerInterface layer) {
-        return dependDao.getWhatDependsOn(layer);
+        return getWhatDependsOn(layer, true);
     }
 
     @Override
     @Transactional(propagation=Propagation.REQUIRED, readOnly=true)
     public List<LightweightDependency> getWhatDependsOn(LayerInterface layer, boolean active) {
+        List<LightweightDependency> depends = dependGraph.getWhatDependsOn(layer, active);
+        if (depends != null) {
+            return depends;
+        }
         return dependDao.getWhatDependsOn(layer, active);
     }
 
     @Transactional(propagation=Propagation.REQUIRED)
     public void deleteDepend(LightweightDependency depend) {
         dependDao.deleteDepend(depend);
+        TransactionUtil.afterCommit(() -> dependGraph.remove(depend));
+    }
+
+    @Override
+    @Transactional(propagation=Propagation.SUPPORTS)
+    public void invalidateDependGraph(JobInterface job) {
+        TransactionUtil.afterCommit(() -> dependGraph.invalidate(job));
     }
 
     public FrameDao getFrameDao() {
@@ -664,6 +893,22 @@ public class DependManagerService implements DependManager {
         this.dependDao = workDao;
     }
 
+    public DependGraph getDependGraph() {
+        return dependGraph;
+    }
+
+    public void setDependGraph(DependGraph dependGraph) {
+        this.dependGraph = dependGraph;
+    }
+
+    public JobUpdateFeed getJobUpdateFeed() {
+        return jobUpdateFeed;
+    }
+
+    public void setJobUpdateFeed(JobUpdateFeed jobUpdateFeed) {
+        this.jobUpdateFeed = jobUpdateFeed;
+    }
+
     public FrameSearchFactory getFrameSearchFactory() {
         return frameSearchFactory;
     }
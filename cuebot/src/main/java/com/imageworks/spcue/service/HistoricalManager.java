@@ -39,5 +39,38 @@ public interface HistoricalManager {
      */
     void transferJob(JobInterface job);
 
+    /**
+     * Deletes the dependencies on or from the given jobs.
+     *
+     * @param jobs
+     * @return the number of deleted rows
+     */
+    int deleteDepends(List<JobInterface> jobs);
+
+    /**
+     * Deletes up to limit frames from the given jobs.
+     *
+     * @param jobs
+     * @param limit
+     * @return the number of deleted frames
+     */
+    int deleteFrames(List<JobInterface> jobs, int limit);
+
+    /**
+     * Moves the layers of the given jobs to the historical tables.
+     *
+     * @param jobs
+     * @return the number of deleted layers
+     */
+    int deleteLayers(List<JobInterface> jobs);
+
+    /**
+     * Transfers the given jobs from the live to the historical tables.
+     *
+     * @param jobs
+     * @return the number of transferred jobs
+     */
+    int transferJobs(List<JobInterface> jobs);
+
 }
 
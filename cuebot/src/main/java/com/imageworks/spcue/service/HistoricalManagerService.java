@@ -51,6 +51,31 @@ public class HistoricalManagerService implements HistoricalManager {
         }
     }
 
+    @Transactional
+    public int deleteDepends(List<JobInterface> jobs) {
+        return historicalDao.deleteDepends(jobs);
+    }
+
+    @Transactional
+    public int deleteFrames(List<JobInterface> jobs, int limit) {
+        return historicalDao.deleteFrames(jobs, limit);
+    }
+
+    @Transactional
+    public int deleteLayers(List<JobInterface> jobs) {
+        return historicalDao.deleteLayers(jobs);
+    }
+
+    @Transactional
+    public int transferJobs(List<JobInterface> jobs) {
+        try {
+            return historicalDao.transferJobs(jobs);
+        } catch (Exception e) {
+            throw new HistoricalJobTransferException("failed to transfer " +
+                    jobs.size() + " jobs to historical table", e);
+        }
+    }
+
     public HistoricalDao getHistoricalDao() {
         return historicalDao;
     }
@@ -20,27 +20,190 @@
 package com.imageworks.spcue.service;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
 
+import com.google.common.collect.Lists;
 import org.apache.log4j.Logger;
 
 import com.imageworks.spcue.JobInterface;
 
+/**
+ * Moves finished jobs into the historical tables.
+ *
+ * Jobs are archived in batches.  For each batch the depends are
+ * deleted, then the frames a limited number at a time, then the
+ * layers and finally the jobs themselves, each in its own short
+ * transaction, so no statement holds locks on the live tables for
+ * long.  After each statement the archiver sleeps for a multiple of
+ * the time the statement took, which keeps it from crowding out the
+ * dispatcher when the database is busy.
+ *
+ * Every step can be repeated, and a job stays finished until its
+ * row is deleted, so a run that is cut short, by the run time limit
+ * or a restart, is picked up by the next run.
+ */
 public class HistoricalSupport {
     private static final Logger logger = Logger.getLogger(HistoricalSupport.class);
 
+    private static final int DEFAULT_JOB_BATCH_SIZE = 50;
+    private static final int DEFAULT_FRAME_BATCH_SIZE = 5000;
+    private static final float DEFAULT_YIELD_RATIO = 1.0f;
+    private static final long DEFAULT_MAX_YIELD_MILLIS = 5000;
+    private static final long DEFAULT_MAX_RUN_MILLIS = 2700000;
+
+    private final int jobBatchSize;
+    private final int frameBatchSize;
+    private final float yieldRatio;
+    private final long maxYieldMillis;
+    private final long maxRunMillis;
+
     private HistoricalManager historicalManager;
 
+    private final AtomicLong jobsArchived = new AtomicLong(0);
+    private final AtomicLong rowsArchived = new AtomicLong(0);
+    private final AtomicLong backlog = new AtomicLong(0);
+    private volatile long lastRowsPerSecond = 0;
+
+    public HistoricalSupport() {
+        this(DEFAULT_JOB_BATCH_SIZE, DEFAULT_FRAME_BATCH_SIZE, DEFAULT_YIELD_RATIO,
+                DEFAULT_MAX_YIELD_MILLIS, DEFAULT_MAX_RUN_MILLIS);
+    }
+
+    public HistoricalSupport(int jobBatchSize, int frameBatchSize, float yieldRatio,
+            long maxYieldMillis, long maxRunMillis) {
+        this.jobBatchSize = jobBatchSize;
+        this.frameBatchSize = frameBatchSize;
+        this.yieldRatio = yieldRatio;
+        this.maxYieldMillis = maxYieldMillis;
+        this.maxRunMillis = maxRunMillis;
+    }
+
     public void archiveHistoricalJobData() {
-        logger.info("running historical job data transfer");
         List<JobInterface> jobs = historicalManager.getFinishedJobs();
-        for (JobInterface j: jobs) {
-            logger.info("transfering job " + j.getId() + "/" + j.getName());
-            try {
-                historicalManager.transferJob(j);
-            } catch (Exception e) {
-                logger.warn("failed to transfer job, " + e);
+        backlog.set(jobs.size());
+        logger.info("running historical job data transfer, " + jobs.size() + " jobs");
+
+        long startTime = System.currentTimeMillis();
+        long rows = 0;
+        try {
+            for (List<JobInterface> batch: Lists.partition(jobs, jobBatchSize)) {
+                if (System.currentTimeMillis() - startTime > maxRunMillis) {
+                    logger.info("historical job data transfer ran out of time, " +
+                            backlog.get() + " jobs left for the next run");
+                    break;
+                }
+                rows = rows + archiveBatch(batch);
+                backlog.addAndGet(-batch.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.info("historical job data transfer interrupted, " +
+                    backlog.get() + " jobs left for the next run");
+        }
+
+        long seconds = Math.max(1, (System.currentTimeMillis() - startTime) / 1000);
+        lastRowsPerSecond = rows / seconds;
+        logger.info("historical job data transfer moved " + rows + " rows in " +
+                seconds + " seconds, " + lastRowsPerSecond + " rows/sec");
+    }
+
+    /**
+     * Archives a batch of jobs.  If any step fails the jobs in the
+     * batch are transferred one at a time so a single bad job does
+     * not hold up the rest.
+     *
+     * @param batch
+     * @return the number of rows archived
+     */
+    private long archiveBatch(final List<JobInterface> batch) throws InterruptedException {
+        long rows = 0;
+        try {
+            rows = rows + throttle(() -> historicalManager.deleteDepends(batch));
+
+            int frames;
+            do {
+                frames = throttle(() -> historicalManager.deleteFrames(batch, frameBatchSize));
+                rows = rows + frames;
+            } while (frames >= frameBatchSize);
+
+            rows = rows + throttle(() -> historicalManager.deleteLayers(batch));
+            int transferred = throttle(() -> historicalManager.transferJobs(batch));
+            rows = rows + transferred;
+            jobsArchived.addAndGet(transferred);
+        } catch (RuntimeException e) {
+            logger.warn("failed to transfer " + batch.size() +
+                    " jobs, transferring them one at a time, " + e);
+            for (JobInterface j: batch) {
+                logger.info("transfering job " + j.getId() + "/" + j.getName());
+                try {
+                    historicalManager.transferJob(j);
+                    jobsArchived.incrementAndGet();
+                    rows++;
+                } catch (Exception ex) {
+                    logger.warn("failed to transfer job, " + ex);
+                }
             }
         }
+        rowsArchived.addAndGet(rows);
+        return rows;
+    }
+
+    /**
+     * Runs a step of the transfer, then sleeps for the time the step
+     * took multiplied by the yield ratio.
+     *
+     * @param step
+     * @return the number of rows the step changed
+     */
+    private int throttle(IntSupplier step) throws InterruptedException {
+        long startTime = System.currentTimeMillis();
+        int rows = step.getAsInt();
+        long sleepMillis = Math.min(maxYieldMillis,
+                (long) ((System.currentTimeMillis() - startTime) * yieldRatio));
+        if (sleepMillis > 0) {
+            Thread.sleep(sleepMillis);
+        }
+        return rows;
+    }
+
+    /**
+     * Return the number of jobs moved to the historical tables.
+     *
+     * @return the number of archived jobs
+     */
+    public long getJobsArchived() {
+        return jobsArchived.get();
+    }
+
+    /**
+     * Return the number of job, layer, frame and depend rows removed
+     * from the live tables.
+     *
+     * @return the number of archived rows
+     */
+    public long getRowsArchived() {
+        return rowsArchived.get();
+    }
+
+    /**
+     * Return the number of finished jobs the current or last run has
+     * not archived yet.
+     *
+     * @return the number of jobs waiting to be archived
+     */
+    public long getBacklog() {
+        return backlog.get();
+    }
+
+    /**
+     * Return the rate at which rows were archived during the last
+     * run.
+     *
+     * @return the number of rows archived per second
+     */
+    public long getRowsPerSecond() {
+        return lastRowsPerSecond;
     }
 
     public HistoricalManager getHistoricalManager() {
@@ -51,4 +214,3 @@ public class HistoricalSupport {
         this.historicalManager = historicalManager;
     }
 }
-
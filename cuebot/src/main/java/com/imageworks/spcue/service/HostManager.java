@@ -102,6 +102,14 @@ public interface HostManager {
      */
     boolean isLocked(HostInterface host);
 
+    /**
+     * Record that the host has reported, without changing its
+     * statistics.
+     *
+     * @param host
+     */
+    void setHostPing(HostInterface host);
+
     /**
      * Set all host statistics.
      *
@@ -118,6 +118,11 @@ public class HostManagerService implements HostManager {
         }
     }
 
+    @Override
+    public void setHostPing(HostInterface host) {
+        hostDao.updateHostPing(host);
+    }
+
     @Override
     public void setHostStatistics(HostInterface host,
             long totalMemory, long freeMemory,
@@ -20,22 +20,27 @@
 package com.imageworks.spcue.service;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
+import com.google.common.util.concurrent.Striped;
 import org.apache.log4j.Logger;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import com.imageworks.spcue.BuildableJob;
 import com.imageworks.spcue.EntityCreationError;
 import com.imageworks.spcue.JobDetail;
 import com.imageworks.spcue.LocalHostAssignment;
 import com.imageworks.spcue.ShowEntity;
+import com.imageworks.spcue.dispatcher.JobLaunchQueue;
 import com.imageworks.spcue.dispatcher.commands.DispatchLaunchJob;
 import com.imageworks.spcue.grpc.renderpartition.RenderPartitionType;
 
@@ -49,7 +54,7 @@ public class JobLauncher implements ApplicationContextAware {
     private JobManager jobManager;
     private DepartmentManager departmentManager;
     private AdminManager adminManager;
-    private ThreadPoolTaskExecutor launchQueue;
+    private JobLaunchQueue launchQueue;
     private EmailSupport emailSupport;
     private JmsMover jmsMover;
     private LocalBookingSupport localBookingSupport;
@@ -60,6 +65,11 @@ public class JobLauncher implements ApplicationContextAware {
      */
     public volatile boolean testMode = false;
 
+    /**
+     * Locks held while jobs with a given name are created.
+     */
+    private final Striped<Lock> launchLocks = Striped.lock(64);
+
     @Override
     public void setApplicationContext(ApplicationContext context)
             throws BeansException {
@@ -94,6 +104,56 @@ public class JobLauncher implements ApplicationContextAware {
 
         verifyJobSpec(spec);
 
+        if (createJobs(spec)) {
+            postLaunch(spec);
+        }
+    }
+
+    /**
+     * Launches a spec taken off the launch queue.  The jobs are
+     * created on the calling thread and the post launch work is
+     * handed to the launch queue's post launch stage.
+     *
+     * @param spec
+     */
+    public void launchQueued(final JobSpec spec) {
+
+        verifyJobSpec(spec);
+
+        if (createJobs(spec)) {
+            launchQueue.executePostLaunch(new Runnable() {
+                public void run() {
+                    postLaunch(spec);
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates the jobs in the spec, along with any local host
+     * assignments.
+     *
+     * @param spec
+     * @return true if the jobs were created
+     */
+    private boolean createJobs(final JobSpec spec) {
+        /*
+         * Launches of a job with the same name are serialized so the
+         * pending job check and the insert can't interleave.  Launches
+         * on other cuebots are caught by the unique job name index.
+         */
+        List<String> names = new ArrayList<String>();
+        for (BuildableJob job: spec.getJobs()) {
+            names.add(job.detail.name);
+            if (job.getPostJob() != null) {
+                names.add(job.getPostJob().detail.name);
+            }
+        }
+        List<Lock> locks = new ArrayList<Lock>();
+        for (Lock lock: launchLocks.bulkGet(names)) {
+            lock.lock();
+            locks.add(lock);
+        }
         try {
             jobManager.launchJobSpec(spec);
 
@@ -120,30 +180,45 @@ public class JobLauncher implements ApplicationContextAware {
                     }
                 }
             }
+            return true;
+        } catch (Exception e) {
+            // Catch anything and email the user a report as to
+            // why the job launch failed.
+            emailSupport.reportLaunchError(spec, e);
+            return false;
+        } finally {
+            for (Lock lock: locks) {
+                lock.unlock();
+            }
+        }
+    }
 
-            /*
-             * This has to happen outside of the job launching transaction
-             * or else it can lock up booking because it updates the
-             * job_resource table.  It can take quite some time to launch
-             * a job with dependencies, so the transaction should not
-             * touch any rows that are currently in the "live" data set.
-             */
-            if (!testMode) {
-                Set<String> depts = new HashSet<String>();
-                for (BuildableJob job: spec.getJobs()) {
-                    JobDetail d = jobManager.getJobDetail(job.detail.id);
-                    jmsMover.send(d);
-                    if (departmentManager.isManaged(d)) {
-                        if (!depts.contains(d.deptId)) {
-                            departmentManager.syncJobsWithTask(d);
-                            depts.add(d.deptId);
-                        }
+    /**
+     * This has to happen outside of the job launching transaction
+     * or else it can lock up booking because it updates the
+     * job_resource table.  It can take quite some time to launch
+     * a job with dependencies, so the transaction should not
+     * touch any rows that are currently in the "live" data set.
+     *
+     * @param spec
+     */
+    private void postLaunch(final JobSpec spec) {
+        if (testMode) {
+            return;
+        }
+        try {
+            Set<String> depts = new HashSet<String>();
+            for (BuildableJob job: spec.getJobs()) {
+                JobDetail d = jobManager.getJobDetail(job.detail.id);
+                jmsMover.send(d);
+                if (departmentManager.isManaged(d)) {
+                    if (!depts.contains(d.deptId)) {
+                        departmentManager.syncJobsWithTask(d);
+                        depts.add(d.deptId);
                     }
                 }
             }
         } catch (Exception e) {
-            // Catch anything and email the user a report as to
-            // why the job launch failed.
             emailSupport.reportLaunchError(spec, e);
         }
     }
@@ -174,9 +249,15 @@ public class JobLauncher implements ApplicationContextAware {
         }
     }
 
+    /**
+     * Verifies the spec and queues it to be launched.
+     *
+     * @param spec
+     * @throws TaskRejectedException if the launch queue is full
+     */
     public void queueAndLaunch(final JobSpec spec) {
         verifyJobSpec(spec);
-        launchQueue.execute(new DispatchLaunchJob(spec, this));
+        launchQueue.execute(spec.getShow(), new DispatchLaunchJob(spec, this));
     }
 
     public EmailSupport getEmailSupport() {
@@ -211,11 +292,11 @@ public class JobLauncher implements ApplicationContextAware {
         this.adminManager = adminManager;
     }
 
-    public ThreadPoolTaskExecutor getLaunchQueue() {
+    public JobLaunchQueue getLaunchQueue() {
         return launchQueue;
     }
 
-    public void setLaunchQueue(ThreadPoolTaskExecutor launchQueue) {
+    public void setLaunchQueue(JobLaunchQueue launchQueue) {
         this.launchQueue = launchQueue;
     }
 
@@ -19,11 +19,13 @@
 
 package com.imageworks.spcue.service;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import com.google.common.collect.Sets;
 import org.apache.log4j.Logger;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -46,6 +48,7 @@ import com.imageworks.spcue.LayerInterface;
 import com.imageworks.spcue.LimitEntity;
 import com.imageworks.spcue.LimitInterface;
 import com.imageworks.spcue.ShowEntity;
+import com.imageworks.spcue.ShowInterface;
 import com.imageworks.spcue.ThreadStats;
 import com.imageworks.spcue.dao.FacilityDao;
 import com.imageworks.spcue.dao.FrameDao;
@@ -56,6 +59,7 @@ import com.imageworks.spcue.dao.LayerDao;
 import com.imageworks.spcue.dao.LimitDao;
 import com.imageworks.spcue.dao.ShowDao;
 import com.imageworks.spcue.dao.criteria.FrameSearchInterface;
+import com.imageworks.spcue.dispatcher.DispatchIndex;
 import com.imageworks.spcue.dispatcher.Dispatcher;
 import com.imageworks.spcue.grpc.job.CheckpointState;
 import com.imageworks.spcue.grpc.job.FrameState;
@@ -65,6 +69,7 @@ import com.imageworks.spcue.grpc.limit.Limit;
 import com.imageworks.spcue.util.CueUtil;
 import com.imageworks.spcue.util.FrameSet;
 import com.imageworks.spcue.util.JobLogUtil;
+import com.imageworks.spcue.util.TransactionUtil;
 
 @Transactional
 public class JobManagerService implements JobManager {
@@ -81,6 +86,9 @@ public class JobManagerService implements JobManager {
     private FilterManager filterManager;
     private GroupDao groupDao;
     private FacilityDao facilityDao;
+    private JobWhiteboardCache jobWhiteboardCache;
+    private JobUpdateFeed jobUpdateFeed;
+    private DispatchIndex dispatchIndex;
 
     @Transactional(propagation = Propagation.REQUIRED, readOnly=true)
     public boolean isJobComplete(JobInterface job) {
@@ -164,6 +172,10 @@ public class JobManagerService implements JobManager {
     @Transactional(propagation = Propagation.REQUIRED)
     public void setJobPaused(JobInterface job, boolean paused) {
         jobDao.updatePaused(job, paused);
+        jobWhiteboardChanged(job);
+        if (jobUpdateFeed != null) {
+            jobUpdateFeed.jobChanged(job);
+        }
     }
 
     @Transactional(propagation = Propagation.REQUIRED)
@@ -191,6 +203,7 @@ public class JobManagerService implements JobManager {
             if (job.getPostJob() != null) {
                 jobDao.activateJob(job.getPostJob().detail, JobState.POSTED);
             }
+            jobWhiteboardChanged(job.detail);
         }
     }
 
@@ -242,9 +255,20 @@ public class JobManagerService implements JobManager {
 
             resolveFacility(job);
 
-            jobDao.insertJob(job);
+            try {
+                jobDao.insertJob(job);
+            } catch (DataIntegrityViolationException e) {
+                /*
+                 * Another launch of the same job got in after the
+                 * exists check above, maybe on another cuebot.
+                 */
+                throw new JobLaunchException("error launching job, active job already exists: " +
+                        job.name, e);
+            }
             jobDao.insertEnvironment(job, buildableJob.env);
 
+            List<LayerDetail> layers = new ArrayList<LayerDetail>();
+            List<List<Integer>> layerFrames = new ArrayList<List<Integer>>();
             for (BuildableLayer buildableLayer: buildableJob.getBuildableLayers()) {
 
                 LayerDetail layer = buildableLayer.layerDetail;
@@ -269,11 +293,18 @@ public class JobManagerService implements JobManager {
                 }
 
                 logger.info("creating layer " + layer.name + " range: " + layer.range);
-                layerDao.insertLayerDetail(layer);
+                layers.add(layer);
+                layerFrames.add(frames);
+            }
+
+            layerDao.insertLayerDetails(layers);
+            for (int i = 0; i < layers.size(); i++) {
+                BuildableLayer buildableLayer = buildableJob.getBuildableLayers().get(i);
+                LayerDetail layer = layers.get(i);
                 layerDao.insertLayerEnvironment(layer, buildableLayer.env);
                 layer.limits.stream()
                         .forEach(ln -> addLayerLimit(layer, limitDao.findLimit(ln).getLimitId()));
-                frameDao.insertFrames(layer, frames);
+                frameDao.insertFrames(layer, layerFrames.get(i));
             }
 
             /*
@@ -313,6 +344,14 @@ public class JobManagerService implements JobManager {
             logger.info("shutting down job: " + job.getName());
             jobDao.activatePostJob(job);
             logger.info("activating post jobs");
+            jobWhiteboardChanged(job);
+            if (jobUpdateFeed != null) {
+                jobUpdateFeed.jobChanged(job);
+            }
+            if (dispatchIndex != null) {
+                String jobId = job.getJobId();
+                TransactionUtil.afterCommit(() -> dispatchIndex.removeJob(jobId));
+            }
             return true;
         }
         return false;
@@ -326,6 +365,20 @@ public class JobManagerService implements JobManager {
     @Transactional(propagation = Propagation.REQUIRED)
     public void updateFrameState(FrameInterface frame, FrameState state) {
         frameDao.updateFrameState(frame, state);
+        jobWhiteboardChanged(frame);
+        if (jobUpdateFeed != null) {
+            jobUpdateFeed.frameChanged(frame);
+        }
+    }
+
+    /**
+     * Marks the show's job whiteboard as changed so it is reloaded
+     * with the new job or frame state.
+     */
+    private void jobWhiteboardChanged(ShowInterface show) {
+        if (jobWhiteboardCache != null) {
+            jobWhiteboardCache.showChanged(show.getShowId());
+        }
     }
 
     @Transactional(propagation = Propagation.REQUIRED, readOnly=true)
@@ -346,6 +399,9 @@ public class JobManagerService implements JobManager {
     @Transactional(propagation = Propagation.REQUIRED)
     public void markFrameAsWaiting(FrameInterface frame) {
         frameDao.markFrameAsWaiting(frame);
+        if (jobUpdateFeed != null) {
+            jobUpdateFeed.frameChanged(frame);
+        }
     }
 
     @Transactional(propagation = Propagation.REQUIRED)
@@ -571,6 +627,30 @@ public class JobManagerService implements JobManager {
         this.limitDao = limitDao;
     }
 
+    public JobWhiteboardCache getJobWhiteboardCache() {
+        return jobWhiteboardCache;
+    }
+
+    public void setJobWhiteboardCache(JobWhiteboardCache jobWhiteboardCache) {
+        this.jobWhiteboardCache = jobWhiteboardCache;
+    }
+
+    public JobUpdateFeed getJobUpdateFeed() {
+        return jobUpdateFeed;
+    }
+
+    public void setJobUpdateFeed(JobUpdateFeed jobUpdateFeed) {
+        this.jobUpdateFeed = jobUpdateFeed;
+    }
+
+    public DispatchIndex getDispatchIndex() {
+        return dispatchIndex;
+    }
+
+    public void setDispatchIndex(DispatchIndex dispatchIndex) {
+        this.dispatchIndex = dispatchIndex;
+    }
+
     public ShowDao getShowDao() {
         return showDao;
     }
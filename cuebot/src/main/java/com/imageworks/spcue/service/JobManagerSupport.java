@@ -19,7 +19,9 @@
 
 package com.imageworks.spcue.service;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.log4j.Logger;
@@ -38,7 +40,7 @@ import com.imageworks.spcue.dao.criteria.FrameSearchInterface;
 import com.imageworks.spcue.dao.criteria.ProcSearchInterface;
 import com.imageworks.spcue.dispatcher.DispatchQueue;
 import com.imageworks.spcue.dispatcher.DispatchSupport;
-import com.imageworks.spcue.dispatcher.Dispatcher;
+import com.imageworks.spcue.dispatcher.ProcKiller;
 import com.imageworks.spcue.dispatcher.RedirectManager;
 import com.imageworks.spcue.dispatcher.commands.DispatchJobComplete;
 import com.imageworks.spcue.grpc.depend.DependTarget;
@@ -60,6 +62,7 @@ public class JobManagerSupport {
     private DependManager dependManager;
     private HostManager hostManager;
     private RqdClient rqdClient;
+    private ProcKiller procKiller;
     private DepartmentManager departmentManager;
     private DispatchSupport dispatchSupport;
     private DispatchQueue manageQueue;
@@ -80,6 +83,7 @@ public class JobManagerSupport {
              * job record, not layers or frames.
              */
             satisfyWhatDependsOn(job);
+            dependManager.invalidateDependGraph(job);
 
             if (departmentManager.isManaged(job)) {
                 departmentManager.syncJobsWithTask(job);
@@ -101,6 +105,11 @@ public class JobManagerSupport {
                             " shutdown thread was interrupted.");
                 }
 
+                /*
+                 * Stop the frames first, then kill all of their procs
+                 * in parallel.
+                 */
+                List<VirtualProc> procs = new ArrayList<VirtualProc>();
                 FrameSearchInterface search = frameSearchFactory.create(job);
                 FrameSearchCriteria newCriteria = search.getCriteria();
                 FrameStateSeq states = newCriteria.getStates().toBuilder()
@@ -119,20 +128,18 @@ public class JobManagerSupport {
                                 " on job shutdown operation, " + e);
                     }
 
-                    if (manualStopFrame(frame, FrameState.WAITING)) {
-                        try {
-                            if (proc != null) {
-                                kill(proc, source);
-                            }
-                        } catch (DataAccessException e) {
-                            logger.warn("Failed to kill frame " + frame +
-                                    " on job shutdown operation, " + e);
-                        }
-                        catch (Exception e) {
-                            logger.warn("error killing frame: " + frame);
-                        }
+                    if (manualStopFrame(frame, FrameState.WAITING) && proc != null) {
+                        procs.add(proc);
                     }
                 }
+
+                try {
+                    kill(procs, source);
+                }
+                catch (Exception e) {
+                    logger.warn("error killing frames on job shutdown operation, " +
+                            job.getName() + ", " + e);
+                }
             }
 
             /*
@@ -170,28 +177,24 @@ public class JobManagerSupport {
     }
 
     public void satisfyWhatDependsOn(FrameInterface frame) {
-        List<LightweightDependency> depends = dependManager.getWhatDependsOn(frame);
-        logger.info("satisfying " + depends.size() +
-                " depends that are waiting on frame " + frame.getName());
-        for (LightweightDependency depend: depends) {
-            dependManager.satisfyDepend(depend);
-        }
+        int satisfied = dependManager.satisfyWhatDependsOn(
+                Collections.singletonList(frame), Collections.<LayerInterface>emptyList());
+        logger.info("satisfied " + satisfied +
+                " depends that were waiting on frame " + frame.getName());
     }
 
     public void satisfyWhatDependsOn(LayerInterface layer) {
-        List<LightweightDependency> depends = dependManager.getWhatDependsOn(layer);
-        logger.info("satisfying " + depends.size() +
-                " depends that are waiting on layer " + layer.getName());
-        for (LightweightDependency depend: dependManager.getWhatDependsOn(layer)) {
-            dependManager.satisfyDepend(depend);
-        }
+        int satisfied = dependManager.satisfyWhatDependsOn(
+                Collections.<FrameInterface>emptyList(), Collections.singletonList(layer));
+        logger.info("satisfied " + satisfied +
+                " depends that were waiting on layer " + layer.getName());
     }
 
     public void satisfyWhatDependsOn(JobInterface job) {
         List<LightweightDependency> depends = dependManager.getWhatDependsOn(job);
         logger.info("satisfying " + depends.size() +
                 " depends that are waiting on job " + job.getName());
-        for (LightweightDependency depend: dependManager.getWhatDependsOn(job)) {
+        for (LightweightDependency depend: depends) {
             dependManager.satisfyDepend(depend);
         }
     }
@@ -203,11 +206,8 @@ public class JobManagerSupport {
     }
 
     public void satisfyWhatDependsOn(FrameSearchInterface request) {
-        for (FrameInterface frame: jobManager.findFrames(request)) {
-            for (LightweightDependency depend: dependManager.getWhatDependsOn(frame)) {
-                dependManager.satisfyDepend(depend);
-            }
-        }
+        dependManager.satisfyWhatDependsOn(jobManager.findFrames(request),
+                Collections.<LayerInterface>emptyList());
     }
 
     /*
@@ -236,17 +236,11 @@ public class JobManagerSupport {
      * @param source
      */
     public void kill(VirtualProc p, Source source) {
-        try {
-            rqdClient.killFrame(p, source.toString());
-        }
-        catch (java.lang.Throwable e) {
-            dispatchSupport.lostProc(p, "clearing due to failed kill," +
-                    p.getName() + "," + e, Dispatcher.EXIT_STATUS_FAILED_KILL);
-        }
+        procKiller.kill(p, source.toString());
     }
 
     /**
-     * Kill a list procs.  If RQD throws back an
+     * Kill a list procs in parallel.  If RQD throws back an
      * exception, the proc is considered lost and is
      * manually removed.
      *
@@ -254,15 +248,7 @@ public class JobManagerSupport {
      * @param source
      */
     public void kill(Collection<VirtualProc> procs, Source source) {
-        for (VirtualProc p: procs) {
-            try {
-                rqdClient.killFrame(p, source.toString());
-            }
-            catch (java.lang.Throwable e) {
-                dispatchSupport.lostProc(p, "clearing due to failed kill," +
-                        p.getName() + "," + e, Dispatcher.EXIT_STATUS_FAILED_KILL);
-            }
-        }
+        procKiller.kill(procs, source.toString());
     }
 
     /**
@@ -288,7 +274,10 @@ public class JobManagerSupport {
     public int unbookProcs(ProcSearchInterface r, boolean killProc, Source source) {
         List<VirtualProc> procs = hostManager.findBookedVirtualProcs(r);
         for (VirtualProc proc: procs) {
-            unbookProc(proc, killProc, source);
+            hostManager.unbookProc(proc);
+        }
+        if (killProc) {
+            kill(procs, source);
         }
         return procs.size();
     }
@@ -324,9 +313,7 @@ public class JobManagerSupport {
             hostManager.unbookVirtualProcs(procs);
         }
 
-        for (VirtualProc proc: procs) {
-            kill(proc, source);
-        }
+        kill(procs, source);
     }
 
     /**
@@ -348,9 +335,7 @@ public class JobManagerSupport {
             hostManager.unbookVirtualProcs(procs);
         }
 
-        for (VirtualProc proc: procs) {
-            kill(proc, source);
-        }
+        kill(procs, source);
     }
 
     /**
@@ -366,9 +351,7 @@ public class JobManagerSupport {
             hostManager.unbookVirtualProcs(procs);
         }
 
-        for (VirtualProc proc: procs) {
-            kill(proc, source);
-        }
+        kill(procs, source);
     }
 
     /**
@@ -559,6 +542,14 @@ public class JobManagerSupport {
         this.dispatchSupport = dispatchSupport;
     }
 
+    public ProcKiller getProcKiller() {
+        return procKiller;
+    }
+
+    public void setProcKiller(ProcKiller procKiller) {
+        this.procKiller = procKiller;
+    }
+
     public RqdClient getRqdClient() {
         return rqdClient;
     }
@@ -19,22 +19,42 @@
 
 package com.imageworks.spcue.service;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.xml.parsers.SAXParserFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
 import org.apache.log4j.Logger;
 import org.jdom.Document;
-import org.jdom.Element;
 import org.jdom.input.SAXBuilder;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.xml.sax.Attributes;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 import com.imageworks.spcue.BuildableDependency;
 import com.imageworks.spcue.BuildableJob;
@@ -67,7 +87,12 @@ public class JobSpec {
 
     private int totalFrames = 0;
 
-    private Document doc;
+    /**
+     * The spec source, kept so the document can be rebuilt for
+     * launch error reports.
+     */
+    private String xml;
+    private File file;
 
     private ServiceManager serviceManager;
 
@@ -104,6 +129,61 @@ public class JobSpec {
     // The default value for a job's OS property.
     public static final String DEFAULT_OS = "Linux";
 
+    /**
+     * The maximum number of distinct DTDs to keep in memory.
+     */
+    private static final int DTD_CACHE_SIZE = 32;
+
+    /**
+     * SAXParserFactory is not thread safe and specs are parsed on the
+     * launch threads in parallel, so each thread gets its own factory.
+     */
+    private static final ThreadLocal<SAXParserFactory> PARSER_FACTORY =
+        ThreadLocal.withInitial(() -> {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setValidating(true);
+            return factory;
+        });
+
+    /**
+     * The DTDs referenced by specs, keyed on their resolved system id.
+     * Every spec names its DTD, so without this the DTD would be read,
+     * possibly over the network, for every launch.
+     */
+    private static final Cache<String, byte[]> DTD_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(DTD_CACHE_SIZE)
+            .build();
+
+    private static final EntityResolver DTD_RESOLVER = new EntityResolver() {
+        @Override
+        public InputSource resolveEntity(String publicId, final String systemId)
+                throws SAXException, IOException {
+            if (systemId == null) {
+                return null;
+            }
+            byte[] dtd;
+            try {
+                dtd = DTD_CACHE.get(systemId, new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        try (InputStream in = new URL(systemId).openStream()) {
+                            return ByteStreams.toByteArray(in);
+                        }
+                    }
+                });
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new SAXException("Failed to read DTD " + systemId, e);
+            }
+            InputSource source = new InputSource(new ByteArrayInputStream(dtd));
+            source.setPublicId(publicId);
+            source.setSystemId(systemId);
+            return source;
+        }
+    };
+
     private List<BuildableJob> jobs = new ArrayList<BuildableJob>();
 
     private List<BuildableDependency> depends = new ArrayList<BuildableDependency>();
@@ -191,8 +271,7 @@ public class JobSpec {
     /**
      * Grabs the show/shot/user/uid for this spec.
      */
-    private void handleSpecTag() {
-        Element rootElement = doc.getRootElement();
+    private void handleSpecTag(SpecElement rootElement) {
         facility = rootElement.getChildTextTrim("facility");
         if (facility != null) {
             facility = facility.toLowerCase();
@@ -209,45 +288,13 @@ public class JobSpec {
     }
 
     /**
-     * Loop over all <job> tags
-     *
-     */
-    private void handleJobsTag() {
-        List<?> elements = doc.getRootElement().getChildren("job");
-        if (elements == null) {
-            return;
-        }
-        for (Object tmpElement : elements) {
-            Element jobElement = (Element) tmpElement;
-            jobs.add(handleJobTag(jobElement));
-        }
-    }
-
-    /**
-     * Loop over all <depend> tags
-     *
-     */
-    private void handleDependsTags() {
-        Element delements = doc.getRootElement().getChild("depends");
-        if (delements == null) {
-            return;
-        }
-        List<?> elements = delements.getChildren("depend");
-        if (elements == null) {
-            return;
-        }
-        for (Object tmpElement : elements) {
-            Element dependElement = (Element) tmpElement;
-            depends.add(handleDependTag(dependElement));
-        }
-    }
-
-    /**
+     * Creates the job from the job tag.  Called once everything
+     * before the job's layers has been read.
      *
      * @param jobTag
      * @return
      */
-    private BuildableJob handleJobTag(Element jobTag) {
+    private BuildableJob handleJobTag(SpecElement jobTag) {
 
         /*
          * Read in the job tag
@@ -258,7 +305,7 @@ public class JobSpec {
         job.isPaused = Convert.stringToBool(jobTag.getChildTextTrim("paused"));
         job.isAutoEat = Convert.stringToBool(jobTag.getChildTextTrim("autoeat"));
         job.isLocal = false;
-        Element local = jobTag.getChild("localbook");
+        SpecElement local = jobTag.getChild("localbook");
         if (local != null) {
             job.isLocal = true;
             job.localHostName = local.getAttributeValue("host");
@@ -300,7 +347,17 @@ public class JobSpec {
                 job.maxRetries = FRAME_RETRIES_MIN;
             }
         }
-        handleLayerTags(buildableJob, jobTag);
+        return buildableJob;
+    }
+
+    /**
+     * Finishes the job once all of its layers have been read.
+     *
+     * @param buildableJob
+     * @param jobTag
+     */
+    private void finishJobTag(BuildableJob buildableJob, SpecElement jobTag) {
+        JobDetail job = buildableJob.detail;
 
         if (buildableJob.getBuildableLayers().size() > MAX_LAYERS) {
             throw new SpecBuilderException("The job " + job.name + " has over "
@@ -312,122 +369,115 @@ public class JobSpec {
                     + " has no layers");
         }
 
-        Element envTag = jobTag.getChild("env");
+        SpecElement envTag = jobTag.getChild("env");
         if (envTag != null) {
             handleEnvironmentTag(envTag, buildableJob.env);
         }
-
-        return buildableJob;
     }
 
     /**
      *
      * @param buildableJob
-     * @param jobTag
+     * @param layerTag
+     * @param layerNames the names of the layers already in the job
+     * @param dispatchOrder
      */
-    private void handleLayerTags(BuildableJob buildableJob, Element jobTag) {
-
-        Set<String> layerNames = new HashSet<String>();
-        int dispatchOrder = 0;
-
-        for (Object layerTmp : jobTag.getChild("layers").getChildren("layer")) {
-
-            Element layerTag = (Element) layerTmp;
-
-            /*
-             * Setup a LayerDetail and Buildable layer, add layer to job
-             */
-            LayerDetail layer = new LayerDetail();
-            BuildableLayer buildableLayer = new BuildableLayer(layer);
-
-            /*
-             * Setup the layer type
-             */
-            String layerType = layerTag.getAttributeValue("type");
-            /*
-             * The Enum is capitalized so make sure that we capitalize the
-             * string we received from the user.
-             */
-            layer.type = LayerType.valueOf(layerType.toUpperCase());
-            if (layer.type == null) {
-                throw new SpecBuilderException("error, the layer " + layer.name
-                        + " was defined with an invalid type: "
-                        + layerTag.getAttributeValue("type"));
-            }
-
-            /*
-             * If the layer is a post layer, we add it to the post job.
-             */
-            if (layer.type.equals(LayerType.POST)) {
-                if (buildableJob.getPostJob() == null) {
-                    buildableJob.setPostJob(initPostJob(buildableJob));
-                }
-                buildableJob.getPostJob().addBuildableLayer(buildableLayer);
-            } else {
-                buildableJob.addBuildableLayer(buildableLayer);
-            }
+    private void handleLayerTag(BuildableJob buildableJob, SpecElement layerTag,
+            Set<String> layerNames, int dispatchOrder) {
 
-            /*
-             * Check to make sure the name is unique for this job.
-             */
-            if (layerTag.getAttributeValue("name") == null) {
-                throw new SpecBuilderException(
-                        "error, the layer name cannot be null");
-            }
+        /*
+         * Setup a LayerDetail and Buildable layer, add layer to job
+         */
+        LayerDetail layer = new LayerDetail();
+        BuildableLayer buildableLayer = new BuildableLayer(layer);
 
-            layer.name = conformLayerName(layerTag.getAttributeValue("name"));
+        /*
+         * Setup the layer type
+         */
+        String layerType = layerTag.getAttributeValue("type");
+        /*
+         * The Enum is capitalized so make sure that we capitalize the
+         * string we received from the user.
+         */
+        layer.type = LayerType.valueOf(layerType.toUpperCase());
+        if (layer.type == null) {
+            throw new SpecBuilderException("error, the layer " + layer.name
+                    + " was defined with an invalid type: "
+                    + layerTag.getAttributeValue("type"));
+        }
 
-            if (layerNames.contains(layer.name)) {
-                throw new SpecBuilderException("error, the layer " + layer.name
-                        + " was already defined in job "
-                        + buildableJob.detail.name);
+        /*
+         * If the layer is a post layer, we add it to the post job.
+         */
+        if (layer.type.equals(LayerType.POST)) {
+            if (buildableJob.getPostJob() == null) {
+                buildableJob.setPostJob(initPostJob(buildableJob));
             }
-            layerNames.add(layer.name);
+            buildableJob.getPostJob().addBuildableLayer(buildableLayer);
+        } else {
+            buildableJob.addBuildableLayer(buildableLayer);
+        }
+
+        /*
+         * Check to make sure the name is unique for this job.
+         */
+        if (layerTag.getAttributeValue("name") == null) {
+            throw new SpecBuilderException(
+                    "error, the layer name cannot be null");
+        }
 
-            /*
-             * Setup the simple layer properties.
-             */
-            layer.command = layerTag.getChildTextTrim("cmd");
-            layer.range = layerTag.getChildTextTrim("range");
-            layer.dispatchOrder = ++dispatchOrder;
+        layer.name = conformLayerName(layerTag.getAttributeValue("name"));
 
-            /*
-             * Determine some of the more complex attributes.
-             */
-            determineResourceDefaults(layerTag, buildableJob, layer);
-            determineChunkSize(layerTag, layer);
-            determineMinimumCores(layerTag, layer);
-            determineThreadable(layerTag, layer);
-            determineTags(buildableJob, layer, layerTag);
-            determineMinimumMemory(buildableJob, layerTag, layer,
-                    buildableLayer);
-            determineMinimumGpu(buildableJob, layerTag, layer);
+        if (layerNames.contains(layer.name)) {
+            throw new SpecBuilderException("error, the layer " + layer.name
+                    + " was already defined in job "
+                    + buildableJob.detail.name);
+        }
+        layerNames.add(layer.name);
 
-            /*
-             * Handle the layer environment
-             */
-            Element envTag = layerTag.getChild("env");
-            if (envTag != null) {
-                handleEnvironmentTag(envTag, buildableLayer.env);
-            }
+        /*
+         * Setup the simple layer properties.
+         */
+        layer.command = layerTag.getChildTextTrim("cmd");
+        layer.range = layerTag.getChildTextTrim("range");
+        layer.dispatchOrder = dispatchOrder;
 
-            totalFrames = totalFrames
-                    + getFrameRangeSize(layer.range, layer.chunkSize);
+        /*
+         * Determine some of the more complex attributes.
+         */
+        determineResourceDefaults(layerTag, buildableJob, layer);
+        determineChunkSize(layerTag, layer);
+        determineMinimumCores(layerTag, layer);
+        determineThreadable(layerTag, layer);
+        determineTags(buildableJob, layer, layerTag);
+        determineMinimumMemory(buildableJob, layerTag, layer,
+                buildableLayer);
+        determineMinimumGpu(buildableJob, layerTag, layer);
 
-            if (buildableJob.getBuildableLayers().size() > MAX_LAYERS) {
-                throw new SpecBuilderException("error, your job has "
-                        + buildableJob.getBuildableLayers().size()
-                        + " layers, "
-                        + " the maximum number of allowed layers is "
-                        + MAX_LAYERS);
-            }
+        /*
+         * Handle the layer environment
+         */
+        SpecElement envTag = layerTag.getChild("env");
+        if (envTag != null) {
+            handleEnvironmentTag(envTag, buildableLayer.env);
+        }
 
-            if (totalFrames > MAX_FRAMES) {
-                throw new SpecBuilderException("error, your job has "
-                        + totalFrames
-                        + " frames, the maximum number of allowed "
-                        + "frames is " + MAX_FRAMES);
-            }
+        totalFrames = totalFrames
+                + getFrameRangeSize(layer.range, layer.chunkSize);
+
+        if (buildableJob.getBuildableLayers().size() > MAX_LAYERS) {
+            throw new SpecBuilderException("error, your job has "
+                    + buildableJob.getBuildableLayers().size()
+                    + " layers, "
+                    + " the maximum number of allowed layers is "
+                    + MAX_LAYERS);
+        }
+
+        if (totalFrames > MAX_FRAMES) {
+            throw new SpecBuilderException("error, your job has "
+                    + totalFrames
+                    + " frames, the maximum number of allowed "
+                    + "frames is " + MAX_FRAMES);
         }
     }
 
@@ -449,7 +499,7 @@ public class JobSpec {
     }
 
     private void determineMinimumMemory(BuildableJob buildableJob,
-            Element layerTag, LayerDetail layer, BuildableLayer buildableLayer) {
+            SpecElement layerTag, LayerDetail layer, BuildableLayer buildableLayer) {
 
         if (layerTag.getChildTextTrim("memory") == null) {
             return;
@@ -491,7 +541,7 @@ public class JobSpec {
      * @param layerTag
      * @param layer
      */
-    private void determineMinimumGpu(BuildableJob buildableJob, Element layerTag,
+    private void determineMinimumGpu(BuildableJob buildableJob, SpecElement layerTag,
     		LayerDetail layer) {
 
         if (layerTag.getChildTextTrim("gpu") == null) {
@@ -540,7 +590,7 @@ public class JobSpec {
      * value is reset to the default.
      *
      */
-    private void determineMinimumCores(Element layerTag, LayerDetail layer) {
+    private void determineMinimumCores(SpecElement layerTag, LayerDetail layer) {
 
         String cores = layerTag.getChildTextTrim("cores");
         if (cores == null) {
@@ -563,7 +613,7 @@ public class JobSpec {
         layer.minimumCores = corePoints;
     }
 
-    private void determineChunkSize(Element layerTag, LayerDetail layer) {
+    private void determineChunkSize(SpecElement layerTag, LayerDetail layer) {
         layer.chunkSize = Integer.parseInt(layerTag.getChildTextTrim("chunk"));
     }
 
@@ -574,7 +624,7 @@ public class JobSpec {
      * @param layerTag
      * @param layer
      */
-    private void determineThreadable(Element layerTag, LayerDetail layer) {
+    private void determineThreadable(SpecElement layerTag, LayerDetail layer) {
         // Must have at least 1 core to thread.
         if (layer.minimumCores < 100) {
             layer.isThreadable = false;
@@ -585,10 +635,10 @@ public class JobSpec {
         }
     }
 
-    private void determineResourceDefaults(Element layerTag,
+    private void determineResourceDefaults(SpecElement layerTag,
             BuildableJob job, LayerDetail layer) {
 
-        Element t_services = layerTag.getChild("services");
+        SpecElement t_services = layerTag.getChild("services");
         List<String> services = new ArrayList<String>();
 
         /*
@@ -597,8 +647,7 @@ public class JobSpec {
          */
         if (t_services != null) {
 
-            for (Object tmp : t_services.getChildren()) {
-                Element t_service = (Element) tmp;
+            for (SpecElement t_service : t_services.getChildren()) {
                 String service_name = t_service.getTextTrim();
 
                 if (service_name.length() == 0) {
@@ -637,12 +686,11 @@ public class JobSpec {
             services.add(primaryService.name);
         }
 
-        Element t_limits = layerTag.getChild("limits");
+        SpecElement t_limits = layerTag.getChild("limits");
         List<String> limits = new ArrayList<String>();
 
         if (t_limits != null) {
-            for (Object tmp : t_limits.getChildren()) {
-                Element t_limit = (Element) tmp;
+            for (SpecElement t_limit : t_limits.getChildren()) {
                 String limitName = t_limit.getTextTrim();
 
                 if (limitName.length() == 0) {
@@ -682,7 +730,7 @@ public class JobSpec {
      * @return
      */
     private void determineTags(BuildableJob job, LayerDetail layer,
-            Element layerTag) {
+            SpecElement layerTag) {
         Set<String> newTags = new LinkedHashSet<String>();
         String tags = layerTag.getChildTextTrim("tags");
 
@@ -729,7 +777,7 @@ public class JobSpec {
         }
     }
 
-    private BuildableDependency handleDependTag(Element tag) {
+    private BuildableDependency handleDependTag(SpecElement tag) {
 
         BuildableDependency depend = new BuildableDependency();
         depend.type = DependType.valueOf(tag.getAttributeValue("type").toUpperCase());
@@ -798,12 +846,11 @@ public class JobSpec {
      * @param tag
      * @param map
      */
-    private void handleEnvironmentTag(Element tag, Map<String, String> map) {
+    private void handleEnvironmentTag(SpecElement tag, Map<String, String> map) {
         if (tag == null) {
             return;
         }
-        for (Object tmp : tag.getChildren()) {
-            Element envTag = (Element) tmp;
+        for (SpecElement envTag : tag.getChildren()) {
             String key = envTag.getAttributeValue("name");
             if (key == null) {
                 continue;
@@ -813,29 +860,41 @@ public class JobSpec {
     }
 
     public void parse(File file) {
-        try {
-            doc = new SAXBuilder(true).build(file);
-
-        } catch (Exception e) {
-            throw new SpecBuilderException("Failed to parse job spec XML, " + e);
-        }
-
-        handleSpecTag();
-        handleJobsTag();
-        handleDependsTags();
+        this.file = file;
+        parse(new InputSource(file.toURI().toString()));
     }
 
     public void parse(String cjsl) {
-        try {
-            doc = new SAXBuilder(true).build(new StringReader(cjsl));
+        this.xml = cjsl;
+        parse(new InputSource(new StringReader(cjsl)));
+    }
 
+    /**
+     * Parses and validates the spec in a single streaming pass.
+     * Jobs, layers and depends are built as their closing tags are
+     * read, so only the tag currently being read is held in memory
+     * rather than a document for the whole spec.
+     *
+     * @param source
+     */
+    private void parse(InputSource source) {
+        SpecHandler handler = new SpecHandler();
+        try {
+            XMLReader reader = PARSER_FACTORY.get().newSAXParser().getXMLReader();
+            reader.setEntityResolver(DTD_RESOLVER);
+            reader.setErrorHandler(handler);
+            reader.setContentHandler(handler);
+            reader.parse(source);
+        } catch (SAXException e) {
+            if (e.getException() instanceof RuntimeException) {
+                throw (RuntimeException) e.getException();
+            }
+            throw new SpecBuilderException("Failed to parse job spec XML, " + e);
+        } catch (RuntimeException e) {
+            throw e;
         } catch (Exception e) {
             throw new SpecBuilderException("Failed to parse job spec XML, " + e);
         }
-
-        handleSpecTag();
-        handleJobsTag();
-        handleDependsTags();
     }
 
     private BuildableJob initPostJob(BuildableJob parent) {
@@ -863,8 +922,27 @@ public class JobSpec {
         return postJob;
     }
 
+    /**
+     * Rebuilds the spec document from its source.  The document is
+     * not kept once the spec has been parsed, this is only meant for
+     * things like launch error reports.
+     *
+     * @return the spec document
+     */
     public Document getDoc() {
-        return doc;
+        try {
+            SAXBuilder builder = new SAXBuilder(false);
+            builder.setEntityResolver(DTD_RESOLVER);
+            if (file != null) {
+                return builder.build(file);
+            }
+            else if (xml != null) {
+                return builder.build(new StringReader(xml));
+            }
+            return null;
+        } catch (Exception e) {
+            throw new SpecBuilderException("Failed to parse job spec XML, " + e);
+        }
     }
 
     public List<BuildableDependency> getDepends() {
@@ -898,5 +976,170 @@ public class JobSpec {
     public void setServiceManager(ServiceManager serviceManager) {
         this.serviceManager = serviceManager;
     }
-}
 
+    /**
+     * Builds the jobs and depends while the spec is being read.
+     * The job, layer and depend tags are not attached to their
+     * parents, each is handled when it closes and then dropped.
+     */
+    private final class SpecHandler extends DefaultHandler {
+
+        private final Deque<SpecElement> stack = new ArrayDeque<SpecElement>();
+
+        private SpecElement specTag;
+        private boolean specHandled = false;
+
+        private SpecElement jobTag;
+        private BuildableJob job;
+        private Set<String> layerNames;
+        private int dispatchOrder;
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                Attributes attributes) {
+            SpecElement element = new SpecElement(qName, attributes);
+            SpecElement parent = stack.peek();
+
+            if (parent == null) {
+                specTag = element;
+            }
+            else if (!isStreamed(qName)) {
+                parent.addChild(element);
+            }
+
+            if (qName.equals("job")) {
+                handleSpec();
+                jobTag = element;
+                job = null;
+                layerNames = new HashSet<String>();
+                dispatchOrder = 0;
+            }
+            else if (qName.equals("layers") && parent == jobTag) {
+                /*
+                 * Everything the job needs comes before its layers.
+                 */
+                job = handleJobTag(jobTag);
+            }
+            else if (qName.equals("depends")) {
+                handleSpec();
+            }
+            stack.push(element);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            SpecElement element = stack.pop();
+
+            if (qName.equals("layer")) {
+                handleLayerTag(job, element, layerNames, ++dispatchOrder);
+            }
+            else if (qName.equals("job")) {
+                if (job == null) {
+                    job = handleJobTag(jobTag);
+                }
+                finishJobTag(job, jobTag);
+                jobs.add(job);
+                job = null;
+                jobTag = null;
+            }
+            else if (qName.equals("depend")) {
+                depends.add(handleDependTag(element));
+            }
+            else if (qName.equals("spec")) {
+                handleSpec();
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            stack.peek().appendText(ch, start, length);
+        }
+
+        @Override
+        public void error(SAXParseException e) throws SAXException {
+            throw e;
+        }
+
+        private void handleSpec() {
+            if (!specHandled) {
+                specHandled = true;
+                handleSpecTag(specTag);
+            }
+        }
+
+        private boolean isStreamed(String name) {
+            return name.equals("job") || name.equals("layer")
+                    || name.equals("depend");
+        }
+    }
+
+    /**
+     * A single tag from the spec with its attributes, text and
+     * child tags.
+     */
+    private static final class SpecElement {
+
+        private final Map<String, String> attributes;
+        private final String name;
+        private StringBuilder text;
+        private List<SpecElement> children;
+
+        SpecElement(String name, Attributes attrs) {
+            this.name = name;
+            if (attrs.getLength() == 0) {
+                attributes = Collections.emptyMap();
+            }
+            else {
+                attributes = new HashMap<String, String>(attrs.getLength());
+                for (int i = 0; i < attrs.getLength(); i++) {
+                    attributes.put(attrs.getQName(i), attrs.getValue(i));
+                }
+            }
+        }
+
+        void addChild(SpecElement child) {
+            if (children == null) {
+                children = new ArrayList<SpecElement>(4);
+            }
+            children.add(child);
+        }
+
+        void appendText(char[] ch, int start, int length) {
+            if (text == null) {
+                text = new StringBuilder(length);
+            }
+            text.append(ch, start, length);
+        }
+
+        String getAttributeValue(String key) {
+            return attributes.get(key);
+        }
+
+        String getTextTrim() {
+            return text == null ? "" : text.toString().trim();
+        }
+
+        SpecElement getChild(String childName) {
+            if (children != null) {
+                for (SpecElement child : children) {
+                    if (child.name.equals(childName)) {
+                        return child;
+                    }
+                }
+            }
+            return null;
+        }
+
+        String getChildTextTrim(String childName) {
+            SpecElement child = getChild(childName);
+            return child == null ? null : child.getTextTrim();
+        }
+
+        List<SpecElement> getChildren() {
+            if (children == null) {
+                return Collections.emptyList();
+            }
+            return children;
+        }
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import com.google.common.collect.Lists;
+import org.apache.log4j.Logger;
+
+import com.imageworks.spcue.FrameInterface;
+import com.imageworks.spcue.JobInterface;
+import com.imageworks.spcue.grpc.job.JobState;
+import com.imageworks.spcue.grpc.job.UpdatedFrame;
+import com.imageworks.spcue.grpc.job.UpdatedFrameCheckResult;
+import com.imageworks.spcue.grpc.job.UpdatedFrameSeq;
+import com.imageworks.spcue.util.TransactionUtil;
+
+/**
+ * Pushes job and frame changes to clients subscribed to a job.
+ *
+ * Frame state transitions are recorded once their transaction
+ * commits, but only for jobs that have at least one subscriber.  When
+ * the changes are flushed, the current state of the changed frames of
+ * each job is read from the database once and the result is sent to
+ * every subscriber of the job, filtered by the layers they asked for.
+ * A new subscriber is sent the job state on the next flush.  Once a
+ * job is finished its subscribers are sent the final update and
+ * closed.
+ *
+ * Changes that are not recorded here, like those made by another
+ * cuebot or by a database trigger, are picked up by resyncing each
+ * subscribed job, which reads the frames updated since its last
+ * resync.  While a subscriber can't take more updates, its updates
+ * are merged into one that is sent once it is ready again.
+ */
+public class JobUpdateFeed {
+
+    private static final Logger logger = Logger.getLogger(JobUpdateFeed.class);
+
+    /*
+     * The maximum number of frames read with a single query.
+     */
+    private static final int FRAME_BATCH_SIZE = 500;
+
+    /*
+     * How far in milliseconds a resync reaches back before the last
+     * one.  A frame's update time is set when its transaction starts,
+     * so frames changed by a transaction that was still running at
+     * the last resync are read again.
+     */
+    private static final long RESYNC_OVERLAP_MILLIS = 5000;
+
+    /**
+     * Receives the updates for a subscription.  Updates for a
+     * subscription are never delivered concurrently.
+     */
+    public interface Listener {
+        void onUpdate(UpdatedFrameCheckResult update);
+        void onClose();
+
+        /**
+         * Returns false while the client can't take more updates.
+         */
+        boolean isReady();
+    }
+
+    /**
+     * A client's subscription to a job.
+     */
+    public static final class Subscription {
+        private final String jobId;
+        private final Set<String> layerIds;
+        private final Listener listener;
+
+        /*
+         * The merged updates the listener wasn't ready for.
+         */
+        private UpdatedFrameCheckResult pending;
+
+        private Subscription(String jobId, Collection<String> layerIds, Listener listener) {
+            this.jobId = jobId;
+            this.layerIds = new HashSet<String>(layerIds);
+            this.listener = listener;
+        }
+
+        public String getJobId() {
+            return jobId;
+        }
+    }
+
+    /*
+     * The changes to a job since the last flush, the changed frames
+     * are mapped to their layer.
+     */
+    private static final class Changes {
+        final Map<String, String> frames = new HashMap<String, String>();
+        boolean job = false;
+        boolean resync = false;
+    }
+
+    private final int maxSubscriptions;
+
+    private final ConcurrentHashMap<String, Set<Subscription>> subscriptions =
+        new ConcurrentHashMap<String, Set<Subscription>>();
+    private final AtomicInteger subscriptionCount = new AtomicInteger(0);
+
+    private final ConcurrentHashMap<String, Changes> changes =
+        new ConcurrentHashMap<String, Changes>();
+
+    /*
+     * The time each subscribed job was last resynced.
+     */
+    private final ConcurrentHashMap<String, Long> resynced =
+        new ConcurrentHashMap<String, Long>();
+
+    /*
+     * The subscriptions with updates waiting for the listener to be
+     * ready.
+     */
+    private final Set<Subscription> backlog = ConcurrentHashMap.newKeySet();
+
+    private volatile BiFunction<String, List<String>, UpdatedFrameCheckResult> loader;
+    private volatile BiFunction<String, Integer, Map<String, String>> resyncLoader;
+
+    private final AtomicLong events = new AtomicLong(0);
+    private final AtomicLong updatesSent = new AtomicLong(0);
+    private final AtomicLong updatesMerged = new AtomicLong(0);
+
+    public JobUpdateFeed(int maxSubscriptions) {
+        this.maxSubscriptions = maxSubscriptions;
+    }
+
+    /**
+     * Sets the function that reads the current state of a job and of
+     * the given frames from the database.
+     *
+     * @param loader
+     */
+    public void setLoader(BiFunction<String, List<String>, UpdatedFrameCheckResult> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Sets the function that reads the frames of a job updated within
+     * the given number of seconds, mapped to their layer.
+     *
+     * @param resyncLoader
+     */
+    public void setResyncLoader(BiFunction<String, Integer, Map<String, String>> resyncLoader) {
+        this.resyncLoader = resyncLoader;
+    }
+
+    /**
+     * Subscribes to changes to the job.  If layer ids are given, only
+     * frames in those layers are sent.
+     *
+     * @param jobId
+     * @param layerIds
+     * @param listener
+     * @return the subscription
+     * @throws IllegalStateException if there are too many subscriptions
+     */
+    public Subscription subscribe(String jobId, Collection<String> layerIds,
+            Listener listener) {
+        if (subscriptionCount.incrementAndGet() > maxSubscriptions) {
+            subscriptionCount.decrementAndGet();
+            throw new IllegalStateException("the maximum of " + maxSubscriptions +
+                    " job update subscriptions has been reached");
+        }
+
+        Subscription s = new Subscription(jobId, layerIds, listener);
+        subscriptions.computeIfAbsent(jobId,
+                k -> new CopyOnWriteArraySet<Subscription>()).add(s);
+        resynced.putIfAbsent(jobId, System.currentTimeMillis());
+        recordChange(jobId, null, null);
+        return s;
+    }
+
+    /**
+     * Removes the subscription.  The listener is not closed.
+     *
+     * @param s
+     */
+    public void unsubscribe(Subscription s) {
+        subscriptions.computeIfPresent(s.jobId, (k, subs) -> {
+            if (subs.remove(s)) {
+                subscriptionCount.decrementAndGet();
+            }
+            if (subs.isEmpty()) {
+                resynced.remove(k);
+                return null;
+            }
+            return subs;
+        });
+        backlog.remove(s);
+    }
+
+    /**
+     * Called when the state of a frame changes.
+     *
+     * @param frame
+     */
+    public void frameChanged(FrameInterface frame) {
+        if (subscriptions.containsKey(frame.getJobId())) {
+            TransactionUtil.afterCommit(() -> recordChange(frame.getJobId(),
+                    frame.getFrameId(), frame.getLayerId()));
+        }
+    }
+
+    /**
+     * Called when frames of the job may have changed state without
+     * knowing which ones, like when depends are satisfied and frames
+     * go from DEPEND to WAITING.  The job is resynced on the next
+     * flush.
+     *
+     * @param jobId
+     */
+    public void framesChanged(String jobId) {
+        if (subscriptions.containsKey(jobId)) {
+            TransactionUtil.afterCommit(() -> recordResync(jobId));
+        }
+    }
+
+    /**
+     * Called when the state of a job changes.
+     *
+     * @param job
+     */
+    public void jobChanged(JobInterface job) {
+        if (subscriptions.containsKey(job.getJobId())) {
+            TransactionUtil.afterCommit(() -> recordChange(job.getJobId(), null, null));
+        }
+    }
+
+    /**
+     * Resyncs every subscribed job on the next flush, so changes made
+     * by other cuebots are sent and subscribers of jobs finished
+     * elsewhere are closed.
+     */
+    public void resync() {
+        for (String jobId: subscriptions.keySet()) {
+            recordResync(jobId);
+        }
+    }
+
+    /**
+     * Sends the changes made since the last flush to the subscribers
+     * of each changed job.
+     */
+    public void flushChanges() {
+        for (String jobId: new ArrayList<String>(changes.keySet())) {
+            Changes c = changes.remove(jobId);
+            Set<Subscription> subs = subscriptions.get(jobId);
+            if (c == null || subs == null) {
+                continue;
+            }
+
+            UpdatedFrameCheckResult result;
+            try {
+                if (c.resync && resyncLoader != null) {
+                    resyncFrames(jobId, c);
+                }
+                result = load(jobId, new ArrayList<String>(c.frames.keySet()));
+            } catch (RuntimeException e) {
+                logger.warn("failed to load updates for job " + jobId + ", " + e);
+                continue;
+            }
+
+            boolean finished = result.getState() == JobState.FINISHED;
+            for (Subscription s: subs) {
+                UpdatedFrameCheckResult update = filter(result, c.frames, s.layerIds);
+                if (c.job || finished || update.getUpdatedFrames().getUpdatedFramesCount() > 0) {
+                    send(s, update);
+                }
+            }
+
+            if (finished) {
+                for (Subscription s: subs) {
+                    unsubscribe(s);
+                    close(s);
+                }
+            }
+        }
+
+        for (Subscription s: backlog) {
+            if (s.listener.isReady()) {
+                backlog.remove(s);
+                send(s, null);
+            }
+        }
+    }
+
+    /**
+     * Closes every subscription.
+     */
+    public void shutdown() {
+        for (Set<Subscription> subs: subscriptions.values()) {
+            for (Subscription s: subs) {
+                unsubscribe(s);
+                close(s);
+            }
+        }
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptionCount.get();
+    }
+
+    public long getEventCount() {
+        return events.get();
+    }
+
+    public long getUpdatesSent() {
+        return updatesSent.get();
+    }
+
+    public long getUpdatesMerged() {
+        return updatesMerged.get();
+    }
+
+    private void recordChange(String jobId, String frameId, String layerId) {
+        events.incrementAndGet();
+        changes.compute(jobId, (k, c) -> {
+            if (c == null) {
+                c = new Changes();
+            }
+            if (frameId != null) {
+                c.frames.put(frameId, layerId);
+            }
+            else {
+                c.job = true;
+            }
+            return c;
+        });
+    }
+
+    private void recordResync(String jobId) {
+        changes.compute(jobId, (k, c) -> {
+            if (c == null) {
+                c = new Changes();
+            }
+            c.resync = true;
+            return c;
+        });
+    }
+
+    /**
+     * Adds the frames of the job updated since it was last resynced to
+     * the changes.
+     */
+    private void resyncFrames(String jobId, Changes c) {
+        long now = System.currentTimeMillis();
+        Long last = resynced.get(jobId);
+        long millis = (last == null ? 0 : now - last) + RESYNC_OVERLAP_MILLIS;
+        for (Map.Entry<String, String> e:
+                resyncLoader.apply(jobId, (int) ((millis + 999) / 1000)).entrySet()) {
+            c.frames.putIfAbsent(e.getKey(), e.getValue());
+        }
+        resynced.replace(jobId, now);
+    }
+
+    private UpdatedFrameCheckResult load(String jobId, List<String> frameIds) {
+        if (frameIds.isEmpty()) {
+            return loader.apply(jobId, frameIds);
+        }
+
+        UpdatedFrameCheckResult result = null;
+        UpdatedFrameSeq.Builder frames = UpdatedFrameSeq.newBuilder();
+        for (List<String> batch: Lists.partition(frameIds, FRAME_BATCH_SIZE)) {
+            result = loader.apply(jobId, batch);
+            frames.addAllUpdatedFrames(result.getUpdatedFrames().getUpdatedFramesList());
+        }
+        return result.toBuilder().setUpdatedFrames(frames).build();
+    }
+
+    private static UpdatedFrameCheckResult filter(UpdatedFrameCheckResult result,
+            Map<String, String> frameLayers, Set<String> layerIds) {
+        if (layerIds.isEmpty()) {
+            return result;
+        }
+        UpdatedFrameSeq.Builder frames = UpdatedFrameSeq.newBuilder();
+        for (UpdatedFrame f: result.getUpdatedFrames().getUpdatedFramesList()) {
+            if (layerIds.contains(frameLayers.get(f.getId()))) {
+                frames.addUpdatedFrames(f);
+            }
+        }
+        return result.toBuilder().setUpdatedFrames(frames).build();
+    }
+
+    /**
+     * Sends the update to the subscriber, after any updates it wasn't
+     * ready for.  If it still isn't ready, the update is merged into
+     * those.  A null update only sends the waiting updates.
+     */
+    private void send(Subscription s, UpdatedFrameCheckResult update) {
+        if (s.pending != null) {
+            update = update == null ? s.pending : merge(s.pending, update);
+            s.pending = null;
+        }
+        if (update == null) {
+            return;
+        }
+        if (!s.listener.isReady() && update.getState() != JobState.FINISHED) {
+            s.pending = update;
+            updatesMerged.incrementAndGet();
+            backlog.add(s);
+            return;
+        }
+        try {
+            s.listener.onUpdate(update);
+            updatesSent.incrementAndGet();
+        } catch (RuntimeException e) {
+            logger.info("dropping job update subscription for " + s.jobId + ", " + e);
+            unsubscribe(s);
+        }
+    }
+
+    /**
+     * Merges two updates, keeping the latest state of each frame and
+     * of the job.
+     */
+    private static UpdatedFrameCheckResult merge(UpdatedFrameCheckResult first,
+            UpdatedFrameCheckResult second) {
+        Map<String, UpdatedFrame> frames = new LinkedHashMap<String, UpdatedFrame>();
+        for (UpdatedFrame f: first.getUpdatedFrames().getUpdatedFramesList()) {
+            frames.put(f.getId(), f);
+        }
+        for (UpdatedFrame f: second.getUpdatedFrames().getUpdatedFramesList()) {
+            frames.put(f.getId(), f);
+        }
+        return second.toBuilder()
+                .setUpdatedFrames(UpdatedFrameSeq.newBuilder().addAllUpdatedFrames(frames.values()))
+                .build();
+    }
+
+    private static void close(Subscription s) {
+        try {
+            s.listener.onClose();
+        } catch (RuntimeException e) {
+            logger.info("failed to close job update subscription for " + s.jobId + ", " + e);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import com.imageworks.spcue.EntityRetrievalException;
+import com.imageworks.spcue.grpc.job.NestedGroup;
+import com.imageworks.spcue.util.TransactionUtil;
+
+/**
+ * A cache of the nested job whiteboard of each show.
+ *
+ * The whiteboard for a show is loaded once no matter how many clients
+ * ask for it at the same time, and every client is served the same
+ * tree.  Job and frame state changes mark the show as changed, and
+ * changed shows are reloaded in the background the next time the
+ * changes are flushed, but no more often than the minimum refresh
+ * interval, so a burst of frame completions costs a single reload.
+ * Shows that nobody has read since they were last loaded are dropped
+ * instead of reloaded.  Once an entry is older than the refresh
+ * interval the next read also starts a background reload, which picks
+ * up changes that don't raise an event, like priority or group edits.
+ * Entries that have not been refreshed by the expire interval are
+ * loaded again in the foreground.
+ *
+ * The cache is bounded by the serialized size of the cached trees.
+ */
+public class JobWhiteboardCache {
+
+    /**
+     * The whiteboard of a show and when it was loaded.
+     */
+    private static final class Snapshot {
+        final NestedGroup root;
+        final long loadTime = System.currentTimeMillis();
+        final int bytes;
+        volatile boolean read = false;
+
+        Snapshot(NestedGroup root) {
+            this.root = root;
+            this.bytes = root == null ? 0 : root.getSerializedSize();
+        }
+    }
+
+    private final long minRefreshMillis;
+
+    private final LoadingCache<String, Snapshot> shows;
+
+    /*
+     * Shows with job or frame state changes since the last flush.
+     */
+    private final Set<String> changedShows = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService refreshExecutor;
+
+    private volatile Function<String, NestedGroup> loader;
+
+    private final AtomicLong events = new AtomicLong(0);
+    private final AtomicLong eventRefreshes = new AtomicLong(0);
+
+    public JobWhiteboardCache(long minRefreshMillis, long refreshMillis, long expireMillis,
+            long maxBytes) {
+        this.minRefreshMillis = minRefreshMillis;
+        refreshExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("JobWhiteboardCache-%d")
+                        .setDaemon(true).build());
+
+        shows = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String showId, Snapshot s) -> s.bytes)
+                .refreshAfterWrite(refreshMillis, TimeUnit.MILLISECONDS)
+                .expireAfterWrite(expireMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build(CacheLoader.asyncReloading(new CacheLoader<String, Snapshot>() {
+                    @Override
+                    public Snapshot load(String showId) {
+                        return new Snapshot(loader.apply(showId));
+                    }
+                }, refreshExecutor));
+    }
+
+    /**
+     * Sets the function that loads the whiteboard for a show from the
+     * database.
+     *
+     * @param loader
+     */
+    public void setLoader(Function<String, NestedGroup> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the root group of the show's job whiteboard.
+     *
+     * @param showId
+     * @return the root group
+     */
+    public NestedGroup getJobWhiteboard(String showId) {
+        try {
+            Snapshot s = shows.get(showId);
+            s.read = true;
+            return s.root;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new EntityRetrievalException("failed to load job whiteboard for " +
+                    showId, e.getCause());
+        }
+    }
+
+    /**
+     * Called when the state of a job or frame in the show changes.
+     * The change is recorded once the current transaction commits, so
+     * a reload never runs before the change is visible to it.
+     *
+     * @param showId
+     */
+    public void showChanged(String showId) {
+        TransactionUtil.afterCommit(() -> {
+            events.incrementAndGet();
+            changedShows.add(showId);
+        });
+    }
+
+    /**
+     * Reloads the whiteboard of every cached show that changed since
+     * the last flush.  Shows loaded less than the minimum refresh
+     * interval ago stay changed until a later flush.
+     */
+    public void flushChanges() {
+        List<String> changed = new ArrayList<String>(changedShows);
+        changedShows.removeAll(changed);
+
+        long now = System.currentTimeMillis();
+        for (String showId: changed) {
+            Snapshot s = shows.asMap().get(showId);
+            if (s == null) {
+                continue;
+            }
+            if (now - s.loadTime < minRefreshMillis) {
+                changedShows.add(showId);
+            }
+            else if (s.read) {
+                eventRefreshes.incrementAndGet();
+                shows.refresh(showId);
+            }
+            else {
+                shows.invalidate(showId);
+            }
+        }
+    }
+
+    /**
+     * Drops every cached whiteboard.
+     */
+    public void invalidateAll() {
+        changedShows.clear();
+        shows.invalidateAll();
+    }
+
+    public long getHitCount() {
+        return shows.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return shows.stats().missCount();
+    }
+
+    public long getLoadCount() {
+        CacheStats stats = shows.stats();
+        return stats.loadSuccessCount() + stats.loadExceptionCount();
+    }
+
+    public long getLoadFailureCount() {
+        return shows.stats().loadExceptionCount();
+    }
+
+    /**
+     * Returns the average time spent loading a whiteboard.
+     *
+     * @return the average load time in milliseconds
+     */
+    public double getAverageLoadMillis() {
+        return shows.stats().averageLoadPenalty() / 1000000.0;
+    }
+
+    public long getEventCount() {
+        return events.get();
+    }
+
+    public long getEventRefreshCount() {
+        return eventRefreshes.get();
+    }
+
+    public long getSize() {
+        return shows.size();
+    }
+
+    /**
+     * Returns the serialized size of every cached whiteboard.
+     *
+     * @return the size of the cache in bytes
+     */
+    public long getSizeBytes() {
+        long bytes = 0;
+        for (Snapshot s: shows.asMap().values()) {
+            bytes = bytes + s.bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the age of the oldest cached whiteboard.
+     *
+     * @return the age in milliseconds
+     */
+    public long getMaxAgeMillis() {
+        long now = System.currentTimeMillis();
+        long age = 0;
+        for (Snapshot s: shows.asMap().values()) {
+            age = Math.max(age, now - s.loadTime);
+        }
+        return age;
+    }
+
+    public void shutdown() {
+        refreshExecutor.shutdown();
+    }
+}
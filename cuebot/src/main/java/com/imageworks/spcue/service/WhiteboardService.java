@@ -20,6 +20,7 @@
 package com.imageworks.spcue.service;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.apache.log4j.Logger;
 import org.springframework.transaction.annotation.Propagation;
@@ -155,6 +156,11 @@ public class WhiteboardService implements Whiteboard {
         return this.whiteboardDao.getFrames(r);
     }
 
+    @Override
+    public void streamFrames(FrameSearchInterface r, int batchSize, Consumer<FrameSeq> consumer) {
+        whiteboardDao.streamFrames(r, batchSize, consumer);
+    }
+
     public NestedHostSeq getHostWhiteboard() {
         return nestedWhiteboardDao.getHostWhiteboard();
     }
@@ -365,6 +371,11 @@ public class WhiteboardService implements Whiteboard {
         return whiteboardDao.getJobs(r);
     }
 
+    @Override
+    public void streamJobs(JobSearchInterface r, int batchSize, Consumer<JobSeq> consumer) {
+        whiteboardDao.streamJobs(r, batchSize, consumer);
+    }
+
     @Override
     public Frame getFrame(String id) {
         return whiteboardDao.getFrame(id);
@@ -385,6 +396,11 @@ public class WhiteboardService implements Whiteboard {
         return whiteboardDao.getHosts(r);
     }
 
+    @Override
+    public void streamHosts(HostSearchInterface r, int batchSize, Consumer<HostSeq> consumer) {
+        whiteboardDao.streamHosts(r, batchSize, consumer);
+    }
+
     @Override
     public ProcSeq getProcs(HostInterface h) {
         return whiteboardDao.getProcs(h);
@@ -21,17 +21,16 @@ package com.imageworks.spcue.util;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.Set;
 import java.util.regex.Pattern;
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
@@ -45,6 +44,7 @@ import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import javax.mail.util.ByteArrayDataSource;
 
+import com.google.common.primitives.Ints;
 import org.apache.log4j.Logger;
 
 import com.imageworks.spcue.LayerInterface;
@@ -144,6 +144,56 @@ public final class CueUtil {
         }
         return dependOnFrame;
     }
+
+    /**
+     * Finds the chunk that the dependErFrame belongs to in the
+     * given sequence of frames with a binary search.  The frames
+     * must be in ascending order.
+     *
+     * @param dependOnFrames - the chunk start frames, in ascending order
+     * @param dependErFrame - the dependent frame number.
+     * @return
+     */
+    public static int findChunk(int[] dependOnFrames, int dependErFrame) {
+        return dependOnFrames[findChunkIndex(dependOnFrames, dependErFrame)];
+    }
+
+    /**
+     * Returns the position of the chunk that the dependErFrame
+     * belongs to, see findChunk(int[], int).
+     *
+     * @param dependOnFrames - the chunk start frames, in ascending order
+     * @param dependErFrame - the dependent frame number.
+     * @return
+     */
+    public static int findChunkIndex(int[] dependOnFrames, int dependErFrame) {
+        int idx = Arrays.binarySearch(dependOnFrames, dependErFrame);
+        if (idx >= 0) {
+            return idx;
+        }
+        int insertionPoint = -idx - 1;
+        if (insertionPoint == 0) {
+            throw new RuntimeException("unable to find chunk for frame: " + dependErFrame +
+                    " in the range: " + Arrays.toString(dependOnFrames));
+        }
+        return insertionPoint - 1;
+    }
+
+    /**
+     * Returns true if the frames are in ascending order.
+     *
+     * @param frames
+     * @return
+     */
+    public static boolean isAscending(int[] frames) {
+        for (int i = 1; i < frames.length; i++) {
+            if (frames[i] <= frames[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * A simple send mail method
      *
@@ -301,55 +351,116 @@ public final class CueUtil {
      * @return
      */
     public static List<Integer> normalizeFrameRange(FrameSet frameSet, int chunkSize) {
+        return Collections.unmodifiableList(Ints.asList(normalizeFrames(frameSet, chunkSize)));
+    }
 
-        int rangeSize = frameSet.size();
-        Set<Integer> result = new LinkedHashSet<Integer>(rangeSize / chunkSize);
+    /**
+     * Take a frame range and chunk size and return an
+     * ordered array of frames with all duplicates removed.
+     *
+     * @param range
+     * @param chunkSize
+     * @return
+     */
+    public static int[] normalizeFrames(String range, int chunkSize) {
+        return normalizeFrames(new FrameSet(range), chunkSize);
+    }
+
+    /**
+     * Take a frame range and chunk size and return an
+     * ordered array of frames with all duplicates removed.
+     * One frame is returned for each chunk.
+     *
+     * @param frameSet
+     * @param chunkSize
+     * @return
+     */
+    public static int[] normalizeFrames(FrameSet frameSet, int chunkSize) {
 
         /**
-         * Have to remove all duplicates and maintain order before chunking it.
+         * This handles people who chunk on 1,000,000.
          */
-        if (chunkSize > 1) {
+        if (chunkSize > 1 && chunkSize > frameSet.size()) {
+            return new int[] { frameSet.get(0) };
+        }
 
-            /**
-             * This handles people who chunk on 1,000,000.
-             */
-            if (chunkSize > rangeSize) {
-                result.add(frameSet.get(0));
-            }
-            else {
+        int[] frames = frameSet.toArray();
+        int count = removeDuplicates(frames);
 
-                /**
-                 * A linked hash set to weed out duplicates
-                 * but maintain frame ordering.
-                 */
-                final Set<Integer> tempResult =
-                    new LinkedHashSet<Integer>((rangeSize / chunkSize) + 1);
+        if (chunkSize <= 1) {
+            return count == frames.length ? frames : Arrays.copyOf(frames, count);
+        }
 
-                for (int idx = 0; idx < rangeSize; idx = idx + 1) {
-                    tempResult.add(frameSet.get(idx));
-                }
+        /**
+         * Now go through the frames and keep 1 frame
+         * for every chunk.
+         */
+        int[] result = new int[(count + chunkSize - 1) / chunkSize];
+        for (int idx = 0; idx < count; idx = idx + chunkSize) {
+            result[idx / chunkSize] = frames[idx];
+        }
+        return result;
+    }
+
+    /**
+     * The largest span of frame numbers, relative to the number of
+     * frames, that duplicates are removed from with a BitSet.
+     */
+    private static final int DENSE_SPAN_FACTOR = 8;
+
+    /**
+     * Removes duplicate frames in place, keeping the first occurrence
+     * of each frame and the order of the frames.
+     *
+     * @param frames
+     * @return the number of unique frames at the front of the array
+     */
+    private static int removeDuplicates(int[] frames) {
+        if (frames.length < 2) {
+            return frames.length;
+        }
 
-                /**
-                 * Now go through the frames and add 1 frame
-                 * for every chunk.
-                 */
-                int idx = 0;
-                for (int frame: tempResult) {
-                    if (idx % chunkSize == 0) {
-                        result.add(frame);
-                    }
-                    idx = idx + 1;
+        int min = frames[0];
+        int max = frames[0];
+        for (int frame : frames) {
+            min = Math.min(min, frame);
+            max = Math.max(max, frame);
+        }
+
+        long span = (long) max - min + 1;
+        int count = 0;
+
+        if (span <= (long) frames.length * DENSE_SPAN_FACTOR) {
+            BitSet seen = new BitSet((int) span);
+            for (int frame : frames) {
+                if (!seen.get(frame - min)) {
+                    seen.set(frame - min);
+                    frames[count++] = frame;
                 }
             }
         }
         else {
-            for (int idx = 0; idx < rangeSize; idx = idx + 1) {
-                result.add(frameSet.get(idx));
+            /*
+             * The frames are too spread out for a BitSet, so find
+             * each frame's slot in a sorted copy instead.
+             */
+            int[] sorted = frames.clone();
+            Arrays.sort(sorted);
+            int unique = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    sorted[unique++] = sorted[i];
+                }
+            }
+            BitSet seen = new BitSet(unique);
+            for (int frame : frames) {
+                int slot = Arrays.binarySearch(sorted, 0, unique, frame);
+                if (!seen.get(slot)) {
+                    seen.set(slot);
+                    frames[count++] = frame;
+                }
             }
         }
-
-        return Collections.unmodifiableList(
-                new ArrayList<Integer>(result));
+        return count;
     }
 }
-
@@ -1,21 +1,24 @@
 package com.imageworks.spcue.util;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
-import org.apache.commons.collections.CollectionUtils;
 
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import static java.lang.Math.abs;
 
 /**
  * Represents a sequence of image frames.
+ *
+ * Plain and stepped ranges are not expanded, the frames are computed
+ * from the start frame and step, so size, get and index are O(1) no
+ * matter how many frames the range has.  Only interleaved ranges
+ * are expanded, into an int array and a table of each frame's
+ * position.
  */
 public class FrameRange {
 
@@ -27,7 +30,36 @@ public class FrameRange {
     private static final Pattern INTERLEAVE_PATTERN = Pattern.compile(
         "(?<sf>(-?)\\d+)-(?<ef>(-?)\\d+):(?<step>(-?)\\d+)");
 
-    private ImmutableList<Integer> frameList;
+    private final int start;
+
+    /**
+     * The distance between frames, negative if the range counts down.
+     * For an inverted range this is 1 or -1 and skip is the step.
+     */
+    private final int step;
+
+    /**
+     * The inverted step of a y range, every skip'th frame is left out.
+     * Zero for any other range.
+     */
+    private final int skip;
+
+    private final int size;
+
+    /**
+     * The frames of an interleaved range, null for any other range.
+     */
+    private final int[] frames;
+
+    /**
+     * The position of each frame of an interleaved range, indexed on
+     * the frame's distance from low, or -1 if the frame is not in the
+     * range.  Null for any other range.
+     */
+    private final int[] positions;
+    private final int low;
+
+    private volatile ImmutableList<Integer> frameList;
 
     /**
      * Construct a FrameRange object by parsing a spec.
@@ -64,7 +96,80 @@ public class FrameRange {
      * Example: 1-10:5 == 1, 6, 2, 4, 8, 10, 3, 5, 7, 9.
      */
     public FrameRange(String frameRange) {
-        frameList = parseFrameRange(frameRange);
+        Matcher singleFrameMatcher = SINGLE_FRAME_PATTERN.matcher(frameRange);
+        if (singleFrameMatcher.matches()) {
+            start = Integer.valueOf(frameRange);
+            step = 1;
+            skip = 0;
+            size = 1;
+            frames = null;
+            positions = null;
+            low = 0;
+            return;
+        }
+
+        Matcher simpleRangeMatcher = SIMPLE_FRAME_RANGE_PATTERN.matcher(frameRange);
+        if (simpleRangeMatcher.matches()) {
+            int startFrame = Integer.valueOf(simpleRangeMatcher.group("sf"));
+            int endFrame = Integer.valueOf(simpleRangeMatcher.group("ef"));
+            start = startFrame;
+            step = endFrame >= startFrame ? 1 : -1;
+            skip = 0;
+            size = getRangeSize(startFrame, endFrame, step);
+            frames = null;
+            positions = null;
+            low = 0;
+            return;
+        }
+
+        Matcher rangeWithStepMatcher = STEP_PATTERN.matcher(frameRange);
+        if (rangeWithStepMatcher.matches()) {
+            int startFrame = Integer.valueOf(rangeWithStepMatcher.group("sf"));
+            int endFrame = Integer.valueOf(rangeWithStepMatcher.group("ef"));
+            int stepSize = Integer.valueOf(rangeWithStepMatcher.group("step"));
+            validateStepSign(startFrame, endFrame, stepSize);
+            start = startFrame;
+            frames = null;
+            positions = null;
+            low = 0;
+            if ("y".equals(rangeWithStepMatcher.group("stepSep"))) {
+                /*
+                 * Every frame between start and end except the
+                 * ones an x step would include.
+                 */
+                step = stepSize < 0 ? -1 : 1;
+                skip = abs(stepSize);
+                int positions = getRangeSize(startFrame, endFrame, step);
+                size = positions == 0 ? 0 : positions - ((positions - 1) / skip + 1);
+            }
+            else {
+                step = stepSize;
+                skip = 0;
+                size = getRangeSize(startFrame, endFrame, stepSize);
+            }
+            return;
+        }
+
+        Matcher rangeWithInterleaveMatcher = INTERLEAVE_PATTERN.matcher(frameRange);
+        if (rangeWithInterleaveMatcher.matches()) {
+            int startFrame = Integer.valueOf(rangeWithInterleaveMatcher.group("sf"));
+            int endFrame = Integer.valueOf(rangeWithInterleaveMatcher.group("ef"));
+            int stepSize = Integer.valueOf(rangeWithInterleaveMatcher.group("step"));
+            start = startFrame;
+            step = stepSize;
+            skip = 0;
+            frames = getInterleavedRange(startFrame, endFrame, stepSize);
+            size = frames.length;
+            low = Math.min(startFrame, endFrame);
+            positions = new int[abs(endFrame - startFrame) + 1];
+            Arrays.fill(positions, -1);
+            for (int i = 0; i < frames.length; i++) {
+                positions[frames[i] - low] = i;
+            }
+            return;
+        }
+
+        throw new IllegalArgumentException("unrecognized frame range syntax " + frameRange);
     }
 
     /**
@@ -72,7 +177,7 @@ public class FrameRange {
      * @return
      */
     public int size() {
-        return frameList.size();
+        return size;
     }
 
     /**
@@ -81,7 +186,17 @@ public class FrameRange {
      * @return
      */
     public int get(int idx) {
-        return frameList.get(idx);
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException("index " + idx + " is not in range 0-" + (size - 1));
+        }
+        if (frames != null) {
+            return frames[idx];
+        }
+        if (skip > 0) {
+            int position = (idx / (skip - 1)) * skip + idx % (skip - 1) + 1;
+            return start + position * step;
+        }
+        return start + idx * step;
     }
 
     /**
@@ -90,91 +205,131 @@ public class FrameRange {
      * @return Index of frame. -1 if frame set does not contain frame.
      */
     public int index(int idx) {
-        return frameList.indexOf(idx);
+        if (frames != null) {
+            long offset = (long) idx - low;
+            return offset < 0 || offset >= positions.length ? -1 : positions[(int) offset];
+        }
+        int distance = idx - start;
+        if (distance % step != 0) {
+            return -1;
+        }
+        int position = distance / step;
+        if (skip > 0) {
+            if (position < 0 || position % skip == 0) {
+                return -1;
+            }
+            position = (position / skip) * (skip - 1) + position % skip - 1;
+        }
+        if (position < 0 || position >= size) {
+            return -1;
+        }
+        return position;
     }
 
     /**
-     * Gets the full numerical sequence.
+     * Returns true if the frame is in the sequence.
+     * @param frame
      * @return
      */
-    public ImmutableList<Integer> getAll() {
-        return frameList;
+    public boolean contains(int frame) {
+        return index(frame) != -1;
     }
 
-    protected static ImmutableList<Integer> parseFrameRange(String frameRange) {
-        Matcher singleFrameMatcher = SINGLE_FRAME_PATTERN.matcher(frameRange);
-        if (singleFrameMatcher.matches()) {
-            return ImmutableList.of(Integer.valueOf(frameRange));
+    /**
+     * Gets the full numerical sequence as an array.  The array is
+     * a copy and may be modified.
+     * @return
+     */
+    public int[] toArray() {
+        if (frames != null) {
+            return frames.clone();
         }
-
-        Matcher simpleRangeMatcher = SIMPLE_FRAME_RANGE_PATTERN.matcher(frameRange);
-        if (simpleRangeMatcher.matches()) {
-            Integer startFrame = Integer.valueOf(simpleRangeMatcher.group("sf"));
-            Integer endFrame = Integer.valueOf(simpleRangeMatcher.group("ef"));
-            return getIntRange(startFrame, endFrame, (endFrame >= startFrame ? 1 : -1));
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = get(i);
         }
+        return result;
+    }
 
-        Matcher rangeWithStepMatcher = STEP_PATTERN.matcher(frameRange);
-        if (rangeWithStepMatcher.matches()) {
-            Integer startFrame = Integer.valueOf(rangeWithStepMatcher.group("sf"));
-            Integer endFrame = Integer.valueOf(rangeWithStepMatcher.group("ef"));
-            Integer step = Integer.valueOf(rangeWithStepMatcher.group("step"));
-            String stepSep = rangeWithStepMatcher.group("stepSep");
-            return getSteppedRange(startFrame, endFrame, step, "y".equals(stepSep));
-        }
+    /**
+     * Iterates over the sequence without boxing the frames.
+     * @return
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int next = 0;
 
-        Matcher rangeWithInterleaveMatcher = INTERLEAVE_PATTERN.matcher(frameRange);
-        if (rangeWithInterleaveMatcher.matches()) {
-            Integer startFrame = Integer.valueOf(rangeWithInterleaveMatcher.group("sf"));
-            Integer endFrame = Integer.valueOf(rangeWithInterleaveMatcher.group("ef"));
-            Integer step = Integer.valueOf(rangeWithInterleaveMatcher.group("step"));
-            return getInterleavedRange(startFrame, endFrame, step);
-        }
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
 
-        throw new IllegalArgumentException("unrecognized frame range syntax " + frameRange);
+            @Override
+            public int nextInt() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
     }
 
-    private static ImmutableList<Integer> getIntRange(Integer start, Integer end, Integer step) {
-        int streamStart = (step < 0 ? end : start);
-        int streamEnd = (step < 0 ? start : end);
-        int streamStep = abs(step);
-
-        List<Integer> intList = IntStream
-            .rangeClosed(streamStart, streamEnd)
-            .filter(n -> (n - start) % streamStep == 0)
-            .boxed()
-            .collect(Collectors.toList());
-
-        if (step < 0) {
-            return ImmutableList.copyOf(Lists.reverse(intList));
+    /**
+     * Gets the full numerical sequence.
+     * @return
+     */
+    public ImmutableList<Integer> getAll() {
+        ImmutableList<Integer> result = frameList;
+        if (result == null) {
+            ImmutableList.Builder<Integer> builder = ImmutableList.builder();
+            for (int i = 0; i < size; i++) {
+                builder.add(get(i));
+            }
+            result = builder.build();
+            frameList = result;
         }
-        return ImmutableList.copyOf(intList);
+        return result;
     }
 
-    private static ImmutableList<Integer> getSteppedRange(
-        Integer start, Integer end, Integer step, Boolean inverseStep) {
-        validateStepSign(start, end, step);
-        ImmutableList<Integer> steppedRange = getIntRange(start, end, step);
-        if (inverseStep) {
-            ImmutableList<Integer> fullRange = getIntRange(start, end, (step < 0 ? -1 : 1));
-            return ImmutableList.copyOf(CollectionUtils.subtract(fullRange, steppedRange));
+    /**
+     * Returns the number of frames from start to end, inclusive,
+     * counting by step.
+     */
+    private static int getRangeSize(int start, int end, int step) {
+        if (step > 0 ? end < start : end > start) {
+            return 0;
         }
-        return steppedRange;
+        return (end - start) / step + 1;
     }
 
-    private static ImmutableList<Integer> getInterleavedRange(Integer start, Integer end, Integer step) {
+    private static int[] getInterleavedRange(int start, int end, int step) {
         validateStepSign(start, end, step);
-        Set<Integer> interleavedFrames = new LinkedHashSet<>();
+        int low = Math.min(start, end);
+        int[] result = new int[abs(end - start) + 1];
+        BitSet seen = new BitSet(result.length);
+        int count = 0;
         int incrValue = step / abs(step);
         while (abs(step) > 0) {
-            interleavedFrames.addAll(getIntRange(start, end, step));
+            int passSize = getRangeSize(start, end, step);
+            for (int i = 0; i < passSize; i++) {
+                int frame = start + i * step;
+                if (!seen.get(frame - low)) {
+                    seen.set(frame - low);
+                    result[count++] = frame;
+                }
+            }
             start += incrValue;
             step /= 2;
         }
-        return ImmutableList.copyOf(interleavedFrames);
+        if (count == result.length) {
+            return result;
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(result, 0, trimmed, 0, count);
+        return trimmed;
     }
 
-    private static void validateStepSign(Integer start, Integer end, Integer step) {
+    private static void validateStepSign(int start, int end, int step) {
         if (step > 1) {
             if (end < start) {
                 throw new IllegalArgumentException(
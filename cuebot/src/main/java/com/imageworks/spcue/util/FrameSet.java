@@ -1,16 +1,29 @@
 package com.imageworks.spcue.util;
 
 import java.lang.IllegalArgumentException;
-import java.util.ArrayList;
-import java.util.StringJoiner;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 import com.google.common.collect.ImmutableList;
-import com.google.common.base.Strings;
 
 /**
  * Represents an ordered sequence of FrameRanges.
+ *
+ * The frames are not expanded into a list.  Each FrameRange computes
+ * its own frames and the FrameSet keeps the index of the first frame
+ * of each range, so a frame at a given position is found with a
+ * binary search over the ranges.
  */
 public class FrameSet {
-    private ImmutableList<Integer> frameList;
+    private final FrameRange[] ranges;
+
+    /**
+     * The index of the first frame of each range.
+     */
+    private final int[] offsets;
+
+    private final int size;
+
+    private volatile ImmutableList<Integer> frameList;
 
     /**
      * Construct a FrameSet object by parsing a spec.
@@ -19,7 +32,16 @@ public class FrameSet {
      * with the addition that it may be a comma-separated list of different FrameRanges.
      */
     public FrameSet(String frameRange) {
-        frameList = parseFrameRange(frameRange);
+        String[] sections = frameRange.split(",");
+        ranges = new FrameRange[sections.length];
+        offsets = new int[sections.length];
+        int total = 0;
+        for (int i = 0; i < sections.length; i++) {
+            ranges[i] = new FrameRange(sections[i]);
+            offsets[i] = total;
+            total += ranges[i].size();
+        }
+        size = total;
     }
 
     /**
@@ -27,7 +49,7 @@ public class FrameSet {
      * @return
      */
     public int size() {
-        return frameList.size();
+        return size;
     }
 
     /**
@@ -36,7 +58,11 @@ public class FrameSet {
      * @return
      */
     public int get(int idx) {
-        return frameList.get(idx);
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException("index " + idx + " is not in range 0-" + (size - 1));
+        }
+        int range = findRange(idx);
+        return ranges[range].get(idx - offsets[range]);
     }
 
     /**
@@ -45,7 +71,74 @@ public class FrameSet {
      * @return Index of frame. -1 if frame set does not contain frame.
      */
     public int index(int idx) {
-        return frameList.indexOf(idx);
+        for (int i = 0; i < ranges.length; i++) {
+            int index = ranges[i].index(idx);
+            if (index != -1) {
+                return offsets[i] + index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if the frame is in the sequence.
+     * @param frame
+     * @return
+     */
+    public boolean contains(int frame) {
+        for (FrameRange range : ranges) {
+            if (range.contains(frame)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the full numerical sequence as an array.  The array is
+     * a copy and may be modified.
+     * @return
+     */
+    public int[] toArray() {
+        int[] result = new int[size];
+        int idx = 0;
+        for (FrameRange range : ranges) {
+            PrimitiveIterator.OfInt frames = range.iterator();
+            while (frames.hasNext()) {
+                result[idx++] = frames.nextInt();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Iterates over the sequence without boxing the frames.
+     * @return
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int range = 0;
+            private PrimitiveIterator.OfInt frames = ranges[0].iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!frames.hasNext()) {
+                    if (range + 1 >= ranges.length) {
+                        return false;
+                    }
+                    frames = ranges[++range].iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return frames.nextInt();
+            }
+        };
     }
 
     /**
@@ -53,15 +146,35 @@ public class FrameSet {
      * @return
      */
     public ImmutableList<Integer> getAll() {
-        return frameList;
+        ImmutableList<Integer> result = frameList;
+        if (result == null) {
+            ImmutableList.Builder<Integer> builder = ImmutableList.builder();
+            for (FrameRange range : ranges) {
+                builder.addAll(range.getAll());
+            }
+            result = builder.build();
+            frameList = result;
+        }
+        return result;
     }
 
-    private ImmutableList<Integer> parseFrameRange(String frameRange) {
-        ImmutableList.Builder<Integer> builder = ImmutableList.builder();
-        for (String frameRangeSection : frameRange.split(",")) {
-            builder.addAll(FrameRange.parseFrameRange(frameRangeSection));
+    /**
+     * Returns the last range which starts at or before the given
+     * index.  Empty ranges share their offset with the next range,
+     * so this is always the range which holds the index.
+     */
+    private int findRange(int idx) {
+        int low = 0;
+        int high = offsets.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsets[mid] <= idx) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
         }
-        return builder.build();
+        return low;
     }
 
     /**
@@ -71,68 +184,71 @@ public class FrameSet {
      * @return                String representation of the chunk, e.g. 1-1001x3
      */
     public String getChunk(int startFrameIndex, int chunkSize) {
-        if (frameList.size() <= startFrameIndex || startFrameIndex < 0) {
+        if (size <= startFrameIndex || startFrameIndex < 0) {
             String sf = String.valueOf(startFrameIndex);
-            String sz = String.valueOf(frameList.size() - 1);
+            String sz = String.valueOf(size - 1);
             throw new IllegalArgumentException("startFrameIndex " + sf + " is not in range 0-" + sz);
         }
         if (chunkSize == 1) {
             // Chunksize of 1 so the FrameSet is just the startFrame
-            return String.valueOf(frameList.get(startFrameIndex));
+            return String.valueOf(get(startFrameIndex));
         }
-        int finalFrameIndex = frameList.size() - 1;
         int endFrameIndex = startFrameIndex + chunkSize;
-        if (endFrameIndex > finalFrameIndex) {
+        if (endFrameIndex > size) {
             // We don't have enough frames, so return the remaining frames.
-            endFrameIndex = finalFrameIndex;
+            endFrameIndex = size;
         }
 
-        return framesToFrameRanges(frameList.subList(startFrameIndex, endFrameIndex));
+        return framesToFrameRanges(startFrameIndex, endFrameIndex);
     }
 
     /**
-     * Return a string representation of a subset of a frame range.
+     * Append a string representation of a subset of a frame range.
      *
      * This approach was adapted from https://pypi.org/project/Fileseq/
+     * @param result     The buffer to append to
      * @param startFrame Start frame
      * @param endFrame   End frame
      * @param step       The step between frames
-     * @return           String representation of the frame range, e.g. 1-1001x3
      */
-    private String buildFrangePart(int startFrame, int endFrame, int step) {
+    private static void buildFrangePart(StringBuilder result, int startFrame, int endFrame, int step) {
+        if (result.length() > 0) {
+            result.append(',');
+        }
         if (startFrame == endFrame) {
-            return String.valueOf(startFrame);
+            result.append(startFrame);
         } else if (step == 1) {
-            return String.format("%d-%d", startFrame, endFrame);
+            result.append(startFrame).append('-').append(endFrame);
         } else {
-            return String.format("%d-%dx%d", startFrame, endFrame, step);
+            result.append(startFrame).append('-').append(endFrame).append('x').append(step);
         }
     }
 
     /**
-     * Return a String representation of a frame range based on a list of literal integer frame IDs.
-     * @param frames  List of integers representing frame IDs,
-     * @return        String representation of a frameset, e.g. '1-10,12-100x2'
+     * Return a String representation of a frame range based on the frames between two indexes.
+     * @param startIndex  Index of the first frame
+     * @param endIndex    Index after the last frame
+     * @return            String representation of a frameset, e.g. '1-10,12-100x2'
      */
-    private String framesToFrameRanges(ImmutableList<Integer> frames) {
-        int l = frames.size();
+    private String framesToFrameRanges(int startIndex, int endIndex) {
+        int l = endIndex - startIndex;
         if (l == 0) {
             return "";
         } else if (l == 1) {
-            return String.valueOf(frames.get(0));
+            return String.valueOf(get(startIndex));
         }
 
-        StringJoiner resultBuilder = new StringJoiner(",");
+        StringBuilder resultBuilder = new StringBuilder(16);
 
         int curr_count = 1;
         int curr_step = 0;
         int new_step = 0;
-        int curr_start = frames.get(0);
-        int curr_frame = frames.get(0);
-        int last_frame = frames.get(0);
+        int curr_start = get(startIndex);
+        int curr_frame = curr_start;
+        int last_frame = curr_start;
 
-        for (int i = 1; i < frames.size(); i++) {
-            curr_frame = frames.get(i);
+        for (int i = startIndex + 1; i < endIndex; i++) {
+            curr_frame = get(i);
 
             if (curr_step == 0) {
                 curr_step = curr_frame - curr_start;
@@ -142,12 +258,12 @@ public class FrameSet {
                 last_frame = curr_frame;
                 curr_count += 1;
             } else if (curr_count == 2 && curr_step != 1) {
-                resultBuilder.add(String.valueOf(curr_start));
+                buildFrangePart(resultBuilder, curr_start, curr_start, 0);
                 curr_step = 0;
                 curr_start = last_frame;
                 last_frame = curr_frame;
             } else {
-                resultBuilder.add(buildFrangePart(curr_start, last_frame, curr_step));
+                buildFrangePart(resultBuilder, curr_start, last_frame, curr_step);
                 curr_step = 0;
                 curr_start = curr_frame;
                 last_frame = curr_frame;
@@ -155,10 +271,10 @@ public class FrameSet {
             }
         }
         if (curr_count == 2 && curr_step != 1) {
-            resultBuilder.add(String.valueOf(curr_start));
-            resultBuilder.add(String.valueOf(curr_frame));
+            buildFrangePart(resultBuilder, curr_start, curr_start, 0);
+            buildFrangePart(resultBuilder, curr_frame, curr_frame, 0);
         } else {
-            resultBuilder.add(buildFrangePart(curr_start, curr_frame, curr_step));
+            buildFrangePart(resultBuilder, curr_start, curr_frame, curr_step);
         }
 
         return resultBuilder.toString();
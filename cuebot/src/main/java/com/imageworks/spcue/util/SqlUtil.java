@@ -72,6 +72,29 @@ public class SqlUtil {
         return UUID.randomUUID().toString();
     }
 
+    /**
+     * returns the given number of unique random UUIDs.  Only one
+     * random UUID is generated, the rest are derived from it by
+     * counting up the lower 62 random bits, which keeps the version
+     * and variant bits intact.  This is much cheaper than calling
+     * genKeyRandom for every key when inserting a lot of rows.
+     *
+     * @param count int
+     * @return String[]
+     */
+    public static String[] genKeysRandom(int count) {
+        UUID base = UUID.randomUUID();
+        long msb = base.getMostSignificantBits();
+        long lsb = base.getLeastSignificantBits();
+
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            long bits = ((lsb + i) & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+            keys[i] = new UUID(msb, bits).toString();
+        }
+        return keys;
+    }
+
     /**
      * returns a 36 character UUID string that will be identical everytime its
      * generated based on the name passed in.
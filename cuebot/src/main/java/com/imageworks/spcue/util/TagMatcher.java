@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.util;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Matches host tags against layer tags without regular expressions.
+ *
+ * Every distinct tag is interned into a small integer id and a tag
+ * string is turned into a BitSet of those ids.  Host tags are a space
+ * separated list, "general linux 64bit", and layer tags are a list of
+ * alternatives, "general | desktop".  A layer can run on a host if
+ * the host has any of the layer's tags, which is a single
+ * BitSet.intersects call.  This mirrors the int_tag_ids overlap test
+ * used by the Postgres dispatch queries.  The Oracle dispatch queries
+ * match with CATSEARCH against a CTXCAT index, which is also a whole
+ * word, case insensitive match where "|" separates alternatives.
+ */
+public class TagMatcher {
+
+    private static final Pattern TAG_SEPARATOR = Pattern.compile("[\\s|]+");
+
+    /**
+     * The maximum number of distinct tag strings to keep parsed.
+     */
+    private static final int TAG_CACHE_SIZE = 10000;
+
+    private final ConcurrentHashMap<String, Integer> ids =
+        new ConcurrentHashMap<String, Integer>();
+    private final AtomicInteger nextId = new AtomicInteger(0);
+
+    private final Cache<String, BitSet> parsed = CacheBuilder.newBuilder()
+            .maximumSize(TAG_CACHE_SIZE)
+            .build();
+
+    /**
+     * Returns the id of the given tag, assigning a new id if the
+     * tag has not been seen before.  Tags are case insensitive.
+     *
+     * @param tag
+     * @return the tag id
+     */
+    public int intern(String tag) {
+        String key = tag.toLowerCase();
+        Integer id = ids.get(key);
+        if (id == null) {
+            Integer newId = nextId.getAndIncrement();
+            id = ids.putIfAbsent(key, newId);
+            if (id == null) {
+                id = newId;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Returns the set of tag ids for a host or layer tag string.
+     * The returned BitSet is shared and must not be modified.
+     *
+     * @param tags
+     * @return the tag ids as a BitSet
+     */
+    public BitSet getTagBits(String tags) {
+        if (tags == null) {
+            return new BitSet();
+        }
+        BitSet bits = parsed.getIfPresent(tags);
+        if (bits == null) {
+            bits = new BitSet();
+            for (String tag: TAG_SEPARATOR.split(tags)) {
+                if (!tag.isEmpty()) {
+                    bits.set(intern(tag));
+                }
+            }
+            parsed.put(tags, bits);
+        }
+        return bits;
+    }
+
+    /**
+     * Returns true if the host has any of the layer's tags.
+     *
+     * @param hostTags
+     * @param layerTags
+     * @return true if the host tags match the layer tags
+     */
+    public boolean matches(String hostTags, String layerTags) {
+        return matches(getTagBits(hostTags), getTagBits(layerTags));
+    }
+
+    /**
+     * Returns true if the host has any of the layer's tags.
+     *
+     * @param hostTags
+     * @param layerTags
+     * @return true if the host tags match the layer tags
+     */
+    public static boolean matches(BitSet hostTags, BitSet layerTags) {
+        return hostTags.intersects(layerTags);
+    }
+
+    /**
+     * Returns the number of distinct tags that have been interned.
+     *
+     * @return the number of tags
+     */
+    public int size() {
+        return ids.size();
+    }
+}
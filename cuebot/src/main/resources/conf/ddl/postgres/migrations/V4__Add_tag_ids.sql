@@ -0,0 +1,75 @@
+-- Intern host and layer tags into integer ids so dispatch queries can
+-- match hosts to layers with an array overlap instead of building and
+-- evaluating a regular expression for every candidate row.
+
+CREATE TABLE tag (
+    pk_tag SERIAL PRIMARY KEY,
+    str_name VARCHAR(128) NOT NULL
+);
+
+CREATE UNIQUE INDEX i_tag_str_name ON tag (str_name);
+
+-- Splits a host tag string, "general linux 64bit", or a layer tag
+-- string, "general | desktop", into tags and returns their ids.
+-- Tags are matched case insensitively, unknown tags are added.
+CREATE FUNCTION intern_tags(IN VARCHAR)
+RETURNS INT[] AS $body$
+DECLARE
+    str_tags ALIAS FOR $1;
+
+    tag_name VARCHAR;
+    tag_id INT;
+    tag_ids INT[] := '{}';
+BEGIN
+    FOR tag_name IN
+        SELECT DISTINCT lower(t)
+        FROM regexp_split_to_table(coalesce(str_tags, ''), '[\s|]+') AS t
+        WHERE t <> ''
+    LOOP
+        SELECT pk_tag INTO tag_id FROM tag WHERE str_name = tag_name;
+        IF NOT FOUND THEN
+            INSERT INTO tag (str_name) VALUES (tag_name)
+                ON CONFLICT (str_name) DO NOTHING;
+            SELECT pk_tag INTO tag_id FROM tag WHERE str_name = tag_name;
+        END IF;
+        tag_ids := array_append(tag_ids, tag_id);
+    END LOOP;
+
+    RETURN tag_ids;
+END;
+$body$
+LANGUAGE PLPGSQL;
+
+ALTER TABLE host ADD COLUMN int_tag_ids INT[] DEFAULT '{}' NOT NULL;
+ALTER TABLE layer ADD COLUMN int_tag_ids INT[] DEFAULT '{}' NOT NULL;
+
+UPDATE host SET int_tag_ids = intern_tags(str_tags);
+UPDATE layer SET int_tag_ids = intern_tags(str_tags);
+
+-- Keep the tag ids in sync with str_tags.
+CREATE FUNCTION trigger__update_tag_ids()
+RETURNS TRIGGER AS $body$
+BEGIN
+    NEW.int_tag_ids := intern_tags(NEW.str_tags);
+    RETURN NEW;
+END;
+$body$
+LANGUAGE PLPGSQL;
+
+CREATE TRIGGER before_insert_host_tag_ids BEFORE INSERT ON host
+FOR EACH ROW
+    EXECUTE PROCEDURE trigger__update_tag_ids();
+
+CREATE TRIGGER before_update_host_tag_ids BEFORE UPDATE ON host
+FOR EACH ROW
+    WHEN (NEW.str_tags IS DISTINCT FROM OLD.str_tags)
+    EXECUTE PROCEDURE trigger__update_tag_ids();
+
+CREATE TRIGGER before_insert_layer_tag_ids BEFORE INSERT ON layer
+FOR EACH ROW
+    EXECUTE PROCEDURE trigger__update_tag_ids();
+
+CREATE TRIGGER before_update_layer_tag_ids BEFORE UPDATE ON layer
+FOR EACH ROW
+    WHEN (NEW.str_tags IS DISTINCT FROM OLD.str_tags)
+    EXECUTE PROCEDURE trigger__update_tag_ids();
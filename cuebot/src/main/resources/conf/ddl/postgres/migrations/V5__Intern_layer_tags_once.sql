@@ -0,0 +1,10 @@
+-- Layers are inserted with int_tag_ids already set, interned once per
+-- distinct tag string in a job spec, so only intern the tags on insert
+-- when the caller left them empty.
+
+DROP TRIGGER before_insert_layer_tag_ids ON layer;
+
+CREATE TRIGGER before_insert_layer_tag_ids BEFORE INSERT ON layer
+FOR EACH ROW
+    WHEN (cardinality(NEW.int_tag_ids) = 0)
+    EXECUTE PROCEDURE trigger__update_tag_ids();
@@ -108,4 +108,33 @@ public class HostSearchTests extends AbstractTransactionalJUnit4SpringContextTes
                 hosts.stream().map(Host::getId).collect(Collectors.toList()))
                 .containsOnly(expectedHost.getHostId());
     }
+
+    @Test
+    @Transactional
+    @Rollback
+    public void testKeysetPaging() {
+        FacilityInterface facility = adminManager.createFacility("test-facility");
+        AllocationEntity alloc = createAlloc(facility, "test-alloc-01");
+        createHost(alloc, "test-host-03");
+        createHost(alloc, "test-host-01");
+        createHost(alloc, "test-host-02");
+
+        HostSearchCriteria criteria = HostSearchInterface.criteriaFactory()
+                .toBuilder()
+                .setMaxResults(2)
+                .build();
+        HostSearchInterface hostSearch = hostSearchFactory.create(criteria);
+        hostSearch.filterByAlloc(alloc);
+        List<Host> hosts = whiteboardDao.getHosts(hostSearch).getHostsList();
+        assertThat(hosts.stream().map(Host::getName).collect(Collectors.toList()))
+                .containsExactly("test-host-01", "test-host-02");
+
+        hostSearch = hostSearchFactory.create(criteria.toBuilder()
+                .setAfterName("test-host-02")
+                .build());
+        hostSearch.filterByAlloc(alloc);
+        hosts = whiteboardDao.getHosts(hostSearch).getHostsList();
+        assertThat(hosts.stream().map(Host::getName).collect(Collectors.toList()))
+                .containsExactly("test-host-03");
+    }
 }
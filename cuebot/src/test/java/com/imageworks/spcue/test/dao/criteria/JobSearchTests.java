@@ -18,6 +18,7 @@
 package com.imageworks.spcue.test.dao.criteria;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import javax.annotation.Resource;
 
@@ -115,4 +116,31 @@ public class JobSearchTests extends AbstractTransactionalJUnit4SpringContextTest
 
         assertEquals(1, jobs.size());
     }
+
+    @Test
+    @Transactional
+    @Rollback
+    public void testKeysetPaging() {
+        JobSearchCriteria criteria = JobSearchInterface.criteriaFactory()
+                .toBuilder()
+                .setMaxResults(1)
+                .build();
+        List<Job> all = whiteboardDao.getJobs(
+                jobSearchFactory.create(JobSearchInterface.criteriaFactory())).getJobsList();
+
+        List<Job> paged = new ArrayList<>();
+        List<Job> page = whiteboardDao.getJobs(jobSearchFactory.create(criteria)).getJobsList();
+        while (!page.isEmpty()) {
+            assertEquals(1, page.size());
+            Job last = page.get(0);
+            paged.add(last);
+            page = whiteboardDao.getJobs(jobSearchFactory.create(criteria.toBuilder()
+                    .setAfterName(last.getName())
+                    .setAfterId(last.getId())
+                    .build())).getJobsList();
+        }
+
+        assertEquals(2, paged.size());
+        assertEquals(all, paged);
+    }
 }
@@ -19,8 +19,11 @@
 package com.imageworks.spcue.test.dao.postgres;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import javax.annotation.Resource;
 
+import com.google.common.collect.ImmutableList;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -32,6 +35,7 @@ import org.springframework.test.context.support.AnnotationConfigContextLoader;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.imageworks.spcue.FrameDetail;
+import com.imageworks.spcue.FrameInterface;
 import com.imageworks.spcue.JobDetail;
 import com.imageworks.spcue.LayerInterface;
 import com.imageworks.spcue.LightweightDependency;
@@ -311,6 +315,126 @@ public class DependDaoTests extends AbstractTransactionalJUnit4SpringContextTest
         assertFalse(lwd.anyFrame);
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testInsertDepends() {
+
+        JobDetail job_a = getJobA();
+        JobDetail job_b = getJobB();
+        LayerInterface layer_a = layerDao.findLayer(job_a, "pass_1");
+        LayerInterface layer_b = layerDao.findLayer(job_b, "pass_1");
+
+        FrameByFrame depend = new FrameByFrame(layer_a, layer_b);
+        dependDao.insertDepend(depend);
+
+        List<FrameDetail> frames_a = frameDao.getFrameDetails(layer_a);
+        List<FrameDetail> frames_b = frameDao.getFrameDetails(layer_b);
+        assertEquals(10, frames_a.size());
+        assertEquals(10, frames_b.size());
+
+        List<FrameOnFrame> children = new ArrayList<FrameOnFrame>();
+        for (int i = 0; i < frames_a.size(); i++) {
+            FrameOnFrame child = new FrameOnFrame(frames_a.get(i), frames_b.get(i), depend);
+            child.setActive(i > 0);
+            children.add(child);
+        }
+        dependDao.insertDepends(children);
+
+        LightweightDependency lwd = dependDao.getDepend(depend.getId());
+        assertEquals(9, dependDao.getChildDepends(lwd).size());
+        for (FrameOnFrame child: children) {
+            LightweightDependency lwdChild = dependDao.getDepend(child.getId());
+            assertEquals(DependType.FRAME_ON_FRAME, lwdChild.type);
+            assertEquals(depend.getId(), lwdChild.parent);
+            assertEquals(child.isActive(), lwdChild.active);
+        }
+
+        assertEquals(9, dependDao.incrementDependCounts(depend));
+        for (FrameDetail frame: frameDao.getFrameDetails(layer_a)) {
+            assertEquals(frame.number == 1 ? 0 : 1, frame.dependCount);
+        }
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testIncrementDependCountsByLayer() {
+
+        JobDetail job_a = getJobA();
+        LayerInterface layer_a = layerDao.findLayer(job_a, "pass_1");
+
+        assertEquals(10, dependDao.incrementDependCounts(layer_a));
+        for (FrameDetail frame: frameDao.getFrameDetails(layer_a)) {
+            assertEquals(1, frame.dependCount);
+        }
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testGetWhatDependsOnFramesAndLayers() {
+
+        JobDetail job_a = getJobA();
+        JobDetail job_b = getJobB();
+        LayerInterface layer_a = layerDao.findLayer(job_a, "pass_1");
+        LayerInterface layer_b = layerDao.findLayer(job_b, "pass_1");
+
+        FrameDetail frame_a = frameDao.findFrameDetail(job_a, "0001-pass_1");
+        FrameDetail frame_b = frameDao.findFrameDetail(job_b, "0001-pass_1");
+
+        FrameOnFrame fof = new FrameOnFrame(frame_a, frame_b);
+        dependDao.insertDepend(fof);
+
+        LayerOnLayer lol = new LayerOnLayer(layer_a, layer_b);
+        lol.setAnyFrame(true);
+        dependDao.insertDepend(lol);
+
+        JobOnLayer jol = new JobOnLayer(job_a, layer_b);
+        dependDao.insertDepend(jol);
+
+        List<LightweightDependency> depends = dependDao.getWhatDependsOnFrames(
+                ImmutableList.<FrameInterface>of(frame_b));
+        assertEquals(2, depends.size());
+
+        depends = dependDao.getWhatDependsOnLayers(ImmutableList.of(layer_b));
+        assertEquals(2, depends.size());
+
+        assertEquals(0, dependDao.getWhatDependsOnFrames(
+                ImmutableList.<FrameInterface>of(frame_a)).size());
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testSetInactiveAndDecrementDependCounts() {
+
+        JobDetail job_a = getJobA();
+        JobDetail job_b = getJobB();
+        LayerInterface layer_a = layerDao.findLayer(job_a, "pass_1");
+        LayerInterface layer_b = layerDao.findLayer(job_b, "pass_1");
+
+        LayerOnLayer lol = new LayerOnLayer(layer_a, layer_b);
+        dependDao.insertDepend(lol);
+        dependDao.incrementDependCounts(layer_a);
+
+        List<LightweightDependency> depends = dependDao.getWhatDependsOnLayers(
+                ImmutableList.of(layer_b));
+        assertEquals(1, depends.size());
+
+        assertEquals(1, dependDao.setInactive(depends).size());
+        assertEquals(0, dependDao.setInactive(depends).size());
+        assertFalse(dependDao.getDepend(lol.getId()).active);
+
+        assertEquals(10, dependDao.decrementDependCounts(depends));
+        for (FrameDetail frame: frameDao.getFrameDetails(layer_a)) {
+            assertEquals(0, frame.dependCount);
+        }
+
+        // Counts never go below 0.
+        assertEquals(0, dependDao.decrementDependCounts(depends));
+    }
+
     @Test
     @Transactional
     @Rollback(true)
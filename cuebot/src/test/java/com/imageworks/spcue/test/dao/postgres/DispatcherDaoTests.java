@@ -40,6 +40,7 @@ import com.imageworks.spcue.JobDetail;
 import com.imageworks.spcue.LayerDetail;
 import com.imageworks.spcue.LayerInterface;
 import com.imageworks.spcue.LocalHostAssignment;
+import com.imageworks.spcue.ShowEntity;
 import com.imageworks.spcue.VirtualProc;
 import com.imageworks.spcue.config.TestAppConfig;
 import com.imageworks.spcue.dao.AllocationDao;
@@ -49,6 +50,8 @@ import com.imageworks.spcue.dao.HostDao;
 import com.imageworks.spcue.dao.JobDao;
 import com.imageworks.spcue.dao.LayerDao;
 import com.imageworks.spcue.dao.ProcDao;
+import com.imageworks.spcue.dao.postgres.DispatcherDaoJdbc;
+import com.imageworks.spcue.dispatcher.DispatchIndex;
 import com.imageworks.spcue.dispatcher.DispatchSupport;
 import com.imageworks.spcue.dispatcher.Dispatcher;
 import com.imageworks.spcue.grpc.host.HardwareState;
@@ -359,6 +362,33 @@ public class DispatcherDaoTests extends AbstractTransactionalJUnit4SpringContext
         assertTrue(jobs.size() > 0);
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testFindDispatchJobsByShowIndexed() {
+        DispatchHost host = getHost();
+        ShowEntity show = adminManager.findShowEntity("pipe");
+        Set<String> expected = dispatcherDao.findDispatchJobs(host, show, 5);
+        assertTrue(expected.size() > 0);
+
+        DispatcherDaoJdbc dao = (DispatcherDaoJdbc) dispatcherDao;
+        DispatchIndex previous = dao.getDispatchIndex();
+        DispatchIndex index = new DispatchIndex(true, 0);
+        dao.setDispatchIndex(index);
+        try {
+            Set<String> jobs = dispatcherDao.findDispatchJobs(host, show, 5);
+            assertEquals(expected, jobs);
+            assertEquals(1, index.getRefreshCount());
+            assertTrue(index.getJobCount() >= expected.size());
+
+            index.removeJob(getJob1().getJobId());
+            assertFalse(index.findDispatchJobs(host, show.getShowId(), 50)
+                    .contains(getJob1().getJobId()));
+        } finally {
+            dao.setDispatchIndex(previous);
+        }
+    }
+
     @Test
     @Transactional
     @Rollback(true)
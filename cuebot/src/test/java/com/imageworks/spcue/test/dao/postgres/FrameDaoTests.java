@@ -20,7 +20,10 @@
 package com.imageworks.spcue.test.dao.postgres;
 
 import java.io.File;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.annotation.Resource;
 
 import com.google.common.collect.ImmutableList;
@@ -63,6 +66,7 @@ import com.imageworks.spcue.test.AssumingPostgresEngine;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 
@@ -154,6 +158,32 @@ public class FrameDaoTests extends AbstractTransactionalJUnit4SpringContextTests
         // TODO: check to see if it actually works
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testInsertFrames() {
+        JobDetail job = launchJob();
+        LayerInterface layer = frameDao.findFrame(job, "0001-pass_1");
+
+        List<Map<String, Object>> frames = jdbcTemplate.queryForList(
+                "SELECT pk_frame, pk_job, str_name, int_number, int_dispatch_order, " +
+                "ts_updated FROM frame WHERE pk_layer=? ORDER BY int_dispatch_order",
+                layer.getLayerId());
+        assertEquals(10, frames.size());
+
+        Set<Object> keys = new HashSet<Object>();
+        for (int i = 0; i < frames.size(); i++) {
+            Map<String, Object> frame = frames.get(i);
+            keys.add(frame.get("pk_frame"));
+            assertEquals(job.getJobId(), frame.get("pk_job"));
+            assertEquals(String.format("%04d-pass_1", i + 1), frame.get("str_name"));
+            assertEquals(Long.valueOf(i + 1), frame.get("int_number"));
+            assertEquals(Long.valueOf(i), frame.get("int_dispatch_order"));
+            assertNotNull(frame.get("ts_updated"));
+        }
+        assertEquals(frames.size(), keys.size());
+    }
+
     @Test
     @Transactional
     @Rollback(true)
@@ -232,6 +262,20 @@ public class FrameDaoTests extends AbstractTransactionalJUnit4SpringContextTests
         assertEquals(1, frameDao.findFrameDetails(r).size());
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testGetFrameDetails() {
+        JobDetail job = launchJob();
+        LayerInterface layer = frameDao.findFrame(job, "0001-pass_1");
+        List<FrameDetail> frames = frameDao.getFrameDetails(layer);
+        assertEquals(10, frames.size());
+        for (int i = 0; i < frames.size(); i++) {
+            assertEquals(i + 1, frames.get(i).number);
+            assertEquals(layer.getLayerId(), frames.get(i).getLayerId());
+        }
+    }
+
     @Test
     @Transactional
     @Rollback(true)
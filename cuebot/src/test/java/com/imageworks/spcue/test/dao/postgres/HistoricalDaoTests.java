@@ -20,6 +20,8 @@
 package com.imageworks.spcue.test.dao.postgres;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 import javax.annotation.Resource;
 
 import org.junit.Rule;
@@ -32,6 +34,7 @@ import org.springframework.test.context.support.AnnotationConfigContextLoader;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.imageworks.spcue.JobDetail;
+import com.imageworks.spcue.JobInterface;
 import com.imageworks.spcue.config.TestAppConfig;
 import com.imageworks.spcue.dao.HistoricalDao;
 import com.imageworks.spcue.service.JobLauncher;
@@ -39,6 +42,7 @@ import com.imageworks.spcue.service.JobManager;
 import com.imageworks.spcue.test.AssumingPostgresEngine;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @Transactional
 @ContextConfiguration(classes=TestAppConfig.class, loader=AnnotationConfigContextLoader.class)
@@ -78,5 +82,33 @@ public class HistoricalDaoTests extends
                 "SELECT COUNT(*) FROM job_history WHERE pk_job=?",
                 Integer.class, j.getJobId()));
     }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testTransferJobsInBatches() {
+        jobLauncher.launch(new File("src/test/resources/conf/jobspec/jobspec.xml"));
+        JobDetail j = jobManager.findJobDetail("pipe-dev.cue-testuser_shell_v1");
+        jobManager.shutdownJob(j);
+        List<JobInterface> jobs = Arrays.asList(j);
+
+        historicalDao.deleteDepends(jobs);
+
+        int frames = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM frame WHERE pk_job=?", Integer.class, j.getJobId());
+        assertEquals(1, historicalDao.deleteFrames(jobs, 1));
+        assertEquals(frames - 1, historicalDao.deleteFrames(jobs, frames));
+        assertEquals(0, historicalDao.deleteFrames(jobs, frames));
+
+        assertTrue(historicalDao.deleteLayers(jobs) > 0);
+        assertEquals(1, historicalDao.transferJobs(jobs));
+
+        assertEquals(Integer.valueOf(1), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM job_history WHERE pk_job=?",
+                Integer.class, j.getJobId()));
+        assertEquals(Integer.valueOf(0), jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM job WHERE pk_job=?",
+                Integer.class, j.getJobId()));
+    }
 }
 
@@ -414,6 +414,30 @@ public class HostDaoTests extends AbstractTransactionalJUnit4SpringContextTests
 
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void updateHostPing() {
+
+        hostDao.insertRenderHost(buildRenderHost(TEST_HOST),
+                hostManager.getDefaultAllocationDetail(),
+                false);
+
+        DispatchHost dispatchHost = hostDao.findDispatchHost(TEST_HOST);
+        Timestamp old = new Timestamp(1247526000 * 1000l);
+        jdbcTemplate.update(
+                "UPDATE host_stat SET ts_ping=?, int_load=? WHERE pk_host=?",
+                old, 42, dispatchHost.getHostId());
+
+        hostDao.updateHostPing(dispatchHost);
+
+        Map<String,Object> result = jdbcTemplate.queryForMap(
+                "SELECT * FROM host_stat WHERE pk_host=?",
+                dispatchHost.getHostId());
+        assertTrue(((Timestamp) result.get("ts_ping")).after(old));
+        assertEquals(42, ((Long) (result.get("int_load"))).intValue());
+    }
+
     @Test
     @Transactional
     @Rollback(true)
@@ -535,6 +559,26 @@ public class HostDaoTests extends AbstractTransactionalJUnit4SpringContextTests
                 "SELECT str_tags FROM host WHERE pk_host=?",String.class, host.id));
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testChangeTagsUpdatesTagIds() {
+        DispatchHost host = hostManager.createHost(buildRenderHost(TEST_HOST));
+
+        String matchQuery = "SELECT int_tag_ids && intern_tags(?) FROM host WHERE pk_host=?";
+
+        assertTrue(jdbcTemplate.queryForObject(matchQuery, Boolean.class,
+                "general | unassigned", host.id));
+        assertFalse(jdbcTemplate.queryForObject(matchQuery, Boolean.class,
+                "frick", host.id));
+
+        hostDao.tagHost(host, "frick", HostTagType.MANUAL);
+        hostDao.recalcuateTags(host.id);
+
+        assertTrue(jdbcTemplate.queryForObject(matchQuery, Boolean.class,
+                "frick", host.id));
+    }
+
     @Test
     @Transactional
     @Rollback(true)
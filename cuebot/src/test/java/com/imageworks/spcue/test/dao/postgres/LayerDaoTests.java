@@ -20,6 +20,7 @@
 package com.imageworks.spcue.test.dao.postgres;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -184,6 +185,37 @@ public class LayerDaoTests extends AbstractTransactionalJUnit4SpringContextTests
         assertEquals(layer.showId,ROOT_SHOW);
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testInsertLayerDetails() {
+        JobSpec spec = jobLauncher.parse(new File("src/test/resources/conf/jobspec/jobspec.xml"));
+        JobDetail job =  spec.getJobs().get(0).detail;
+        job.groupId = ROOT_FOLDER;
+        job.showId = ROOT_SHOW;
+        job.logDir = JobLogUtil.getJobLogPath(job);
+        job.deptId = departmentDao.getDefaultDepartment().getId();
+        job.facilityId = facilityDao.getDefaultFacility().getId();
+        jobDao.insertJob(job);
+
+        List<LayerDetail> layers = new ArrayList<LayerDetail>();
+        for (BuildableLayer buildableLayer: spec.getJobs().get(0).getBuildableLayers()) {
+            LayerDetail layer = buildableLayer.layerDetail;
+            layer.jobId = job.id;
+            layer.showId = ROOT_SHOW;
+            layers.add(layer);
+        }
+        layerDao.insertLayerDetails(layers);
+
+        for (LayerDetail layer: layers) {
+            assertNotNull(layer.id);
+            assertTrue(jdbcTemplate.queryForObject(
+                    "SELECT int_tag_ids <@ intern_tags(str_tags) " +
+                    "AND int_tag_ids @> intern_tags(str_tags) FROM layer WHERE pk_layer=?",
+                    Boolean.class, layer.id));
+        }
+    }
+
     @Test
     @Transactional
     @Rollback(true)
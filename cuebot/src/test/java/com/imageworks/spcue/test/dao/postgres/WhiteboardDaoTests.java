@@ -509,6 +509,27 @@ public class WhiteboardDaoTests extends AbstractTransactionalJUnit4SpringContext
         }
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testStreamFrames() {
+        JobEntity job = launchJob();
+        List<String> expected = new ArrayList<String>();
+        for (Frame f: whiteboardDao.getFrames(frameSearchFactory.create(job)).getFramesList()) {
+            expected.add(f.getId());
+        }
+
+        List<String> frameIds = new ArrayList<String>();
+        whiteboardDao.streamFrames(frameSearchFactory.create(job), 3, frames -> {
+            assertTrue(frames.getFramesCount() <= 3);
+            for (Frame f: frames.getFramesList()) {
+                frameIds.add(f.getId());
+            }
+        });
+        assertEquals(expected.size(), frameIds.size());
+        assertTrue(frameIds.containsAll(expected));
+    }
+
     @Test
     @Transactional
     @Rollback(true)
@@ -690,6 +711,20 @@ public class WhiteboardDaoTests extends AbstractTransactionalJUnit4SpringContext
         whiteboardDao.getJobs(jobSearchFactory.create(r));
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testStreamJobs() {
+        launchJob();
+        JobSearchCriteria r = JobSearchInterface.criteriaFactory();
+        r = r.toBuilder().addShows("pipe").build();
+
+        List<Job> jobs = new ArrayList<Job>();
+        whiteboardDao.streamJobs(jobSearchFactory.create(r), 1,
+                batch -> jobs.addAll(batch.getJobsList()));
+        assertEquals(whiteboardDao.getJobs(jobSearchFactory.create(r)).getJobsList(), jobs);
+    }
+
     @Test
     @Transactional
     @Rollback(true)
@@ -842,6 +877,22 @@ public class WhiteboardDaoTests extends AbstractTransactionalJUnit4SpringContext
         assertEquals(1, whiteboardDao.getHosts(hostSearchFactory.create(h)).getHostsCount());
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testStreamHosts() {
+        RenderHost host = getRenderHost();
+        hostManager.createHost(host);
+
+        HostSearchCriteria h = HostSearchInterface.criteriaFactory();
+        h = h.toBuilder().addHosts(HOST).build();
+        List<Host> hosts = new ArrayList<Host>();
+        whiteboardDao.streamHosts(hostSearchFactory.create(h), 10,
+                batch -> hosts.addAll(batch.getHostsList()));
+        assertEquals(1, hosts.size());
+        assertEquals(HOST, hosts.get(0).getName());
+    }
+
     @Test
     @Transactional
     @Rollback(true)
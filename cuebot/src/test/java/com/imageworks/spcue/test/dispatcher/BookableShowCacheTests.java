@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.SortableShow;
+import com.imageworks.spcue.dispatcher.BookableShowCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BookableShowCacheTests {
+
+    private final AtomicInteger loads = new AtomicInteger(0);
+    private BookableShowCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new BookableShowCache(200, 60000, 10, 200);
+        cache.setLoader(allocId -> {
+            loads.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ArrayList<SortableShow>(Arrays.asList(
+                    new SortableShow("show_b", 2.0f),
+                    new SortableShow("show_a", 1.0f)));
+        });
+    }
+
+    @After
+    public void tearDown() {
+        cache.shutdown();
+    }
+
+    @Test
+    public void testSingleFlightLoad() throws InterruptedException {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread(() -> cache.getShows("alloc"));
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t: threads) {
+            t.join();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getLoadCount());
+
+        List<SortableShow> shows = cache.getShows("alloc");
+        assertEquals("show_a", shows.get(0).getShowId());
+        assertEquals("show_b", shows.get(1).getShowId());
+        assertTrue(cache.getHitCount() > 0);
+    }
+
+    @Test
+    public void testRefreshAhead() throws InterruptedException {
+        cache.getShows("alloc");
+        Thread.sleep(300);
+
+        /*
+         * The entry is due for a refresh, the cached list is returned
+         * without waiting while it is reloaded in the background.
+         */
+        long startTime = System.currentTimeMillis();
+        assertEquals(2, cache.getShows("alloc").size());
+        assertTrue(System.currentTimeMillis() - startTime < 50);
+
+        long waitStart = System.currentTimeMillis();
+        while (loads.get() < 2 && System.currentTimeMillis() - waitStart < 5000) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testSkip() throws InterruptedException {
+        cache.skip("show_a", "alloc");
+        assertTrue(cache.isSkipped("show_a", "alloc"));
+        assertFalse(cache.isSkipped("show_a", "other_alloc"));
+        assertFalse(cache.isSkipped("show_b", "alloc"));
+
+        cache.skip("show_a", "general", 100, 1024);
+        assertTrue(cache.isSkipped("show_a", "general", 100, 4096));
+        assertTrue(cache.isSkipped("show_a", "general", 200, 1024));
+        assertFalse(cache.isSkipped("show_a", "general", 200, 4096));
+
+        Thread.sleep(300);
+        assertFalse(cache.isSkipped("show_a", "alloc"));
+        assertFalse(cache.isSkipped("show_a", "general", 100, 4096));
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.DispatchHost;
+import com.imageworks.spcue.EntityInterface;
+import com.imageworks.spcue.JobEntity;
+import com.imageworks.spcue.dispatcher.BookingQueue;
+import com.imageworks.spcue.dispatcher.Dispatcher;
+import com.imageworks.spcue.dispatcher.commands.DispatchBookHost;
+import com.imageworks.spcue.util.CueUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BookingQueueTests {
+
+    private final List<String> booked = new CopyOnWriteArrayList<String>();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch holding = new CountDownLatch(1);
+    private final CountDownLatch hold = new CountDownLatch(1);
+    private BookingQueue queue;
+
+    /**
+     * A dispatcher which records the host and scope of each booking
+     * instead of booking the host.  Bookings of host_slow block until
+     * released.
+     */
+    private final Dispatcher dispatcher = (Dispatcher) Proxy.newProxyInstance(
+            Dispatcher.class.getClassLoader(), new Class<?>[] { Dispatcher.class },
+            (proxy, method, args) -> {
+                if (method.getName().equals("dispatchHost")) {
+                    String name = ((DispatchHost) args[0]).getName();
+                    if (args.length > 1) {
+                        name = name + "/" + ((EntityInterface) args[1]).getId();
+                    }
+                    booked.add(name);
+                    if (name.equals("host_slow")) {
+                        holding.countDown();
+                        hold.await(10, TimeUnit.SECONDS);
+                    }
+                }
+                return null;
+            });
+
+    private DispatchBookHost book(String name, int idleCores) {
+        return new DispatchBookHost(host(name, idleCores), dispatcher);
+    }
+
+    private DispatchBookHost book(String name, JobEntity job) {
+        return new DispatchBookHost(host(name, 100), job, dispatcher);
+    }
+
+    private DispatchBookHost redirect(String name, JobEntity job) {
+        DispatchBookHost book = book(name, job);
+        book.setRedirect(true);
+        return book;
+    }
+
+    private DispatchHost host(String name, int idleCores) {
+        DispatchHost host = new DispatchHost();
+        host.name = name;
+        host.idleCores = idleCores;
+        host.idleMemory = CueUtil.GB8;
+        return host;
+    }
+
+    private JobEntity job(String id, String showId) {
+        JobEntity job = new JobEntity(id);
+        job.showId = showId;
+        return job;
+    }
+
+    @Before
+    public void setUp() throws InterruptedException {
+        queue = new BookingQueue(1, 1, 3, 1000);
+
+        /*
+         * Hold the only booking thread so bookings wait in the queue.
+         */
+        queue.execute(() -> {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        hold.countDown();
+        queue.shutdown();
+    }
+
+    private void waitForBookings(int count) throws InterruptedException {
+        long startTime = System.currentTimeMillis();
+        while (booked.size() < count && System.currentTimeMillis() - startTime < 10000) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testSkipWaitingHost() throws InterruptedException {
+        queue.execute(book("host_a", 100));
+        queue.execute(book("host_a", 100));
+        assertEquals(1, queue.getQueue().size());
+        assertEquals(1, queue.getSkippedCount());
+
+        release.countDown();
+        waitForBookings(1);
+        assertEquals(Arrays.asList("host_a"), booked);
+
+        /*
+         * Once the booking has run the host can be queued again.
+         */
+        queue.execute(book("host_a", 100));
+        waitForBookings(2);
+        assertEquals(2, booked.size());
+    }
+
+    @Test
+    public void testMostIdleCoresFirst() throws InterruptedException {
+        queue.execute(book("host_a", 100));
+        queue.execute(book("host_b", 300));
+        queue.execute(book("host_c", 200));
+
+        release.countDown();
+        waitForBookings(3);
+        assertEquals(Arrays.asList("host_b", "host_c", "host_a"), booked);
+    }
+
+    @Test
+    public void testDropLeastValuable() throws InterruptedException {
+        queue.execute(book("host_a", 100));
+        queue.execute(book("host_b", 300));
+        queue.execute(book("host_c", 200));
+        assertEquals(0, queue.getRemainingCapacity());
+
+        /*
+         * Worth less than everything waiting, so it is dropped.
+         */
+        queue.execute(book("host_d", 50));
+        assertEquals(1, queue.getDroppedCount());
+
+        /*
+         * Worth more than host_a, which is dropped to make room.
+         */
+        queue.execute(book("host_e", 400));
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(3, queue.getQueue().size());
+
+        release.countDown();
+        waitForBookings(3);
+        assertEquals(Arrays.asList("host_e", "host_b", "host_c"), booked);
+    }
+
+    @Test
+    public void testMergeReordersWaitingHost() throws InterruptedException {
+        queue.execute(book("host_a", 100));
+        queue.execute(book("host_b", 200));
+
+        /*
+         * host_a now has the most idle cores, so it moves ahead.
+         */
+        queue.execute(book("host_a", 300));
+        assertEquals(1, queue.getSkippedCount());
+        assertEquals(2, queue.getQueue().size());
+
+        release.countDown();
+        waitForBookings(2);
+        assertEquals(Arrays.asList("host_a", "host_b"), booked);
+    }
+
+    @Test
+    public void testMergeWidensScope() throws InterruptedException {
+        queue.execute(book("host_a", job("job_1", "show_1")));
+        queue.execute(book("host_a", job("job_1", "show_1")));
+        assertEquals(1, queue.getSkippedCount());
+        queue.execute(book("host_a", job("job_2", "show_1")));
+        assertEquals(1, queue.getMergedCount());
+        assertEquals(1, queue.getQueue().size());
+
+        release.countDown();
+        waitForBookings(2);
+        assertEquals(Arrays.asList("host_a/show_1", "host_a"), booked);
+    }
+
+    @Test
+    public void testMergeDifferentShows() throws InterruptedException {
+        queue.execute(book("host_a", job("job_1", "show_1")));
+        queue.execute(book("host_a", job("job_2", "show_2")));
+        assertEquals(1, queue.getMergedCount());
+
+        release.countDown();
+        waitForBookings(1);
+        Thread.sleep(100);
+        assertEquals(Arrays.asList("host_a"), booked);
+    }
+
+    @Test
+    public void testRedirectNotMerged() throws InterruptedException {
+        queue.execute(book("host_a", job("job_1", "show_1")));
+
+        /*
+         * Merging would widen the redirect to show_1, so it is held
+         * behind the waiting booking instead.
+         */
+        queue.execute(redirect("host_a", job("job_2", "show_1")));
+        queue.execute(redirect("host_a", job("job_2", "show_1")));
+        assertEquals(0, queue.getMergedCount());
+        assertEquals(1, queue.getSkippedCount());
+        assertEquals(1, queue.getQueue().size());
+
+        /*
+         * A later booking is held behind the redirect rather than
+         * merged into it.
+         */
+        queue.execute(book("host_a", job("job_3", "show_1")));
+        assertEquals(0, queue.getMergedCount());
+
+        release.countDown();
+        waitForBookings(6);
+        assertEquals(Arrays.asList("host_a/job_1", "host_a", "host_a/job_2", "host_a",
+                "host_a/job_3", "host_a"), booked);
+    }
+
+    @Test
+    public void testHoldWhileRunning() throws InterruptedException {
+        queue.execute(book("host_slow", 100));
+        release.countDown();
+        assertTrue(holding.await(10, TimeUnit.SECONDS));
+
+        /*
+         * The host is being booked, so these are held and merged
+         * rather than queued.
+         */
+        queue.execute(book("host_slow", job("job_1", "show_1")));
+        queue.execute(book("host_slow", job("job_2", "show_1")));
+        assertEquals(1, queue.getMergedCount());
+        assertEquals(0, queue.getQueue().size());
+        assertEquals(1, queue.getHostCount());
+
+        hold.countDown();
+        waitForBookings(3);
+        assertEquals(Arrays.asList("host_slow", "host_slow/show_1", "host_slow"), booked);
+
+        long startTime = System.currentTimeMillis();
+        while (queue.getHostCount() > 0 && System.currentTimeMillis() - startTime < 10000) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, queue.getHostCount());
+    }
+}
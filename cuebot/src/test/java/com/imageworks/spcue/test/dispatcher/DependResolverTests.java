@@ -0,0 +1,196 @@
+
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Resource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.imageworks.spcue.FrameDetail;
+import com.imageworks.spcue.JobDetail;
+import com.imageworks.spcue.dao.DependDao;
+import com.imageworks.spcue.dao.FrameDao;
+import com.imageworks.spcue.depend.FrameOnFrame;
+import com.imageworks.spcue.dispatcher.DependResolver;
+import com.imageworks.spcue.service.DependManager;
+import com.imageworks.spcue.service.JobLauncher;
+import com.imageworks.spcue.service.JobManager;
+import com.imageworks.spcue.test.TransactionalTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@ContextConfiguration
+public class DependResolverTests extends TransactionalTest {
+
+    @Resource
+    DependDao dependDao;
+
+    @Resource
+    DependManager dependManager;
+
+    @Resource
+    FrameDao frameDao;
+
+    @Resource
+    JobManager jobManager;
+
+    @Resource
+    JobLauncher jobLauncher;
+
+    @Before
+    public void launchTestJobs() {
+        jobLauncher.testMode = true;
+        jobLauncher.launch(new File("src/test/resources/conf/jobspec/jobspec_depend_test.xml"));
+    }
+
+    private FrameOnFrame createDepend() {
+        JobDetail job_a = jobManager.findJobDetail("pipe-dev.cue-testuser_depend_test_a");
+        JobDetail job_b = jobManager.findJobDetail("pipe-dev.cue-testuser_depend_test_b");
+
+        FrameDetail frame_a = frameDao.findFrameDetail(job_a, "0001-pass_1");
+        FrameDetail frame_b = frameDao.findFrameDetail(job_b, "0001-pass_1");
+
+        FrameOnFrame depend = new FrameOnFrame(frame_a, frame_b);
+        dependManager.createDepend(depend);
+        assertEquals(1, frameDao.getFrameDetail(frame_a).dependCount);
+        return depend;
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testFrameSucceeded() {
+        DependResolver resolver = new DependResolver(false);
+        resolver.setDependManager(dependManager);
+
+        FrameOnFrame depend = createDepend();
+        resolver.frameSucceeded(depend.getDependOnFrame(), false);
+
+        assertEquals(0, resolver.getPendingCount());
+        assertFalse(dependDao.getDepend(depend.getId()).active);
+        assertEquals(0, frameDao.getFrameDetail(depend.getDependErFrame()).dependCount);
+        assertEquals(1, resolver.getSatisfiedDependCount());
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testFrameSucceededBatched() {
+        DependResolver resolver = new DependResolver(true);
+        resolver.setDependManager(dependManager);
+
+        FrameOnFrame depend = createDepend();
+        resolver.frameSucceeded(depend.getDependOnFrame(), false);
+        resolver.frameSucceeded(depend.getDependOnFrame(), false);
+
+        assertEquals(1, resolver.getPendingCount());
+        assertTrue(dependDao.getDepend(depend.getId()).active);
+        assertEquals(1, frameDao.getFrameDetail(depend.getDependErFrame()).dependCount);
+
+        assertEquals(1, resolver.flush());
+        assertEquals(0, resolver.getPendingCount());
+        assertFalse(dependDao.getDepend(depend.getId()).active);
+        assertEquals(0, frameDao.getFrameDetail(depend.getDependErFrame()).dependCount);
+        assertEquals(1, resolver.getResolvedFrameCount());
+
+        assertEquals(0, resolver.flush());
+    }
+
+    /**
+     * Returns a DependManager which fails the given methods the given
+     * number of times and passes everything else to the real one.
+     */
+    private DependManager failing(final Set<String> methods, final int failures) {
+        final AtomicInteger failed = new AtomicInteger(0);
+        return (DependManager) Proxy.newProxyInstance(
+                DependManager.class.getClassLoader(),
+                new Class<?>[] { DependManager.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        if (methods.contains(method.getName())
+                                && failed.getAndIncrement() < failures) {
+                            throw new RuntimeException("injected failure");
+                        }
+                        try {
+                            return method.invoke(dependManager, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testBatchFailureFallsBack() {
+        DependResolver resolver = new DependResolver(true);
+        resolver.setDependManager(failing(
+                Collections.singleton("satisfyWhatDependsOn"), Integer.MAX_VALUE));
+
+        FrameOnFrame depend = createDepend();
+        resolver.frameSucceeded(depend.getDependOnFrame(), false);
+
+        assertEquals(1, resolver.flush());
+        assertEquals(0, resolver.getPendingCount());
+        assertFalse(dependDao.getDepend(depend.getId()).active);
+        assertEquals(0, frameDao.getFrameDetail(depend.getDependErFrame()).dependCount);
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testBatchFailureRetried() {
+        DependResolver resolver = new DependResolver(true);
+        resolver.setDependManager(failing(new HashSet<String>(
+                Arrays.asList("satisfyWhatDependsOn", "satisfyDepend")), 2));
+
+        FrameOnFrame depend = createDepend();
+        resolver.frameSucceeded(depend.getDependOnFrame(), false);
+
+        // Both the batch and the one at a time fallback fail.
+        assertEquals(0, resolver.flush());
+        assertEquals(1, resolver.getPendingCount());
+        assertTrue(dependDao.getDepend(depend.getId()).active);
+        assertEquals(1, frameDao.getFrameDetail(depend.getDependErFrame()).dependCount);
+
+        assertEquals(1, resolver.flush());
+        assertEquals(0, resolver.getPendingCount());
+        assertFalse(dependDao.getDepend(depend.getId()).active);
+        assertEquals(0, frameDao.getFrameDetail(depend.getDependErFrame()).dependCount);
+    }
+}
@@ -20,6 +20,7 @@
 package com.imageworks.spcue.test.dispatcher;
 
 import java.io.File;
+import java.util.List;
 import javax.annotation.Resource;
 
 import org.junit.Before;
@@ -30,11 +31,15 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.imageworks.spcue.DispatchHost;
 import com.imageworks.spcue.JobDetail;
+import com.imageworks.spcue.VirtualProc;
 import com.imageworks.spcue.dao.FrameDao;
 import com.imageworks.spcue.dispatcher.DispatchSupport;
 import com.imageworks.spcue.dispatcher.Dispatcher;
+import com.imageworks.spcue.dispatcher.MemoryUsageAggregator;
 import com.imageworks.spcue.grpc.host.HardwareState;
+import com.imageworks.spcue.grpc.report.HostReport;
 import com.imageworks.spcue.grpc.report.RenderHost;
+import com.imageworks.spcue.grpc.report.RunningFrameInfo;
 import com.imageworks.spcue.service.AdminManager;
 import com.imageworks.spcue.service.GroupManager;
 import com.imageworks.spcue.service.HostManager;
@@ -44,6 +49,9 @@ import com.imageworks.spcue.test.TransactionalTest;
 import com.imageworks.spcue.util.CueUtil;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 @ContextConfiguration
 public class DispatchSupportTests extends TransactionalTest {
@@ -162,5 +170,116 @@ public class DispatchSupportTests extends TransactionalTest {
         dispatchSupport.determineIdleCores(host, 700 + grace_load + 1);
         assertEquals(99, host.idleCores);
     }
-}
 
+    /**
+     * Dispatches the test job and returns a host report with a
+     * running frame for each booked proc.  Each frame reports a
+     * max rss one GB higher than the last.
+     */
+    private HostReport getRunningFramesReport(JobDetail job) {
+        DispatchHost host = getHost();
+
+        // The test job has no GPU layers.
+        host.idleGpu = 0;
+        List<VirtualProc> procs = dispatcher.dispatchHost(host, job);
+        assertTrue(procs.size() > 0);
+
+        HostReport.Builder report = HostReport.newBuilder()
+                .setHost(RenderHost.newBuilder().setName(HOSTNAME));
+        long maxRss = 0;
+        for (VirtualProc proc: procs) {
+            maxRss = maxRss + CueUtil.GB;
+            report.addFrames(RunningFrameInfo.newBuilder()
+                    .setFrameId(proc.getFrameId())
+                    .setJobId(proc.getJobId())
+                    .setLayerId(proc.getLayerId())
+                    .setResourceId(proc.getProcId())
+                    .setRss(CueUtil.MB512)
+                    .setMaxRss(maxRss)
+                    .setVsize(CueUtil.GB)
+                    .setMaxVsize(CueUtil.GB2)
+                    .build());
+        }
+        return report.build();
+    }
+
+    private void assertMemoryUsage(JobDetail job, HostReport report) {
+        long maxRss = 0;
+        for (RunningFrameInfo frame: report.getFramesList()) {
+            assertEquals(Long.valueOf(frame.getMaxRss()), jdbcTemplate.queryForObject(
+                    "SELECT int_mem_max_used FROM frame WHERE pk_frame=?",
+                    Long.class, frame.getFrameId()));
+            assertEquals(Long.valueOf(CueUtil.MB512), jdbcTemplate.queryForObject(
+                    "SELECT int_mem_used FROM proc WHERE pk_frame=?",
+                    Long.class, frame.getFrameId()));
+            assertEquals(Long.valueOf(CueUtil.GB2), jdbcTemplate.queryForObject(
+                    "SELECT int_virt_max_used FROM proc WHERE pk_frame=?",
+                    Long.class, frame.getFrameId()));
+            assertTrue(frame.getMaxRss() <= jdbcTemplate.queryForObject(
+                    "SELECT int_max_rss FROM layer_mem WHERE pk_layer=?",
+                    Long.class, frame.getLayerId()));
+            maxRss = Math.max(maxRss, frame.getMaxRss());
+        }
+
+        assertEquals(Long.valueOf(maxRss), jdbcTemplate.queryForObject(
+                "SELECT int_max_rss FROM job_mem WHERE pk_job=?",
+                Long.class, job.getJobId()));
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testUpdateMemoryUsage() {
+        JobDetail job = getJob();
+        HostReport report = getRunningFramesReport(job);
+
+        dispatchSupport.updateMemoryUsage(report);
+        assertMemoryUsage(job, report);
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testMemoryUsageWriteBehind() {
+        JobDetail job = getJob();
+        HostReport report = getRunningFramesReport(job);
+
+        MemoryUsageAggregator aggregator = new MemoryUsageAggregator(true);
+        aggregator.setDispatchSupport(dispatchSupport);
+
+        aggregator.record(report);
+        assertEquals(report.getFramesCount(), aggregator.getPendingCount());
+
+        RunningFrameInfo frame = report.getFrames(0);
+        assertEquals(frame, aggregator.getFrame(frame.getFrameId()));
+        assertNotEquals(Long.valueOf(CueUtil.MB512), jdbcTemplate.queryForObject(
+                "SELECT int_mem_used FROM proc WHERE pk_frame=?",
+                Long.class, frame.getFrameId()));
+
+        assertEquals(report.getFramesCount(), aggregator.flush());
+        assertEquals(0, aggregator.getPendingCount());
+        assertMemoryUsage(job, report);
+        assertEquals(0, aggregator.flush());
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testMemoryUsageLateReportForCompletedFrame() {
+        JobDetail job = getJob();
+        HostReport report = getRunningFramesReport(job);
+
+        MemoryUsageAggregator aggregator = new MemoryUsageAggregator(true);
+        aggregator.setDispatchSupport(dispatchSupport);
+
+        RunningFrameInfo frame = report.getFrames(0);
+        aggregator.record(report);
+        aggregator.remove(frame.getFrameId());
+
+        // A report sent before the frame completed arrives late.
+        aggregator.record(report);
+        assertNull(aggregator.getFrame(frame.getFrameId()));
+        assertEquals(report.getFramesCount() - 1, aggregator.getPendingCount());
+        assertEquals(report.getFramesCount() - 1, aggregator.flush());
+    }
+}
@@ -0,0 +1,279 @@
+
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.DispatchFrame;
+import com.imageworks.spcue.HostInterface;
+import com.imageworks.spcue.VirtualProc;
+import com.imageworks.spcue.dispatcher.CoreUnitDispatcher;
+import com.imageworks.spcue.dispatcher.DispatchSupportService;
+import com.imageworks.spcue.dispatcher.FrameLauncher;
+import com.imageworks.spcue.dispatcher.FrameReservationException;
+import com.imageworks.spcue.dispatcher.LaunchThrottledException;
+import com.imageworks.spcue.grpc.host.LockState;
+import com.imageworks.spcue.grpc.report.RunningFrameInfo;
+import com.imageworks.spcue.grpc.rqd.RqdStaticKillRunningFrameResponse;
+import com.imageworks.spcue.grpc.rqd.RqdStaticLaunchFrameResponse;
+import com.imageworks.spcue.grpc.rqd.RunFrame;
+import com.imageworks.spcue.rqd.RqdClient;
+import com.imageworks.spcue.rqd.RqdClientException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FrameLauncherTests {
+
+    /**
+     * Holds every launch until the test completes it, and records
+     * launches and kills in the shared event list.
+     */
+    private static class HeldRqdClient implements RqdClient {
+        final List<String> events;
+        final List<SettableFuture<RqdStaticLaunchFrameResponse>> launches =
+                new CopyOnWriteArrayList<SettableFuture<RqdStaticLaunchFrameResponse>>();
+
+        HeldRqdClient(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public ListenableFuture<RqdStaticLaunchFrameResponse> launchFrameAsync(
+                RunFrame frame, VirtualProc proc, long deadlineMillis) {
+            events.add("launch");
+            SettableFuture<RqdStaticLaunchFrameResponse> result = SettableFuture.create();
+            launches.add(result);
+            return result;
+        }
+
+        @Override
+        public void killFrame(VirtualProc proc, String message) {
+            events.add("kill");
+        }
+
+        @Override
+        public void setTestMode(boolean tests) { }
+
+        @Override
+        public RunningFrameInfo getFrameStatus(VirtualProc proc) {
+            return null;
+        }
+
+        @Override
+        public void setHostLock(HostInterface host, LockState lock) { }
+
+        @Override
+        public void lockHost(HostInterface host) { }
+
+        @Override
+        public void unlockHost(HostInterface host) { }
+
+        @Override
+        public void rebootNow(HostInterface host) { }
+
+        @Override
+        public void rebootWhenIdle(HostInterface host) { }
+
+        @Override
+        public void launchFrame(RunFrame frame, VirtualProc proc) { }
+
+        @Override
+        public void killFrame(String hostName, String frameId, String message) { }
+
+        @Override
+        public ListenableFuture<RqdStaticKillRunningFrameResponse> killFrameAsync(
+                VirtualProc proc, String message, long deadlineMillis) {
+            return null;
+        }
+    }
+
+    /**
+     * Records each step of a dispatch instead of going to the database.
+     */
+    private static class RecordingDispatchSupport extends DispatchSupportService {
+        final List<String> events;
+        volatile boolean failStart = false;
+
+        RecordingDispatchSupport(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void startFrame(VirtualProc proc, DispatchFrame frame) {
+            if (failStart) {
+                throw new FrameReservationException("frame was already started");
+            }
+            events.add("startFrame");
+        }
+
+        @Override
+        public void reserveProc(VirtualProc proc, DispatchFrame frame) {
+            events.add("reserveProc");
+        }
+
+        @Override
+        public RunFrame prepareRqdRunFrame(VirtualProc proc, DispatchFrame frame) {
+            return RunFrame.getDefaultInstance();
+        }
+
+        @Override
+        public void unbookProc(VirtualProc proc) {
+            events.add("unbookProc");
+        }
+
+        @Override
+        public void clearFrame(DispatchFrame frame) {
+            events.add("clearFrame");
+        }
+    }
+
+    private final List<String> events = new CopyOnWriteArrayList<String>();
+    private HeldRqdClient rqdClient;
+    private RecordingDispatchSupport dispatchSupport;
+    private FrameLauncher frameLauncher;
+    private CoreUnitDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        rqdClient = new HeldRqdClient(events);
+        dispatchSupport = new RecordingDispatchSupport(events);
+
+        frameLauncher = new FrameLauncher(true, 2, 1, 30000);
+        frameLauncher.setRqdClient(rqdClient);
+        frameLauncher.setDispatchSupport(dispatchSupport);
+
+        dispatcher = new CoreUnitDispatcher();
+        dispatcher.setDispatchSupport(dispatchSupport);
+        dispatcher.setRqdClient(rqdClient);
+        dispatcher.setFrameLauncher(frameLauncher);
+    }
+
+    @After
+    public void tearDown() {
+        frameLauncher.shutdown();
+    }
+
+    private VirtualProc getProc(String hostName) {
+        VirtualProc proc = new VirtualProc();
+        proc.hostName = hostName;
+        return proc;
+    }
+
+    private DispatchFrame getFrame() {
+        DispatchFrame frame = new DispatchFrame();
+        frame.name = "0001-pass_1";
+        return frame;
+    }
+
+    private void waitForEvent(String event) throws InterruptedException {
+        for (int i = 0; i < 500 && !events.contains(event); i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testReserveDoesNotWait() {
+        long startTime = System.currentTimeMillis();
+
+        assertTrue(frameLauncher.reserve("host1"));
+        assertFalse(frameLauncher.reserve("host1"));
+        assertTrue(frameLauncher.reserve("host2"));
+        assertFalse(frameLauncher.reserve("host3"));
+
+        assertTrue(System.currentTimeMillis() - startTime < 1000);
+        assertEquals(2, frameLauncher.getThrottledCount());
+        assertEquals(2, frameLauncher.getInFlightCount());
+
+        frameLauncher.release("host1");
+        assertTrue(frameLauncher.reserve("host3"));
+    }
+
+    @Test
+    public void testLaunchReleasesPermitOnSuccess() {
+        VirtualProc proc = getProc("host1");
+        assertTrue(frameLauncher.reserve(proc.hostName));
+        frameLauncher.launch(proc, getFrame(), e -> fail("launch should not fail"));
+        assertEquals(1, frameLauncher.getInFlightCount());
+
+        rqdClient.launches.get(0).set(RqdStaticLaunchFrameResponse.getDefaultInstance());
+        assertEquals(0, frameLauncher.getInFlightCount());
+        assertEquals(1, frameLauncher.getLaunchedCount());
+    }
+
+    @Test
+    public void testDispatchThrottled() {
+        dispatcher.dispatch(getFrame(), getProc("host1"));
+        assertEquals(Arrays.asList("startFrame", "reserveProc", "launch"), events);
+
+        long startTime = System.currentTimeMillis();
+        try {
+            dispatcher.dispatch(getFrame(), getProc("host1"));
+            fail("expected the dispatch to be throttled");
+        } catch (LaunchThrottledException e) {
+            // Nothing is reserved for a throttled frame.
+        }
+        assertTrue(System.currentTimeMillis() - startTime < 1000);
+        assertEquals(Arrays.asList("startFrame", "reserveProc", "launch"), events);
+
+        dispatcher.dispatch(getFrame(), getProc("host2"));
+        assertEquals(2, rqdClient.launches.size());
+    }
+
+    @Test
+    public void testLaunchFailureRollsBack() throws InterruptedException {
+        dispatcher.dispatch(getFrame(), getProc("host1"));
+        rqdClient.launches.get(0).setException(
+                new RqdClientException("failed to launch frame"));
+
+        waitForEvent("kill");
+        assertEquals(Arrays.asList("startFrame", "reserveProc", "launch",
+                "unbookProc", "clearFrame", "kill"), events);
+        assertEquals(0, frameLauncher.getInFlightCount());
+        assertEquals(1, frameLauncher.getFailedCount());
+    }
+
+    @Test
+    public void testReservationReleasedWhenStartFails() {
+        dispatchSupport.failStart = true;
+        try {
+            dispatcher.dispatch(getFrame(), getProc("host1"));
+            fail("expected the frame reservation to fail");
+        } catch (FrameReservationException e) {
+            // The launch reservation is given back.
+        }
+        assertEquals(0, frameLauncher.getInFlightCount());
+        assertTrue(events.isEmpty());
+
+        dispatchSupport.failStart = false;
+        dispatcher.dispatch(getFrame(), getProc("host1"));
+        assertEquals(1, rqdClient.launches.size());
+    }
+}
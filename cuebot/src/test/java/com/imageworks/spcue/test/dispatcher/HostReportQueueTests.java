@@ -0,0 +1,199 @@
+
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.dispatcher.HostReportHandler;
+import com.imageworks.spcue.dispatcher.HostReportQueue;
+import com.imageworks.spcue.dispatcher.commands.DispatchHandleHostReport;
+import com.imageworks.spcue.grpc.report.BootReport;
+import com.imageworks.spcue.grpc.report.HostReport;
+import com.imageworks.spcue.grpc.report.RenderHost;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HostReportQueueTests {
+
+    /**
+     * Records the reports it is handed and blocks the first
+     * report until released.
+     */
+    private static class RecordingHandler extends HostReportHandler {
+        final List<HostReport> handled = new CopyOnWriteArrayList<HostReport>();
+        final List<Boolean> boot = new CopyOnWriteArrayList<Boolean>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void handleHostReport(HostReport report, boolean isBoot) {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            handled.add(report);
+            boot.add(isBoot);
+        }
+    }
+
+    private RecordingHandler handler;
+    private HostReportQueue queue;
+
+    @Before
+    public void setUp() {
+        handler = new RecordingHandler();
+        queue = new HostReportQueue(1, 1, 2);
+        handler.setReportQueue(queue);
+    }
+
+    @After
+    public void tearDown() {
+        handler.release.countDown();
+        queue.shutdownNow();
+    }
+
+    private static HostReport hostReport(String hostName, int freeMem) {
+        return HostReport.newBuilder()
+                .setHost(RenderHost.newBuilder()
+                        .setName(hostName)
+                        .setFreeMem(freeMem)
+                        .build())
+                .build();
+    }
+
+    private DispatchHandleHostReport report(String hostName, int freeMem) {
+        return new DispatchHandleHostReport(hostReport(hostName, freeMem), handler);
+    }
+
+    private void awaitProcessed(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (queue.getProcessedCount() < count || queue.getActiveCount() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testCoalesceByHost() throws InterruptedException {
+        queue.execute(report("busy", 0));
+        assertTrue(handler.started.await(10, TimeUnit.SECONDS));
+
+        queue.execute(report("alpha", 1));
+        queue.execute(report("beta", 1));
+        queue.execute(report("alpha", 2));
+        queue.execute(report("alpha", 3));
+
+        assertEquals(2, queue.getQueue().size());
+        assertEquals(2, queue.getPendingCount());
+        assertEquals(2, queue.getCoalescedCount());
+
+        handler.release.countDown();
+        awaitProcessed(3);
+
+        assertEquals(3, handler.handled.size());
+        assertEquals("busy", handler.handled.get(0).getHost().getName());
+
+        /*
+         * Alpha keeps its place in line ahead of beta but is
+         * handled with its latest report.
+         */
+        assertEquals("alpha", handler.handled.get(1).getHost().getName());
+        assertEquals(3, handler.handled.get(1).getHost().getFreeMem());
+        assertEquals("beta", handler.handled.get(2).getHost().getName());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    public void testDropWhenFull() throws InterruptedException {
+        queue.execute(report("busy", 0));
+        assertTrue(handler.started.await(10, TimeUnit.SECONDS));
+
+        queue.execute(report("alpha", 1));
+        queue.execute(report("beta", 1));
+        queue.execute(report("gamma", 1));
+
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(1, queue.getRejectedTaskCount());
+        assertEquals(2, queue.getPendingCount());
+
+        handler.release.countDown();
+        awaitProcessed(3);
+
+        /*
+         * Once there is room again the host is queued normally.
+         */
+        queue.execute(report("gamma", 2));
+        awaitProcessed(4);
+
+        assertEquals(4, handler.handled.size());
+        assertEquals("gamma", handler.handled.get(3).getHost().getName());
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    public void testCoalesceThroughHandler() throws InterruptedException {
+        handler.queueHostReport(hostReport("busy", 0));
+        assertTrue(handler.started.await(10, TimeUnit.SECONDS));
+
+        handler.queueHostReport(hostReport("alpha", 1));
+        handler.queueHostReport(hostReport("alpha", 2));
+
+        assertEquals(1, queue.getQueue().size());
+        assertEquals(1, queue.getCoalescedCount());
+
+        handler.release.countDown();
+        awaitProcessed(2);
+
+        assertEquals(2, handler.handled.size());
+        assertEquals(2, handler.handled.get(1).getHost().getFreeMem());
+    }
+
+    @Test
+    public void testBootReportNotLost() throws InterruptedException {
+        handler.queueHostReport(hostReport("busy", 0));
+        assertTrue(handler.started.await(10, TimeUnit.SECONDS));
+
+        handler.queueBootReport(BootReport.newBuilder()
+                .setHost(RenderHost.newBuilder()
+                        .setName("alpha")
+                        .setFreeMem(1)
+                        .build())
+                .build());
+        handler.queueHostReport(hostReport("alpha", 2));
+
+        handler.release.countDown();
+        awaitProcessed(2);
+
+        /*
+         * The newer report replaced the boot report but is still
+         * handled as one.
+         */
+        assertEquals(2, handler.handled.get(1).getHost().getFreeMem());
+        assertTrue(handler.boot.get(1));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.test.dispatcher;
+
+import org.junit.Test;
+
+import com.imageworks.spcue.dispatcher.HostStatsFilter;
+import com.imageworks.spcue.grpc.report.RenderHost;
+import com.imageworks.spcue.util.CueUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HostStatsFilterTests {
+
+    private static final String HOST_ID = "host_id";
+
+    private RenderHost.Builder renderHost() {
+        return RenderHost.newBuilder()
+                .setName("test_host")
+                .setBootTime(1192369572)
+                .setTotalMem((int) CueUtil.GB16)
+                .setFreeMem((int) CueUtil.GB8)
+                .setTotalSwap((int) CueUtil.GB2)
+                .setFreeSwap((int) CueUtil.GB2)
+                .setTotalMcp((int) CueUtil.GB4)
+                .setFreeMcp((int) CueUtil.GB4)
+                .setLoad(100)
+                .putAttributes("SP_OS", "Linux");
+    }
+
+    private HostStatsFilter written(HostStatsFilter filter, RenderHost rhost) {
+        assertTrue(filter.isChanged(HOST_ID, rhost, 0, 0));
+        filter.written(HOST_ID, rhost, 0, 0);
+        return filter;
+    }
+
+    @Test
+    public void testSkipUnchanged() {
+        HostStatsFilter filter = written(new HostStatsFilter(true, 2, 50, 60000, 30000),
+                renderHost().build());
+
+        assertFalse(filter.isChanged(HOST_ID, renderHost().build(), 0, 0));
+        assertFalse(filter.isChanged(HOST_ID,
+                renderHost().setFreeMem((int) (CueUtil.GB8 + CueUtil.MB128)).setLoad(140)
+                        .build(), 0, 0));
+        assertEquals(1, filter.getWriteCount());
+        assertEquals(2, filter.getSkipCount());
+    }
+
+    @Test
+    public void testSignificantChange() {
+        HostStatsFilter filter = written(new HostStatsFilter(true, 2, 50, 60000, 30000),
+                renderHost().build());
+
+        assertTrue(filter.isChanged(HOST_ID,
+                renderHost().setFreeMem((int) CueUtil.GB4).build(), 0, 0));
+        assertTrue(filter.isChanged(HOST_ID, renderHost().setLoad(200).build(), 0, 0));
+        assertTrue(filter.isChanged(HOST_ID, renderHost().setBootTime(1192369999).build(), 0, 0));
+        assertTrue(filter.isChanged(HOST_ID, renderHost().build(), 1, 1));
+        assertTrue(filter.isChanged(HOST_ID,
+                renderHost().putAttributes("SP_OS", "Windows").build(), 0, 0));
+    }
+
+    @Test
+    public void testLowMemory() {
+        RenderHost rhost = renderHost().setFreeMem((int) CueUtil.MB256).build();
+        HostStatsFilter filter = written(new HostStatsFilter(true, 2, 50, 60000, 30000), rhost);
+        assertTrue(filter.isChanged(HOST_ID, rhost, 0, 0));
+    }
+
+    @Test
+    public void testMaxStale() throws InterruptedException {
+        HostStatsFilter filter = written(new HostStatsFilter(true, 2, 50, 100, 30000),
+                renderHost().build());
+        assertFalse(filter.isChanged(HOST_ID, renderHost().build(), 0, 0));
+        Thread.sleep(150);
+        assertTrue(filter.isChanged(HOST_ID, renderHost().build(), 0, 0));
+    }
+
+    @Test
+    public void testDisabled() {
+        HostStatsFilter filter = written(new HostStatsFilter(false, 2, 50, 60000, 30000),
+                renderHost().build());
+        assertTrue(filter.isChanged(HOST_ID, renderHost().build(), 0, 0));
+    }
+
+    @Test
+    public void testPingThrottled() throws InterruptedException {
+        HostStatsFilter filter = written(new HostStatsFilter(true, 2, 50, 60000, 100),
+                renderHost().build());
+
+        assertFalse(filter.isChanged(HOST_ID, renderHost().build(), 0, 0));
+        assertFalse(filter.isPingDue(HOST_ID));
+        Thread.sleep(150);
+        assertTrue(filter.isPingDue(HOST_ID));
+        assertFalse(filter.isPingDue(HOST_ID));
+        assertEquals(1, filter.getPingCount());
+    }
+}
@@ -0,0 +1,191 @@
+
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.core.task.TaskRejectedException;
+
+import com.imageworks.spcue.dispatcher.JobLaunchQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JobLaunchQueueTests {
+
+    private final List<String> launched = new CopyOnWriteArrayList<String>();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private JobLaunchQueue queue;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        queue.shutdown();
+    }
+
+    /**
+     * A launch which records its name and then waits for the
+     * test to release it.
+     */
+    private Runnable launch(final String name, final CountDownLatch started,
+                            final boolean block) {
+        return new Runnable() {
+            public void run() {
+                launched.add(name);
+                started.countDown();
+                if (block) {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+    }
+
+    private Runnable launch(String name, CountDownLatch started) {
+        return launch(name, started, false);
+    }
+
+    private void waitFor(long count) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (queue.getLaunchedCount() < count) {
+            assertTrue(System.currentTimeMillis() - start < 10000);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testRejectWhenFull() throws InterruptedException {
+        queue = new JobLaunchQueue(1, 1, 2, 10, 1);
+
+        CountDownLatch started = new CountDownLatch(1);
+        queue.execute("pipe", launch("a0", started, true));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        queue.execute("pipe", launch("a1", new CountDownLatch(1)));
+        queue.execute("edu", launch("b0", new CountDownLatch(1)));
+        assertEquals(2, queue.getPendingCount());
+
+        try {
+            queue.execute("test", launch("c0", new CountDownLatch(1)));
+            fail("expected the launch to be rejected");
+        } catch (TaskRejectedException e) {
+            // expected
+        }
+        assertEquals(1, queue.getRejectedCount());
+
+        release.countDown();
+        waitFor(3);
+        assertEquals(Arrays.asList("a0", "a1", "b0"), launched);
+    }
+
+    @Test
+    public void testRejectWhenShowFull() throws InterruptedException {
+        queue = new JobLaunchQueue(1, 1, 10, 1, 1);
+
+        CountDownLatch started = new CountDownLatch(1);
+        queue.execute("pipe", launch("a0", started, true));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        queue.execute("pipe", launch("a1", new CountDownLatch(1)));
+
+        try {
+            queue.execute("pipe", launch("a2", new CountDownLatch(1)));
+            fail("expected the launch to be rejected");
+        } catch (TaskRejectedException e) {
+            // expected
+        }
+
+        // Other shows can still launch.
+        queue.execute("edu", launch("b0", new CountDownLatch(1)));
+        assertEquals(2, queue.getPendingCount());
+        assertEquals(1, queue.getRejectedCount());
+    }
+
+    @Test
+    public void testRoundRobinShows() throws InterruptedException {
+        queue = new JobLaunchQueue(1, 1, 10, 10, 1);
+
+        CountDownLatch started = new CountDownLatch(1);
+        queue.execute("pipe", launch("a0", started, true));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        CountDownLatch done = new CountDownLatch(4);
+        queue.execute("pipe", launch("a1", done));
+        queue.execute("pipe", launch("a2", done));
+        queue.execute("edu", launch("b0", done));
+        queue.execute("edu", launch("b1", done));
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        waitFor(5);
+        assertEquals(Arrays.asList("a0", "a1", "b0", "a2", "b1"), launched);
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(0, queue.getActiveCount());
+    }
+
+    @Test
+    public void testActivePerShowLimit() throws InterruptedException {
+        queue = new JobLaunchQueue(2, 1, 10, 10, 1);
+
+        CountDownLatch started = new CountDownLatch(1);
+        queue.execute("pipe", launch("a0", started, true));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        /*
+         * The second pipe launch has to wait for the first even
+         * though a thread is free, the edu launch does not.
+         */
+        CountDownLatch a1 = new CountDownLatch(1);
+        CountDownLatch b0 = new CountDownLatch(1);
+        queue.execute("pipe", launch("a1", a1));
+        queue.execute("edu", launch("b0", b0));
+
+        assertTrue(b0.await(10, TimeUnit.SECONDS));
+        assertFalse(a1.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, queue.getPendingCount());
+
+        release.countDown();
+        assertTrue(a1.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPostLaunch() throws InterruptedException {
+        queue = new JobLaunchQueue(1, 1, 10, 10, 1);
+
+        final CountDownLatch posted = new CountDownLatch(1);
+        queue.execute("pipe", new Runnable() {
+            public void run() {
+                queue.executePostLaunch(launch("post", posted));
+            }
+        });
+        assertTrue(posted.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("post"), launched);
+    }
+}
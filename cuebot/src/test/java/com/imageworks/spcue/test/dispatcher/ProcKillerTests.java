@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.HostInterface;
+import com.imageworks.spcue.VirtualProc;
+import com.imageworks.spcue.dispatcher.DispatchSupportService;
+import com.imageworks.spcue.dispatcher.ProcKiller;
+import com.imageworks.spcue.grpc.host.LockState;
+import com.imageworks.spcue.grpc.report.RunningFrameInfo;
+import com.imageworks.spcue.grpc.rqd.RqdStaticKillRunningFrameResponse;
+import com.imageworks.spcue.grpc.rqd.RqdStaticLaunchFrameResponse;
+import com.imageworks.spcue.grpc.rqd.RunFrame;
+import com.imageworks.spcue.rqd.RqdClient;
+import com.imageworks.spcue.rqd.RqdClientException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProcKillerTests {
+
+    /**
+     * Completes kills from a background thread, failing the kills
+     * for frames in the failed set, and tracks how many kills are
+     * in flight for each host.
+     */
+    private static class RecordingRqdClient implements RqdClient {
+        final List<String> failed = new ArrayList<String>();
+        final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<String, AtomicInteger>();
+        final AtomicInteger maxInFlight = new AtomicInteger(0);
+
+        @Override
+        public ListenableFuture<RqdStaticKillRunningFrameResponse> killFrameAsync(
+                VirtualProc proc, String message, long deadlineMillis) {
+            AtomicInteger count = inFlight.computeIfAbsent(proc.hostName, h -> new AtomicInteger());
+            maxInFlight.accumulateAndGet(count.incrementAndGet(), Math::max);
+
+            if (failed.contains(proc.frameId)) {
+                count.decrementAndGet();
+                return Futures.immediateFailedFuture(
+                        new RqdClientException("failed to kill frame " + proc.frameId));
+            }
+
+            SettableFuture<RqdStaticKillRunningFrameResponse> result = SettableFuture.create();
+            new Thread(() -> {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                count.decrementAndGet();
+                result.set(RqdStaticKillRunningFrameResponse.getDefaultInstance());
+            }).start();
+            return result;
+        }
+
+        @Override
+        public void setTestMode(boolean tests) { }
+
+        @Override
+        public RunningFrameInfo getFrameStatus(VirtualProc proc) {
+            return null;
+        }
+
+        @Override
+        public void setHostLock(HostInterface host, LockState lock) { }
+
+        @Override
+        public void lockHost(HostInterface host) { }
+
+        @Override
+        public void unlockHost(HostInterface host) { }
+
+        @Override
+        public void rebootNow(HostInterface host) { }
+
+        @Override
+        public void rebootWhenIdle(HostInterface host) { }
+
+        @Override
+        public void launchFrame(RunFrame frame, VirtualProc proc) { }
+
+        @Override
+        public ListenableFuture<RqdStaticLaunchFrameResponse> launchFrameAsync(
+                RunFrame frame, VirtualProc proc, long deadlineMillis) {
+            return Futures.immediateFuture(RqdStaticLaunchFrameResponse.getDefaultInstance());
+        }
+
+        @Override
+        public void killFrame(VirtualProc proc, String message) { }
+
+        @Override
+        public void killFrame(String hostName, String frameId, String message) { }
+    }
+
+    /**
+     * Records the procs which were cleared as lost.
+     */
+    private static class RecordingDispatchSupport extends DispatchSupportService {
+        final List<VirtualProc> lost = new CopyOnWriteArrayList<VirtualProc>();
+
+        @Override
+        public void lostProc(VirtualProc proc, String reason, int exitStatus) {
+            lost.add(proc);
+        }
+    }
+
+    private RecordingRqdClient rqdClient;
+    private RecordingDispatchSupport dispatchSupport;
+    private ProcKiller procKiller;
+
+    @Before
+    public void setUp() {
+        rqdClient = new RecordingRqdClient();
+        dispatchSupport = new RecordingDispatchSupport();
+        procKiller = new ProcKiller(8, 2, 1000);
+        procKiller.setRqdClient(rqdClient);
+        procKiller.setDispatchSupport(dispatchSupport);
+    }
+
+    private List<VirtualProc> procs(int hosts, int procsPerHost) {
+        List<VirtualProc> result = new ArrayList<VirtualProc>();
+        for (int h = 0; h < hosts; h++) {
+            for (int p = 0; p < procsPerHost; p++) {
+                VirtualProc proc = new VirtualProc();
+                proc.hostName = "host" + h;
+                proc.frameId = "frame" + h + "-" + p;
+                result.add(proc);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testKill() {
+        ProcKiller.KillResult result = procKiller.kill(procs(4, 10), "test");
+        assertEquals(40, result.killed);
+        assertEquals(0, result.failed);
+        assertEquals(40, procKiller.getKilledCount());
+        assertTrue(dispatchSupport.lost.isEmpty());
+
+        long total = 0;
+        for (long count: procKiller.getLatencyCounts()) {
+            total = total + count;
+        }
+        assertEquals(40, total);
+        assertEquals(procKiller.getLatencyBuckets().length + 1,
+                procKiller.getLatencyCounts().length);
+    }
+
+    @Test
+    public void testKillPerHostLimit() {
+        procKiller.kill(procs(1, 20), "test");
+        assertTrue(rqdClient.maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void testKillFailed() {
+        rqdClient.failed.add("frame1-3");
+        ProcKiller.KillResult result = procKiller.kill(procs(2, 5), "test");
+        assertEquals(9, result.killed);
+        assertEquals(1, result.failed);
+        assertEquals(1, dispatchSupport.lost.size());
+        assertEquals("frame1-3", dispatchSupport.lost.get(0).frameId);
+    }
+}
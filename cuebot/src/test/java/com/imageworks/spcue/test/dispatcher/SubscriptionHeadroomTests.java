@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.test.dispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.dispatcher.SubscriptionHeadroom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SubscriptionHeadroomTests {
+
+    private final List<SubscriptionHeadroom.Entry> entries =
+        new ArrayList<SubscriptionHeadroom.Entry>();
+    private SubscriptionHeadroom headroom;
+
+    @Before
+    public void setUp() {
+        entries.add(new SubscriptionHeadroom.Entry("show_a", "alloc_a", 1000, 200));
+        entries.add(new SubscriptionHeadroom.Entry("show_b", "alloc_a", 500, 500));
+        headroom = new SubscriptionHeadroom(true);
+        headroom.setLoader(() -> entries);
+    }
+
+    @Test
+    public void testNotLoaded() {
+        assertNull(headroom.getHeadroom("show_a", "alloc_a"));
+        headroom.coresReserved("show_a", "alloc_a", 100);
+        headroom.reconcile();
+        assertEquals(Integer.valueOf(800), headroom.getHeadroom("show_a", "alloc_a"));
+        assertNull(headroom.getHeadroom("show_a", "alloc_b"));
+        assertEquals(2, headroom.getMissCount());
+    }
+
+    @Test
+    public void testReserveAndRelease() {
+        headroom.reconcile();
+        assertEquals(Integer.valueOf(0), headroom.getHeadroom("show_b", "alloc_a"));
+
+        headroom.coresReserved("show_a", "alloc_a", 300);
+        assertEquals(Integer.valueOf(500), headroom.getHeadroom("show_a", "alloc_a"));
+        headroom.coresReleased("show_a", "alloc_a", 100);
+        assertEquals(Integer.valueOf(600), headroom.getHeadroom("show_a", "alloc_a"));
+    }
+
+    @Test
+    public void testReconcile() {
+        headroom.reconcile();
+        headroom.coresReserved("show_a", "alloc_a", 300);
+
+        entries.clear();
+        entries.add(new SubscriptionHeadroom.Entry("show_a", "alloc_a", 2000, 400));
+        headroom.reconcile();
+
+        assertEquals(Integer.valueOf(1600), headroom.getHeadroom("show_a", "alloc_a"));
+        assertNull(headroom.getHeadroom("show_b", "alloc_a"));
+        assertEquals(1, headroom.getSubscriptionCount());
+        assertEquals(2, headroom.getReconcileCount());
+    }
+
+    @Test
+    public void testDisabled() {
+        headroom = new SubscriptionHeadroom(false);
+        headroom.setLoader(() -> entries);
+        headroom.reconcile();
+        assertNull(headroom.getHeadroom("show_a", "alloc_a"));
+        assertEquals(0, headroom.getSubscriptionCount());
+    }
+}
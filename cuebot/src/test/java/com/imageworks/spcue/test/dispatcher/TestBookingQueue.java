@@ -90,7 +90,7 @@ public class TestBookingQueue extends AbstractTransactionalJUnit4SpringContextTe
         host1.idleCores = 500;
         DispatchHost host2 = hostDao.findDispatchHost(HOSTNAME);
         DispatchHost host3 = hostDao.findDispatchHost(HOSTNAME);
-        BookingQueue queue = new BookingQueue(1000);
+        BookingQueue queue = new BookingQueue();
 
         queue.execute(new DispatchBookHost(host2,dispatcher));
         queue.execute(new DispatchBookHost(host3,dispatcher));
@@ -0,0 +1,306 @@
+
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.test.rqd;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.HostEntity;
+import com.imageworks.spcue.VirtualProc;
+import com.imageworks.spcue.grpc.rqd.RqdInterfaceGrpc;
+import com.imageworks.spcue.grpc.rqd.RqdStaticLaunchFrameRequest;
+import com.imageworks.spcue.grpc.rqd.RqdStaticLaunchFrameResponse;
+import com.imageworks.spcue.grpc.rqd.RqdStaticLockAllRequest;
+import com.imageworks.spcue.grpc.rqd.RqdStaticLockAllResponse;
+import com.imageworks.spcue.grpc.rqd.RunFrame;
+import com.imageworks.spcue.rqd.RqdClientException;
+import com.imageworks.spcue.rqd.RqdClientGrpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RqdClientGrpcTests {
+
+    private static final String SERVER_NAME = "rqd-client-grpc-tests";
+
+    /**
+     * Answers calls right away, or holds on to them until they are
+     * released when hang is set.
+     */
+    private static class FakeRqd extends RqdInterfaceGrpc.RqdInterfaceImplBase {
+        volatile boolean hang = false;
+        final AtomicInteger lockAllCalls = new AtomicInteger(0);
+        final List<StreamObserver<RqdStaticLaunchFrameResponse>> heldLaunches =
+                new CopyOnWriteArrayList<StreamObserver<RqdStaticLaunchFrameResponse>>();
+        final List<StreamObserver<RqdStaticLockAllResponse>> heldLocks =
+                new CopyOnWriteArrayList<StreamObserver<RqdStaticLockAllResponse>>();
+
+        @Override
+        public void launchFrame(RqdStaticLaunchFrameRequest request,
+                StreamObserver<RqdStaticLaunchFrameResponse> observer) {
+            if (hang) {
+                heldLaunches.add(observer);
+                return;
+            }
+            observer.onNext(RqdStaticLaunchFrameResponse.getDefaultInstance());
+            observer.onCompleted();
+        }
+
+        @Override
+        public void lockAll(RqdStaticLockAllRequest request,
+                StreamObserver<RqdStaticLockAllResponse> observer) {
+            lockAllCalls.incrementAndGet();
+            if (hang) {
+                heldLocks.add(observer);
+                return;
+            }
+            observer.onNext(RqdStaticLockAllResponse.getDefaultInstance());
+            observer.onCompleted();
+        }
+
+        void releaseLaunches() {
+            for (StreamObserver<RqdStaticLaunchFrameResponse> observer: heldLaunches) {
+                observer.onNext(RqdStaticLaunchFrameResponse.getDefaultInstance());
+                observer.onCompleted();
+            }
+            heldLaunches.clear();
+        }
+    }
+
+    private FakeRqd rqd;
+    private Server server;
+    private RqdClientGrpc rqdClient;
+
+    /**
+     * Every channel the client has opened, by host.
+     */
+    private final Map<String, List<ManagedChannel>> channels =
+            new ConcurrentHashMap<String, List<ManagedChannel>>();
+
+    @Before
+    public void setUp() throws IOException {
+        rqd = new FakeRqd();
+        server = InProcessServerBuilder.forName(SERVER_NAME)
+                .directExecutor()
+                .addService(rqd)
+                .build()
+                .start();
+    }
+
+    @After
+    public void tearDown() {
+        if (rqdClient != null) {
+            rqdClient.shutdown();
+        }
+        server.shutdownNow();
+        channels.clear();
+    }
+
+    private RqdClientGrpc getClient(int cacheSize, long deadlineMillis) {
+        rqdClient = new RqdClientGrpc(8444, cacheSize, 10, 1, deadlineMillis);
+        rqdClient.setChannelFactory(host -> {
+            ManagedChannel channel = InProcessChannelBuilder.forName(SERVER_NAME)
+                    .directExecutor()
+                    .build();
+            channels.computeIfAbsent(host,
+                    h -> new CopyOnWriteArrayList<ManagedChannel>()).add(channel);
+            return channel;
+        });
+        return rqdClient;
+    }
+
+    private HostEntity getHost(String name) {
+        HostEntity host = new HostEntity();
+        host.name = name;
+        return host;
+    }
+
+    private VirtualProc getProc(String hostName) {
+        VirtualProc proc = new VirtualProc();
+        proc.hostName = hostName;
+        proc.frameId = "frame-" + hostName;
+        return proc;
+    }
+
+    private int getOpenChannelCount() {
+        int open = 0;
+        for (List<ManagedChannel> opened: channels.values()) {
+            for (ManagedChannel channel: opened) {
+                if (!channel.isShutdown()) {
+                    open++;
+                }
+            }
+        }
+        return open;
+    }
+
+    @Test
+    public void testLaunchFrameAsync() throws Exception {
+        getClient(10, 1000);
+        ListenableFuture<RqdStaticLaunchFrameResponse> future =
+                rqdClient.launchFrameAsync(RunFrame.getDefaultInstance(), getProc("host1"), 1000);
+
+        assertEquals(RqdStaticLaunchFrameResponse.getDefaultInstance(),
+                future.get(5, TimeUnit.SECONDS));
+        assertEquals(1, rqdClient.getCallStats().get("launchFrame").getCalls());
+        assertEquals(0, rqdClient.getCallStats().get("launchFrame").getFailures());
+        assertEquals(1, rqdClient.getChannelCount());
+    }
+
+    @Test
+    public void testLaunchFrameAsyncDeadline() throws Exception {
+        getClient(10, 30000);
+        rqd.hang = true;
+
+        ListenableFuture<RqdStaticLaunchFrameResponse> future =
+                rqdClient.launchFrameAsync(RunFrame.getDefaultInstance(), getProc("host1"), 100);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("expected the launch to time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RqdClientException);
+            assertEquals(Status.Code.DEADLINE_EXCEEDED,
+                    Status.fromThrowable(e.getCause().getCause()).getCode());
+        }
+        assertEquals(1, rqdClient.getCallStats().get("launchFrame").getFailures());
+    }
+
+    @Test
+    public void testBlockingCallDeadline() {
+        getClient(10, 100);
+        rqd.hang = true;
+
+        long startTime = System.currentTimeMillis();
+        try {
+            rqdClient.lockHost(getHost("host1"));
+            fail("expected the lock to time out");
+        } catch (RqdClientException e) {
+            assertTrue(e.getCause() instanceof StatusRuntimeException);
+            assertEquals(Status.Code.DEADLINE_EXCEEDED,
+                    ((StatusRuntimeException) e.getCause()).getStatus().getCode());
+        }
+        assertTrue(System.currentTimeMillis() - startTime < 5000);
+        assertEquals(1, rqdClient.getCallStats().get("lockAll").getFailures());
+    }
+
+    @Test
+    public void testEvictedChannelDrains() throws Exception {
+        getClient(1, 30000);
+        rqd.hang = true;
+
+        ListenableFuture<RqdStaticLaunchFrameResponse> future =
+                rqdClient.launchFrameAsync(RunFrame.getDefaultInstance(), getProc("host1"), 30000);
+        ManagedChannel host1 = channels.get("host1").get(0);
+
+        /*
+         * Opening a channel to host2 evicts host1, whose launch is
+         * still running, so its channel stays open until it completes.
+         */
+        rqd.hang = false;
+        rqdClient.lockHost(getHost("host2"));
+        assertEquals(1, rqdClient.getChannelCount());
+        assertFalse(host1.isShutdown());
+        assertFalse(future.isDone());
+
+        rqd.releaseLaunches();
+        future.get(5, TimeUnit.SECONDS);
+        assertTrue(host1.isShutdown());
+        assertFalse(channels.get("host2").get(0).isShutdown());
+    }
+
+    @Test
+    public void testEvictedChannelNotReused() {
+        getClient(1, 30000);
+
+        rqdClient.lockHost(getHost("host1"));
+        rqdClient.lockHost(getHost("host2"));
+        assertTrue(channels.get("host1").get(0).isShutdown());
+
+        rqdClient.lockHost(getHost("host1"));
+        assertEquals(2, channels.get("host1").size());
+        assertFalse(channels.get("host1").get(1).isShutdown());
+        assertEquals(3, rqd.lockAllCalls.get());
+    }
+
+    @Test
+    public void testConcurrentCallsAcrossEviction() throws InterruptedException {
+        getClient(1, 30000);
+
+        final int threads = 8;
+        final int calls = 200;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger(0);
+
+        for (int i = 0; i < threads; i++) {
+            final int offset = i;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < calls; j++) {
+                            try {
+                                rqdClient.lockHost(getHost("host" + ((offset + j) % 3)));
+                            } catch (RqdClientException e) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        start.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+
+        /*
+         * No call may land on a channel that was shut down under it,
+         * and every evicted channel is shut down once its calls drain.
+         */
+        assertEquals(0, failures.get());
+        assertEquals(threads * calls, rqd.lockAllCalls.get());
+        assertEquals(rqdClient.getChannelCount(), getOpenChannelCount());
+    }
+}
@@ -0,0 +1,303 @@
+
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.test.servant;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.io.ByteStreams;
+import io.grpc.CallOptions;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
+import org.junit.After;
+import org.junit.Test;
+
+import com.imageworks.spcue.servant.ReadyWaiter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReadyWaiterTests {
+
+    private static final String SERVER_NAME = "ready-waiter-tests";
+    private static final String SERVICE_NAME = "spcue.test.ReadyWaiter";
+
+    private static final MethodDescriptor.Marshaller<String> STRING_MARSHALLER =
+            new MethodDescriptor.Marshaller<String>() {
+                @Override
+                public InputStream stream(String value) {
+                    return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+                }
+
+                @Override
+                public String parse(InputStream stream) {
+                    try {
+                        return new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+
+    /*
+     * Streams the number of messages given in the request, waiting
+     * for the client before each one like the streaming search calls.
+     */
+    private static final MethodDescriptor<String, String> STREAM_METHOD =
+            MethodDescriptor.<String, String>newBuilder()
+                    .setType(MethodDescriptor.MethodType.SERVER_STREAMING)
+                    .setFullMethodName(MethodDescriptor.generateFullMethodName(
+                            SERVICE_NAME, "Stream"))
+                    .setRequestMarshaller(STRING_MARSHALLER)
+                    .setResponseMarshaller(STRING_MARSHALLER)
+                    .build();
+
+    private Server server;
+    private ManagedChannel channel;
+    private final AtomicReference<Status> serverStatus = new AtomicReference<Status>();
+    private final CountDownLatch serverDone = new CountDownLatch(1);
+
+    /**
+     * A call whose readiness and cancellation are set by the test.
+     */
+    private static class FakeCall extends ServerCallStreamObserver<String> {
+        volatile boolean ready = false;
+        volatile boolean cancelled = false;
+        volatile Runnable onReady;
+        volatile Runnable onCancel;
+
+        void setReady() {
+            ready = true;
+            onReady.run();
+        }
+
+        void cancel() {
+            cancelled = true;
+            onCancel.run();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void setOnCancelHandler(Runnable onCancelHandler) {
+            onCancel = onCancelHandler;
+        }
+
+        @Override
+        public void setCompression(String compression) { }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {
+            onReady = onReadyHandler;
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() { }
+
+        @Override
+        public void request(int count) { }
+
+        @Override
+        public void setMessageCompression(boolean enable) { }
+
+        @Override
+        public void onNext(String value) { }
+
+        @Override
+        public void onError(Throwable t) { }
+
+        @Override
+        public void onCompleted() { }
+    }
+
+    @After
+    public void tearDown() {
+        if (channel != null) {
+            channel.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts an in-process server for the stream method.  The server
+     * uses the default executor, so the call's handlers are run by
+     * the same serializing executor as the service method.
+     */
+    private void startServer(long timeoutMillis) throws IOException {
+        server = InProcessServerBuilder.forName(SERVER_NAME)
+                .addService(ServerServiceDefinition.builder(SERVICE_NAME)
+                        .addMethod(STREAM_METHOD, ServerCalls.asyncServerStreamingCall(
+                                (request, responseObserver) -> {
+                                    ReadyWaiter ready = new ReadyWaiter(
+                                            responseObserver, timeoutMillis);
+                                    try {
+                                        for (int i = 0; i < Integer.parseInt(request); i++) {
+                                            ready.await();
+                                            responseObserver.onNext("message " + i);
+                                        }
+                                    } catch (StatusRuntimeException e) {
+                                        serverStatus.set(e.getStatus());
+                                        serverDone.countDown();
+                                        responseObserver.onError(e);
+                                        return;
+                                    }
+                                    serverStatus.set(Status.OK);
+                                    serverDone.countDown();
+                                    responseObserver.onCompleted();
+                                }))
+                        .build())
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(SERVER_NAME).build();
+    }
+
+    @Test
+    public void testSlowClient() throws Exception {
+        startServer(30000);
+
+        /*
+         * The blocking iterator only asks for one message at a time,
+         * so the server has to wait for the client before each one.
+         */
+        long startTime = System.currentTimeMillis();
+        Iterator<String> messages = ClientCalls.blockingServerStreamingCall(
+                channel, STREAM_METHOD, CallOptions.DEFAULT, "20");
+        int received = 0;
+        while (messages.hasNext()) {
+            messages.next();
+            received++;
+            Thread.sleep(20);
+        }
+
+        assertEquals(20, received);
+        assertTrue(serverDone.await(5, TimeUnit.SECONDS));
+        assertEquals(Status.Code.OK, serverStatus.get().getCode());
+        assertTrue(System.currentTimeMillis() - startTime < 10000);
+    }
+
+    @Test
+    public void testStalledClientDeadline() throws Exception {
+        startServer(200);
+
+        Iterator<String> messages = ClientCalls.blockingServerStreamingCall(
+                channel, STREAM_METHOD, CallOptions.DEFAULT, "20");
+        messages.next();
+
+        assertTrue(serverDone.await(5, TimeUnit.SECONDS));
+        assertEquals(Status.Code.DEADLINE_EXCEEDED, serverStatus.get().getCode());
+    }
+
+    /**
+     * Waits in another thread, returning a latch that is released with
+     * the status the wait ended with.
+     */
+    private CountDownLatch awaitInThread(ReadyWaiter waiter, Status[] status) {
+        CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    waiter.await();
+                    status[0] = Status.OK;
+                } catch (StatusRuntimeException e) {
+                    status[0] = e.getStatus();
+                } finally {
+                    done.countDown();
+                }
+            }
+        }).start();
+        return done;
+    }
+
+    @Test
+    public void testWokenWhenReady() throws InterruptedException {
+        FakeCall call = new FakeCall();
+        ReadyWaiter waiter = new ReadyWaiter(call, 30000);
+        Status[] status = new Status[1];
+
+        CountDownLatch done = awaitInThread(waiter, status);
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        call.setReady();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Status.Code.OK, status[0].getCode());
+    }
+
+    @Test
+    public void testWokenWhenCancelled() throws InterruptedException {
+        FakeCall call = new FakeCall();
+        ReadyWaiter waiter = new ReadyWaiter(call, 30000);
+        Status[] status = new Status[1];
+
+        CountDownLatch done = awaitInThread(waiter, status);
+        call.cancel();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Status.Code.CANCELLED, status[0].getCode());
+    }
+
+    @Test
+    public void testDeadline() {
+        FakeCall call = new FakeCall();
+        ReadyWaiter waiter = new ReadyWaiter(call, 100);
+
+        long startTime = System.currentTimeMillis();
+        try {
+            waiter.await();
+            fail("expected the wait to time out");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.DEADLINE_EXCEEDED, e.getStatus().getCode());
+        }
+        assertTrue(System.currentTimeMillis() - startTime < 5000);
+    }
+
+    @Test
+    public void testReadyDoesNotWait() {
+        FakeCall call = new FakeCall();
+        call.ready = true;
+        ReadyWaiter waiter = new ReadyWaiter(call, 0);
+        waiter.await();
+    }
+}
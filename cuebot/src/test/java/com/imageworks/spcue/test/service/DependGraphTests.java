@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.test.service;
+
+import java.io.File;
+import java.util.List;
+import javax.annotation.Resource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.imageworks.spcue.FrameDetail;
+import com.imageworks.spcue.FrameInterface;
+import com.imageworks.spcue.JobDetail;
+import com.imageworks.spcue.LightweightDependency;
+import com.imageworks.spcue.dao.DependDao;
+import com.imageworks.spcue.dao.FrameDao;
+import com.imageworks.spcue.depend.FrameOnFrame;
+import com.imageworks.spcue.grpc.depend.DependTarget;
+import com.imageworks.spcue.service.DependGraph;
+import com.imageworks.spcue.service.DependManager;
+import com.imageworks.spcue.service.JobLauncher;
+import com.imageworks.spcue.service.JobManager;
+import com.imageworks.spcue.test.TransactionalTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+@ContextConfiguration
+public class DependGraphTests extends TransactionalTest {
+
+    @Resource
+    DependDao dependDao;
+
+    @Resource
+    DependManager dependManager;
+
+    @Resource
+    FrameDao frameDao;
+
+    @Resource
+    JobManager jobManager;
+
+    @Resource
+    JobLauncher jobLauncher;
+
+    DependGraph dependGraph;
+
+    @Before
+    public void launchTestJobs() {
+        jobLauncher.testMode = true;
+        jobLauncher.launch(new File("src/test/resources/conf/jobspec/jobspec_depend_test.xml"));
+
+        dependGraph = new DependGraph(true, 10000);
+        dependGraph.setDependDao(dependDao);
+    }
+
+    private FrameOnFrame createDepend() {
+        JobDetail job_a = jobManager.findJobDetail("pipe-dev.cue-testuser_depend_test_a");
+        JobDetail job_b = jobManager.findJobDetail("pipe-dev.cue-testuser_depend_test_b");
+
+        FrameDetail frame_a = frameDao.findFrameDetail(job_a, "0001-pass_1");
+        FrameDetail frame_b = frameDao.findFrameDetail(job_b, "0001-pass_1");
+
+        FrameOnFrame depend = new FrameOnFrame(frame_a, frame_b);
+        dependManager.createDepend(depend);
+        return depend;
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testGetWhatDependsOn() {
+        FrameOnFrame depend = createDepend();
+        FrameInterface frame_a = depend.getDependErFrame();
+        FrameInterface frame_b = depend.getDependOnFrame();
+
+        List<LightweightDependency> depends = dependGraph.getWhatDependsOn(frame_b, true);
+        assertEquals(1, depends.size());
+        assertEquals(depend.getId(), depends.get(0).getId());
+        assertEquals(dependDao.getWhatDependsOn(frame_b).size(), depends.size());
+        assertEquals(0, dependGraph.getWhatDependsOn(frame_b, false).size());
+        assertEquals(0, dependGraph.getWhatDependsOn(frame_a, true).size());
+
+        depends = dependGraph.getWhatThisDependsOn(frame_a, DependTarget.ANY_TARGET);
+        assertEquals(1, depends.size());
+        assertEquals(depend.getId(), depends.get(0).getId());
+        assertEquals(1, dependGraph.getWhatThisDependsOn(
+                frame_a, DependTarget.EXTERNAL).size());
+        assertEquals(0, dependGraph.getWhatThisDependsOn(
+                frame_a, DependTarget.INTERNAL).size());
+
+        assertEquals(2, dependGraph.getLoadCount());
+        assertEquals(2, dependGraph.getJobCount());
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testSatisfied() {
+        FrameOnFrame depend = createDepend();
+        FrameInterface frame_b = depend.getDependOnFrame();
+
+        List<LightweightDependency> depends = dependGraph.getWhatDependsOn(frame_b, true);
+        assertEquals(1, depends.size());
+        assertEquals(1, dependGraph.getWhatThisDependsOn(
+                depend.getDependErFrame(), DependTarget.ANY_TARGET).size());
+
+        /*
+         * Changing the returned copy does not change the graph.
+         */
+        depends.get(0).active = false;
+        assertEquals(1, dependGraph.getWhatDependsOn(frame_b, true).size());
+
+        dependGraph.satisfied(depends);
+        assertEquals(0, dependGraph.getWhatDependsOn(frame_b, true).size());
+        assertEquals(1, dependGraph.getWhatDependsOn(frame_b, false).size());
+        assertEquals(0, dependGraph.getWhatThisDependsOn(
+                depend.getDependErFrame(), DependTarget.ANY_TARGET).size());
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testRemoveAndInvalidate() {
+        FrameOnFrame depend = createDepend();
+        FrameInterface frame_b = depend.getDependOnFrame();
+
+        assertEquals(1, dependGraph.getWhatDependsOn(frame_b, true).size());
+        dependGraph.remove(dependDao.getDepend(depend.getId()));
+        assertEquals(0, dependGraph.getWhatDependsOn(frame_b, true).size());
+
+        assertEquals(1, dependGraph.getJobCount());
+        dependGraph.invalidate(frame_b);
+        assertEquals(0, dependGraph.getJobCount());
+        assertFalse(dependGraph.isTracked(depend.getDependErFrame().getJobId(),
+                frame_b.getJobId()));
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testDisabled() {
+        FrameOnFrame depend = createDepend();
+        DependGraph disabled = new DependGraph(false, 10000);
+        disabled.setDependDao(dependDao);
+
+        assertNull(disabled.getWhatDependsOn(depend.getDependOnFrame(), true));
+        assertNull(disabled.getWhatThisDependsOn(
+                depend.getDependErFrame(), DependTarget.ANY_TARGET));
+        assertEquals(0, disabled.getJobCount());
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testExpired() throws InterruptedException {
+        FrameOnFrame depend = createDepend();
+        DependGraph expiring = new DependGraph(true, 0);
+        expiring.setDependDao(dependDao);
+
+        assertEquals(1, expiring.getWhatDependsOn(depend.getDependOnFrame(), true).size());
+        assertEquals(1, expiring.getLoadCount());
+
+        Thread.sleep(5);
+        assertEquals(1, expiring.getWhatDependsOn(depend.getDependOnFrame(), true).size());
+        assertEquals(2, expiring.getLoadCount());
+
+        Thread.sleep(5);
+        assertEquals(1, expiring.evictExpired());
+        assertEquals(0, expiring.getJobCount());
+    }
+
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testDroppedOnRollback() {
+        FrameOnFrame depend = createDepend();
+
+        /*
+         * The graphs are loaded in this test's transaction, which
+         * includes the uncommitted depend, so they are dropped if the
+         * transaction doesn't commit.
+         */
+        assertEquals(1, dependGraph.getWhatDependsOn(depend.getDependOnFrame(), true).size());
+        assertEquals(2, dependGraph.getJobCount());
+
+        for (TransactionSynchronization sync:
+                TransactionSynchronizationManager.getSynchronizations()) {
+            if (sync.getClass().getEnclosingClass() == DependGraph.class) {
+                sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+            }
+        }
+        assertEquals(0, dependGraph.getJobCount());
+    }
+}
@@ -20,6 +20,8 @@
 package com.imageworks.spcue.test.service;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import javax.annotation.Resource;
 
 import com.google.common.collect.ImmutableList;
@@ -472,6 +474,35 @@ public class DependManagerTests extends TransactionalTest {
         assertEquals(0, getTotalDependCount(layer_a));
     }
 
+    @Test
+    @Transactional
+    @Rollback(true)
+    public void testSatisfyWhatDependsOnFramesAndLayers() {
+
+        JobDetail job_a = getJobA();
+        JobDetail job_b = getJobB();
+        LayerInterface layer_a = layerDao.findLayer(job_a, "pass_1");
+        LayerInterface layer_b = layerDao.findLayer(job_b, "pass_1");
+
+        dependManager.createDepend(new FrameByFrame(layer_a, layer_b));
+        dependManager.createDepend(new JobOnLayer(job_a, layer_b));
+
+        assertEquals(20, getTotalDependCount(layer_a));
+        assertEquals(30, getTotalDependCount(job_a));
+
+        List<FrameInterface> frames = new ArrayList<FrameInterface>(
+                frameDao.getFrameDetails(layer_b));
+        assertEquals(11, dependManager.satisfyWhatDependsOn(
+                frames, ImmutableList.of(layer_b)));
+
+        assertFalse(hasDependFrames(job_a));
+        assertEquals(0, getTotalDependCount(job_a));
+
+        // Nothing left to satisfy.
+        assertEquals(0, dependManager.satisfyWhatDependsOn(
+                frames, ImmutableList.of(layer_b)));
+    }
+
     @Test
     @Transactional
     @Rollback(true)
@@ -0,0 +1,188 @@
+
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.test.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.BuildableJob;
+import com.imageworks.spcue.JobDetail;
+import com.imageworks.spcue.JobLaunchException;
+import com.imageworks.spcue.ShowEntity;
+import com.imageworks.spcue.service.AdminManagerService;
+import com.imageworks.spcue.service.EmailSupport;
+import com.imageworks.spcue.service.JobLauncher;
+import com.imageworks.spcue.service.JobManagerService;
+import com.imageworks.spcue.service.JobSpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JobLauncherTests {
+
+    private static final String JOB_NAME = "pipe-dev.cue-testuser_shell_v1";
+
+    /**
+     * Creates jobs in memory, with a window between the pending job
+     * check and the insert where a concurrent launch could get in.
+     */
+    private static class FakeJobManager extends JobManagerService {
+
+        final Set<String> pending = ConcurrentHashMap.newKeySet();
+        final AtomicInteger inFlight = new AtomicInteger(0);
+        final AtomicInteger maxInFlight = new AtomicInteger(0);
+
+        @Override
+        public boolean isJobPending(String name) {
+            return pending.contains(name);
+        }
+
+        @Override
+        public void launchJobSpec(JobSpec spec) {
+            int running = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(running, Math::max);
+            try {
+                for (BuildableJob job: spec.getJobs()) {
+                    if (pending.contains(job.detail.name)) {
+                        throw new JobLaunchException(
+                                "error launching job, active job already exists: " +
+                                job.detail.name);
+                    }
+                    Thread.sleep(50);
+                    pending.add(job.detail.name);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private static class FakeAdminManager extends AdminManagerService {
+        @Override
+        public ShowEntity findShowEntity(String name) {
+            ShowEntity show = new ShowEntity();
+            show.active = true;
+            return show;
+        }
+    }
+
+    private static class FakeEmailSupport extends EmailSupport {
+        final List<Throwable> errors = new ArrayList<Throwable>();
+
+        @Override
+        public synchronized void reportLaunchError(JobSpec spec, Throwable t) {
+            errors.add(t);
+        }
+    }
+
+    private FakeJobManager jobManager;
+    private FakeEmailSupport emailSupport;
+    private JobLauncher jobLauncher;
+
+    @Before
+    public void setUp() {
+        jobManager = new FakeJobManager();
+        emailSupport = new FakeEmailSupport();
+        jobLauncher = new JobLauncher();
+        jobLauncher.testMode = true;
+        jobLauncher.setJobManager(jobManager);
+        jobLauncher.setAdminManager(new FakeAdminManager());
+        jobLauncher.setEmailSupport(emailSupport);
+    }
+
+    private JobSpec getSpec(String name) {
+        JobDetail detail = new JobDetail();
+        detail.name = name;
+        JobSpec spec = new JobSpec();
+        spec.getJobs().add(new BuildableJob(detail));
+        return spec;
+    }
+
+    @Test
+    public void testConcurrentDuplicateLaunch() throws InterruptedException {
+        final int launches = 4;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(launches);
+        final AtomicInteger rejected = new AtomicInteger(0);
+
+        for (int i = 0; i < launches; i++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        jobLauncher.launch(getSpec(JOB_NAME));
+                    } catch (Exception e) {
+                        // Launches that see the job already pending are
+                        // rejected by verifyJobSpec.
+                        rejected.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        start.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(1, jobManager.maxInFlight.get());
+        assertEquals(1, jobManager.pending.size());
+        assertEquals(launches - 1, rejected.get() + emailSupport.errors.size());
+    }
+
+    @Test
+    public void testConcurrentLaunchOfDifferentJobs() throws InterruptedException {
+        final int launches = 4;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(launches);
+
+        for (int i = 0; i < launches; i++) {
+            final String name = JOB_NAME + i;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        jobLauncher.launch(getSpec(name));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        start.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(launches, jobManager.pending.size());
+        assertEquals(0, emailSupport.errors.size());
+    }
+}
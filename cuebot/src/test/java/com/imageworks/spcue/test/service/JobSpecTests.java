@@ -0,0 +1,177 @@
+
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.imageworks.spcue.test.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Resource;
+
+import org.junit.Test;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
+import org.springframework.test.context.support.AnnotationConfigContextLoader;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.imageworks.spcue.BuildableDependency;
+import com.imageworks.spcue.BuildableJob;
+import com.imageworks.spcue.BuildableLayer;
+import com.imageworks.spcue.SpecBuilderException;
+import com.imageworks.spcue.config.TestAppConfig;
+import com.imageworks.spcue.grpc.depend.DependType;
+import com.imageworks.spcue.grpc.job.LayerType;
+import com.imageworks.spcue.service.JobLauncher;
+import com.imageworks.spcue.service.JobSpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Transactional
+@ContextConfiguration(classes=TestAppConfig.class, loader=AnnotationConfigContextLoader.class)
+public class JobSpecTests extends AbstractTransactionalJUnit4SpringContextTests {
+
+    private static final String DTD = new File("src/test/resources/conf/dtd/cjsl-1.5.dtd")
+            .getAbsoluteFile().toURI().toString();
+
+    @Resource
+    JobLauncher jobLauncher;
+
+    private String spec(String layer) {
+        return "<?xml version=\"1.0\"?>" +
+                "<!DOCTYPE spec SYSTEM \"" + DTD + "\">" +
+                "<spec><show>pipe</show><shot>dev.cue</shot>" +
+                "<user>testuser</user><uid>9860</uid>" +
+                "<job name=\"pipe-dev.cue-testuser_shell_v1\"><layers>" +
+                layer +
+                "</layers></job></spec>";
+    }
+
+    @Test
+    public void testParseFile() {
+        JobSpec spec = jobLauncher.parse(
+                new File("src/test/resources/conf/jobspec/jobspec.xml"));
+
+        assertEquals("pipe", spec.getShow());
+        assertEquals("dev.cue", spec.getShot());
+        assertEquals("testuser", spec.getUser());
+        assertEquals(9860, spec.getUid());
+
+        assertEquals(1, spec.getJobs().size());
+        BuildableJob job = spec.getJobs().get(0);
+        assertEquals("pipe-dev.cue-testuser_shell_v1", job.detail.name);
+        assertTrue(job.detail.isPaused);
+        assertEquals(0, job.detail.maxRetries);
+        assertEquals("9000", job.env.get("VNP_VCR_SESSION"));
+
+        assertEquals(2, job.getBuildableLayers().size());
+        BuildableLayer first = job.getBuildableLayers().get(0);
+        assertEquals("pass_1_preprocess", first.layerDetail.name);
+        assertEquals(LayerType.UTIL, first.layerDetail.type);
+        assertEquals(1, first.layerDetail.dispatchOrder);
+        assertEquals("/shots/pipe/usr_testuser/logs/help.py", first.layerDetail.command);
+        assertEquals("9000", first.env.get("VNP_VCR_SESSION"));
+        assertEquals(1, first.layerDetail.services.size());
+        assertTrue(first.layerDetail.services.contains("shell"));
+
+        BuildableLayer second = job.getBuildableLayers().get(1);
+        assertEquals("pass_1", second.layerDetail.name);
+        assertEquals(2, second.layerDetail.dispatchOrder);
+        assertEquals("1-10", second.layerDetail.range);
+        assertEquals(1, second.layerDetail.chunkSize);
+        assertEquals(100, second.layerDetail.minimumCores);
+
+        assertEquals(1, spec.getDepends().size());
+        BuildableDependency depend = spec.getDepends().get(0);
+        assertEquals(DependType.LAYER_ON_LAYER, depend.type);
+        assertEquals("pass_1", depend.getDependErLayerName());
+        assertEquals("pass_1_preprocess", depend.getDependOnLayerName());
+
+        assertEquals("spec", spec.getDoc().getRootElement().getName());
+    }
+
+    @Test
+    public void testParseConcurrently() throws Exception {
+        final File file = new File("src/test/resources/conf/jobspec/jobspec.xml");
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<JobSpec>> results = new ArrayList<Future<JobSpec>>();
+            for (int i = 0; i < 32; i++) {
+                results.add(pool.submit(new Callable<JobSpec>() {
+                    public JobSpec call() {
+                        return jobLauncher.parse(file);
+                    }
+                }));
+            }
+            for (Future<JobSpec> result: results) {
+                JobSpec spec = result.get(30, TimeUnit.SECONDS);
+                assertEquals(2, spec.getJobs().get(0).getBuildableLayers().size());
+                assertEquals(1, spec.getDepends().size());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParseString() {
+        JobSpec spec = jobLauncher.parse(spec(
+                "<layer name=\"render\" type=\"RENDER\">" +
+                "<cmd>  echo hello  </cmd><range>1-5</range><chunk>2</chunk>" +
+                "</layer>"));
+
+        assertEquals(1, spec.getJobs().size());
+        BuildableLayer layer = spec.getJobs().get(0).getBuildableLayers().get(0);
+        assertEquals("render", layer.layerDetail.name);
+        assertEquals("echo hello", layer.layerDetail.command);
+        assertEquals(2, layer.layerDetail.chunkSize);
+        assertEquals(0, spec.getDepends().size());
+        assertEquals("spec", spec.getDoc().getRootElement().getName());
+    }
+
+    @Test
+    public void testParseInvalid() {
+        try {
+            // The range has to come before the chunk.
+            jobLauncher.parse(spec(
+                    "<layer name=\"render\" type=\"RENDER\">" +
+                    "<cmd>echo hello</cmd><chunk>2</chunk><range>1-5</range>" +
+                    "</layer>"));
+            fail("expected the spec to fail validation");
+        } catch (SpecBuilderException e) {
+            assertTrue(e.getMessage().startsWith("Failed to parse job spec XML"));
+        }
+    }
+
+    @Test(expected = SpecBuilderException.class)
+    public void testParseDuplicateLayer() {
+        jobLauncher.parse(spec(
+                "<layer name=\"render\" type=\"RENDER\">" +
+                "<cmd>echo hello</cmd><range>1-5</range><chunk>1</chunk>" +
+                "</layer>" +
+                "<layer name=\"render\" type=\"RENDER\">" +
+                "<cmd>echo hello</cmd><range>1-5</range><chunk>1</chunk>" +
+                "</layer>"));
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.test.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.FrameEntity;
+import com.imageworks.spcue.JobEntity;
+import com.imageworks.spcue.grpc.job.FrameState;
+import com.imageworks.spcue.grpc.job.JobState;
+import com.imageworks.spcue.grpc.job.UpdatedFrame;
+import com.imageworks.spcue.grpc.job.UpdatedFrameCheckResult;
+import com.imageworks.spcue.grpc.job.UpdatedFrameSeq;
+import com.imageworks.spcue.service.JobUpdateFeed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JobUpdateFeedTests {
+
+    private static final String JOB_ID = "job_id";
+
+    private static final class RecordingListener implements JobUpdateFeed.Listener {
+        final List<UpdatedFrameCheckResult> updates = new ArrayList<UpdatedFrameCheckResult>();
+        boolean closed = false;
+        boolean ready = true;
+
+        @Override
+        public void onUpdate(UpdatedFrameCheckResult update) {
+            updates.add(update);
+        }
+
+        @Override
+        public void onClose() {
+            closed = true;
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+    }
+
+    private final AtomicInteger loads = new AtomicInteger(0);
+    private JobState jobState = JobState.PENDING;
+    private final Map<String, String> resyncFrames = new HashMap<String, String>();
+    private final List<Integer> resyncSeconds = new ArrayList<Integer>();
+    private JobUpdateFeed feed;
+
+    @Before
+    public void setUp() {
+        feed = new JobUpdateFeed(2);
+        feed.setLoader((jobId, frameIds) -> {
+            loads.incrementAndGet();
+            UpdatedFrameSeq.Builder frames = UpdatedFrameSeq.newBuilder();
+            for (String frameId: frameIds) {
+                frames.addUpdatedFrames(UpdatedFrame.newBuilder()
+                        .setId(frameId)
+                        .setState(FrameState.SUCCEEDED));
+            }
+            return UpdatedFrameCheckResult.newBuilder()
+                    .setState(jobState)
+                    .setUpdatedFrames(frames)
+                    .build();
+        });
+        feed.setResyncLoader((jobId, seconds) -> {
+            resyncSeconds.add(seconds);
+            return new HashMap<String, String>(resyncFrames);
+        });
+    }
+
+    private FrameEntity frame(String frameId, String layerId) {
+        FrameEntity frame = new FrameEntity(frameId);
+        frame.jobId = JOB_ID;
+        frame.layerId = layerId;
+        return frame;
+    }
+
+    @Test
+    public void testFanOut() {
+        RecordingListener all = new RecordingListener();
+        RecordingListener filtered = new RecordingListener();
+        feed.subscribe(JOB_ID, Collections.<String>emptyList(), all);
+        feed.subscribe(JOB_ID, Collections.singletonList("layer_a"), filtered);
+
+        feed.flushChanges();
+        assertEquals(1, all.updates.size());
+        assertEquals(1, filtered.updates.size());
+        assertEquals(JobState.PENDING, all.updates.get(0).getState());
+
+        feed.frameChanged(frame("frame_1", "layer_a"));
+        feed.frameChanged(frame("frame_2", "layer_b"));
+        feed.frameChanged(frame("frame_2", "layer_b"));
+        feed.flushChanges();
+
+        assertEquals(2, loads.get());
+        assertEquals(2, all.updates.get(1).getUpdatedFrames().getUpdatedFramesCount());
+        assertEquals(1, filtered.updates.get(1).getUpdatedFrames().getUpdatedFramesCount());
+        assertEquals("frame_1",
+                filtered.updates.get(1).getUpdatedFrames().getUpdatedFrames(0).getId());
+
+        /*
+         * Nothing changed in the filtered layer, so the filtered
+         * subscriber isn't sent anything.
+         */
+        feed.frameChanged(frame("frame_3", "layer_b"));
+        feed.flushChanges();
+        assertEquals(3, all.updates.size());
+        assertEquals(2, filtered.updates.size());
+    }
+
+    @Test
+    public void testIgnoreUnsubscribedJobs() {
+        feed.frameChanged(frame("frame_1", "layer_a"));
+        feed.flushChanges();
+        assertEquals(0, loads.get());
+        assertEquals(0, feed.getEventCount());
+    }
+
+    @Test
+    public void testJobFinished() {
+        RecordingListener listener = new RecordingListener();
+        feed.subscribe(JOB_ID, Collections.<String>emptyList(), listener);
+        feed.flushChanges();
+
+        jobState = JobState.FINISHED;
+        feed.jobChanged(new JobEntity(JOB_ID));
+        feed.flushChanges();
+
+        assertEquals(JobState.FINISHED, listener.updates.get(1).getState());
+        assertTrue(listener.closed);
+        assertEquals(0, feed.getSubscriptionCount());
+    }
+
+    @Test
+    public void testDropFailedListener() {
+        feed.subscribe(JOB_ID, Collections.<String>emptyList(), new JobUpdateFeed.Listener() {
+            @Override
+            public void onUpdate(UpdatedFrameCheckResult update) {
+                throw new IllegalStateException("stream closed");
+            }
+
+            @Override
+            public void onClose() {
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+        });
+        assertEquals(1, feed.getSubscriptionCount());
+        feed.flushChanges();
+        assertEquals(0, feed.getSubscriptionCount());
+    }
+
+    @Test
+    public void testResync() {
+        RecordingListener all = new RecordingListener();
+        RecordingListener filtered = new RecordingListener();
+        feed.subscribe(JOB_ID, Collections.<String>emptyList(), all);
+        feed.subscribe(JOB_ID, Collections.singletonList("layer_a"), filtered);
+        feed.flushChanges();
+
+        /*
+         * Nothing was updated, so only the job state is read and
+         * nothing is sent.
+         */
+        feed.resync();
+        feed.flushChanges();
+        assertEquals(1, resyncSeconds.size());
+        assertTrue(resyncSeconds.get(0) > 0);
+        assertEquals(1, all.updates.size());
+
+        resyncFrames.put("frame_1", "layer_a");
+        resyncFrames.put("frame_2", "layer_b");
+        feed.resync();
+        feed.flushChanges();
+        assertEquals(2, all.updates.get(1).getUpdatedFrames().getUpdatedFramesCount());
+        assertEquals(1, filtered.updates.get(1).getUpdatedFrames().getUpdatedFramesCount());
+    }
+
+    @Test
+    public void testResyncClosesJobFinishedElsewhere() {
+        RecordingListener listener = new RecordingListener();
+        feed.subscribe(JOB_ID, Collections.<String>emptyList(), listener);
+        feed.flushChanges();
+
+        jobState = JobState.FINISHED;
+        feed.resync();
+        feed.flushChanges();
+
+        assertEquals(JobState.FINISHED, listener.updates.get(1).getState());
+        assertTrue(listener.closed);
+        assertEquals(0, feed.getSubscriptionCount());
+    }
+
+    @Test
+    public void testFramesChanged() {
+        RecordingListener listener = new RecordingListener();
+        feed.subscribe(JOB_ID, Collections.<String>emptyList(), listener);
+        feed.flushChanges();
+
+        resyncFrames.put("frame_1", "layer_a");
+        feed.framesChanged(JOB_ID);
+        feed.flushChanges();
+        assertEquals(1, resyncSeconds.size());
+        assertEquals("frame_1",
+                listener.updates.get(1).getUpdatedFrames().getUpdatedFrames(0).getId());
+    }
+
+    @Test
+    public void testMergeWhileNotReady() {
+        RecordingListener listener = new RecordingListener();
+        feed.subscribe(JOB_ID, Collections.<String>emptyList(), listener);
+        feed.flushChanges();
+        assertEquals(1, listener.updates.size());
+
+        listener.ready = false;
+        feed.frameChanged(frame("frame_1", "layer_a"));
+        feed.flushChanges();
+        feed.frameChanged(frame("frame_1", "layer_a"));
+        feed.frameChanged(frame("frame_2", "layer_a"));
+        feed.flushChanges();
+        assertEquals(1, listener.updates.size());
+        assertEquals(2, feed.getUpdatesMerged());
+
+        /*
+         * Once ready, the merged update is sent on the next flush even
+         * though nothing else changed.
+         */
+        listener.ready = true;
+        feed.flushChanges();
+        assertEquals(2, listener.updates.size());
+        assertEquals(2, listener.updates.get(1).getUpdatedFrames().getUpdatedFramesCount());
+
+        feed.flushChanges();
+        assertEquals(2, listener.updates.size());
+        assertFalse(listener.closed);
+    }
+
+    @Test
+    public void testFinishedSentWhileNotReady() {
+        RecordingListener listener = new RecordingListener();
+        feed.subscribe(JOB_ID, Collections.<String>emptyList(), listener);
+        feed.flushChanges();
+
+        listener.ready = false;
+        feed.frameChanged(frame("frame_1", "layer_a"));
+        feed.flushChanges();
+
+        jobState = JobState.FINISHED;
+        feed.jobChanged(new JobEntity(JOB_ID));
+        feed.flushChanges();
+
+        assertEquals(2, listener.updates.size());
+        assertEquals(JobState.FINISHED, listener.updates.get(1).getState());
+        assertEquals(1, listener.updates.get(1).getUpdatedFrames().getUpdatedFramesCount());
+        assertTrue(listener.closed);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMaxSubscriptions() {
+        for (int i = 0; i < 3; i++) {
+            feed.subscribe(JOB_ID, Collections.<String>emptyList(), new RecordingListener());
+        }
+    }
+}
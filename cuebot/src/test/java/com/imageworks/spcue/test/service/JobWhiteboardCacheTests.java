@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.imageworks.spcue.test.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.imageworks.spcue.grpc.job.NestedGroup;
+import com.imageworks.spcue.service.JobWhiteboardCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JobWhiteboardCacheTests {
+
+    private final AtomicInteger loads = new AtomicInteger(0);
+    private JobWhiteboardCache cache;
+
+    private JobWhiteboardCache createCache(long minRefreshMillis) {
+        JobWhiteboardCache c = new JobWhiteboardCache(minRefreshMillis, 60000, 120000, 1048576);
+        c.setLoader(showId -> {
+            loads.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return NestedGroup.newBuilder()
+                    .setId(showId)
+                    .setName("load_" + loads.get())
+                    .build();
+        });
+        return c;
+    }
+
+    private void waitForLoads(int count) throws InterruptedException {
+        long waitStart = System.currentTimeMillis();
+        while (loads.get() < count && System.currentTimeMillis() - waitStart < 5000) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        cache = createCache(0);
+    }
+
+    @After
+    public void tearDown() {
+        cache.shutdown();
+    }
+
+    @Test
+    public void testSingleFlightLoad() throws InterruptedException {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread(() -> cache.getJobWhiteboard("show"));
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t: threads) {
+            t.join();
+        }
+        assertEquals(1, loads.get());
+        assertEquals("show", cache.getJobWhiteboard("show").getId());
+        assertEquals(1, cache.getLoadCount());
+        assertEquals(1, cache.getSize());
+        assertTrue(cache.getSizeBytes() > 0);
+    }
+
+    @Test
+    public void testRefreshOnChange() throws InterruptedException {
+        cache.getJobWhiteboard("show");
+        cache.showChanged("show");
+        cache.showChanged("show");
+        cache.showChanged("other_show");
+        cache.flushChanges();
+
+        waitForLoads(2);
+        assertEquals(2, loads.get());
+        assertEquals(3, cache.getEventCount());
+        assertEquals(1, cache.getEventRefreshCount());
+
+        long waitStart = System.currentTimeMillis();
+        while (!"load_2".equals(cache.getJobWhiteboard("show").getName())
+                && System.currentTimeMillis() - waitStart < 5000) {
+            Thread.sleep(10);
+        }
+        assertEquals("load_2", cache.getJobWhiteboard("show").getName());
+    }
+
+    @Test
+    public void testDropUnread() throws InterruptedException {
+        cache.getJobWhiteboard("show");
+        cache.showChanged("show");
+        cache.flushChanges();
+        waitForLoads(2);
+        Thread.sleep(50);
+
+        /*
+         * Nobody read the reloaded whiteboard, so the next change drops
+         * it rather than loading it again.
+         */
+        cache.showChanged("show");
+        cache.flushChanges();
+        assertEquals(0, cache.getSize());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testMinRefresh() throws InterruptedException {
+        cache.shutdown();
+        cache = createCache(60000);
+
+        cache.getJobWhiteboard("show");
+        cache.showChanged("show");
+        cache.flushChanges();
+        cache.flushChanges();
+        Thread.sleep(100);
+
+        assertEquals(1, loads.get());
+        assertEquals(0, cache.getEventRefreshCount());
+    }
+}
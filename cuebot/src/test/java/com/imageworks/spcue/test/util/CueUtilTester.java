@@ -19,6 +19,7 @@
 
 package com.imageworks.spcue.test.util;
 
+import java.util.Arrays;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -165,5 +166,42 @@ public class CueUtilTester extends TestCase {
         assertEquals(1.0f, cores);
 
     }
-}
 
+    @Test
+    public void testFindChunkBinarySearch() {
+        int[] dependOnFrames = CueUtil.normalizeFrames("101-160", 10);
+        assertTrue(CueUtil.isAscending(dependOnFrames));
+
+        assertEquals(101, CueUtil.findChunk(dependOnFrames, 101));
+        assertEquals(101, CueUtil.findChunk(dependOnFrames, 110));
+        assertEquals(111, CueUtil.findChunk(dependOnFrames, 111));
+        assertEquals(151, CueUtil.findChunk(dependOnFrames, 200));
+
+        try {
+            CueUtil.findChunk(dependOnFrames, 100);
+            fail("expected frame 100 to not be in any chunk");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNormalizeFrames() {
+        assertTrue(Arrays.equals(new int[] { 1, 3, 5, 7, 9, 2, 4, 6, 8, 10 },
+                CueUtil.normalizeFrames("1-10x2,1-10", 1)));
+        assertTrue(Arrays.equals(new int[] { 1, 9, 8 },
+                CueUtil.normalizeFrames("1-10x2,1-10", 4)));
+        assertTrue(Arrays.equals(new int[] { 1 },
+                CueUtil.normalizeFrames("1-10", 100)));
+
+        // Frames too far apart to dedupe with a BitSet.
+        assertTrue(Arrays.equals(new int[] { 1000000000, 1, 500 },
+                CueUtil.normalizeFrames("1000000000,1,1000000000,500,1", 1)));
+        assertFalse(CueUtil.isAscending(
+                CueUtil.normalizeFrames("1000000000,1,1000000000,500,1", 1)));
+
+        List<Integer> frames = CueUtil.normalizeFrameRange("1-1000000", 10);
+        assertEquals(100000, frames.size());
+        assertEquals(999991, (int) frames.get(99999));
+    }
+}
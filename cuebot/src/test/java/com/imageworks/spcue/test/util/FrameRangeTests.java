@@ -189,4 +189,29 @@ public class FrameRangeTests {
         assertEquals(5, result.index(6));
         assertEquals(-1, result.index(22));
     }
+
+    @Test
+    public void testIndexSteppedRanges() {
+        FrameRange result = new FrameRange("5-12y3");
+
+        assertThat(result.getAll()).containsExactly(6, 7, 9, 10, 12);
+        assertEquals(0, result.index(6));
+        assertEquals(4, result.index(12));
+        assertEquals(-1, result.index(8));
+        assertEquals(-1, result.index(13));
+
+        result = new FrameRange("76-70x-3");
+        assertEquals(1, result.index(73));
+        assertEquals(-1, result.index(74));
+        assertEquals(-1, result.index(67));
+    }
+
+    @Test
+    public void testIndexInterleave() {
+        FrameRange result = new FrameRange("1-10:5");
+
+        assertEquals(2, result.index(2));
+        assertEquals(9, result.index(9));
+        assertEquals(-1, result.index(11));
+    }
 }
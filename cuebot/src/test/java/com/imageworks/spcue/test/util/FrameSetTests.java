@@ -1,10 +1,14 @@
 package com.imageworks.spcue.test.util;
 
+import java.util.PrimitiveIterator;
+
 import com.imageworks.spcue.util.FrameSet;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class FrameSetTests {
     @Test
@@ -77,4 +81,70 @@ public class FrameSetTests {
 
         assertEquals("10-12", result.getChunk(9, 3));
     }
+
+    @Test
+    public void testFramesToFrameRangesLastChunk() {
+        FrameSet result = new FrameSet("1-10");
+
+        assertEquals("9-10", result.getChunk(8, 4));
+        assertEquals("10", result.getChunk(9, 3));
+    }
+
+    @Test
+    public void testGetAndIndexMultipleSegments() {
+        FrameSet result = new FrameSet("57,1-3,4-2,12-15x2,76-70x-3,5-12y3,1-7:5");
+        int[] frames = {
+            57, 1, 2, 3, 4, 3, 2, 12, 14, 76, 73, 70, 6, 7, 9, 10, 12, 1, 6, 2, 4, 3, 5, 7};
+
+        assertEquals(frames.length, result.size());
+        for (int i = 0; i < frames.length; i++) {
+            assertEquals(frames[i], result.get(i));
+        }
+        assertEquals(0, result.index(57));
+        assertEquals(1, result.index(1));
+        assertEquals(3, result.index(3));
+        assertEquals(10, result.index(73));
+        assertEquals(14, result.index(9));
+        assertEquals(22, result.index(5));
+        assertEquals(-1, result.index(8));
+    }
+
+    @Test
+    public void testLargeRange() {
+        FrameSet result = new FrameSet("1-1000000");
+
+        assertEquals(1000000, result.size());
+        assertEquals(500000, result.get(499999));
+        assertEquals(499999, result.index(500000));
+        assertEquals("500000-500009", result.getChunk(499999, 10));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfRange() {
+        new FrameSet("1-7").get(7);
+    }
+
+    @Test
+    public void testContainsAndToArray() {
+        FrameSet result = new FrameSet("1-10x2,11-100x20,103-108");
+
+        assertThat(result.toArray()).containsExactly(
+            1, 3, 5, 7, 9, 11, 31, 51, 71, 91, 103, 104, 105, 106, 107, 108);
+        assertTrue(result.contains(51));
+        assertTrue(result.contains(108));
+        assertFalse(result.contains(2));
+        assertFalse(result.contains(109));
+    }
+
+    @Test
+    public void testIterator() {
+        FrameSet result = new FrameSet("57,1-3,10-1y-5,1-7:5");
+        PrimitiveIterator.OfInt frames = result.iterator();
+
+        for (int frame : result.getAll()) {
+            assertTrue(frames.hasNext());
+            assertEquals(frame, frames.nextInt());
+        }
+        assertFalse(frames.hasNext());
+    }
 }
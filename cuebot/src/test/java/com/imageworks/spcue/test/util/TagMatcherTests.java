@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2018 Sony Pictures Imageworks Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.imageworks.spcue.test.util;
+
+import org.junit.Test;
+
+import com.imageworks.spcue.util.TagMatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TagMatcherTests {
+
+    @Test
+    public void testIntern() {
+        TagMatcher matcher = new TagMatcher();
+        int general = matcher.intern("general");
+
+        assertEquals(general, matcher.intern("general"));
+        assertEquals(general, matcher.intern("GENERAL"));
+        assertTrue(general != matcher.intern("desktop"));
+        assertEquals(2, matcher.size());
+    }
+
+    @Test
+    public void testGetTagBits() {
+        TagMatcher matcher = new TagMatcher();
+
+        assertEquals(3, matcher.getTagBits("general linux 64bit").cardinality());
+        assertEquals(2, matcher.getTagBits("general | desktop").cardinality());
+        assertEquals(0, matcher.getTagBits("").cardinality());
+        assertEquals(0, matcher.getTagBits(null).cardinality());
+        assertSame(matcher.getTagBits("general | desktop"),
+                matcher.getTagBits("general | desktop"));
+    }
+
+    @Test
+    public void testMatches() {
+        TagMatcher matcher = new TagMatcher();
+
+        assertTrue(matcher.matches("general linux 64bit", "general"));
+        assertTrue(matcher.matches("desktop linux", "general | desktop"));
+        assertTrue(matcher.matches("General linux", "general|desktop"));
+        assertFalse(matcher.matches("massive linux 64bit", "general | desktop"));
+        assertFalse(matcher.matches("general linux", ""));
+        assertFalse(matcher.matches(null, "general"));
+    }
+}
@@ -156,6 +156,19 @@ class Job(object):
         frameSeq = response.frames
         return [opencue.wrappers.frame.Frame(frm) for frm in frameSeq.frames]
 
+    def streamFrames(self, **options):
+        """Returns an iterator over every frame in the job that matches the
+        search, read in batches from the server. Unlike getFrames there is
+        no 1000 frame limit, offset and limit are ignored.
+        Allowed: states+, layers+. frameset, changedate
+        @rtype:  iterator<Frame>
+        @return: Iterator of frames"""
+        criteria = opencue.search.FrameSearch.criteriaFromOptions(**options)
+        for response in self.stub.StreamFrames(
+                job_pb2.JobStreamFramesRequest(job=self.data, req=criteria)):
+            for frm in response.frames.frames:
+                yield opencue.wrappers.frame.Frame(frm)
+
     def getUpdatedFrames(self, lastCheck, layers=None):
         """Returns a list of updated state information for frames that have
         changed since the last update time as well as the current state of the
@@ -181,6 +194,24 @@ class Job(object):
                                                layer_filter=layerSeq),
             timeout=Cuebot.Timeout)
 
+    def subscribeUpdates(self, layers=None):
+        """Returns an iterator over updates to the job as they happen. The
+        first update carries the current job state, later updates carry the
+        job state and the frames that changed since the previous update. If
+        layer proxies are provided in the layers list, only frames from those
+        layers will be returned. The iterator ends once the job is finished.
+        @type  layers: list<job_pb2.Layer>
+        @param layers: List of layers to watch, empty list watches all
+        @rtype:  iterator<job_pb2.JobSubscribeUpdatesResponse>
+        @return: Job state and a list of updatedFrames for each update"""
+        if layers is not None:
+            layerSeq = job_pb2.LayerSeq()
+            layerSeq.layers.extend(layers)
+        else:
+            layerSeq = None
+        return self.stub.SubscribeUpdates(
+            job_pb2.JobSubscribeUpdatesRequest(job=self.data, layer_filter=layerSeq))
+
     def setAutoEating(self, value):
         """If set to true, any frames that would become dead, will become eaten
         @type  value: bool
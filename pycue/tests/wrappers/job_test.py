@@ -230,6 +230,27 @@ class JobTests(unittest.TestCase):
         self.assertTrue(frames[0].name(), frameNames[0])
         self.assertTrue(frames[1].name(), frameNames[1])
 
+    def testStreamFrames(self, getStubMock):
+        frameNames = ['testFrameA', 'testFrameB', 'testFrameC']
+        stubMock = mock.Mock()
+        stubMock.StreamFrames.return_value = iter([
+            job_pb2.JobStreamFramesResponse(
+                frames=job_pb2.FrameSeq(frames=[job_pb2.Frame(name=frameNames[0]),
+                                                job_pb2.Frame(name=frameNames[1])])),
+            job_pb2.JobStreamFramesResponse(
+                frames=job_pb2.FrameSeq(frames=[job_pb2.Frame(name=frameNames[2])]))])
+        getStubMock.return_value = stubMock
+
+        frameRange = '1-10'
+        criteria = opencue.search.FrameSearch.criteriaFromOptions(range=frameRange)
+        job = opencue.wrappers.job.Job(
+            job_pb2.Job(name=TEST_JOB_NAME))
+        frames = list(job.streamFrames(range=frameRange))
+
+        stubMock.StreamFrames.assert_called_with(
+            job_pb2.JobStreamFramesRequest(job=job.data, req=criteria))
+        self.assertEqual([frame.name() for frame in frames], frameNames)
+
     def testGetUpdatedFrames(self, getStubMock):
         stubMock = mock.Mock()
         stubMock.GetUpdatedFrames.return_value = job_pb2.JobGetUpdatedFramesResponse(
@@ -251,6 +272,26 @@ class JobTests(unittest.TestCase):
         self.assertEqual(framesResponse.state, job_pb2.FINISHED)
         self.assertEqual(len(framesResponse.updated_frames.updated_frames), 1)
 
+    def testSubscribeUpdates(self, getStubMock):
+        stubMock = mock.Mock()
+        stubMock.SubscribeUpdates.return_value = iter([
+            job_pb2.JobSubscribeUpdatesResponse(state=job_pb2.PENDING),
+            job_pb2.JobSubscribeUpdatesResponse(
+                state=job_pb2.FINISHED,
+                updated_frames=job_pb2.UpdatedFrameSeq(
+                    updated_frames=[job_pb2.UpdatedFrame(id='uuu-uuuu-uuu')]))])
+        getStubMock.return_value = stubMock
+
+        job = opencue.wrappers.job.Job(
+            job_pb2.Job(name=TEST_JOB_NAME))
+        updates = list(job.subscribeUpdates())
+
+        stubMock.SubscribeUpdates.assert_called_with(
+            job_pb2.JobSubscribeUpdatesRequest(job=job.data, layer_filter=None))
+        self.assertEqual(len(updates), 2)
+        self.assertEqual(updates[1].state, job_pb2.FINISHED)
+        self.assertEqual(len(updates[1].updated_frames.updated_frames), 1)
+
     def testSetAutoEating(self, getStubMock):
         stubMock = mock.Mock()
         stubMock.SetAutoEat.return_value = job_pb2.JobSetAutoEatResponse()